@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line, writing the results as
+ * JSON to jmh-result.json unless another result format is given, so runs
+ * can be compared by tools.
+ */
+public final class BenchmarkMain
+{
+    private BenchmarkMain()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<String> jmhArgs = new ArrayList<>();
+        List<String> given = Arrays.asList(args);
+        if (!given.contains("-rf"))
+        {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+            if (!given.contains("-rff"))
+            {
+                jmhArgs.add("-rff");
+                jmhArgs.add("jmh-result.json");
+            }
+        }
+        jmhArgs.addAll(given);
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Creates frameworks and bundles for the benchmarks, so they run without
+ * any bundles other than the ones they create themselves.
+ */
+final class BenchmarkSupport
+{
+    private BenchmarkSupport()
+    {
+    }
+
+    static File createTempDir(String prefix) throws IOException
+    {
+        File dir = File.createTempFile(prefix, ".dir");
+        dir.delete();
+        if (!dir.mkdirs())
+        {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    static Felix startFramework(File storage) throws BundleException
+    {
+        Map<String, Object> config = new HashMap<>();
+        config.put(Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+        config.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+            Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        Felix felix = new Felix(config);
+        felix.start();
+        return felix;
+    }
+
+    static void stopFramework(Felix felix, File storage) throws Exception
+    {
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+        delete(storage);
+    }
+
+    /**
+     * Writes a bundle with the given manifest headers and entries.
+     */
+    static File createBundle(File dir, String bsn, Map<String, String> headers,
+        Map<String, byte[]> entries) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        Attributes attrs = manifest.getMainAttributes();
+        attrs.putValue("Manifest-Version", "1.0");
+        attrs.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attrs.putValue(Constants.BUNDLE_SYMBOLICNAME, bsn);
+        for (Map.Entry<String, String> header : headers.entrySet())
+        {
+            attrs.putValue(header.getKey(), header.getValue());
+        }
+        File file = new File(dir, bsn + ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest);
+        try
+        {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the class file of an empty public class with the given
+     * binary name, which is enough to define and load the class.
+     */
+    static byte[] createClass(String name) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        // Constant pool: this class and java.lang.Object as super class.
+        out.writeShort(5);
+        out.writeByte(7);
+        out.writeShort(2);
+        out.writeByte(1);
+        out.writeUTF(name.replace('.', '/'));
+        out.writeByte(7);
+        out.writeShort(4);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        // ACC_PUBLIC | ACC_SUPER, this class, super class
+        out.writeShort(0x0021);
+        out.writeShort(1);
+        out.writeShort(3);
+        // No interfaces, fields, methods and attributes.
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+
+/**
+ * Measures matching package requirements against a capability set holding
+ * the given number of package capabilities, each package being exported in
+ * ten versions, by package name alone, by package name and version range
+ * and by an attribute that is not indexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapabilitySetBenchmark
+{
+    @Param({ "1000", "10000", "100000" })
+    public int m_size;
+
+    private CapabilitySet m_capSet;
+    private SimpleFilter m_nameFilter;
+    private SimpleFilter m_rangeFilter;
+    private SimpleFilter m_unindexedFilter;
+
+    @Setup
+    public void setup()
+    {
+        m_capSet = new CapabilitySet(
+            Collections.singletonList(PackageNamespace.PACKAGE_NAMESPACE),
+            Collections.singletonList(new String[] {
+                PackageNamespace.PACKAGE_NAMESPACE,
+                PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE }),
+            true);
+        for (int i = 0; i < m_size; i++)
+        {
+            Map<String, Object> attrs = new HashMap<>();
+            attrs.put(PackageNamespace.PACKAGE_NAMESPACE, "org.example.p" + (i / 10));
+            attrs.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, new Version(1, i % 10, 0));
+            attrs.put("vendor", "vendor" + (i % 7));
+            m_capSet.addCapability(new BundleCapabilityImpl(null,
+                PackageNamespace.PACKAGE_NAMESPACE,
+                Collections.<String, String>emptyMap(), attrs));
+        }
+        String pkg = "org.example.p" + (m_size / 20);
+        m_nameFilter = SimpleFilter.parse("(osgi.wiring.package=" + pkg + ")");
+        m_rangeFilter = SimpleFilter.parse("(&(osgi.wiring.package=" + pkg
+            + ")(version>=1.3.0)(!(version>=1.6.0)))");
+        m_unindexedFilter = SimpleFilter.parse("(vendor=vendor3)");
+    }
+
+    @Benchmark
+    public Object matchName()
+    {
+        return m_capSet.match(m_nameFilter, true);
+    }
+
+    @Benchmark
+    public Object matchNameAndVersionRange()
+    {
+        return m_capSet.match(m_rangeFilter, true);
+    }
+
+    @Benchmark
+    public Object matchUnindexed()
+    {
+        return m_capSet.match(m_unindexedFilter, true);
+    }
+}
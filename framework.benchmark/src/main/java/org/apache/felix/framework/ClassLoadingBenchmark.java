@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures loading classes through bundle class loaders: classes that are
+ * already defined by the bundle itself, by an imported package and by the
+ * boot class path, as well as defining all classes of a freshly installed
+ * bundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoadingBenchmark
+{
+    private static final String PACKAGE = "org.example.classes";
+    private static final int CLASSES = 500;
+
+    private File m_storage;
+    private Felix m_felix;
+    private Bundle m_provider;
+    private Bundle m_consumer;
+    private int m_installed;
+    private int m_next;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        m_storage = BenchmarkSupport.createTempDir("felix-benchmark");
+        m_felix = BenchmarkSupport.startFramework(m_storage);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put(Constants.EXPORT_PACKAGE, PACKAGE);
+        m_provider = install("provider", headers, classes(PACKAGE));
+
+        headers = new HashMap<>();
+        headers.put(Constants.IMPORT_PACKAGE, PACKAGE);
+        m_consumer = install("consumer", headers, Collections.<String, byte[]>emptyMap());
+
+        // Define all classes once, so the benchmarks below measure lookups.
+        for (int i = 0; i < CLASSES; i++)
+        {
+            m_consumer.loadClass(PACKAGE + ".C" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        BenchmarkSupport.stopFramework(m_felix, m_storage);
+    }
+
+    private Bundle install(String bsn, Map<String, String> headers,
+        Map<String, byte[]> entries) throws Exception
+    {
+        File file = BenchmarkSupport.createBundle(m_storage, bsn, headers, entries);
+        Bundle bundle = m_felix.getBundleContext().installBundle(file.toURI().toString());
+        bundle.start();
+        return bundle;
+    }
+
+    private static Map<String, byte[]> classes(String pkg) throws Exception
+    {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < CLASSES; i++)
+        {
+            String name = pkg + ".C" + i;
+            entries.put(name.replace('.', '/') + ".class", BenchmarkSupport.createClass(name));
+        }
+        return entries;
+    }
+
+    private String nextClass()
+    {
+        m_next = (m_next + 1) % CLASSES;
+        return PACKAGE + ".C" + m_next;
+    }
+
+    @Benchmark
+    public Class<?> loadLocalClass() throws Exception
+    {
+        return m_provider.loadClass(nextClass());
+    }
+
+    @Benchmark
+    public Class<?> loadImportedClass() throws Exception
+    {
+        return m_consumer.loadClass(nextClass());
+    }
+
+    @Benchmark
+    public Class<?> loadBootDelegatedClass() throws Exception
+    {
+        return m_consumer.loadClass("java.lang.String");
+    }
+
+    /**
+     * Defines all classes of a bundle that was installed just before, which
+     * includes reading the class files from the bundle.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 20)
+    @Warmup(iterations = 5)
+    public void defineClasses(FreshBundle fresh) throws Exception
+    {
+        for (int i = 0; i < CLASSES; i++)
+        {
+            fresh.m_bundle.loadClass(fresh.m_package + ".C" + i);
+        }
+    }
+
+    /**
+     * A bundle with classes that were not loaded yet, installed anew for
+     * every invocation.
+     */
+    @State(Scope.Thread)
+    public static class FreshBundle
+    {
+        private String m_package;
+        private Bundle m_bundle;
+
+        @Setup(Level.Invocation)
+        public void install(ClassLoadingBenchmark benchmark) throws Exception
+        {
+            int id = benchmark.m_installed++;
+            m_package = "org.example.fresh" + id;
+            m_bundle = benchmark.install("fresh" + id,
+                Collections.<String, String>emptyMap(), classes(m_package));
+        }
+
+        @TearDown(Level.Invocation)
+        public void uninstall() throws Exception
+        {
+            m_bundle.uninstall();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.CompiledFilter;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+
+/**
+ * Compares parsing and matching of filters by the interpreted simple
+ * filter, the compiled filter, the framework filter and the filter
+ * implementation of the OSGi API, as well as creating filters with and
+ * without the filter cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark
+{
+    @Param({
+        "(objectClass=org.example.Service)",
+        "(&(objectClass=org.example.Service)(service.ranking>=10)(enabled=true))",
+        "(&(version>=1.2.0)(!(version>=2.0.0))(|(name=foo*)(name=*bar)))"
+    })
+    public String m_expr;
+
+    private SimpleFilter m_simpleFilter;
+    private CompiledFilter m_compiledFilter;
+    private Filter m_osgiFilter;
+    private FilterImpl m_filterImpl;
+    private Capability m_capability;
+    private Map<String, Object> m_properties;
+    private FilterCache m_cache;
+
+    @Setup
+    public void setup() throws InvalidSyntaxException
+    {
+        m_properties = new HashMap<>();
+        m_properties.put(Constants.OBJECTCLASS, new String[] { "org.example.Service" });
+        m_properties.put(Constants.SERVICE_RANKING, 42);
+        m_properties.put("enabled", Boolean.TRUE);
+        m_properties.put("version", new Version(1, 5, 0));
+        m_properties.put("name", "foobar");
+        m_capability = new BundleCapabilityImpl(null, "benchmark",
+            Collections.<String, String>emptyMap(), m_properties);
+
+        m_simpleFilter = SimpleFilter.parse(m_expr);
+        m_compiledFilter = CompiledFilter.compile(m_simpleFilter);
+        m_osgiFilter = FrameworkUtil.createFilter(m_expr);
+        m_filterImpl = new FilterImpl(m_expr);
+        m_cache = new FilterCache(1024);
+    }
+
+    @Benchmark
+    public boolean matchInterpreted()
+    {
+        return CapabilitySet.matches(m_capability, m_simpleFilter);
+    }
+
+    @Benchmark
+    public boolean matchCompiled()
+    {
+        return CapabilitySet.matches(m_capability, m_compiledFilter);
+    }
+
+    @Benchmark
+    public boolean matchFilterImpl()
+    {
+        return m_filterImpl.matches(m_properties);
+    }
+
+    @Benchmark
+    public boolean matchOsgi()
+    {
+        return m_osgiFilter.matches(m_properties);
+    }
+
+    @Benchmark
+    public Object parse()
+    {
+        return SimpleFilter.parse(m_expr);
+    }
+
+    @Benchmark
+    public Object createUncached() throws InvalidSyntaxException
+    {
+        return new FilterImpl(m_expr);
+    }
+
+    @Benchmark
+    public Object createCached() throws InvalidSyntaxException
+    {
+        return m_cache.getFilter(m_expr);
+    }
+
+    @Benchmark
+    public Object createOsgi() throws InvalidSyntaxException
+    {
+        return FrameworkUtil.createFilter(m_expr);
+    }
+}
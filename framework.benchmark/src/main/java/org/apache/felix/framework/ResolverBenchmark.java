@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolutionException;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Measures the resolver on a synthetic repository, in which every resource
+ * exports a package that uses the packages it imports from up to three other
+ * resources and every tenth package has a second provider. Besides resolving
+ * the whole repository, it resolves a single resource against the resolved
+ * rest, as when installing a bundle into a running framework, with and
+ * without keeping package spaces across resolve operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolverBenchmark
+{
+    private static final Executor INLINE = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    @Param({ "100", "1000", "10000" })
+    public int m_size;
+
+    private final Map<String, List<Capability>> m_providers = new HashMap<>();
+    private final List<Resource> m_resources = new ArrayList<>();
+    private final Map<Resource, Wiring> m_wirings = new HashMap<>();
+    private Resource m_last;
+    private ResolverImpl m_resolver;
+    private ResolverImpl m_incrementalResolver;
+
+    @Setup
+    public void setup() throws ResolutionException
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < m_size; i++)
+        {
+            Set<String> imports = new LinkedHashSet<>();
+            for (int j = 0; (i > 0) && (j < 3); j++)
+            {
+                imports.add("org.example.p" + random.nextInt(i));
+            }
+            SyntheticResource resource = new SyntheticResource("r" + i);
+            for (String pkg : imports)
+            {
+                resource.m_requirements.add(new PackageRequirement(resource, pkg));
+            }
+            addExport(resource, "org.example.p" + i, "1.0.0", imports);
+            m_resources.add(resource);
+            if (i % 10 == 0)
+            {
+                SyntheticResource alternative = new SyntheticResource("a" + i);
+                addExport(alternative, "org.example.p" + i, "1.1.0",
+                    Collections.<String>emptySet());
+                m_resources.add(alternative);
+            }
+        }
+        m_last = m_resources.get(m_resources.size() - 1);
+        m_resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), 1);
+        m_incrementalResolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), INLINE, 1, true);
+
+        // Resolve all but the last resource for the single resource benchmarks.
+        List<Resource> resolved = new ArrayList<>(m_resources);
+        resolved.remove(m_last);
+        Map<Resource, List<Wire>> wireMap = m_resolver.resolve(
+            new SyntheticContext(resolved, Collections.<Resource, Wiring>emptyMap()));
+        Map<Resource, List<Wire>> providedWires = new HashMap<>();
+        for (List<Wire> wires : wireMap.values())
+        {
+            for (Wire wire : wires)
+            {
+                List<Wire> provided = providedWires.get(wire.getProvider());
+                if (provided == null)
+                {
+                    provided = new ArrayList<>();
+                    providedWires.put(wire.getProvider(), provided);
+                }
+                provided.add(wire);
+            }
+        }
+        for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            List<Wire> provided = providedWires.get(entry.getKey());
+            m_wirings.put(entry.getKey(), new SyntheticWiring(entry.getKey(), entry.getValue(),
+                (provided != null) ? provided : Collections.<Wire>emptyList()));
+        }
+    }
+
+    private void addExport(SyntheticResource resource, String pkg, String version,
+        Set<String> uses)
+    {
+        PackageCapability cap = new PackageCapability(resource, pkg, Version.parseVersion(version), uses);
+        resource.m_capabilities.add(cap);
+        List<Capability> providers = m_providers.get(pkg);
+        if (providers == null)
+        {
+            providers = new ArrayList<>();
+            m_providers.put(pkg, providers);
+        }
+        // Highest version first, like the framework orders candidates.
+        providers.add(0, cap);
+    }
+
+    @Benchmark
+    public Object resolveAll() throws ResolutionException
+    {
+        return m_resolver.resolve(
+            new SyntheticContext(m_resources, Collections.<Resource, Wiring>emptyMap()));
+    }
+
+    @Benchmark
+    public Object resolveOne() throws ResolutionException
+    {
+        return m_resolver.resolve(
+            new SyntheticContext(Collections.singletonList(m_last), m_wirings));
+    }
+
+    @Benchmark
+    public Object resolveOneIncremental() throws ResolutionException
+    {
+        return m_incrementalResolver.resolve(
+            new SyntheticContext(Collections.singletonList(m_last), m_wirings));
+    }
+
+    private final class SyntheticContext extends ResolveContext
+    {
+        private final Collection<Resource> m_mandatory;
+        private final Map<Resource, Wiring> m_contextWirings;
+
+        SyntheticContext(Collection<Resource> mandatory, Map<Resource, Wiring> wirings)
+        {
+            m_mandatory = mandatory;
+            m_contextWirings = wirings;
+        }
+
+        @Override
+        public Collection<Resource> getMandatoryResources()
+        {
+            return m_mandatory;
+        }
+
+        @Override
+        public List<Capability> findProviders(Requirement requirement)
+        {
+            List<Capability> providers = m_providers.get(
+                ((PackageRequirement) requirement).m_pkg);
+            return (providers != null)
+                ? new ArrayList<>(providers)
+                : new ArrayList<Capability>();
+        }
+
+        @Override
+        public int insertHostedCapability(List<Capability> capabilities,
+            HostedCapability hostedCapability)
+        {
+            capabilities.add(hostedCapability);
+            return capabilities.size() - 1;
+        }
+
+        @Override
+        public boolean isEffective(Requirement requirement)
+        {
+            return true;
+        }
+
+        @Override
+        public Map<Resource, Wiring> getWirings()
+        {
+            return m_contextWirings;
+        }
+    }
+
+    private static final class SyntheticResource implements Resource
+    {
+        private final String m_name;
+        private final List<Capability> m_capabilities = new ArrayList<>();
+        private final List<Requirement> m_requirements = new ArrayList<>();
+
+        SyntheticResource(String name)
+        {
+            m_name = name;
+        }
+
+        @Override
+        public List<Capability> getCapabilities(String namespace)
+        {
+            return (namespace == null) || namespace.equals(PackageNamespace.PACKAGE_NAMESPACE)
+                ? m_capabilities
+                : Collections.<Capability>emptyList();
+        }
+
+        @Override
+        public List<Requirement> getRequirements(String namespace)
+        {
+            return (namespace == null) || namespace.equals(PackageNamespace.PACKAGE_NAMESPACE)
+                ? m_requirements
+                : Collections.<Requirement>emptyList();
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_name;
+        }
+    }
+
+    private static final class PackageCapability implements Capability
+    {
+        private final Resource m_resource;
+        private final Map<String, String> m_directives;
+        private final Map<String, Object> m_attributes = new HashMap<>();
+
+        PackageCapability(Resource resource, String pkg, Version version, Set<String> uses)
+        {
+            m_resource = resource;
+            m_attributes.put(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+            m_attributes.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, version);
+            StringBuilder sb = new StringBuilder();
+            for (String used : uses)
+            {
+                sb.append((sb.length() > 0) ? "," : "").append(used);
+            }
+            m_directives = (sb.length() > 0)
+                ? Collections.singletonMap(Namespace.CAPABILITY_USES_DIRECTIVE, sb.toString())
+                : Collections.<String, String>emptyMap();
+        }
+
+        @Override
+        public String getNamespace()
+        {
+            return PackageNamespace.PACKAGE_NAMESPACE;
+        }
+
+        @Override
+        public Map<String, String> getDirectives()
+        {
+            return m_directives;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes()
+        {
+            return m_attributes;
+        }
+
+        @Override
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_resource + ":" + m_attributes;
+        }
+    }
+
+    private static final class PackageRequirement implements Requirement
+    {
+        private final Resource m_resource;
+        private final String m_pkg;
+        private final Map<String, String> m_directives;
+
+        PackageRequirement(Resource resource, String pkg)
+        {
+            m_resource = resource;
+            m_pkg = pkg;
+            m_directives = Collections.singletonMap(Namespace.REQUIREMENT_FILTER_DIRECTIVE,
+                "(" + PackageNamespace.PACKAGE_NAMESPACE + "=" + pkg + ")");
+        }
+
+        @Override
+        public String getNamespace()
+        {
+            return PackageNamespace.PACKAGE_NAMESPACE;
+        }
+
+        @Override
+        public Map<String, String> getDirectives()
+        {
+            return m_directives;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes()
+        {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_resource + ":" + m_pkg;
+        }
+    }
+
+    private static final class SyntheticWiring implements Wiring
+    {
+        private final Resource m_resource;
+        private final List<Wire> m_required;
+        private final List<Wire> m_provided;
+
+        SyntheticWiring(Resource resource, List<Wire> required, List<Wire> provided)
+        {
+            m_resource = resource;
+            m_required = required;
+            m_provided = provided;
+        }
+
+        @Override
+        public List<Capability> getResourceCapabilities(String namespace)
+        {
+            return m_resource.getCapabilities(namespace);
+        }
+
+        @Override
+        public List<Requirement> getResourceRequirements(String namespace)
+        {
+            return m_resource.getRequirements(namespace);
+        }
+
+        @Override
+        public List<Wire> getProvidedResourceWires(String namespace)
+        {
+            return filter(m_provided, namespace);
+        }
+
+        @Override
+        public List<Wire> getRequiredResourceWires(String namespace)
+        {
+            return filter(m_required, namespace);
+        }
+
+        @Override
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        private static List<Wire> filter(List<Wire> wires, String namespace)
+        {
+            if (namespace == null)
+            {
+                return wires;
+            }
+            List<Wire> result = new ArrayList<>();
+            for (Wire wire : wires)
+            {
+                if (namespace.equals(wire.getCapability().getNamespace()))
+                {
+                    result.add(wire);
+                }
+            }
+            return result;
+        }
+    }
+}
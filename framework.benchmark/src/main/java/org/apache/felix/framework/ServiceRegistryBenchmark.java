@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.File;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures the service registry and the synchronous delivery of service
+ * events through a running framework, which has the given number of
+ * services registered and one hundred service listeners with filters on
+ * the service properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceRegistryBenchmark
+{
+    private static final String SERVICE = BenchmarkService.class.getName();
+    private static final int LISTENERS = 100;
+
+    @Param({ "10", "1000" })
+    public int m_services;
+
+    private final AtomicLong m_events = new AtomicLong();
+    private File m_storage;
+    private Felix m_felix;
+    private BundleContext m_context;
+    private ServiceReference<?> m_reference;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        m_storage = BenchmarkSupport.createTempDir("felix-benchmark");
+        m_felix = BenchmarkSupport.startFramework(m_storage);
+        m_context = m_felix.getBundleContext();
+        for (int i = 0; i < m_services; i++)
+        {
+            m_context.registerService(SERVICE, new BenchmarkServiceImpl(), properties(i));
+        }
+        ServiceListener listener = new ServiceListener()
+        {
+            @Override
+            public void serviceChanged(ServiceEvent event)
+            {
+                m_events.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < LISTENERS; i++)
+        {
+            m_context.addServiceListener(listener,
+                "(&(" + Constants.OBJECTCLASS + "=" + SERVICE + ")(index=" + i + "))");
+        }
+        m_reference = m_context.getServiceReference(SERVICE);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        BenchmarkSupport.stopFramework(m_felix, m_storage);
+    }
+
+    private static Dictionary<String, Object> properties(int index)
+    {
+        Dictionary<String, Object> props = new Hashtable<>();
+        props.put("index", index);
+        props.put(Constants.SERVICE_RANKING, index % 5);
+        return props;
+    }
+
+    @Benchmark
+    public void registerAndUnregister()
+    {
+        ServiceRegistration<?> reg = m_context.registerService(
+            SERVICE, new BenchmarkServiceImpl(), properties(1));
+        reg.unregister();
+    }
+
+    @Benchmark
+    public Object getServiceReference()
+    {
+        return m_context.getServiceReference(SERVICE);
+    }
+
+    @Benchmark
+    public Object getServiceReferencesFiltered() throws Exception
+    {
+        return m_context.getServiceReferences(SERVICE, "(index=5)");
+    }
+
+    @Benchmark
+    public Object getAndUngetService()
+    {
+        Object service = m_context.getService(m_reference);
+        m_context.ungetService(m_reference);
+        return service;
+    }
+
+    public interface BenchmarkService
+    {
+    }
+
+    private static final class BenchmarkServiceImpl implements BenchmarkService
+    {
+    }
+}
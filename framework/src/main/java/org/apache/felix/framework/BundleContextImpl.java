@@ -114,7 +114,7 @@ class BundleContextImpl implements BundleContext
         // the result is the same as if the calling thread had
         // won the race condition.
 
-        return new FilterImpl(expr);
+        return m_felix.getFilter(expr);
     }
 
     @Override
@@ -365,8 +365,7 @@ class BundleContextImpl implements BundleContext
 
         try
         {
-            ServiceReference<?>[] refs = getServiceReferences(clazz, null);
-            return getBestServiceReference(refs);
+            return m_felix.getServiceReference(m_bundle, clazz);
         }
         catch (InvalidSyntaxException ex)
         {
@@ -382,32 +381,6 @@ class BundleContextImpl implements BundleContext
         return (ServiceReference<S>) getServiceReference(clazz.getName());
     }
 
-    private ServiceReference<?> getBestServiceReference(ServiceReference<?>[] refs)
-    {
-        if (refs == null)
-        {
-            return null;
-        }
-
-        if (refs.length == 1)
-        {
-            return refs[0];
-        }
-
-        // Loop through all service references and return
-        // the "best" one according to its rank and ID.
-        ServiceReference<?> bestRef = refs[0];
-        for (int i = 1; i < refs.length; i++)
-        {
-            if (bestRef.compareTo(refs[i]) < 0)
-            {
-                bestRef = refs[i];
-            }
-        }
-
-        return bestRef;
-    }
-
     @Override
 	public ServiceReference<?>[] getAllServiceReferences(String clazz, String filter)
         throws InvalidSyntaxException
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -29,11 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.apache.felix.framework.cache.BundleCache;
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.MultiReleaseContent;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.util.manifestparser.ManifestCache;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
 import org.osgi.framework.BundleException;
@@ -69,10 +73,14 @@ public class BundleRevisionImpl implements BundleRevision, Resource
     private final List<String> m_activationExcludes;
 
     private final BundleImpl m_bundle;
+    private final File m_revisionRootDir;
 
     private volatile Content m_content;
     private volatile List<Content> m_contentPath;
+    private volatile ContentPathIndex m_contentPathIndex;
     private volatile ProtectionDomain m_protectionDomain = null;
+    private final WovenClassCache m_wovenClassCache;
+    private final ClassLoadingProfiler.Profile m_classLoadingProfile;
     private final static SecureAction m_secureAction = new SecureAction();
 
     // Bundle wiring when resolved.
@@ -88,6 +96,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
     public BundleRevisionImpl(BundleImpl bundle, String id)
     {
         m_bundle = bundle;
+        m_revisionRootDir = null;
         m_id = id;
         m_headerMap = null;
         m_content = null;
@@ -102,22 +111,27 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         m_declaredActivationPolicy = EAGER_ACTIVATION;
         m_activationExcludes = null;
         m_activationIncludes = null;
+        m_wovenClassCache = null;
+        m_classLoadingProfile = null;
     }
 
     BundleRevisionImpl(
-        BundleImpl bundle, String id, Map<String, String> headerMap, Content content)
+        BundleImpl bundle, String id, Map<String, String> headerMap, Content content,
+        File revisionRootDir)
         throws BundleException
     {
         m_bundle = bundle;
+        m_revisionRootDir = revisionRootDir;
         m_id = id;
         m_headerMap = headerMap;
         m_content = content;
 
-        ManifestParser mp = new ManifestParser(
+        ManifestParser mp = ManifestCache.parse(
             bundle.getFramework().getLogger(),
             bundle.getFramework().getConfig(),
             this,
-            m_headerMap);
+            m_headerMap,
+            revisionRootDir);
 
         // Record some of the parsed metadata. Note, if this is an extension
         // bundle it's exports are removed, since they will be added to the
@@ -138,6 +152,12 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             : ManifestParser.parseDelimitedString(mp.getActivationIncludeDirective(), ",");
         m_symbolicName = mp.getSymbolicName();
         m_isFragment = m_headerMap.containsKey(Constants.FRAGMENT_HOST);
+        m_wovenClassCache = ((revisionRootDir != null) && "true".equalsIgnoreCase(
+            bundle.getFramework()._getProperty(BundleCache.CACHE_WEAVING_PROP)))
+            ? new WovenClassCache(revisionRootDir) : null;
+        ClassLoadingProfiler profiler = bundle.getFramework().getClassLoadingProfiler();
+        m_classLoadingProfile = ((revisionRootDir != null) && (profiler != null))
+            ? profiler.createProfile(revisionRootDir) : null;
     }
 
     static SecureAction getSecureAction()
@@ -145,6 +165,24 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         return m_secureAction;
     }
 
+    /**
+     * Returns the cache of woven classes of this revision or <tt>null</tt>
+     * if woven classes are not cached.
+    **/
+    WovenClassCache getWovenClassCache()
+    {
+        return m_wovenClassCache;
+    }
+
+    /**
+     * Returns the classes recorded for preloading of this revision or
+     * <tt>null</tt> if classes are not recorded and preloaded.
+    **/
+    ClassLoadingProfiler.Profile getClassLoadingProfile()
+    {
+        return m_classLoadingProfile;
+    }
+
     int getDeclaredActivationPolicy()
     {
         return m_declaredActivationPolicy;
@@ -323,6 +361,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                     }
                 }
                 m_contentPath = null;
+                m_contentPathIndex = null;
             }
 
             m_wiring = wiring;
@@ -336,6 +375,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             m_contentPath.get(i).close();
         }
         m_contentPath = null;
+        m_contentPathIndex = null;
     }
 
     public void setProtectionDomain(ProtectionDomain pd)
@@ -364,30 +404,56 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     List<Content> getContentPath()
     {
-        List<Content> contentPath = m_contentPath;
-        if (contentPath == null)
+        ContentPathIndex index = m_contentPathIndex;
+        if (index == null)
         {
             try
             {
-                contentPath = initializeContentPath();
+                index = initializeContentPath();
             }
             catch (Exception ex)
             {
                 m_bundle.getFramework().getLogger().log(
                     m_bundle, Logger.LOG_ERROR, "Unable to get module class path.", ex);
+                return null;
             }
         }
-        return contentPath;
+        return index.getContentPath();
     }
 
-    private synchronized List<Content> initializeContentPath() throws Exception
+    /**
+     * Returns the content path along with an index of the contents that
+     * may contain a given entry or <tt>null</tt> if there is no index, in
+     * which case all contents of {@link #getContentPath()} must be consulted.
+     * There is no index if there is no content path, if the content path was
+     * reset concurrently or if a subclass provides its own content path.
+    **/
+    ContentPathIndex getContentPathIndex()
+    {
+        List<Content> contentPath = getContentPath();
+        ContentPathIndex index = m_contentPathIndex;
+        return ((index != null) && (index.getContentPath() == contentPath))
+            ? index : null;
+    }
+
+    private synchronized ContentPathIndex initializeContentPath() throws Exception
     {
-        if (m_contentPath != null)
+        if (m_contentPathIndex != null)
         {
-            return m_contentPath;
+            return m_contentPathIndex;
         }
+
+        // The directories of our own class path entries are persisted in
+        // the revision directory, as long as the content cannot change.
+        String fingerprint = getContentPathFingerprint();
+        File indexFile = (fingerprint != null)
+            ? new File(m_revisionRootDir, ContentPathIndex.INDEX_FILE) : null;
+        ContentPathIndex.Builder builder = new ContentPathIndex.Builder(
+            ContentPathIndex.load(indexFile, fingerprint));
+
         List<Content> contentList = new ArrayList<>();
-        calculateContentPath(this, getContent(), contentList, true);
+        calculateContentPath(this, getContent(), contentList, true,
+            builder, fingerprint != null);
 
         List<BundleRevision> fragments = null;
         List<Content> fragmentContents = null;
@@ -405,15 +471,52 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             for (int i = 0; i < fragments.size(); i++)
             {
                 calculateContentPath(
-                    fragments.get(i), fragmentContents.get(i), contentList, false);
+                    fragments.get(i), fragmentContents.get(i), contentList, false,
+                    builder, false);
             }
         }
-        return m_contentPath = contentList;
+
+        ContentPathIndex index = builder.build();
+        if (builder.isModified())
+        {
+            try
+            {
+                ContentPathIndex.store(indexFile, fingerprint, builder.getPersistable());
+            }
+            catch (Exception ex)
+            {
+                m_bundle.getFramework().getLogger().log(
+                    m_bundle, Logger.LOG_DEBUG, "Unable to persist content path index.", ex);
+            }
+        }
+        m_contentPath = index.getContentPath();
+        return m_contentPathIndex = index;
+    }
+
+    /**
+     * Returns a fingerprint of the state the persisted content path index
+     * depends on or <tt>null</tt> if the index must not be persisted, which
+     * is the case if the content is not a JAR file, since directories may
+     * be modified at any time.
+    **/
+    private String getContentPathFingerprint()
+    {
+        Content content = m_content;
+        if ((m_revisionRootDir == null) || !(content instanceof JarContent))
+        {
+            return null;
+        }
+        File file = ((JarContent) content).getFile();
+        return file.getAbsolutePath()
+            + "," + m_secureAction.getLastModified(file)
+            + "," + file.length()
+            + "," + getBundle().getFramework()._getProperty("java.specification.version")
+            + "," + getHeaders().get(FelixConstants.BUNDLE_CLASSPATH);
     }
 
     private List<Content> calculateContentPath(
         BundleRevision revision, Content content, List<Content> contentList,
-        boolean searchFragments)
+        boolean searchFragments, ContentPathIndex.Builder builder, boolean persist)
     {
         // Creating the content path entails examining the bundle's
         // class path to determine whether the bundle JAR file itself
@@ -449,12 +552,16 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             {
                 localContentList.add(MultiReleaseContent.wrap(
                     getBundle().getFramework()._getProperty("java.specification.version"), content));
+                builder.add(localContentList.get(localContentList.size() - 1),
+                    content instanceof JarContent,
+                    persist ? FelixConstants.CLASS_PATH_DOT : null);
             }
             else
             {
                 // Try to find the embedded class path entry in the current
                 // content.
                 Content embeddedContent = content.getEntryAsContent(classPathStrings.get(i));
+                Content embeddingContent = content;
                 // If the embedded class path entry was not found, it might be
                 // in one of the fragments if the current content is the bundle,
                 // so try to search the fragments if necessary.
@@ -467,6 +574,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                 {
                     embeddedContent =
                         fragmentContents.get(fragIdx).getEntryAsContent(classPathStrings.get(i));
+                    embeddingContent = fragmentContents.get(fragIdx);
                 }
                 // If we found the embedded content, then add it to the
                 // class path content list.
@@ -474,6 +582,9 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                 {
                     localContentList.add(MultiReleaseContent.wrap(
                         getBundle().getFramework()._getProperty("java.specification.version"),embeddedContent));
+                    builder.add(localContentList.get(localContentList.size() - 1),
+                        embeddingContent instanceof JarContent,
+                        (persist && (embeddingContent == content)) ? classPathStrings.get(i) : null);
                 }
                 else
                 {
@@ -493,6 +604,8 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         {
             localContentList.add(MultiReleaseContent.wrap(
                 getBundle().getFramework()._getProperty("java.specification.version"),content));
+            builder.add(localContentList.get(0), content instanceof JarContent,
+                persist ? FelixConstants.CLASS_PATH_DOT : null);
         }
 
         // Now add the local contents to the global content list and return it.
@@ -517,12 +630,17 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             name = name.substring(1);
         }
 
-        // Check the module class path.
-        List<Content> contentPath = getContentPath();
-        for (int i = 0;
+        // Check the module class path, but only the contents which
+        // may contain the resource.
+        ContentPathIndex index = getContentPathIndex();
+        List<Content> contentPath = (index != null)
+            ? index.getContentPath() : getContentPath();
+        int[] candidates = ContentPathIndex.getCandidates(index, contentPath, name);
+        for (int j = 0;
             (url == null) &&
-            (i < contentPath.size()); i++)
+            (j < candidates.length); j++)
         {
+            int i = candidates[j];
             if (contentPath.get(i).hasEntry(name))
             {
                 if (!name.endsWith("/") && contentPath.get(i).isDirectory(name))
@@ -543,7 +661,9 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         // Special case "/" so that it returns a root URLs for
         // each bundle class path entry...this isn't very
         // clean or meaningful, but the Spring guys want it.
-        final List<Content> contentPath = getContentPath();
+        final ContentPathIndex index = getContentPathIndex();
+        final List<Content> contentPath = (index != null)
+            ? index.getContentPath() : getContentPath();
         if (contentPath == null)
             return Collections.enumeration(Collections.emptyList());
 
@@ -562,8 +682,9 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                 name = name.substring(1);
             }
 
-            // Check the module class path.
-            for (int i = 0; i < contentPath.size(); i++)
+            // Check the module class path, but only the contents which
+            // may contain the resource.
+            for (int i : ContentPathIndex.getCandidates(index, contentPath, name))
             {
                 if (contentPath.get(i).hasEntry(name))
                 {
@@ -20,6 +20,7 @@ package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.ConnectContentContent;
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.MappedJarContent;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.ResourceNotFoundException;
 import org.apache.felix.framework.util.CompoundEnumeration;
@@ -56,6 +57,7 @@ import org.osgi.service.resolver.ResolutionException;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -68,6 +70,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -172,6 +175,10 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Packages that could not be dynamically imported, mapped to the package
+    // stamp of the resolver at the time of the attempt; created on demand.
+    private Map<String, Long> m_failedDynamicImports;
+
     BundleWiringImpl(
         Logger logger, Map<String,?> configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -508,6 +515,7 @@ public class BundleWiringImpl implements BundleWiring
         m_classLoader = null;
         m_isDisposed = true;
         m_accessorLookupCache = null;
+        m_failedDynamicImports = null;
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -668,6 +676,40 @@ public class BundleWiringImpl implements BundleWiring
         return null;
     }
 
+    synchronized boolean isFailedDynamicImport(String pkgName, long stamp)
+    {
+        if (m_failedDynamicImports != null)
+        {
+            Long failed = m_failedDynamicImports.get(pkgName);
+            if (failed != null)
+            {
+                if (failed == stamp)
+                {
+                    return true;
+                }
+                // An exporter was added since, so forget the failure.
+                m_failedDynamicImports.remove(pkgName);
+            }
+        }
+        return false;
+    }
+
+    synchronized void addFailedDynamicImport(String pkgName, long stamp, final int maxSize)
+    {
+        if (m_failedDynamicImports == null)
+        {
+            m_failedDynamicImports = new LinkedHashMap<String, Long>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+                {
+                    return size() > maxSize;
+                }
+            };
+        }
+        m_failedDynamicImports.put(pkgName, stamp);
+    }
+
     public synchronized void addDynamicWire(BundleWire wire)
     {
         // Make new wires list.
@@ -932,11 +974,13 @@ public class BundleWiringImpl implements BundleWiring
                 // in the revision or its fragments).
                 Collection<ResourceSource> localResources = new TreeSet<>();
                 // Get the revision's content path, which includes contents
-                // from fragments.
-                List<Content> contentPath = m_revision.getContentPath();
-                for (Content content : contentPath)
+                // from fragments, and only list the contents which may
+                // contain the path.
+                ContentPathIndex index = m_revision.getContentPathIndex();
+                List<Content> contentPath = getContentPath(m_revision, index);
+                for (int i : ContentPathIndex.getCandidates(index, contentPath, path))
                 {
-                    Enumeration<String> e = content.getEntries();
+                    Enumeration<String> e = contentPath.get(i).getEntries();
                     if (e != null)
                     {
                         while (e.hasMoreElements())
@@ -1089,6 +1133,39 @@ public class BundleWiringImpl implements BundleWiring
         return SimpleFilter.compareSubstring(pattern, resource);
     }
 
+    /**
+     * Returns the content path of the index or, if there is no index, the
+     * content path of the revision, which may be <tt>null</tt> as well.
+    **/
+    private static List<Content> getContentPath(
+        BundleRevisionImpl revision, ContentPathIndex index)
+    {
+        return (index != null) ? index.getContentPath() : revision.getContentPath();
+    }
+
+    // Mapped JAR contents return stored classes without copying them.
+    private static ByteBuffer getEntryAsByteBuffer(Content content, String name)
+    {
+        if (content instanceof MappedJarContent)
+        {
+            return ((MappedJarContent) content).getEntryAsByteBuffer(name);
+        }
+        byte[] bytes = content.getEntryAsBytes(name);
+        return (bytes != null) ? ByteBuffer.wrap(bytes) : null;
+    }
+
+    private static byte[] toByteArray(ByteBuffer buffer)
+    {
+        if (buffer.hasArray() && (buffer.arrayOffset() == 0)
+            && (buffer.position() == 0) && (buffer.remaining() == buffer.array().length))
+        {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
     @Override
     public BundleImpl getBundle()
     {
@@ -2024,19 +2101,26 @@ public class BundleWiringImpl implements BundleWiring
                             + " is no longer valid.");
                 }
 
+                Felix felix = m_wiring.m_revision.getBundle().getFramework();
+                FrameworkMetricsImpl metrics = (felix != null) ? felix.getMetrics() : null;
+                long start = (metrics != null) ? System.nanoTime() : 0;
+
                 String actual = name.replace('.', '/') + ".class";
 
-                byte[] bytes = null;
+                ByteBuffer bytes = null;
 
-                // Check the bundle class path.
-                List<Content> contentPath = m_wiring.m_revision.getContentPath();
+                // Check the bundle class path, but only the contents which
+                // may contain the class' package.
+                ContentPathIndex index = m_wiring.m_revision.getContentPathIndex();
+                List<Content> contentPath = getContentPath(m_wiring.m_revision, index);
+                int[] candidates = ContentPathIndex.getCandidates(index, contentPath, actual);
                 Content content = null;
                 for (int i = 0;
                         (bytes == null) &&
-                        (i < contentPath.size()); i++)
+                        (i < candidates.length); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
-                    content = contentPath.get(i);
+                    content = contentPath.get(candidates[i]);
+                    bytes = getEntryAsByteBuffer(content, actual);
                 }
 
                 if (bytes != null)
@@ -2051,8 +2135,6 @@ public class BundleWiringImpl implements BundleWiring
                     // or removal, we just get a snapshot and leave any changes
                     // as a race condition, doing any necessary clean up in
                     // the error handling.
-                    Felix felix = m_wiring.m_revision.getBundle().getFramework();
-
                     Set<ServiceReference<WeavingHook>> hooks =
                             felix.getHookRegistry().getHooks(WeavingHook.class);
 
@@ -2063,11 +2145,32 @@ public class BundleWiringImpl implements BundleWiring
                     if (!hooks.isEmpty())
                     {
                         // Create woven class to be used for hooks.
-                        wci = new WovenClassImpl(name, m_wiring, bytes);
+                        byte[] array = toByteArray(bytes);
+                        wci = new WovenClassImpl(name, m_wiring, array);
+                        WovenClassCache cache = m_wiring.m_revision.getWovenClassCache();
+                        String key = (cache != null)
+                            ? cache.getKey(array, felix, hooks) : null;
+                        WovenClassCache.Entry woven = (key != null)
+                            ? cache.get(name, key) : null;
                         try
                         {
-                            transformClass(felix, wci, hooks, wovenClassListeners,
-                                    name, bytes);
+                            if (woven != null)
+                            {
+                                // The hooks have woven the class before, so
+                                // only tell the listeners about the result.
+                                wci.restore(woven.getBytes(), woven.getDynamicImports());
+                                wci.setState(WovenClass.TRANSFORMED);
+                                callWovenClassListeners(felix, wovenClassListeners, wci);
+                            }
+                            else
+                            {
+                                transformClass(felix, wci, hooks, wovenClassListeners,
+                                        name, array);
+                                if (key != null)
+                                {
+                                    storeWovenClass(cache, key, wci);
+                                }
+                            }
                         }
                         catch (Error e)
                         {
@@ -2094,6 +2197,18 @@ public class BundleWiringImpl implements BundleWiring
                         throw e;
                     }
 
+                    // Remember the class for preloading it on the next startup.
+                    ClassLoadingProfiler profiler = felix.getClassLoadingProfiler();
+                    if (profiler != null)
+                    {
+                        profiler.record(m_wiring.m_revision, name);
+                    }
+
+                    if (metrics != null)
+                    {
+                        metrics.classDefined(getBundle(), System.nanoTime() - start);
+                    }
+
                     // Perform deferred activation without holding the class loader lock,
                     // if the class we are returning is the instigating class.
                     List<Object[]> deferredList =  m_deferredActivation.get();
@@ -2128,7 +2243,7 @@ public class BundleWiringImpl implements BundleWiring
             return clazz;
         }
 
-        Class<?> defineClassParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
+        Class<?> defineClassParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, ByteBuffer bytes,
             Content content, String pkgName) throws ClassFormatError
         {
             Class<?> clazz = null;
@@ -2159,7 +2274,7 @@ public class BundleWiringImpl implements BundleWiring
             return clazz;
         }
 
-        Class<?> defineClassNotParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
+        Class<?> defineClassNotParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, ByteBuffer bytes,
             Content content, String pkgName) throws ClassFormatError
         {
             Class<?> clazz = findLoadedClass(name);
@@ -2181,7 +2296,7 @@ public class BundleWiringImpl implements BundleWiring
 
         Class<?> defineClass(Felix felix,
             Set<ServiceReference<WovenClassListener>> wovenClassListeners,
-            WovenClassImpl wci, String name, byte[] bytes, Content content, String pkgName)
+            WovenClassImpl wci, String name, ByteBuffer bytes, Content content, String pkgName)
             throws ClassFormatError
         {
             // If we have a woven class then get the class bytes from
@@ -2196,7 +2311,7 @@ public class BundleWiringImpl implements BundleWiring
             // we used to define the class.
             if (wci != null)
             {
-                bytes = wci._getBytes();
+                bytes = ByteBuffer.wrap(wci._getBytes());
                 List<String> wovenImports = wci.getDynamicImportsInternal();
 
                 // Try to add any woven dynamic imports, since they
@@ -2327,14 +2442,17 @@ public class BundleWiringImpl implements BundleWiring
             // If we have a security context, then use it to
             // define the class with it for security purposes,
             // otherwise define the class without a protection domain.
-            if (m_wiring.m_revision.getProtectionDomain() != null)
+            if (bytes.hasArray())
             {
-                clazz = defineClass(name, bytes, 0, bytes.length,
+                clazz = defineClass(name, bytes.array(),
+                    bytes.arrayOffset() + bytes.position(), bytes.remaining(),
                     m_wiring.m_revision.getProtectionDomain());
             }
             else
             {
-                clazz = defineClass(name, bytes, 0, bytes.length);
+                // The class is defined straight from a mapped JAR file.
+                clazz = defineClass(name, bytes,
+                    m_wiring.m_revision.getProtectionDomain());
             }
             if (wci != null)
             {
@@ -2403,6 +2521,20 @@ public class BundleWiringImpl implements BundleWiring
             callWovenClassListeners(felix, wovenClassListeners, wci);
         }
 
+        private void storeWovenClass(WovenClassCache cache, String key, WovenClassImpl wci)
+        {
+            try
+            {
+                cache.put(wci.getClassName(), key, wci._getBytes(),
+                    wci.getDynamicImportsInternal());
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG,
+                    "Unable to cache woven class " + wci.getClassName(), ex);
+            }
+        }
+
         protected void callWovenClassListeners(Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClass wovenClass)
         {
             if(wovenClassListeners != null)
@@ -0,0 +1,540 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.framework.util.SecureAction;
+import org.apache.felix.framework.util.Util;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Records the classes each bundle revision defines during the first seconds
+ * after the framework is initialized and loads them again in parallel on
+ * the next startup, instead of one after another while they are needed.
+ * <p>
+ * Preloading starts once the framework has reached its beginning start
+ * level, so the bundles providing weaving hooks have been started in start
+ * level order and the classes are woven, or taken from the woven class
+ * cache, just as if they were loaded on demand. Revisions resolved later
+ * are preloaded as soon as they are resolved.
+ * <p>
+ * The profile of a revision is kept in its revision directory and is only
+ * recorded once, when the revision has no profile yet. It is written when
+ * the recording period ends or when the framework is stopped, whichever
+ * comes first. Revisions with a lazy activation policy and fragments are
+ * not preloaded, since loading their classes would have side effects.
+**/
+class ClassLoadingProfiler
+{
+    static final String PROFILE_FILE = "classes.profile";
+    private static final int PROFILE_FILE_VERSION = 1;
+    private static final int CHUNK_SIZE = 64;
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final Logger m_logger;
+    private final long m_recordNanos;
+    private final int m_parallelism;
+    private final Set<Profile> m_recording = ConcurrentHashMap.newKeySet();
+    private volatile long m_startNanos;
+    private volatile boolean m_isRecording;
+    private ExecutorService m_executor;
+    private Timer m_timer;
+    private boolean m_isStarted;
+    private final List<BundleRevisionImpl> m_deferred = new ArrayList<>();
+
+    // Metrics of the current run.
+    private final AtomicLong m_recordedClasses = new AtomicLong();
+    private final AtomicLong m_preloadedClasses = new AtomicLong();
+    private final AtomicLong m_failedClasses = new AtomicLong();
+    private final AtomicLong m_preloadNanos = new AtomicLong();
+    private final AtomicInteger m_pending = new AtomicInteger();
+    private volatile long m_firstPreloadNanos;
+    private volatile long m_lastPreloadNanos;
+
+    ClassLoadingProfiler(Logger logger, long recordMillis, int parallelism)
+    {
+        m_logger = logger;
+        m_recordNanos = TimeUnit.MILLISECONDS.toNanos(recordMillis);
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Creates the profile of a revision.
+     * @param revisionRootDir the revision directory.
+     * @return the profile.
+    **/
+    Profile createProfile(File revisionRootDir)
+    {
+        return new Profile(new File(revisionRootDir, PROFILE_FILE));
+    }
+
+    /**
+     * Starts recording, which is called when the framework is initialized.
+    **/
+    synchronized void start()
+    {
+        m_startNanos = System.nanoTime();
+        m_isRecording = true;
+        m_isStarted = false;
+        m_deferred.clear();
+        if (m_timer != null)
+        {
+            m_timer.cancel();
+        }
+        m_timer = new Timer("FelixClassProfileRecorder", true);
+        m_timer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                stopRecording();
+            }
+        }, TimeUnit.NANOSECONDS.toMillis(m_recordNanos));
+        m_recordedClasses.set(0);
+        m_preloadedClasses.set(0);
+        m_failedClasses.set(0);
+        m_preloadNanos.set(0);
+        m_firstPreloadNanos = 0;
+        m_lastPreloadNanos = 0;
+    }
+
+    /**
+     * Stops recording and preloading and stores the recorded profiles, which
+     * is called when the framework is stopped.
+    **/
+    void stop()
+    {
+        stopRecording();
+        ExecutorService executor;
+        synchronized (this)
+        {
+            executor = m_executor;
+            m_executor = null;
+            m_isStarted = false;
+            m_deferred.clear();
+            if (m_timer != null)
+            {
+                m_timer.cancel();
+                m_timer = null;
+            }
+        }
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Records that a revision defined a class.
+     * @param revision the revision.
+     * @param name the name of the class.
+    **/
+    void record(BundleRevisionImpl revision, String name)
+    {
+        if (!m_isRecording)
+        {
+            return;
+        }
+        Profile profile = revision.getClassLoadingProfile();
+        if ((profile == null) || profile.m_isRecorded)
+        {
+            return;
+        }
+        if ((System.nanoTime() - m_startNanos) > m_recordNanos)
+        {
+            stopRecording();
+            return;
+        }
+        if (profile.add(name))
+        {
+            m_recording.add(profile);
+            m_recordedClasses.incrementAndGet();
+        }
+    }
+
+    private void stopRecording()
+    {
+        boolean wasRecording = m_isRecording;
+        m_isRecording = false;
+        for (Profile profile : m_recording)
+        {
+            // Only one thread may store a profile.
+            if (m_recording.remove(profile))
+            {
+                try
+                {
+                    profile.store();
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Unable to store class loading profile " + profile.m_file, ex);
+                }
+            }
+        }
+        if (wasRecording)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Recorded " + m_recordedClasses.get() + " classes to preload.");
+        }
+    }
+
+    /**
+     * Preloads the recorded classes of the revisions resolved so far, which
+     * is called when the framework has reached its beginning start level.
+    **/
+    void frameworkStarted()
+    {
+        List<BundleRevisionImpl> deferred;
+        synchronized (this)
+        {
+            m_isStarted = true;
+            deferred = new ArrayList<>(m_deferred);
+            m_deferred.clear();
+        }
+        for (BundleRevisionImpl revision : deferred)
+        {
+            preload(revision);
+        }
+    }
+
+    /**
+     * Preloads the recorded classes of a revision that has just been
+     * resolved, if it has a profile. Until the framework has reached its
+     * beginning start level, the revision is only remembered.
+     * @param revision the revision.
+    **/
+    void preload(BundleRevisionImpl revision)
+    {
+        synchronized (this)
+        {
+            if (!m_isStarted)
+            {
+                if (revision.getClassLoadingProfile() != null)
+                {
+                    m_deferred.add(revision);
+                }
+                return;
+            }
+        }
+        final Profile profile = revision.getClassLoadingProfile();
+        final BundleWiring wiring = revision.getWiring();
+        if ((profile == null) || !profile.m_isRecorded || (wiring == null)
+            || Util.isFragment(revision)
+            || (revision.getDeclaredActivationPolicy() == BundleRevisionImpl.LAZY_ACTIVATION)
+            || !profile.m_isPreloaded.compareAndSet(false, true))
+        {
+            return;
+        }
+        submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    List<String> classes = profile.load();
+                    // Split the classes into chunks, which keeps the classes
+                    // of a chunk in the order they were loaded before.
+                    ClassLoader loader = wiring.getClassLoader();
+                    for (int i = 0; (loader != null) && (i < classes.size()); i += CHUNK_SIZE)
+                    {
+                        submit(new Preload(loader,
+                            classes.subList(i, Math.min(classes.size(), i + CHUNK_SIZE))));
+                    }
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Unable to read class loading profile " + profile.m_file, ex);
+                }
+                finally
+                {
+                    done();
+                }
+            }
+        });
+    }
+
+    private void submit(Runnable task)
+    {
+        ExecutorService executor;
+        synchronized (this)
+        {
+            if (m_executor == null)
+            {
+                m_executor = createExecutor();
+            }
+            executor = m_executor;
+            if (m_firstPreloadNanos == 0)
+            {
+                m_firstPreloadNanos = System.nanoTime();
+            }
+        }
+        m_pending.incrementAndGet();
+        try
+        {
+            executor.execute(task);
+        }
+        catch (Exception ex)
+        {
+            // The framework is stopping.
+            m_pending.decrementAndGet();
+        }
+    }
+
+    private void done()
+    {
+        if (m_pending.decrementAndGet() == 0)
+        {
+            m_lastPreloadNanos = System.nanoTime();
+            m_logger.log(Logger.LOG_DEBUG,
+                "Preloaded " + m_preloadedClasses.get() + " classes in "
+                + TimeUnit.NANOSECONDS.toMillis(getPreloadWallTime()) + " ms ("
+                + TimeUnit.NANOSECONDS.toMillis(m_preloadNanos.get())
+                + " ms loading, " + m_failedClasses.get() + " failed).");
+        }
+    }
+
+    private ExecutorService createExecutor()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            m_parallelism, m_parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                private final AtomicInteger m_counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r,
+                        "FelixClassPreloader-" + m_counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the number of classes recorded in this run.
+     * @return the number of recorded classes.
+    **/
+    long getRecordedClasses()
+    {
+        return m_recordedClasses.get();
+    }
+
+    /**
+     * Returns the number of classes preloaded in this run.
+     * @return the number of preloaded classes.
+    **/
+    long getPreloadedClasses()
+    {
+        return m_preloadedClasses.get();
+    }
+
+    /**
+     * Returns the number of recorded classes that could not be preloaded in
+     * this run.
+     * @return the number of failed classes.
+    **/
+    long getFailedClasses()
+    {
+        return m_failedClasses.get();
+    }
+
+    /**
+     * Returns the time the preloading threads spent loading classes in this
+     * run, summed over all threads.
+     * @return the time in nanoseconds.
+    **/
+    long getPreloadTime()
+    {
+        return m_preloadNanos.get();
+    }
+
+    /**
+     * Returns the time from the first preloading task until all tasks were
+     * done or until now, if some are still running.
+     * @return the time in nanoseconds.
+    **/
+    long getPreloadWallTime()
+    {
+        long first = m_firstPreloadNanos;
+        if (first == 0)
+        {
+            return 0;
+        }
+        long last = (m_pending.get() == 0) ? m_lastPreloadNanos : System.nanoTime();
+        return Math.max(0, last - first);
+    }
+
+    private class Preload implements Runnable
+    {
+        private final ClassLoader m_loader;
+        private final List<String> m_classes;
+
+        Preload(ClassLoader loader, List<String> classes)
+        {
+            m_loader = loader;
+            m_classes = classes;
+        }
+
+        @Override
+        public void run()
+        {
+            long start = System.nanoTime();
+            try
+            {
+                for (String name : m_classes)
+                {
+                    if (Thread.currentThread().isInterrupted())
+                    {
+                        break;
+                    }
+                    try
+                    {
+                        m_loader.loadClass(name);
+                        m_preloadedClasses.incrementAndGet();
+                    }
+                    catch (Throwable th)
+                    {
+                        // The bundle may have been refreshed or the class
+                        // may need something that is not there yet, it
+                        // will be loaded again when it is needed.
+                        m_failedClasses.incrementAndGet();
+                    }
+                }
+            }
+            finally
+            {
+                m_preloadNanos.addAndGet(System.nanoTime() - start);
+                done();
+            }
+        }
+    }
+
+    /**
+     * The classes recorded for a revision.
+    **/
+    static final class Profile
+    {
+        private final File m_file;
+        private final boolean m_isRecorded;
+        private final AtomicBoolean m_isPreloaded = new AtomicBoolean();
+        private final Set<String> m_classes = new LinkedHashSet<>();
+
+        private Profile(File file)
+        {
+            m_file = file;
+            m_isRecorded = m_secureAction.fileExists(file);
+        }
+
+        private synchronized boolean add(String name)
+        {
+            return m_classes.add(name);
+        }
+
+        private List<String> load() throws IOException
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                m_secureAction.getFileInputStream(m_file)));
+            try
+            {
+                if (in.readInt() != PROFILE_FILE_VERSION)
+                {
+                    return new ArrayList<>();
+                }
+                int count = in.readInt();
+                List<String> classes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    classes.add(in.readUTF());
+                }
+                return classes;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        private void store() throws Exception
+        {
+            List<String> classes;
+            synchronized (this)
+            {
+                classes = new ArrayList<>(m_classes);
+                m_classes.clear();
+            }
+            File dir = m_file.getParentFile();
+            if (!m_secureAction.fileExists(dir))
+            {
+                // The revision was removed in the meantime.
+                return;
+            }
+            File tmp = m_secureAction.createTempFile(PROFILE_FILE, ".tmp", dir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                m_secureAction.getFileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(PROFILE_FILE_VERSION);
+                out.writeInt(classes.size());
+                for (String name : classes)
+                {
+                    out.writeUTF(name);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            m_secureAction.deleteFile(m_file);
+            if (!m_secureAction.renameFile(tmp, m_file))
+            {
+                m_secureAction.deleteFile(tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.util.SecureAction;
+
+/**
+ * An index of the directories contained in each content of a revision's
+ * content path. Looking up an entry returns the indices of the contents
+ * that may contain it, so that class and resource lookups only have to ask
+ * those contents instead of every entry of the bundle class path.
+ * <p>
+ * A content is only indexed if its entries cannot change during the lifetime
+ * of the revision, all other contents are always returned as candidates. The
+ * directories of the revision's own class path entries can be persisted in the
+ * revision directory of the bundle cache, so that they don't have to be
+ * computed again after a restart.
+**/
+class ContentPathIndex
+{
+    static final String INDEX_FILE = "contentpath.index";
+    private static final int INDEX_FILE_VERSION = 1;
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final List<Content> m_contentPath;
+    private final Map<String, int[]> m_index;
+    private final int[] m_unindexed;
+
+    private ContentPathIndex(
+        List<Content> contentPath, Map<String, int[]> index, int[] unindexed)
+    {
+        m_contentPath = contentPath;
+        m_index = index;
+        m_unindexed = unindexed;
+    }
+
+    List<Content> getContentPath()
+    {
+        return m_contentPath;
+    }
+
+    /**
+     * Returns the ascending indices of the contents of the content path that
+     * may contain the specified entry. Contents not returned definitely do not
+     * contain the entry.
+     * @param name the entry name without a leading slash, names ending with a
+     *        slash denote directories.
+     * @return the indices of the contents that may contain the entry.
+    **/
+    int[] getCandidates(String name)
+    {
+        int[] candidates = m_index.get(getDirectory(name));
+        return (candidates != null) ? candidates : m_unindexed;
+    }
+
+    /**
+     * Returns the indices of the contents of the content path that may
+     * contain the specified entry, which are all contents if there is no
+     * index.
+     * @param index the index or <tt>null</tt>.
+     * @param contentPath the content path, may be <tt>null</tt>.
+     * @param name the entry name without a leading slash.
+     * @return the indices of the contents that may contain the entry.
+    **/
+    static int[] getCandidates(
+        ContentPathIndex index, List<Content> contentPath, String name)
+    {
+        if (index != null)
+        {
+            return index.getCandidates(name);
+        }
+        int[] candidates = new int[(contentPath != null) ? contentPath.size() : 0];
+        for (int i = 0; i < candidates.length; i++)
+        {
+            candidates[i] = i;
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the directory that must be indexed for a content to possibly
+     * contain the specified entry. For names not ending with a slash this is
+     * the parent directory, since the name may also denote a directory.
+    **/
+    private static String getDirectory(String name)
+    {
+        int end = name.length();
+        if ((end > 0) && (name.charAt(end - 1) == '/'))
+        {
+            return name.substring(0, end - 1);
+        }
+        int idx = name.lastIndexOf('/');
+        return (idx < 0) ? "" : name.substring(0, idx);
+    }
+
+    /**
+     * Builds a content path index while the content path is calculated.
+    **/
+    static class Builder
+    {
+        private final List<Content> m_contents = new ArrayList<>();
+        private final List<Set<String>> m_directories = new ArrayList<>();
+        private final Map<String, Set<String>> m_persisted;
+        private final Map<String, Set<String>> m_persistable = new LinkedHashMap<>();
+
+        /**
+         * @param persisted the persisted directories of the revision's own class
+         *        path entries, as returned by {@link #load(File, String)}.
+        **/
+        Builder(Map<String, Set<String>> persisted)
+        {
+            m_persisted = persisted;
+        }
+
+        /**
+         * Adds the next content of the content path.
+         * @param content the content.
+         * @param indexable whether the entries of the content may be indexed.
+         * @param key the class path entry under which the directories of the
+         *        content may be persisted or <tt>null</tt> if they must not be.
+        **/
+        void add(Content content, boolean indexable, String key)
+        {
+            m_contents.add(content);
+            Set<String> directories = null;
+            if (indexable)
+            {
+                directories = (key != null) ? m_persisted.get(key) : null;
+                if (directories == null)
+                {
+                    directories = getDirectories(content);
+                }
+                if (key != null)
+                {
+                    m_persistable.put(key, directories);
+                }
+            }
+            m_directories.add(directories);
+        }
+
+        /**
+         * Returns whether the directories of the revision's own class path
+         * entries differ from the persisted ones and should be stored again.
+        **/
+        boolean isModified()
+        {
+            return !m_persistable.isEmpty() && !m_persistable.equals(m_persisted);
+        }
+
+        Map<String, Set<String>> getPersistable()
+        {
+            return m_persistable;
+        }
+
+        ContentPathIndex build()
+        {
+            int[] unindexed = new int[m_contents.size()];
+            int unindexedCount = 0;
+            Map<String, int[]> index = new HashMap<>();
+            for (int i = 0; i < m_contents.size(); i++)
+            {
+                Set<String> directories = m_directories.get(i);
+                if (directories == null)
+                {
+                    unindexed[unindexedCount++] = i;
+                    continue;
+                }
+                for (String directory : directories)
+                {
+                    int[] candidates = index.get(directory);
+                    if (candidates == null)
+                    {
+                        candidates = new int[] { i };
+                    }
+                    else
+                    {
+                        candidates = Arrays.copyOf(candidates, candidates.length + 1);
+                        candidates[candidates.length - 1] = i;
+                    }
+                    index.put(directory, candidates);
+                }
+            }
+            unindexed = Arrays.copyOf(unindexed, unindexedCount);
+
+            // Contents which are not indexed are candidates for every entry.
+            if (unindexedCount > 0)
+            {
+                for (Map.Entry<String, int[]> entry : index.entrySet())
+                {
+                    int[] candidates = Arrays.copyOf(
+                        entry.getValue(), entry.getValue().length + unindexedCount);
+                    System.arraycopy(unindexed, 0, candidates,
+                        entry.getValue().length, unindexedCount);
+                    Arrays.sort(candidates);
+                    entry.setValue(candidates);
+                }
+            }
+            return new ContentPathIndex(
+                Collections.unmodifiableList(m_contents), index, unindexed);
+        }
+    }
+
+    /**
+     * Returns the directories of a content, which are all directories
+     * containing an entry plus all directory entries themselves.
+    **/
+    static Set<String> getDirectories(Content content)
+    {
+        Set<String> directories = new HashSet<>();
+        Enumeration<String> e = content.getEntries();
+        // A content without entries returns null.
+        while ((e != null) && e.hasMoreElements())
+        {
+            String entry = e.nextElement();
+            int start = 0;
+            while ((start < entry.length()) && (entry.charAt(start) == '/'))
+            {
+                start++;
+            }
+            int end = entry.length();
+            if ((end > start) && (entry.charAt(end - 1) == '/'))
+            {
+                end--;
+                if (!directories.add(entry.substring(start, end)))
+                {
+                    continue;
+                }
+            }
+            // Add all parent directories, unless they were already added
+            // for a sibling entry.
+            for (int idx = entry.lastIndexOf('/', end - 1);
+                idx >= start;
+                idx = entry.lastIndexOf('/', idx - 1))
+            {
+                if (!directories.add(entry.substring(start, idx)))
+                {
+                    break;
+                }
+            }
+            directories.add("");
+        }
+        return directories;
+    }
+
+    /**
+     * Loads the persisted directories of the class path entries of a revision.
+     * @param file the index file in the revision directory.
+     * @param fingerprint identifies the state of the revision content the
+     *        directories were computed from.
+     * @return the directories by class path entry, which is empty if there
+     *         is no persisted index or it was computed from another state.
+    **/
+    static Map<String, Set<String>> load(File file, String fingerprint)
+    {
+        if ((file == null) || !m_secureAction.fileExists(file))
+        {
+            return Collections.emptyMap();
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                m_secureAction.getFileInputStream(file)));
+            if ((in.readInt() != INDEX_FILE_VERSION) || !in.readUTF().equals(fingerprint))
+            {
+                return Collections.emptyMap();
+            }
+            Map<String, Set<String>> result = new HashMap<>();
+            for (int entries = in.readInt(); entries > 0; entries--)
+            {
+                String key = in.readUTF();
+                int count = in.readInt();
+                Set<String> directories = new HashSet<>(count * 4 / 3 + 1);
+                for (int i = 0; i < count; i++)
+                {
+                    directories.add(in.readUTF());
+                }
+                result.put(key, directories);
+            }
+            return result;
+        }
+        catch (IOException ex)
+        {
+            // A corrupt index is simply computed again.
+            return Collections.emptyMap();
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Persists the directories of the class path entries of a revision. The
+     * index file is written to a temporary file first, so that a concurrent
+     * or interrupted write never leaves a partial index behind.
+    **/
+    static void store(File file, String fingerprint,
+        Map<String, Set<String>> directories) throws IOException
+    {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            m_secureAction.getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(INDEX_FILE_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(directories.size());
+            for (Map.Entry<String, Set<String>> entry : directories.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String directory : entry.getValue())
+                {
+                    out.writeUTF(directory);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        m_secureAction.deleteFile(file);
+        if (!m_secureAction.renameFile(tmp, file))
+        {
+            m_secureAction.deleteFile(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+}
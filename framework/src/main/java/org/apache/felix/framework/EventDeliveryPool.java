@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.framework.util.ListenerInfo;
+
+/**
+ * Delivers asynchronous events of a single framework instance on a bounded
+ * pool of threads instead of the shared <tt>FelixDispatchQueue</tt> thread.
+ * Each listener has its own queue of pending deliveries which is drained by
+ * at most one pool thread at a time, so events are delivered to a listener
+ * in the order they were fired while a slow listener only holds up its own
+ * queue.
+**/
+class EventDeliveryPool
+{
+    private final Logger m_logger;
+    private final int m_threads;
+    private final boolean m_virtual;
+    private final ConcurrentMap<ListenerInfo, ListenerQueue> m_queues =
+        new ConcurrentHashMap<>();
+    private volatile ExecutorService m_executor;
+
+    private EventDeliveryPool(Logger logger, int threads, boolean virtual)
+    {
+        m_logger = logger;
+        m_threads = threads;
+        m_virtual = virtual;
+    }
+
+    /**
+     * Creates a delivery pool from the framework configuration.
+     * @param logger the framework logger.
+     * @param threads the value of the thread count property.
+     * @param virtual the value of the virtual threads property.
+     * @return the pool or <tt>null</tt> if asynchronous events should be
+     *         delivered by the shared dispatch thread.
+    **/
+    static EventDeliveryPool create(Logger logger, String threads, String virtual)
+    {
+        int count = 0;
+        if (threads != null)
+        {
+            try
+            {
+                count = Integer.parseInt(threads.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                logger.log(Logger.LOG_WARNING,
+                    "Invalid event dispatcher thread count: " + threads);
+            }
+        }
+        boolean isVirtual = "true".equalsIgnoreCase(virtual);
+        if ((count <= 0) && !isVirtual)
+        {
+            return null;
+        }
+        return new EventDeliveryPool(logger, (count > 0)
+            ? count : Runtime.getRuntime().availableProcessors(), isVirtual);
+    }
+
+    synchronized void start()
+    {
+        if (m_executor == null)
+        {
+            ThreadFactory factory = null;
+            if (m_virtual)
+            {
+                factory = getVirtualThreadFactory();
+                if (factory == null)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Virtual threads are not available, using platform threads for event delivery.");
+                }
+            }
+            if (factory == null)
+            {
+                factory = new ThreadFactory()
+                {
+                    private final AtomicInteger m_counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "FelixDispatchQueue-" + m_counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                };
+            }
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                m_threads, m_threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                factory);
+            executor.allowCoreThreadTimeOut(true);
+            m_executor = executor;
+        }
+    }
+
+    /**
+     * Stops accepting events and waits until all queued events have been
+     * delivered.
+    **/
+    void stop()
+    {
+        ExecutorService executor;
+        synchronized (this)
+        {
+            executor = m_executor;
+            m_executor = null;
+        }
+        if (executor != null)
+        {
+            executor.shutdown();
+            boolean interrupted = false;
+            while (!executor.isTerminated())
+            {
+                try
+                {
+                    executor.awaitTermination(1, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    boolean isStopped()
+    {
+        return m_executor == null;
+    }
+
+    /**
+     * Queues a delivery for the specified listener.
+     * @param info the listener the delivery is for.
+     * @param delivery the delivery, which must not throw.
+     * @return <tt>true</tt> if the delivery was queued, <tt>false</tt> if
+     *         the pool is stopped.
+    **/
+    boolean enqueue(ListenerInfo info, Runnable delivery)
+    {
+        ExecutorService executor = m_executor;
+        if (executor == null)
+        {
+            return false;
+        }
+        while (true)
+        {
+            ListenerQueue queue = m_queues.get(info);
+            if (queue == null)
+            {
+                queue = new ListenerQueue(info);
+                ListenerQueue existing = m_queues.putIfAbsent(info, queue);
+                if (existing != null)
+                {
+                    queue = existing;
+                }
+            }
+            // A queue is retired once it runs empty, in which case we
+            // just try again with a fresh one.
+            int result = queue.offer(delivery, executor);
+            if (result >= 0)
+            {
+                return result > 0;
+            }
+        }
+    }
+
+    private static ThreadFactory getVirtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, "FelixDispatchQueue-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (Throwable th)
+        {
+            return null;
+        }
+    }
+
+    private class ListenerQueue implements Runnable
+    {
+        private final ListenerInfo m_info;
+        private final Deque<Runnable> m_deliveries = new ArrayDeque<>();
+        private boolean m_scheduled = false;
+        private boolean m_retired = false;
+
+        ListenerQueue(ListenerInfo info)
+        {
+            m_info = info;
+        }
+
+        // Returns 1 if queued, 0 if rejected and -1 if retired.
+        synchronized int offer(Runnable delivery, ExecutorService executor)
+        {
+            if (m_retired)
+            {
+                return -1;
+            }
+            m_deliveries.add(delivery);
+            if (!m_scheduled)
+            {
+                m_scheduled = true;
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // The pool was shut down concurrently, so drop the
+                    // delivery like the dispatch thread would; the queue
+                    // was empty before since it was not scheduled.
+                    m_deliveries.clear();
+                    retire();
+                    return 0;
+                }
+            }
+            return 1;
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Runnable delivery;
+                synchronized (this)
+                {
+                    delivery = m_deliveries.poll();
+                    if (delivery == null)
+                    {
+                        retire();
+                        return;
+                    }
+                }
+                delivery.run();
+            }
+        }
+
+        private void retire()
+        {
+            m_scheduled = false;
+            m_retired = true;
+            m_queues.remove(m_info, this);
+        }
+    }
+}
@@ -32,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
@@ -63,6 +65,20 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.emptyMap();
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.emptyMap();
+    // Service listeners indexed by the object classes their filters require.
+    private ServiceListenerIndex m_svcListenerIndex = ServiceListenerIndex.EMPTY;
+
+    // Optional per framework pool used instead of the shared dispatch thread.
+    private final EventDeliveryPool m_pool;
+
+    // Runtime metrics or null if disabled.
+    private final FrameworkMetricsImpl m_metrics;
+
+    // Statistics about asynchronous deliveries, counted per listener.
+    private final AtomicInteger m_asyncQueueDepth = new AtomicInteger();
+    private final AtomicLong m_asyncDeliveryCount = new AtomicLong();
+    private final AtomicLong m_asyncDeliveryLatency = new AtomicLong();
+    private final AtomicLong m_asyncMaxDeliveryLatency = new AtomicLong();
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -78,13 +94,27 @@ public class EventDispatcher
     private static final SecureAction m_secureAction = new SecureAction();
 
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, null, null);
+    }
+
+    EventDispatcher(Logger logger, ServiceRegistry registry, EventDeliveryPool pool,
+        FrameworkMetricsImpl metrics)
     {
         m_logger = logger;
         m_registry = registry;
+        m_pool = pool;
+        m_metrics = metrics;
     }
 
     public void startDispatching()
     {
+        if (m_pool != null)
+        {
+            m_pool.start();
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -124,6 +154,12 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_pool != null)
+        {
+            m_pool.stop();
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -259,6 +295,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = m_svcListenerIndex.add(info);
             }
         }
         return null;
@@ -311,6 +348,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removed = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -327,6 +365,7 @@ public class EventDispatcher
                         {
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
+                        removed = info;
                         idx = i;
                         break;
                     }
@@ -357,6 +396,10 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                if (removed != null)
+                {
+                    m_svcListenerIndex = m_svcListenerIndex.remove(removed);
+                }
             }
         }
 
@@ -386,6 +429,7 @@ public class EventDispatcher
 
             // Remove all service listeners associated with the specified bundle.
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
+            m_svcListenerIndex = m_svcListenerIndex.removeAll(bc);
         }
     }
 
@@ -426,6 +470,8 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex =
+                            m_svcListenerIndex.replace(info, newInfo);
                         return oldFilter;
                     }
                 }
@@ -530,13 +576,18 @@ public class EventDispatcher
     public void fireServiceEvent(
         final ServiceEvent event, final Dictionary<String,?> oldProps, final Felix felix)
     {
-        // Take a snapshot of the listener array.
-        Map<BundleContext, List<ListenerInfo>> listeners = null;
+        // Take a snapshot of the listener index.
+        ServiceListenerIndex index = null;
         synchronized (this)
         {
-            listeners = m_svcListeners;
+            index = m_svcListenerIndex;
         }
 
+        // Only consider listeners whose filter could possibly match
+        // the object classes of the service.
+        Map<BundleContext, List<ListenerInfo>> listeners =
+            index.getListeners(event.getServiceReference());
+
         // Use service registry hooks to filter target listeners.
         listeners = filterListenersUsingHooks(event, felix, listeners);
 
@@ -763,11 +814,105 @@ public class EventDispatcher
         return whitelist;
     }
 
+    /**
+     * Returns the number of asynchronous listener notifications that are
+     * queued but not yet delivered.
+     * @return the current asynchronous queue depth.
+    **/
+    public int getAsyncQueueDepth()
+    {
+        return m_asyncQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of asynchronous listener notifications delivered.
+     * @return the number of asynchronous deliveries.
+    **/
+    public long getAsyncDeliveryCount()
+    {
+        return m_asyncDeliveryCount.get();
+    }
+
+    /**
+     * Returns the accumulated time asynchronous listener notifications spent
+     * queued before being delivered.
+     * @return the total delivery latency in nanoseconds.
+    **/
+    public long getAsyncDeliveryLatency()
+    {
+        return m_asyncDeliveryLatency.get();
+    }
+
+    /**
+     * Returns the longest time an asynchronous listener notification spent
+     * queued before being delivered.
+     * @return the maximum delivery latency in nanoseconds.
+    **/
+    public long getAsyncMaxDeliveryLatency()
+    {
+        return m_asyncMaxDeliveryLatency.get();
+    }
+
+    private void recordAsyncDelivery(long queuedAt, int count)
+    {
+        long latency = System.nanoTime() - queuedAt;
+        m_asyncQueueDepth.addAndGet(-count);
+        m_asyncDeliveryCount.addAndGet(count);
+        m_asyncDeliveryLatency.addAndGet(latency * count);
+        long max = m_asyncMaxDeliveryLatency.get();
+        while ((latency > max)
+            && !m_asyncMaxDeliveryLatency.compareAndSet(max, latency))
+        {
+            max = m_asyncMaxDeliveryLatency.get();
+        }
+    }
+
+    private static int countListeners(Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        int count = 0;
+        for (List<ListenerInfo> infos : listeners.values())
+        {
+            count += infos.size();
+        }
+        return count;
+    }
+
     private static void fireEventAsynchronously(
-        EventDispatcher dispatcher, int type,
+        final EventDispatcher dispatcher, final int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
-        EventObject event)
+        final EventObject event)
     {
+        // If we have our own delivery pool, then queue the event for each
+        // listener individually so that every listener gets its events in
+        // order without waiting for other listeners.
+        if (dispatcher.m_pool != null)
+        {
+            final long queuedAt = System.nanoTime();
+            for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+            {
+                for (final ListenerInfo info : entry.getValue())
+                {
+                    dispatcher.m_asyncQueueDepth.incrementAndGet();
+                    boolean queued = dispatcher.m_pool.enqueue(info, new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            dispatcher.recordAsyncDelivery(queuedAt, 1);
+                            deliverEvent(dispatcher, type, info, event, null);
+                        }
+                    });
+                    if (!queued)
+                    {
+                        // The pool is stopped, so ignore the dispatch request.
+                        dispatcher.m_asyncQueueDepth.decrementAndGet();
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -794,6 +939,9 @@ public class EventDispatcher
         req.m_type = type;
         req.m_listeners = listeners;
         req.m_event = event;
+        req.m_count = countListeners(listeners);
+        req.m_queuedAt = System.nanoTime();
+        dispatcher.m_asyncQueueDepth.addAndGet(req.m_count);
 
         // Lock the request list.
         synchronized (m_requestList)
@@ -817,44 +965,57 @@ public class EventDispatcher
             {
                 for (ListenerInfo info : entry.getValue())
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
-
-                    try
-                    {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
-                    }
-                    catch (Throwable th)
-                    {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
-                        {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
-                        }
-                    }
+                    deliverEvent(dispatcher, type, info, event, oldProps);
                 }
             }
         }
     }
 
+    private static void deliverEvent(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary<String,?> oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+        FrameworkMetricsImpl metrics = dispatcher.m_metrics;
+        long start = (metrics != null) ? System.nanoTime() : 0;
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+            }
+            if (metrics != null)
+            {
+                metrics.listenerCalled(bundle, System.nanoTime() - start);
+            }
+        }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
+    }
+
     private static void invokeFrameworkListenerCallback(
         Bundle bundle, final EventListener l, final EventObject event)
     {
@@ -970,7 +1131,7 @@ public class EventDispatcher
             if (matched)
             {
                 if ((l instanceof AllServiceListener) ||
-                    Util.isServiceAssignable(bundle, ((ServiceEvent) event).getServiceReference()))
+                    ServiceRegistry.isServiceAssignable(bundle, ((ServiceEvent) event).getServiceReference()))
                 {
                     if (System.getSecurityManager() != null)
                     {
@@ -1143,6 +1304,7 @@ public class EventDispatcher
             // NOTE: We don't catch any exceptions here, because
             // the invoked method shields us from exceptions by
             // catching Throwables when it invokes callbacks.
+            req.m_dispatcher.recordAsyncDelivery(req.m_queuedAt, req.m_count);
             fireEventImmediately(
                 req.m_dispatcher, req.m_type, req.m_listeners,
                 req.m_event, null);
@@ -1154,6 +1316,8 @@ public class EventDispatcher
                 req.m_type = -1;
                 req.m_listeners = null;
                 req.m_event = null;
+                req.m_count = 0;
+                req.m_queuedAt = 0;
                 m_requestPool.add(req);
             }
         }
@@ -1169,5 +1333,7 @@ public class EventDispatcher
         public int m_type = -1;
         public Map<BundleContext, List<ListenerInfo>> m_listeners = null;
         public EventObject m_event = null;
+        public int m_count = 0;
+        public long m_queuedAt = 0;
     }
 }
@@ -475,6 +475,18 @@ class ExtensionManager implements Content
         m_unresolvedExtensions.add(bri);
     }
 
+    /**
+     * Removes an extension bundle that was added by
+     * {@link #addExtensionBundle(BundleImpl)} but not resolved yet, which is
+     * done when the install of the extension bundle is rolled back.
+     *
+     * @param bundle the extension bundle to remove.
+     */
+    synchronized void removeUnresolvedExtensionBundle(BundleImpl bundle)
+    {
+        m_unresolvedExtensions.remove(bundle.adapt(BundleRevisionImpl.class));
+    }
+
     public synchronized List<Bundle> resolveExtensionBundles(Felix felix)
     {
         if (m_unresolvedExtensions.isEmpty())
@@ -50,9 +50,17 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.StringTokenizer;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -63,6 +71,7 @@ import org.apache.felix.framework.cache.BundleCache;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.ext.SecurityProvider;
+import org.apache.felix.framework.metrics.FrameworkMetrics;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ListenerInfo;
 import org.apache.felix.framework.util.MapToDictionary;
@@ -154,13 +163,10 @@ public class Felix extends BundleImpl implements Framework
     // be acquired before locks with lower priority.
     private final Object[] m_installRequestLock_Priority1 = new Object[0];
 
-    // Contains two maps, one mapping a String bundle location to a bundle
-    // and the other mapping a Long bundle identifier to a bundle.
+    // Installed bundles indexed by location and by identifier.
     // CONCURRENCY: Access guarded by the global lock for writes,
-    // but no lock for reads since it is copy on write.
-    private volatile Map[] m_installedBundles;
-    private static final int LOCATION_MAP_IDX = 0;
-    private static final int IDENTIFIER_MAP_IDX = 1;
+    // but no lock for reads since it is a concurrent structure.
+    private volatile InstalledBundles m_installedBundles;
     // An array of uninstalled bundles before a refresh occurs.
     // CONCURRENCY: Access guarded by the global lock for writes,
     // but no lock for reads since it is copy on write.
@@ -198,6 +204,21 @@ public class Felix extends BundleImpl implements Framework
     // List of event listeners.
     private final EventDispatcher m_dispatcher;
 
+    // Runtime metrics, if enabled.
+    private final FrameworkMetricsImpl m_metrics;
+
+    // Cache of parsed filters.
+    private final FilterCache m_filterCache;
+
+    // Maximum number of bundles of a start level to start in parallel.
+    private final int m_startLevelParallelism;
+
+    // Whether resolution snapshots are used for warm restarts.
+    private final boolean m_resolverSnapshot;
+
+    // Records and preloads the classes of bundles at startup, if enabled.
+    private final ClassLoadingProfiler m_classLoadingProfiler;
+
     // Reusable bundle URL stream handler.
     private final URLStreamHandler m_bundleStreamHandler;
 
@@ -432,6 +453,10 @@ public class Felix extends BundleImpl implements Framework
         // Create default bundle stream handler.
         m_bundleStreamHandler = new URLHandlersBundleStreamHandler(this, m_secureAction);
 
+        // Create the runtime metrics, if enabled.
+        m_metrics = "true".equalsIgnoreCase(getProperty(FelixConstants.METRICS_PROP))
+            ? new FrameworkMetricsImpl(this) : null;
+
         // Create service registry.
         m_registry = new ServiceRegistry(m_logger, new ServiceRegistryCallbacks() {
             @Override
@@ -439,7 +464,7 @@ public class Felix extends BundleImpl implements Framework
             {
                 fireServiceEvent(event, oldProps);
             }
-        });
+        }, m_metrics);
 
         // Create a resolver and its state.
         m_resolver = new StatefulResolver(this, m_registry);
@@ -460,7 +485,70 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(m_logger, m_registry,
+            EventDeliveryPool.create(m_logger,
+                getProperty(FelixConstants.EVENT_DISPATCHER_THREADS_PROP),
+                getProperty(FelixConstants.EVENT_DISPATCHER_VIRTUAL_THREADS_PROP)),
+            m_metrics);
+
+        // Create filter cache.
+        int filterCacheSize = 1024;
+        String filterCacheProp = getProperty(FelixConstants.FILTER_CACHE_SIZE_PROP);
+        if (filterCacheProp != null)
+        {
+            try
+            {
+                filterCacheSize = Integer.parseInt(filterCacheProp.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid filter cache size: " + filterCacheProp);
+            }
+        }
+        m_filterCache = new FilterCache(filterCacheSize);
+
+        // Read the start level parallelism.
+        int startLevelParallelism = 1;
+        String startLevelParallelismProp = getProperty(FelixConstants.STARTLEVEL_PARALLELISM_PROP);
+        if (startLevelParallelismProp != null)
+        {
+            try
+            {
+                startLevelParallelism = Integer.parseInt(startLevelParallelismProp.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid start level parallelism: " + startLevelParallelismProp);
+            }
+        }
+        m_startLevelParallelism = startLevelParallelism;
+
+        // Whether resolution snapshots are used for warm restarts.
+        String resolverSnapshotProp = getProperty(FelixConstants.RESOLVER_SNAPSHOT_PROP);
+        m_resolverSnapshot = (resolverSnapshotProp != null)
+            && Boolean.parseBoolean(resolverSnapshotProp.trim());
+
+        // Read how long classes are recorded for preloading.
+        int classProfileSeconds = 0;
+        String classProfileProp = getProperty(BundleCache.CACHE_CLASSPROFILE_PROP);
+        if (classProfileProp != null)
+        {
+            try
+            {
+                classProfileSeconds = Integer.parseInt(classProfileProp.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid class profile duration: " + classProfileProp);
+            }
+        }
+        m_classLoadingProfiler = (classProfileSeconds > 0)
+            ? new ClassLoadingProfiler(m_logger, classProfileSeconds * 1000L,
+                Runtime.getRuntime().availableProcessors())
+            : null;
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -505,6 +593,25 @@ public class Felix extends BundleImpl implements Framework
         return m_bootPkgWildcards;
     }
 
+    ClassLoadingProfiler getClassLoadingProfiler()
+    {
+        return m_classLoadingProfiler;
+    }
+
+    EventDispatcher getEventDispatcher()
+    {
+        return m_dispatcher;
+    }
+
+    /**
+     * Returns the runtime metrics.
+     * @return the metrics or <tt>null</tt> if they are disabled.
+    **/
+    FrameworkMetricsImpl getMetrics()
+    {
+        return m_metrics;
+    }
+
     private <K,V> Map<K,V> createUnmodifiableMap(Map<K,V> mutableMap)
     {
         Map<K,V> result = Collections.unmodifiableMap(mutableMap);
@@ -741,17 +848,19 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
+                // Start recording the classes loaded during startup.
+                if (m_classLoadingProfiler != null)
+                {
+                    m_classLoadingProfiler.start();
+                }
+
                 // Initialize installed bundle data structures.
-                Map[] maps = new Map[] {
-                    new HashMap<String, BundleImpl>(1),
-                    new TreeMap<Long, BundleImpl>()
-                };
+                InstalledBundles installedBundles = new InstalledBundles();
                 m_uninstalledBundles = new ArrayList<>(0);
 
                 // Add the system bundle to the set of installed bundles.
-                maps[LOCATION_MAP_IDX].put(_getLocation(), this);
-                maps[IDENTIFIER_MAP_IDX].put(0L, this);
-                m_installedBundles = maps;
+                installedBundles.add(_getLocation(), this);
+                m_installedBundles = installedBundles;
 
 
                 try
@@ -862,6 +971,11 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
                 }
 
+                // Rebuild the wirings of the last run if nothing changed since.
+                if (m_resolverSnapshot)
+                {
+                    restoreResolutionSnapshot();
+                }
 
                 if (m_connectFramework != null)
                 {
@@ -919,7 +1033,7 @@ public class Felix extends BundleImpl implements Framework
                     }
                     try
                     {
-                        for (Object bundle : m_installedBundles[IDENTIFIER_MAP_IDX].values())
+                        for (Object bundle : m_installedBundles.getBundles())
                         {
                             try
                             {
@@ -931,13 +1045,7 @@ public class Felix extends BundleImpl implements Framework
                             catch (Exception ex)
                             {
                                 ((BundleImpl) bundle).close();
-                                maps = new Map[] {
-                                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                                };
-                                maps[LOCATION_MAP_IDX].remove(((BundleImpl) bundle)._getLocation());
-                                maps[IDENTIFIER_MAP_IDX].remove(Long.valueOf(((BundleImpl) bundle).getBundleId()));
-                                m_installedBundles = maps;
+                                m_installedBundles.remove(((BundleImpl) bundle)._getLocation());
 
                                 m_logger.log(
                                     Logger.LOG_ERROR,
@@ -1140,6 +1248,13 @@ public class Felix extends BundleImpl implements Framework
             releaseBundleLock(this);
         }
 
+        // Preload the classes profiled during the last startup, now that
+        // the bundles providing weaving hooks have been started.
+        if (m_classLoadingProfiler != null)
+        {
+            m_classLoadingProfiler.frameworkStarted();
+        }
+
         // Fire started event for system bundle.
         fireBundleEvent(BundleEvent.STARTED, this);
 
@@ -1484,126 +1599,63 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
-            // Process bundles and stop or start them accordingly.
-            while (bundlesRemaining)
-            {
-                StartLevelTuple tuple;
+            // Bundles of a start level are only started in parallel when
+            // raising the start level.
+            ExecutorService executor = (!isLowering && (m_startLevelParallelism > 1))
+                ? createStartLevelExecutor() : null;
 
-                // Remove our tuple to be processed while holding the queue lock
-                // and update the active start level accordingly, which allows
-                // us to determine in startBundle() if concurrent requests to
-                // start a bundle should be handled synchronously or just added
-                // to the queue and handled asynchronously.
-                synchronized (m_startLevelBundles)
+            try
+            {
+                // Process bundles and stop or start them accordingly.
+                while (bundlesRemaining)
                 {
-                    if (isLowering)
-                    {
-                        tuple = m_startLevelBundles.last();
-                    }
-                    else
+                    if (executor != null)
                     {
-                        tuple = m_startLevelBundles.first();
+                        bundlesRemaining = processNextStartLevel(executor, low, high);
+                        continue;
                     }
 
-                    if ((tuple.m_level >= low) && (tuple.m_level <= high))
-                    {
-                        m_activeStartLevel = tuple.m_level;
-                    }
-                }
+                    StartLevelTuple tuple;
 
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
-                {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
+                    // Remove our tuple to be processed while holding the queue lock
+                    // and update the active start level accordingly, which allows
+                    // us to determine in startBundle() if concurrent requests to
+                    // start a bundle should be handled synchronously or just added
+                    // to the queue and handled asynchronously.
+                    synchronized (m_startLevelBundles)
                     {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                        if (isLowering)
                         {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
+                            tuple = m_startLevelBundles.last();
                         }
                         else
                         {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
+                            tuple = m_startLevelBundles.first();
                         }
-                        continue;
-                    }
 
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        if ((tuple.m_level >= low) && (tuple.m_level <= high))
                         {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
+                            m_activeStartLevel = tuple.m_level;
                         }
                     }
-                    finally
+
+                    if (!processStartLevelTuple(tuple, isLowering))
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        continue;
                     }
-                }
 
-                synchronized (m_startLevelBundles)
+                    synchronized (m_startLevelBundles)
+                    {
+                        m_startLevelBundles.remove(tuple);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    }
+                }
+            }
+            finally
+            {
+                if (executor != null)
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    executor.shutdown();
                 }
             }
 
@@ -1634,6 +1686,212 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops a single bundle as part of a start level change.
+     * @param tuple The bundle and its start level.
+     * @param isLowering Whether the start level is being lowered.
+     * @return <tt>false</tt> if the bundle could not be locked and should be
+     *         processed again, <tt>true</tt> otherwise.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Ignore the system bundle, since its start() and
+        // stop() methods get called explicitly in Felix.start()
+        // and Felix.stop(), respectively.
+        if (tuple.m_bundle.getBundleId() == 0)
+        {
+            return true;
+        }
+
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                m_logger.log(tuple.m_bundle,
+                    Logger.LOG_ERROR,
+                    "Error locking " + tuple.m_bundle._getLocation(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering
+                && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the queued bundles of the lowest queued start level in parallel
+     * and waits until all of them are processed, so that start levels are
+     * still processed strictly in order.
+     * @param executor The executor to start the bundles on.
+     * @param low The lowest start level being processed.
+     * @param high The highest start level being processed.
+     * @return Whether there are bundles remaining to be processed.
+    **/
+    private boolean processNextStartLevel(ExecutorService executor, int low, int high)
+    {
+        List<StartLevelTuple> tuples = new ArrayList<>();
+        synchronized (m_startLevelBundles)
+        {
+            int level = m_startLevelBundles.first().m_level;
+            if ((level >= low) && (level <= high))
+            {
+                m_activeStartLevel = level;
+            }
+            for (StartLevelTuple tuple : m_startLevelBundles)
+            {
+                if (tuple.m_level != level)
+                {
+                    break;
+                }
+                tuples.add(tuple);
+            }
+        }
+
+        long levelStart = System.nanoTime();
+        List<Future<Boolean>> futures = new ArrayList<>(tuples.size());
+        for (final StartLevelTuple tuple : tuples)
+        {
+            futures.add(executor.submit(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return processStartLevelTuple(tuple, false);
+                }
+            }));
+        }
+
+        // Wait for the whole start level, even if interrupted, since start
+        // levels must be processed in order.
+        List<StartLevelTuple> processed = new ArrayList<>(tuples.size());
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); )
+        {
+            try
+            {
+                if (futures.get(i).get())
+                {
+                    processed.add(tuples.get(i));
+                }
+                i++;
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted = true;
+            }
+            catch (ExecutionException ex)
+            {
+                m_logger.log(tuples.get(i).m_bundle, Logger.LOG_ERROR,
+                    "Error starting " + tuples.get(i).m_bundle._getLocation(), ex.getCause());
+                processed.add(tuples.get(i));
+                i++;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Processed " + tuples.size()
+                + " bundles of start level " + m_activeStartLevel + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - levelStart) + " ms.");
+        }
+
+        synchronized (m_startLevelBundles)
+        {
+            m_startLevelBundles.removeAll(processed);
+            return !m_startLevelBundles.isEmpty();
+        }
+    }
+
+    private ExecutorService createStartLevelExecutor()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            m_startLevelParallelism, m_startLevelParallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                private final AtomicInteger m_counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.WORKER_THREAD_NAME_PREFIX + m_counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2218,7 +2476,7 @@ public class Felix extends BundleImpl implements Framework
             // queued but processed synchronously.
             // Note: Don't queue starts from the start level thread, otherwise
             // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            if (!FrameworkStartLevelImpl.isStartLevelThread())
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2404,6 +2662,7 @@ public class Felix extends BundleImpl implements Framework
                 return;
             }
             
+            long activationStart = System.nanoTime();
             Throwable rethrow = null;
             try
             {
@@ -2433,6 +2692,14 @@ public class Felix extends BundleImpl implements Framework
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
 
+                if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+                {
+                    m_logger.log(bundle, Logger.LOG_DEBUG,
+                        "Activated " + bundle._getLocation() + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activationStart)
+                        + " ms.");
+                }
+
                 // We still need to fire the STARTED event, but we will do
                 // it later so we can release the bundle lock.
             }
@@ -2955,17 +3222,10 @@ public class Felix extends BundleImpl implements Framework
             }
             try
             {
-                // Use a copy-on-write approach to remove the bundle
-                // from the installed maps.
-                Map[] maps = new Map[] {
-                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                };
-                target = (BundleImpl) maps[LOCATION_MAP_IDX].remove(bundle._getLocation());
+                // Remove the bundle from the installed bundles.
+                target = m_installedBundles.remove(bundle._getLocation());
                 if (target != null)
                 {
-                    maps[IDENTIFIER_MAP_IDX].remove(Long.valueOf(target.getBundleId()));
-                    m_installedBundles = maps;
 
                     // Set the bundle's persistent state to uninstalled.
                     bundle.setPersistentStateUninstalled();
@@ -3187,15 +3447,8 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.addExtensionBundle(bundle);
                 }
 
-                // Use a copy-on-write approach to add the bundle
-                // to the installed maps.
-                Map[] maps = new Map[] {
-                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                };
-                maps[LOCATION_MAP_IDX].put(bundle._getLocation(), bundle);
-                maps[IDENTIFIER_MAP_IDX].put(Long.valueOf(bundle.getBundleId()), bundle);
-                m_installedBundles = maps;
+                // Add the bundle to the installed bundles.
+                m_installedBundles.add(bundle._getLocation(), bundle);
             }
             finally
             {
@@ -3226,56 +3479,92 @@ public class Felix extends BundleImpl implements Framework
         Bundle origin, String location, InputStream is)
         throws BundleException
     {
-        BundleArchive ba = null;
-        BundleImpl existing, bundle = null;
+        return installBundles(origin, Collections.singletonMap(location, is)).get(0);
+    }
+
+    /**
+     * Installs multiple bundles at once. The bundles are added to the cache
+     * one by one, but they are created and added to the installed bundles
+     * under a single acquisition of the global lock. Either all new bundles
+     * are installed or none of them is. Locations that are already installed
+     * are returned as is, like for a single install.
+     *
+     * @param origin The bundle that installs the bundles.
+     * @param bundles The locations of the bundles to install mapped to the
+     *        input streams to read their content from, or to <tt>null</tt>
+     *        to read the content from the location.
+     * @return The installed bundles in the iteration order of the map.
+     * @throws BundleException If any of the bundles cannot be installed.
+    **/
+    List<Bundle> installBundles(
+        Bundle origin, Map<String, InputStream> bundles)
+        throws BundleException
+    {
+        List<String> locations = new ArrayList<>(bundles.keySet());
+        BundleImpl[] existing = new BundleImpl[locations.size()];
+        BundleArchive[] archives = new BundleArchive[locations.size()];
+        BundleImpl[] installed = new BundleImpl[locations.size()];
+        List<BundleImpl> extensions = new ArrayList<>();
+        boolean anyInstalled = false;
 
-        // Acquire an install lock.
-        acquireInstallLock(location);
+        // Acquire the install locks.
+        acquireInstallLocks(locations);
 
         try
         {
-            // Check to see if the framework is still running;
-            if ((getState() == Bundle.STOPPING) ||
-                (getState() == Bundle.UNINSTALLED))
-            {
-                throw new BundleException("The framework has been shutdown.");
-            }
-
-            // If bundle location is already installed, then
-            // return it as required by the OSGi specification.
-            existing = (BundleImpl) getBundle(location);
-            if (existing == null)
+            try
             {
-                // First generate an identifier for it.
-                long id = getNextId();
-
-                try
-                {
-                    // Add the bundle to the cache.
-                    ba = m_cache.create(id, getInitialBundleStartLevel(), location, is, m_connectFramework);
-                }
-                catch (Exception ex)
+                // Check to see if the framework is still running;
+                if ((getState() == Bundle.STOPPING) ||
+                    (getState() == Bundle.UNINSTALLED))
                 {
-                    throw new BundleException(
-                        "Unable to cache bundle: " + location, ex);
+                    throw new BundleException("The framework has been shutdown.");
                 }
-                finally
+
+                // If bundle location is already installed, then
+                // return it as required by the OSGi specification.
+                for (int i = 0; i < locations.size(); i++)
                 {
+                    existing[i] = (BundleImpl) getBundle(locations.get(i));
+                    if (existing[i] != null)
+                    {
+                        continue;
+                    }
+                    String location = locations.get(i);
+                    InputStream is = bundles.get(location);
+
+                    // First generate an identifier for it.
+                    long id = getNextId();
+
                     try
                     {
-                        if (is != null) is.close();
+                        // Add the bundle to the cache.
+                        archives[i] = m_cache.create(id, getInitialBundleStartLevel(), location, is, m_connectFramework);
                     }
-                    catch (IOException ex)
+                    catch (Exception ex)
                     {
-                        m_logger.log(
-                            Logger.LOG_ERROR,
-                            "Unable to close input stream.", ex);
+                        throw new BundleException(
+                            "Unable to cache bundle: " + location, ex);
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            if (is != null) is.close();
+                        }
+                        catch (IOException ex)
+                        {
+                            m_logger.log(
+                                Logger.LOG_ERROR,
+                                "Unable to close input stream.", ex);
+                        }
                     }
+                    anyInstalled = true;
                 }
 
-                try
+                if (anyInstalled)
                 {
-                    // Acquire the global lock to create the bundle,
+                    // Acquire the global lock to create the bundles,
                     // since this impacts the global state.
                     boolean locked = acquireGlobalLock();
                     if (!locked)
@@ -3285,7 +3574,19 @@ public class Felix extends BundleImpl implements Framework
                     }
                     try
                     {
-                        bundle = new BundleImpl(this, origin, ba);
+                        for (int i = 0; i < archives.length; i++)
+                        {
+                            if (archives[i] == null)
+                            {
+                                continue;
+                            }
+                            installed[i] = new BundleImpl(this, origin, archives[i]);
+
+                            // Add the bundle to the installed bundles right
+                            // away, so that the symbolic name and version of
+                            // the next bundles are checked against it.
+                            m_installedBundles.add(locations.get(i), installed[i]);
+                        }
                     }
                     finally
                     {
@@ -3293,159 +3594,262 @@ public class Felix extends BundleImpl implements Framework
                         releaseGlobalLock();
                     }
 
-                    if (!bundle.isExtension())
+                    Object sm = System.getSecurityManager();
+                    if (sm != null)
                     {
-                        Object sm = System.getSecurityManager();
-                        if (sm != null)
+                        for (BundleImpl bundle : installed)
                         {
-                            ((SecurityManager) sm).checkPermission(
-                                new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+                            if ((bundle != null) && !bundle.isExtension())
+                            {
+                                ((SecurityManager) sm).checkPermission(
+                                    new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+                            }
                         }
                     }
-                    else
-                    {
-                        m_extensionManager.addExtensionBundle(bundle);
-                    }
                 }
-                catch (Throwable ex)
+            }
+            finally
+            {
+                // Always release install locks.
+                releaseInstallLocks(locations);
+
+                // Always try to close the input streams.
+                for (InputStream is : bundles.values())
                 {
-                    // Remove bundle from the cache.
                     try
                     {
-                        if (bundle != null)
-                        {
-                            bundle.closeAndDelete();
-                        }
-                        else if (ba != null)
-                        {
-                            ba.closeAndDelete();
-                        }
+                        if (is != null) is.close();
                     }
-                    catch (Exception ex1)
+                    catch (IOException ex)
                     {
-                        m_logger.log(bundle,
+                        m_logger.log(
                             Logger.LOG_ERROR,
-                            "Could not remove from cache.", ex1);
-                    }
-                    if (ex instanceof BundleException)
-                    {
-                        throw (BundleException) ex;
-                    }
-                    else if (ex instanceof AccessControlException)
-                    {
-                        throw (AccessControlException) ex;
-                    }
-                    else
-                    {
-                        throw new BundleException("Could not create bundle object.", ex);
+                            "Unable to close input stream.", ex);
+                        // Not much else we can do.
                     }
                 }
+            }
+
+            // Let the find hooks check the bundles that were already
+            // installed. This is done once the install locks are released,
+            // and the new bundles are removed again if one is rejected.
+            for (BundleImpl bundle : existing)
+            {
+                if (bundle != null)
+                {
+                    checkExistingBundle(origin, bundle);
+                }
+            }
 
-                // Acquire global lock.
+            // Only add the extensions once all bundles have been accepted,
+            // since an added extension can only be removed again as long
+            // as it is not resolved.
+            if (anyInstalled)
+            {
                 boolean locked = acquireGlobalLock();
                 if (!locked)
                 {
-                    // If the calling thread holds bundle locks, then we might not
-                    // be able to get the global lock.
-                    throw new IllegalStateException(
-                        "Unable to acquire global lock to add bundle.");
+                    throw new BundleException(
+                        "Unable to acquire the global lock to install the bundle.");
                 }
                 try
                 {
-                    // Use a copy-on-write approach to add the bundle
-                    // to the installed maps.
-                    Map[] maps = new Map[] {
-                        new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                        new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                    };
-                    maps[LOCATION_MAP_IDX].put(location, bundle);
-                    maps[IDENTIFIER_MAP_IDX].put(Long.valueOf(bundle.getBundleId()), bundle);
-                    m_installedBundles = maps;
+                    for (BundleImpl bundle : installed)
+                    {
+                        if ((bundle != null) && bundle.isExtension())
+                        {
+                            m_extensionManager.addExtensionBundle(bundle);
+                            extensions.add(bundle);
+                        }
+                    }
                 }
                 finally
                 {
+                    // Always release the global lock.
                     releaseGlobalLock();
                 }
+            }
+        }
+        catch (Throwable ex)
+        {
+            removeInstalledBundles(locations, archives, installed, extensions);
+            if (ex instanceof BundleException)
+            {
+                throw (BundleException) ex;
+            }
+            else if (ex instanceof AccessControlException)
+            {
+                throw (AccessControlException) ex;
+            }
+            else
+            {
+                throw new BundleException("Could not create bundle object.", ex);
+            }
+        }
 
-                for (Bundle extension : m_extensionManager.resolveExtensionBundles(this))
+        if (anyInstalled)
+        {
+            for (Bundle extension : m_extensionManager.resolveExtensionBundles(this))
+            {
+                m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
+            }
+        }
+
+        // Fire bundle events.
+        for (BundleImpl bundle : installed)
+        {
+            if (bundle != null)
+            {
+                fireBundleEvent(BundleEvent.INSTALLED, bundle, origin);
+            }
+        }
+
+        List<Bundle> result = new ArrayList<>(locations.size());
+        for (int i = 0; i < locations.size(); i++)
+        {
+            if (existing[i] != null)
+            {
+                result.add(existing[i]);
+            }
+            else
+            {
+                result.add(installed[i]);
+            }
+        }
+
+        // Return new bundles.
+        return result;
+    }
+
+    /**
+     * Rolls back a failed install of multiple bundles by removing the new
+     * bundles from the installed bundles and from the cache.
+     *
+     * @param locations The locations of the bundles.
+     * @param archives The archives created for the locations, if any.
+     * @param installed The bundles created for the locations, if any.
+     * @param extensions The extension bundles already added, which are not
+     *        resolved yet.
+    **/
+    private void removeInstalledBundles(List<String> locations,
+        BundleArchive[] archives, BundleImpl[] installed, List<BundleImpl> extensions)
+    {
+        boolean anyCreated = false;
+        for (BundleImpl bundle : installed)
+        {
+            anyCreated |= (bundle != null);
+        }
+        if (anyCreated)
+        {
+            boolean locked = acquireGlobalLock();
+            if (!locked)
+            {
+                // If the calling thread holds bundle locks, then we might not
+                // be able to get the global lock.
+                throw new IllegalStateException(
+                    "Unable to acquire global lock to remove bundles.");
+            }
+            try
+            {
+                for (BundleImpl extension : extensions)
                 {
-                    m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
+                    m_extensionManager.removeUnresolvedExtensionBundle(extension);
                 }
+                for (int i = 0; i < installed.length; i++)
+                {
+                    // The bundle may have been uninstalled already, since
+                    // the install locks are not held anymore.
+                    if ((installed[i] != null)
+                        && (m_installedBundles.getBundle(locations.get(i)) == installed[i]))
+                    {
+                        m_installedBundles.remove(locations.get(i));
+                    }
+                }
+            }
+            finally
+            {
+                // Always release the global lock.
+                releaseGlobalLock();
             }
         }
-        finally
-        {
-            // Always release install lock.
-            releaseInstallLock(location);
 
-            // Always try to close the input stream.
+        // Remove the bundles from the cache.
+        for (int i = 0; i < archives.length; i++)
+        {
             try
             {
-                if (is != null) is.close();
+                if (installed[i] != null)
+                {
+                    installed[i].closeAndDelete();
+                }
+                else if (archives[i] != null)
+                {
+                    archives[i].closeAndDelete();
+                }
             }
-            catch (IOException ex)
+            catch (Exception ex)
             {
-                m_logger.log(bundle,
+                m_logger.log(installed[i],
                     Logger.LOG_ERROR,
-                    "Unable to close input stream.", ex);
-                // Not much else we can do.
+                    "Could not remove from cache.", ex);
             }
         }
+    }
 
-        if (existing != null)
+    /**
+     * Lets the find hooks check whether an install of an already installed
+     * bundle may return the existing bundle.
+     *
+     * @param origin The bundle that tried to install the bundle.
+     * @param existing The already installed bundle.
+     * @throws BundleException If a hook rejected the install.
+    **/
+    private void checkExistingBundle(Bundle origin, BundleImpl existing)
+        throws BundleException
+    {
+        Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
+                getHookRegistry().getHooks(org.osgi.framework.hooks.bundle.FindHook.class);
+        if (!hooks.isEmpty())
         {
-            Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
-                    getHookRegistry().getHooks(org.osgi.framework.hooks.bundle.FindHook.class);
-            if (!hooks.isEmpty())
+            Collection<Bundle> bundles = new ArrayList<>(1);
+            bundles.add(existing);
+            bundles = new ShrinkableCollection<>(bundles);
+            for (ServiceReference<org.osgi.framework.hooks.bundle.FindHook> hook : hooks)
             {
-                Collection<Bundle> bundles = new ArrayList<>(1);
-                bundles.add(existing);
-                bundles = new ShrinkableCollection<>(bundles);
-                for (ServiceReference<org.osgi.framework.hooks.bundle.FindHook> hook : hooks)
+                org.osgi.framework.hooks.bundle.FindHook fh = getService(this, hook, false);
+                if (fh != null)
                 {
-                    org.osgi.framework.hooks.bundle.FindHook fh = getService(this, hook, false);
-                    if (fh != null)
+                    try
                     {
-                        try
-                        {
-                            m_secureAction.invokeBundleFindHook(
-                                fh, ((BundleImpl) origin)._getBundleContext(), bundles);
-                        }
-                        catch (Throwable th)
-                        {
-                            m_logger.doLog(
-                                hook.getBundle(),
-                                hook,
-                                Logger.LOG_WARNING,
-                                "Problem invoking bundle hook.",
-                                th);
-                        }
+                        m_secureAction.invokeBundleFindHook(
+                            fh, ((BundleImpl) origin)._getBundleContext(), bundles);
+                    }
+                    catch (Throwable th)
+                    {
+                        m_logger.doLog(
+                            hook.getBundle(),
+                            hook,
+                            Logger.LOG_WARNING,
+                            "Problem invoking bundle hook.",
+                            th);
                     }
                 }
+            }
 
-                if (origin != this)
+            if (origin != this)
+            {
+                // If the origin was something else than the system bundle, reject this action if
+                // the bundle has been removed by the hooks. However, if it is the system bundle,
+                // the install action should always succeed, regardless of whether the hooks are
+                // trying to prevent it.
+                if (bundles.isEmpty())
                 {
-                    // If the origin was something else than the system bundle, reject this action if
-                    // the bundle has been removed by the hooks. However, if it is the system bundle,
-                    // the install action should always succeed, regardless of whether the hooks are
-                    // trying to prevent it.
-                    if (bundles.isEmpty())
-                    {
-                        throw new BundleException(
-                            "Bundle installation rejected by hook.",
-                            BundleException.REJECTED_BY_HOOK);
-                    }
+                    throw new BundleException(
+                        "Bundle installation rejected by hook.",
+                        BundleException.REJECTED_BY_HOOK);
                 }
             }
         }
-        else
-        {
-            // Fire bundle event.
-            fireBundleEvent(BundleEvent.INSTALLED, bundle, origin);
-        }
-
-        // Return new bundle.
-        return (existing != null) ? existing : bundle;
     }
 
     /**
@@ -3457,7 +3861,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     Bundle getBundle(String location)
     {
-        return (Bundle) m_installedBundles[LOCATION_MAP_IDX].get(location);
+        return m_installedBundles.getBundle(location);
     }
 
     /**
@@ -3470,8 +3874,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     Bundle getBundle(BundleContext bc, long id)
     {
-        BundleImpl bundle = (BundleImpl)
-            m_installedBundles[IDENTIFIER_MAP_IDX].get(Long.valueOf(id));
+        BundleImpl bundle = m_installedBundles.getBundle(id);
         if (bundle != null)
         {
             List<BundleImpl> uninstalledBundles = m_uninstalledBundles;
@@ -3532,8 +3935,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     Bundle getBundle(long id)
     {
-        BundleImpl bundle = (BundleImpl)
-            m_installedBundles[IDENTIFIER_MAP_IDX].get(Long.valueOf(id));
+        BundleImpl bundle = m_installedBundles.getBundle(id);
         if (bundle != null)
         {
             return bundle;
@@ -3562,7 +3964,7 @@ public class Felix extends BundleImpl implements Framework
      **/
     Bundle[] getBundles(BundleContext bc)
     {
-        Collection<Bundle> bundles = m_installedBundles[IDENTIFIER_MAP_IDX].values();
+        Collection<Bundle> bundles = new ArrayList<Bundle>(m_installedBundles.getBundles());
         if ( !bundles.isEmpty() )
         {
             Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
@@ -3609,7 +4011,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     Bundle[] getBundles()
     {
-        Collection<Bundle> bundles = m_installedBundles[IDENTIFIER_MAP_IDX].values();
+        Collection<BundleImpl> bundles = m_installedBundles.getBundles();
         return bundles.toArray(new Bundle[bundles.size()]);
     }
 
@@ -3625,6 +4027,19 @@ public class Felix extends BundleImpl implements Framework
             bundle._getBundleContext(), BundleListener.class, l);
     }
 
+    /**
+     * Returns the parsed filter for the specified expression, which may be
+     * shared with other callers of this method.
+     *
+     * @param expr The filter expression.
+     * @return The parsed filter.
+     * @throws InvalidSyntaxException If the expression is not a valid filter.
+    **/
+    FilterImpl getFilter(String expr) throws InvalidSyntaxException
+    {
+        return m_filterCache.getFilter(expr);
+    }
+
     /**
      * Implementation for BundleContext.addServiceListener().
      * Adds service listener to the listener list so that is
@@ -3638,7 +4053,7 @@ public class Felix extends BundleImpl implements Framework
         throws InvalidSyntaxException
     {
         Filter oldFilter;
-        Filter newFilter = (f == null) ? null : FrameworkUtil.createFilter(f);
+        Filter newFilter = (f == null) ? null : getFilter(f);
 
         oldFilter = m_dispatcher.addListener(
             bundle._getBundleContext(), ServiceListener.class, l, newFilter);
@@ -3843,7 +4258,8 @@ public class Felix extends BundleImpl implements Framework
      * @param bundle Calling Bundle
      * @param className Service Classname or <code>null</code> for all
      * @param expr Filter Criteria or <code>null</code>
-     * @return Array of ServiceReference objects that meet the criteria
+     * @return Array of ServiceReference objects that meet the criteria, sorted by ranking
+     *         with the best reference first
      * @throws InvalidSyntaxException
      */
     ServiceReference<?>[] getServiceReferences(
@@ -3852,18 +4268,7 @@ public class Felix extends BundleImpl implements Framework
         throws InvalidSyntaxException
     {
         // Define filter if expression is not null.
-        SimpleFilter filter = null;
-        if (expr != null)
-        {
-            try
-            {
-                filter = SimpleFilter.parse(expr);
-            }
-            catch (Exception ex)
-            {
-                throw new InvalidSyntaxException(ex.getMessage(), expr);
-            }
-        }
+        SimpleFilter filter = (expr != null) ? getFilter(expr).getSimpleFilter() : null;
 
         // Ask the service registry for all matching service references.
         final Collection<ServiceReference<?>> refList = m_registry.getServiceReferences(className, filter);
@@ -3877,7 +4282,7 @@ public class Felix extends BundleImpl implements Framework
                 ServiceReference<?> ref = refIter.next();
 
                 // Now check for castability.
-                if (!Util.isServiceAssignable(bundle, ref))
+                if (!ServiceRegistry.isServiceAssignable(bundle, ref))
                 {
                     refIter.remove();
                 }
@@ -3928,6 +4333,57 @@ public class Felix extends BundleImpl implements Framework
         return null;
     }
 
+    /**
+     * Retrieves the highest ranked {@link ServiceReference} for the service class name that is
+     * assignable to the calling bundle and, if running under a {@link SecurityManager}, that the
+     * calling bundle has permission to see. Unless find hooks are present, this does not collect
+     * all matching references, but returns the first suitable one in ranking order.
+     * @param bundle Calling Bundle
+     * @param className Service Classname or <code>null</code> for any
+     * @return The best ServiceReference or <code>null</code>
+     * @throws InvalidSyntaxException
+     */
+    ServiceReference<?> getServiceReference(BundleImpl bundle, String className)
+        throws InvalidSyntaxException
+    {
+        if ((className == null) || !getHookRegistry().getHooks(
+            org.osgi.framework.hooks.service.FindHook.class).isEmpty())
+        {
+            // Find hooks may hide any reference, so they must see all of them.
+            // They cannot reorder them, so the first one is still the best.
+            ServiceReference<?>[] refs = getAllowedServiceReferences(bundle, className, null, true);
+            return (refs != null) ? refs[0] : null;
+        }
+
+        if (m_metrics != null)
+        {
+            m_metrics.servicesLookedUp(className);
+        }
+
+        Object sm = System.getSecurityManager();
+        for (ServiceReference<?> ref : m_registry.getRankedServiceReferences(className))
+        {
+            if (!ServiceRegistry.isServiceAssignable(bundle, ref))
+            {
+                continue;
+            }
+            if (sm != null)
+            {
+                try
+                {
+                    ((SecurityManager) sm).checkPermission(new ServicePermission(ref, ServicePermission.GET));
+                }
+                catch (Exception ex)
+                {
+                    // Ignore, since we are just testing permission.
+                    continue;
+                }
+            }
+            return ref;
+        }
+        return null;
+    }
+
     /**
      * Retrieves Array of {@link ServiceReference} objects based on calling bundle, service class name,
      * optional filter expression, and optionally filters further on the version.
@@ -4325,7 +4781,7 @@ public class Felix extends BundleImpl implements Framework
             if (targets == null)
             {
                 // Add all bundles to the list.
-                targets = m_installedBundles[LOCATION_MAP_IDX].values();
+                targets = new ArrayList<Bundle>(m_installedBundles.getBundles());
             }
 
             // Now resolve each target bundle.
@@ -4426,7 +4882,7 @@ public class Felix extends BundleImpl implements Framework
             }
 
             // Then add all updated bundles.
-            Iterator<BundleImpl> iter = m_installedBundles[LOCATION_MAP_IDX].values().iterator();
+            Iterator<BundleImpl> iter = m_installedBundles.getBundles().iterator();
             while (iter.hasNext())
             {
                 BundleImpl bundle = (BundleImpl) iter.next();
@@ -5042,6 +5498,55 @@ public class Felix extends BundleImpl implements Framework
         return -1;
     }
 
+    /**
+     * Restores the wirings from the resolution snapshot of the last run. The
+     * snapshot is deleted afterwards, since it is written again on shutdown.
+    **/
+    private void restoreResolutionSnapshot()
+    {
+        try
+        {
+            File file = m_cache.getSystemBundleDataFile(ResolutionSnapshot.SNAPSHOT_FILE);
+            ResolutionSnapshot snapshot = ResolutionSnapshot.load(file);
+            m_secureAction.deleteFile(file);
+            // Permissions may change the wiring, so only restore without
+            // a security manager.
+            if ((snapshot != null) && (System.getSecurityManager() == null)
+                && m_resolver.restore(snapshot))
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Restored wirings of "
+                    + snapshot.getBundleIds().size() + " bundles from resolution snapshot.");
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to restore resolution snapshot from persistent storage.",
+                ex);
+        }
+    }
+
+    private void storeResolutionSnapshot()
+    {
+        try
+        {
+            ResolutionSnapshot snapshot = (System.getSecurityManager() == null)
+                ? m_resolver.createSnapshot() : null;
+            if (snapshot != null)
+            {
+                snapshot.store(m_cache.getSystemBundleDataFile(ResolutionSnapshot.SNAPSHOT_FILE));
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to save resolution snapshot to persistent storage.",
+                ex);
+        }
+    }
+
     private long getNextId()
     {
         synchronized (m_nextIdLock)
@@ -5095,6 +5600,48 @@ public class Felix extends BundleImpl implements Framework
         return m_connectFramework != null;
     }
 
+    /**
+     * Installs multiple bundles on behalf of the system bundle. This is
+     * the same as installing each bundle with
+     * <tt>BundleContext.installBundle()</tt>, except that the new bundles are
+     * added to the framework under a single acquisition of the global lock
+     * and that either all of them are installed or none of them is, which
+     * makes provisioning many bundles considerably cheaper.
+     *
+     * @param bundles The locations of the bundles to install mapped to the
+     *        input streams to read their content from, or to <tt>null</tt>
+     *        to read the content from the location. The map's iteration
+     *        order determines the order in which bundle identifiers are
+     *        assigned.
+     * @return The installed bundles in the iteration order of the map.
+     * @throws BundleException If any of the bundles cannot be installed.
+     * @throws IllegalStateException If the framework is not initialized.
+    **/
+    public List<Bundle> installBundles(Map<String, InputStream> bundles)
+        throws BundleException
+    {
+        if ((getState() & (Bundle.STARTING | Bundle.ACTIVE)) == 0)
+        {
+            throw new IllegalStateException("The framework is not initialized.");
+        }
+
+        List<Bundle> result = installBundles(this, bundles);
+
+        Object sm = System.getSecurityManager();
+        if (sm != null)
+        {
+            // Do check the bundles again in case they were installed
+            // already.
+            for (Bundle bundle : result)
+            {
+                ((SecurityManager) sm).checkPermission(
+                    new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+            }
+        }
+
+        return result;
+    }
+
     //
     // Miscellaneous inner classes.
     //
@@ -5102,6 +5649,7 @@ public class Felix extends BundleImpl implements Framework
     class SystemBundleActivator implements BundleActivator
     {
         private volatile ServiceRegistration<org.osgi.service.condition.Condition> m_reg;
+        private volatile FrameworkMetricsMBean m_metricsMBean;
         @Override
         public void start(BundleContext context) throws Exception
         {
@@ -5112,6 +5660,26 @@ public class Felix extends BundleImpl implements Framework
             m_reg = context.registerService(org.osgi.service.condition.Condition.class, org.osgi.service.condition.Condition.INSTANCE,
                 FrameworkUtil.asDictionary(Collections.singletonMap(org.osgi.service.condition.Condition.CONDITION_ID, org.osgi.service.condition.Condition.CONDITION_ID_TRUE)));
 
+            // Publish the runtime metrics, if enabled.
+            if (m_metrics != null)
+            {
+                context.registerService(FrameworkMetrics.class, m_metrics, null);
+                if (!"false".equalsIgnoreCase(getProperty(FelixConstants.METRICS_JMX_PROP)))
+                {
+                    try
+                    {
+                        FrameworkMetricsMBean mbean = new FrameworkMetricsMBean(m_metrics);
+                        mbean.register((String) m_configMap.get(FelixConstants.FRAMEWORK_UUID));
+                        m_metricsMBean = mbean;
+                    }
+                    catch (Throwable th)
+                    {
+                        m_logger.log(Logger.LOG_WARNING,
+                            "Unable to register the framework metrics with JMX.", th);
+                    }
+                }
+            }
+
             // Start all activators.
             for (Iterator<BundleActivator> iter = m_activatorList.iterator(); iter.hasNext(); )
             {
@@ -5201,6 +5769,27 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Persist the wirings, so they can be restored on the next startup.
+            if (m_resolverSnapshot)
+            {
+                storeResolutionSnapshot();
+            }
+
+            // Stop preloading and persist the class loading profiles recorded
+            // if the framework was stopped during the recording.
+            if (m_classLoadingProfiler != null)
+            {
+                m_classLoadingProfiler.stop();
+            }
+
+            // Remove the runtime metrics from JMX.
+            FrameworkMetricsMBean mbean = m_metricsMBean;
+            if (mbean != null)
+            {
+                m_metricsMBean = null;
+                mbean.unregister();
+            }
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (Bundle bundle : bundles) {
@@ -5456,12 +6045,16 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
-    void acquireInstallLock(String location)
+    /**
+     * Reserves all of the specified locations at once, so that installs
+     * of overlapping sets of locations cannot deadlock.
+    **/
+    void acquireInstallLocks(Collection<String> locations)
         throws BundleException
     {
         synchronized (m_installRequestLock_Priority1)
         {
-            while (m_installRequestMap.get(location) != null)
+            while (isAnyInstallLocked(locations))
             {
                 try
                 {
@@ -5473,15 +6066,33 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
-            m_installRequestMap.put(location, location);
+            for (String location : locations)
+            {
+                m_installRequestMap.put(location, location);
+            }
+        }
+    }
+
+    private boolean isAnyInstallLocked(Collection<String> locations)
+    {
+        for (String location : locations)
+        {
+            if (m_installRequestMap.containsKey(location))
+            {
+                return true;
+            }
         }
+        return false;
     }
 
-    void releaseInstallLock(String location)
+    void releaseInstallLocks(Collection<String> locations)
     {
         synchronized (m_installRequestLock_Priority1)
         {
-            m_installRequestMap.remove(location);
+            for (String location : locations)
+            {
+                m_installRequestMap.remove(location);
+            }
             m_installRequestLock_Priority1.notifyAll();
         }
     }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * A bounded cache of parsed and compiled filters keyed by their string
+ * representation. Bundles tend to create the same filters over and over,
+ * e.g. for service trackers, so sharing a single immutable instance avoids
+ * parsing and compiling them again. Entries are evicted least recently used
+ * first and are only weakly held, so the cache never keeps a filter alive
+ * that is not in use anymore. Invalid filters are not cached.
+**/
+class FilterCache
+{
+    private final int m_maxSize;
+    private final Map<String, WeakReference<FilterImpl>> m_cache;
+    private long m_hits;
+    private long m_misses;
+
+    FilterCache(int maxSize)
+    {
+        m_maxSize = maxSize;
+        m_cache = new LinkedHashMap<String, WeakReference<FilterImpl>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WeakReference<FilterImpl>> eldest)
+            {
+                return size() > m_maxSize;
+            }
+        };
+    }
+
+    FilterImpl getFilter(String expr) throws InvalidSyntaxException
+    {
+        if (m_maxSize <= 0)
+        {
+            return new FilterImpl(expr);
+        }
+
+        synchronized (m_cache)
+        {
+            WeakReference<FilterImpl> ref = m_cache.get(expr);
+            FilterImpl filter = (ref != null) ? ref.get() : null;
+            if (filter != null)
+            {
+                m_hits++;
+                return filter;
+            }
+            m_misses++;
+        }
+
+        // Parse outside of the lock; if two threads race, the last
+        // one wins, which is harmless since filters are immutable.
+        FilterImpl filter = new FilterImpl(expr);
+        synchronized (m_cache)
+        {
+            m_cache.put(expr, new WeakReference<FilterImpl>(filter));
+        }
+        return filter;
+    }
+
+    long getHits()
+    {
+        synchronized (m_cache)
+        {
+            return m_hits;
+        }
+    }
+
+    long getMisses()
+    {
+        synchronized (m_cache)
+        {
+            return m_misses;
+        }
+    }
+
+    int size()
+    {
+        synchronized (m_cache)
+        {
+            return m_cache.size();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.CompiledFilter;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -38,6 +39,7 @@ import org.osgi.framework.wiring.BundleRevision;
 public class FilterImpl implements Filter
 {
     private final SimpleFilter m_filter;
+    private final CompiledFilter m_compiled;
 
     public FilterImpl(String filterStr) throws InvalidSyntaxException
     {
@@ -49,6 +51,12 @@ public class FilterImpl implements Filter
         {
             throw new InvalidSyntaxException(th.getMessage(), filterStr);
         }
+        m_compiled = CompiledFilter.compile(m_filter);
+    }
+
+    SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
     }
 
     @Override
@@ -56,30 +64,30 @@ public class FilterImpl implements Filter
     {
         if (sr instanceof ServiceReferenceImpl)
         {
-            return CapabilitySet.matches((ServiceReferenceImpl) sr, m_filter);
+            return CapabilitySet.matches((ServiceReferenceImpl) sr, m_compiled);
         }
         else
         {
-            return CapabilitySet.matches(new WrapperCapability(sr), m_filter);
+            return CapabilitySet.matches(new WrapperCapability(sr), m_compiled);
         }
     }
 
     @Override
 	public boolean match(Dictionary<String, ? > dctnr)
     {
-        return CapabilitySet.matches(new WrapperCapability(dctnr, false), m_filter);
+        return CapabilitySet.matches(new WrapperCapability(dctnr, false), m_compiled);
     }
 
     @Override
 	public boolean matchCase(Dictionary<String, ? > dctnr)
     {
-        return CapabilitySet.matches(new WrapperCapability(dctnr, true), m_filter);
+        return CapabilitySet.matches(new WrapperCapability(dctnr, true), m_compiled);
     }
 
     @Override
 	public boolean matches(Map<String, ?> map)
     {
-        return CapabilitySet.matches(new WrapperCapability(map), m_filter);
+        return CapabilitySet.matches(new WrapperCapability(map), m_compiled);
     }
 
     @Override
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.framework.metrics.BundleMetricsDTO;
+import org.apache.felix.framework.metrics.EventMetricsDTO;
+import org.apache.felix.framework.metrics.FrameworkMetrics;
+import org.apache.felix.framework.metrics.FrameworkMetricsDTO;
+import org.apache.felix.framework.metrics.HistogramDTO;
+import org.apache.felix.framework.metrics.ResolverMetricsDTO;
+import org.apache.felix.framework.metrics.ServiceMetricsDTO;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Collects the runtime metrics of the framework. It only exists if metrics
+ * are enabled, so the instrumented code only checks for <tt>null</tt> when
+ * they are disabled.
+**/
+class FrameworkMetricsImpl implements FrameworkMetrics
+{
+    // The upper bounds of the histogram buckets, from one microsecond to
+    // ten seconds.
+    private static final long[] BOUNDS = {
+        1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+        1000000000L, 10000000000L };
+
+    private final Felix m_felix;
+    private final ConcurrentMap<Long, Histogram> m_classLoading = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Histogram> m_listeners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ServiceCounters> m_services = new ConcurrentHashMap<>();
+    private final Histogram m_resolves = new Histogram();
+    private final LongAdder m_resolveFailures = new LongAdder();
+    private final LongAdder m_permutations = new LongAdder();
+    private final AtomicLong m_maxPermutations = new AtomicLong();
+
+    FrameworkMetricsImpl(Felix felix)
+    {
+        m_felix = felix;
+    }
+
+    /**
+     * Records that a bundle found and defined a class.
+     * @param bundle the bundle.
+     * @param nanos the time it took.
+    **/
+    void classDefined(Bundle bundle, long nanos)
+    {
+        getHistogram(m_classLoading, bundle).record(nanos);
+    }
+
+    /**
+     * Records that a listener was called.
+     * @param bundle the bundle that added the listener.
+     * @param nanos the time the listener took.
+    **/
+    void listenerCalled(Bundle bundle, long nanos)
+    {
+        if (bundle != null)
+        {
+            getHistogram(m_listeners, bundle).record(nanos);
+        }
+    }
+
+    /**
+     * Records that services were looked up by object class.
+     * @param className the object class or <tt>null</tt> if services were
+     *        only looked up by a filter, which is not counted.
+    **/
+    void servicesLookedUp(String className)
+    {
+        if (className != null)
+        {
+            getServiceCounters(className).m_lookups.increment();
+        }
+    }
+
+    /**
+     * Records that a service was obtained.
+     * @param ref the reference of the service.
+    **/
+    void serviceObtained(ServiceReference<?> ref)
+    {
+        for (String className : getObjectClass(ref))
+        {
+            getServiceCounters(className).m_gets.increment();
+        }
+    }
+
+    /**
+     * Records that a service was released.
+     * @param ref the reference of the service.
+    **/
+    void serviceReleased(ServiceReference<?> ref)
+    {
+        for (String className : getObjectClass(ref))
+        {
+            getServiceCounters(className).m_ungets.increment();
+        }
+    }
+
+    /**
+     * Records a resolve.
+     * @param nanos the time the resolve took.
+     * @param permutations the number of candidate permutations checked.
+     * @param success whether the resolve succeeded.
+    **/
+    void resolved(long nanos, long permutations, boolean success)
+    {
+        m_resolves.record(nanos);
+        if (!success)
+        {
+            m_resolveFailures.increment();
+        }
+        m_permutations.add(permutations);
+        updateMax(m_maxPermutations, permutations);
+    }
+
+    @Override
+    public FrameworkMetricsDTO getMetrics()
+    {
+        FrameworkMetricsDTO dto = new FrameworkMetricsDTO();
+        dto.timestamp = System.currentTimeMillis();
+        dto.classLoading = getBundleMetrics(m_classLoading);
+
+        List<ServiceMetricsDTO> services = new ArrayList<>();
+        for (Entry<String, ServiceCounters> entry : m_services.entrySet())
+        {
+            ServiceMetricsDTO sdto = new ServiceMetricsDTO();
+            sdto.objectClass = entry.getKey();
+            sdto.getCount = entry.getValue().m_gets.sum();
+            sdto.ungetCount = entry.getValue().m_ungets.sum();
+            sdto.lookupCount = entry.getValue().m_lookups.sum();
+            services.add(sdto);
+        }
+        dto.services = services.toArray(new ServiceMetricsDTO[services.size()]);
+
+        EventDispatcher dispatcher = m_felix.getEventDispatcher();
+        dto.events = new EventMetricsDTO();
+        dto.events.asyncQueueDepth = dispatcher.getAsyncQueueDepth();
+        dto.events.asyncDeliveryCount = dispatcher.getAsyncDeliveryCount();
+        dto.events.asyncDeliveryLatency = dispatcher.getAsyncDeliveryLatency();
+        dto.events.asyncMaxDeliveryLatency = dispatcher.getAsyncMaxDeliveryLatency();
+        dto.events.listeners = getBundleMetrics(m_listeners);
+
+        StatefulResolver resolver = m_felix.getResolver();
+        dto.resolver = new ResolverMetricsDTO();
+        dto.resolver.time = m_resolves.toDTO();
+        dto.resolver.failures = m_resolveFailures.sum();
+        dto.resolver.permutations = m_permutations.sum();
+        dto.resolver.maxPermutations = m_maxPermutations.get();
+        dto.resolver.dynamicImportCacheHits = resolver.getDynamicImportCacheHits();
+        dto.resolver.dynamicImportCacheMisses = resolver.getDynamicImportCacheMisses();
+        return dto;
+    }
+
+    private static Histogram getHistogram(ConcurrentMap<Long, Histogram> map, Bundle bundle)
+    {
+        Long id = bundle.getBundleId();
+        Histogram histogram = map.get(id);
+        if (histogram == null)
+        {
+            histogram = new Histogram();
+            Histogram existing = map.putIfAbsent(id, histogram);
+            histogram = (existing != null) ? existing : histogram;
+        }
+        return histogram;
+    }
+
+    private ServiceCounters getServiceCounters(String className)
+    {
+        ServiceCounters counters = m_services.get(className);
+        if (counters == null)
+        {
+            counters = new ServiceCounters();
+            ServiceCounters existing = m_services.putIfAbsent(className, counters);
+            counters = (existing != null) ? existing : counters;
+        }
+        return counters;
+    }
+
+    private static String[] getObjectClass(ServiceReference<?> ref)
+    {
+        Object objectClass = ref.getProperty(Constants.OBJECTCLASS);
+        return (objectClass instanceof String[]) ? (String[]) objectClass : new String[0];
+    }
+
+    private static BundleMetricsDTO[] getBundleMetrics(ConcurrentMap<Long, Histogram> map)
+    {
+        List<BundleMetricsDTO> result = new ArrayList<>();
+        for (Entry<Long, Histogram> entry : map.entrySet())
+        {
+            BundleMetricsDTO dto = new BundleMetricsDTO();
+            dto.bundle = entry.getKey();
+            dto.time = entry.getValue().toDTO();
+            result.add(dto);
+        }
+        return result.toArray(new BundleMetricsDTO[result.size()]);
+    }
+
+    private static void updateMax(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while ((value > current) && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * A histogram of durations with fixed buckets.
+    **/
+    static final class Histogram
+    {
+        private final LongAdder m_count = new LongAdder();
+        private final LongAdder m_sum = new LongAdder();
+        private final AtomicLong m_max = new AtomicLong();
+        private final AtomicLongArray m_counts = new AtomicLongArray(BOUNDS.length + 1);
+
+        void record(long nanos)
+        {
+            int bucket = 0;
+            while ((bucket < BOUNDS.length) && (nanos > BOUNDS[bucket]))
+            {
+                bucket++;
+            }
+            m_counts.incrementAndGet(bucket);
+            m_count.increment();
+            m_sum.add(nanos);
+            updateMax(m_max, nanos);
+        }
+
+        HistogramDTO toDTO()
+        {
+            HistogramDTO dto = new HistogramDTO();
+            dto.count = m_count.sum();
+            dto.sum = m_sum.sum();
+            dto.max = m_max.get();
+            dto.bounds = BOUNDS.clone();
+            dto.counts = new long[m_counts.length()];
+            for (int i = 0; i < dto.counts.length; i++)
+            {
+                dto.counts[i] = m_counts.get(i);
+            }
+            return dto;
+        }
+    }
+
+    private static final class ServiceCounters
+    {
+        private final LongAdder m_gets = new LongAdder();
+        private final LongAdder m_ungets = new LongAdder();
+        private final LongAdder m_lookups = new LongAdder();
+    }
+}
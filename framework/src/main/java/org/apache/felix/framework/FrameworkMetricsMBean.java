@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenMBeanAttributeInfo;
+import javax.management.openmbean.OpenMBeanAttributeInfoSupport;
+import javax.management.openmbean.OpenMBeanConstructorInfo;
+import javax.management.openmbean.OpenMBeanInfoSupport;
+import javax.management.openmbean.OpenMBeanOperationInfo;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.apache.felix.framework.metrics.FrameworkMetrics;
+import org.apache.felix.framework.metrics.FrameworkMetricsDTO;
+import org.osgi.dto.DTO;
+
+/**
+ * Exposes the framework metrics as an open MBean, whose attributes are the
+ * fields of {@link FrameworkMetricsDTO}. DTOs are mapped to composite data
+ * and arrays of DTOs to arrays of composite data.
+ * <p>
+ * This class is only loaded if the metrics are registered with JMX, so the
+ * framework does not depend on the <tt>java.management</tt> module
+ * otherwise.
+**/
+class FrameworkMetricsMBean implements DynamicMBean
+{
+    static final String OBJECT_NAME = "org.apache.felix.framework:type=FrameworkMetrics";
+
+    private final FrameworkMetrics m_metrics;
+    private final Map<String, Field> m_fields = new LinkedHashMap<>();
+    private final Map<String, OpenType<?>> m_types = new LinkedHashMap<>();
+    private final MBeanInfo m_info;
+    private volatile ObjectName m_name;
+
+    FrameworkMetricsMBean(FrameworkMetrics metrics) throws OpenDataException
+    {
+        m_metrics = metrics;
+        List<OpenMBeanAttributeInfo> attrs = new ArrayList<>();
+        for (Field field : getFields(FrameworkMetricsDTO.class))
+        {
+            String name = Character.toUpperCase(field.getName().charAt(0))
+                + field.getName().substring(1);
+            OpenType<?> type = getOpenType(field.getType());
+            m_fields.put(name, field);
+            m_types.put(name, type);
+            attrs.add(new OpenMBeanAttributeInfoSupport(
+                name, name, type, true, false, false));
+        }
+        m_info = new OpenMBeanInfoSupport(getClass().getName(),
+            "Runtime metrics of the framework.",
+            attrs.toArray(new OpenMBeanAttributeInfo[attrs.size()]),
+            new OpenMBeanConstructorInfo[0],
+            new OpenMBeanOperationInfo[0],
+            new MBeanNotificationInfo[0]);
+    }
+
+    /**
+     * Registers this MBean with the platform MBean server.
+     * @param uuid the UUID of the framework, which distinguishes the MBeans
+     *        of several frameworks in the same VM.
+     * @throws Exception if the MBean cannot be registered.
+    **/
+    void register(String uuid) throws Exception
+    {
+        ObjectName name = new ObjectName(OBJECT_NAME + ",uuid=" + ObjectName.quote(uuid));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        m_name = name;
+    }
+
+    /**
+     * Unregisters this MBean from the platform MBean server.
+    **/
+    void unregister()
+    {
+        ObjectName name = m_name;
+        m_name = null;
+        if (name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (Exception ex)
+            {
+                // Ignore, it was unregistered by someone else.
+            }
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute)
+        throws AttributeNotFoundException, MBeanException, ReflectionException
+    {
+        return getAttribute(m_metrics.getMetrics(), attribute);
+    }
+
+    private Object getAttribute(FrameworkMetricsDTO dto, String attribute)
+        throws AttributeNotFoundException, ReflectionException
+    {
+        Field field = m_fields.get(attribute);
+        if (field == null)
+        {
+            throw new AttributeNotFoundException(attribute);
+        }
+        try
+        {
+            return toOpenValue(field.get(dto), m_types.get(attribute));
+        }
+        catch (Exception ex)
+        {
+            throw new ReflectionException(ex);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes)
+    {
+        // Take a single snapshot, so the attributes are consistent.
+        FrameworkMetricsDTO dto = m_metrics.getMetrics();
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes)
+        {
+            try
+            {
+                result.add(new Attribute(attribute, getAttribute(dto, attribute)));
+            }
+            catch (Exception ex)
+            {
+                // Missing attributes are left out.
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException(
+            "Attribute is read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+        throws ReflectionException
+    {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        return m_info;
+    }
+
+    private static List<Field> getFields(Class<?> clazz)
+    {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : clazz.getFields())
+        {
+            if (!Modifier.isStatic(field.getModifiers()))
+            {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static OpenType<?> getOpenType(Class<?> clazz) throws OpenDataException
+    {
+        if ((clazz == long.class) || (clazz == Long.class))
+        {
+            return SimpleType.LONG;
+        }
+        else if ((clazz == int.class) || (clazz == Integer.class))
+        {
+            return SimpleType.INTEGER;
+        }
+        else if ((clazz == boolean.class) || (clazz == Boolean.class))
+        {
+            return SimpleType.BOOLEAN;
+        }
+        else if (clazz == String.class)
+        {
+            return SimpleType.STRING;
+        }
+        else if (clazz.isArray() && clazz.getComponentType().isPrimitive())
+        {
+            return ArrayType.getPrimitiveArrayType(clazz);
+        }
+        else if (clazz.isArray())
+        {
+            return ArrayType.getArrayType(getOpenType(clazz.getComponentType()));
+        }
+        else if (DTO.class.isAssignableFrom(clazz))
+        {
+            List<Field> fields = getFields(clazz);
+            String[] names = new String[fields.size()];
+            OpenType<?>[] types = new OpenType<?>[fields.size()];
+            for (int i = 0; i < names.length; i++)
+            {
+                names[i] = fields.get(i).getName();
+                types[i] = getOpenType(fields.get(i).getType());
+            }
+            return new CompositeType(
+                clazz.getSimpleName(), clazz.getName(), names, names, types);
+        }
+        throw new OpenDataException("Unsupported type: " + clazz.getName());
+    }
+
+    private static Object toOpenValue(Object value, OpenType<?> type)
+        throws OpenDataException, IllegalAccessException
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        else if (type instanceof CompositeType)
+        {
+            CompositeType ctype = (CompositeType) type;
+            List<Field> fields = getFields(value.getClass());
+            String[] names = new String[fields.size()];
+            Object[] values = new Object[fields.size()];
+            for (int i = 0; i < names.length; i++)
+            {
+                names[i] = fields.get(i).getName();
+                values[i] = toOpenValue(fields.get(i).get(value), ctype.getType(names[i]));
+            }
+            return new CompositeDataSupport(ctype, names, values);
+        }
+        else if ((type instanceof ArrayType)
+            && (((ArrayType<?>) type).getElementOpenType() instanceof CompositeType))
+        {
+            OpenType<?> elementType = ((ArrayType<?>) type).getElementOpenType();
+            CompositeData[] result = new CompositeData[Array.getLength(value)];
+            for (int i = 0; i < result.length; i++)
+            {
+                result[i] = (CompositeData) toOpenValue(Array.get(value, i), elementType);
+            }
+            return result;
+        }
+        return value;
+    }
+}
@@ -33,6 +33,9 @@ import org.osgi.service.startlevel.StartLevel;
 class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
 {
     static final String THREAD_NAME = "FelixStartLevel";
+    // Prefix of the names of the threads that start the bundles of a
+    // start level in parallel on behalf of the start level thread.
+    static final String WORKER_THREAD_NAME_PREFIX = THREAD_NAME + "-";
 
     private final Felix m_felix;
     private final ServiceRegistry m_registry;
@@ -55,6 +58,16 @@ class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
                 null);
     }
 
+    /**
+     * Returns whether the calling thread is the start level thread or one
+     * of its workers.
+    **/
+    static boolean isStartLevelThread()
+    {
+        String name = Thread.currentThread().getName();
+        return name.equals(THREAD_NAME) || name.startsWith(WORKER_THREAD_NAME_PREFIX);
+    }
+
     // Should only be called hold requestList lock.
     private void startThread()
     {
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The installed bundles of a framework, indexed by location and by
+ * identifier. Adding or removing a bundle only touches the entries of that
+ * bundle instead of copying all installed bundles, so installing many
+ * bundles stays linear.
+ * <p>
+ * CONCURRENCY: Writes must be guarded by the global lock, while reads do
+ * not need a lock. Readers may briefly see a bundle being added or removed
+ * in one index but not yet in the other; iteration is weakly consistent.
+**/
+class InstalledBundles
+{
+    private final ConcurrentMap<String, BundleImpl> m_byLocation =
+        new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, BundleImpl> m_byId =
+        new ConcurrentSkipListMap<>();
+
+    void add(String location, BundleImpl bundle)
+    {
+        m_byLocation.put(location, bundle);
+        m_byId.put(bundle.getBundleId(), bundle);
+    }
+
+    /**
+     * Removes the bundle installed at the specified location.
+     * @param location the location of the bundle.
+     * @return the removed bundle or <tt>null</tt> if there was no bundle
+     *         installed at the location.
+    **/
+    BundleImpl remove(String location)
+    {
+        BundleImpl bundle = (location != null) ? m_byLocation.remove(location) : null;
+        if (bundle != null)
+        {
+            m_byId.remove(bundle.getBundleId(), bundle);
+        }
+        return bundle;
+    }
+
+    BundleImpl getBundle(String location)
+    {
+        return (location != null) ? m_byLocation.get(location) : null;
+    }
+
+    BundleImpl getBundle(long id)
+    {
+        return m_byId.get(id);
+    }
+
+    /**
+     * Returns a live view of the installed bundles ordered by identifier.
+    **/
+    Collection<BundleImpl> getBundles()
+    {
+        return Collections.unmodifiableCollection(m_byId.values());
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.SecureAction;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * A snapshot of the wires of all resolved bundles, which is persisted in the
+ * bundle cache when the framework shuts down. On the next startup the wirings
+ * can be rebuilt from the snapshot instead of running the resolver, as long as
+ * the fingerprint of the installed revisions and the resolver hooks did not
+ * change in between.
+ * <p>
+ * Wires refer to requirements and capabilities by the identifier of the
+ * bundle declaring them and their index in the declared requirements or
+ * capabilities of its current revision. Only bundles whose wires solely refer
+ * to current revisions of bundles in the snapshot or the system bundle are
+ * part of the snapshot, dynamic wires are left out since they are created
+ * again on demand.
+**/
+class ResolutionSnapshot
+{
+    static final String SNAPSHOT_FILE = "resolution.snapshot";
+    private static final int SNAPSHOT_FILE_VERSION = 1;
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final String m_fingerprint;
+    private final Map<Long, List<WireRef>> m_wires;
+
+    private ResolutionSnapshot(String fingerprint, Map<Long, List<WireRef>> wires)
+    {
+        m_fingerprint = fingerprint;
+        m_wires = wires;
+    }
+
+    String getFingerprint()
+    {
+        return m_fingerprint;
+    }
+
+    /**
+     * Returns the identifiers of the bundles whose wirings are recorded.
+    **/
+    Set<Long> getBundleIds()
+    {
+        return m_wires.keySet();
+    }
+
+    /**
+     * Captures the wires of the current revisions of the specified bundles.
+     * @param bundles the installed bundles ordered by identifier.
+     * @param resolverHooks the resolver hooks which took part in resolving them.
+     * @return the snapshot.
+    **/
+    static ResolutionSnapshot capture(
+        Collection<Bundle> bundles, Collection<String> resolverHooks)
+    {
+        Map<Long, List<WireRef>> wires = new LinkedHashMap<>();
+        for (Bundle bundle : bundles)
+        {
+            if ((bundle.getBundleId() == 0) || ((BundleImpl) bundle).isExtension())
+            {
+                continue;
+            }
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            BundleWiring wiring = (revision != null) ? revision.getWiring() : null;
+            if (wiring == null)
+            {
+                continue;
+            }
+            List<WireRef> refs = new ArrayList<>();
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                    wire.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+                {
+                    continue;
+                }
+                WireRef ref = (wire.getRequirer() == revision) ? WireRef.create(wire) : null;
+                if (ref == null)
+                {
+                    refs = null;
+                    break;
+                }
+                refs.add(ref);
+            }
+            if (refs != null)
+            {
+                wires.put(bundle.getBundleId(), refs);
+            }
+        }
+
+        // Leave out all bundles wired to a bundle that is not part of the
+        // snapshot, until no such bundle remains.
+        for (boolean removed = true; removed; )
+        {
+            removed = false;
+            for (Iterator<List<WireRef>> it = wires.values().iterator(); it.hasNext(); )
+            {
+                for (WireRef ref : it.next())
+                {
+                    if (!isAvailable(wires, ref.m_requirementBundleId)
+                        || !isAvailable(wires, ref.m_providerBundleId)
+                        || !isAvailable(wires, ref.m_capabilityBundleId))
+                    {
+                        it.remove();
+                        removed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return new ResolutionSnapshot(getFingerprint(bundles, resolverHooks), wires);
+    }
+
+    private static boolean isAvailable(Map<Long, List<WireRef>> wires, long bundleId)
+    {
+        return (bundleId == 0) || wires.containsKey(bundleId);
+    }
+
+    /**
+     * Creates the wire map of the snapshot, as the resolver would return it,
+     * for the specified installed bundles.
+     * @param bundles the installed bundles by identifier.
+     * @return the wire map or <tt>null</tt> if the snapshot does not match
+     *         the installed bundles.
+    **/
+    Map<Resource, List<Wire>> getWireMap(Map<Long, Bundle> bundles)
+    {
+        Map<Resource, List<Wire>> wireMap = new HashMap<>(m_wires.size() * 4 / 3 + 1);
+        for (Entry<Long, List<WireRef>> entry : m_wires.entrySet())
+        {
+            BundleRevision requirer = getRevision(bundles, entry.getKey());
+            if ((requirer == null) || (requirer.getWiring() != null))
+            {
+                return null;
+            }
+            List<Wire> wires = new ArrayList<>(entry.getValue().size());
+            for (WireRef ref : entry.getValue())
+            {
+                BundleRevision reqRevision = getRevision(bundles, ref.m_requirementBundleId);
+                BundleRevision provider = getRevision(bundles, ref.m_providerBundleId);
+                BundleRevision capRevision = getRevision(bundles, ref.m_capabilityBundleId);
+                if ((reqRevision == null) || (provider == null) || (capRevision == null))
+                {
+                    return null;
+                }
+                List<BundleRequirement> reqs = reqRevision.getDeclaredRequirements(null);
+                List<BundleCapability> caps = capRevision.getDeclaredCapabilities(null);
+                if ((ref.m_requirementIndex >= reqs.size())
+                    || (ref.m_capabilityIndex >= caps.size()))
+                {
+                    return null;
+                }
+                wires.add(new BundleWireImpl(requirer, reqs.get(ref.m_requirementIndex),
+                    provider, caps.get(ref.m_capabilityIndex)));
+            }
+            wireMap.put(requirer, wires);
+        }
+        return wireMap;
+    }
+
+    private static BundleRevision getRevision(Map<Long, Bundle> bundles, long bundleId)
+    {
+        Bundle bundle = bundles.get(bundleId);
+        return (bundle != null) ? bundle.adapt(BundleRevision.class) : null;
+    }
+
+    /**
+     * Calculates the fingerprint of everything the resolution of the
+     * specified bundles depends on, which are the declared requirements and
+     * capabilities of their current revisions, including the system bundle,
+     * as well as the resolver hooks.
+     * @param bundles the installed bundles ordered by identifier.
+     * @param resolverHooks identifies the resolver hooks.
+     * @return the fingerprint.
+    **/
+    static String getFingerprint(
+        Collection<Bundle> bundles, Collection<String> resolverHooks)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Bundle bundle : bundles)
+        {
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            sb.setLength(0);
+            sb.append(bundle.getBundleId()).append(';')
+                .append(bundle.getLocation()).append(';')
+                .append(bundle.getLastModified()).append(';');
+            if (revision != null)
+            {
+                sb.append(((BundleRevisionImpl) revision).getId()).append(';');
+                for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+                {
+                    sb.append(cap.getNamespace());
+                    append(sb, cap.getAttributes());
+                    append(sb, cap.getDirectives());
+                    sb.append(';');
+                }
+                for (BundleRequirement req : revision.getDeclaredRequirements(null))
+                {
+                    sb.append(req.getNamespace());
+                    append(sb, req.getAttributes());
+                    append(sb, req.getDirectives());
+                    sb.append(';');
+                }
+            }
+            digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Resolver hooks may change any resolution.
+        digest.update(new TreeSet<>(resolverHooks).toString()
+            .getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends the entries of an attribute or directive map, including the
+     * elements of array values, whose own string form is not stable. The
+     * framework UUID is left out, since it differs on every launch and the
+     * native capability of the system bundle contains it.
+    **/
+    private static void append(StringBuilder sb, Map<String, ?> map)
+    {
+        sb.append('{');
+        for (Entry<String, ?> entry : map.entrySet())
+        {
+            if (Constants.FRAMEWORK_UUID.equals(entry.getKey()))
+            {
+                continue;
+            }
+            sb.append(entry.getKey()).append('=');
+            Object value = entry.getValue();
+            sb.append((value instanceof Object[])
+                ? Arrays.toString((Object[]) value) : String.valueOf(value)).append(',');
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Loads a persisted snapshot.
+     * @param file the snapshot file.
+     * @return the snapshot or <tt>null</tt> if there is none.
+     * @throws IOException if the snapshot cannot be read.
+    **/
+    static ResolutionSnapshot load(File file) throws IOException
+    {
+        if (!m_secureAction.isFile(file))
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            m_secureAction.getFileInputStream(file)));
+        try
+        {
+            if (in.readInt() != SNAPSHOT_FILE_VERSION)
+            {
+                return null;
+            }
+            String fingerprint = in.readUTF();
+            int count = in.readInt();
+            Map<Long, List<WireRef>> wires = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++)
+            {
+                long bundleId = in.readLong();
+                int wireCount = in.readInt();
+                List<WireRef> refs = new ArrayList<>(wireCount);
+                for (int j = 0; j < wireCount; j++)
+                {
+                    refs.add(new WireRef(in.readLong(), in.readInt(),
+                        in.readLong(), in.readLong(), in.readInt()));
+                }
+                wires.put(bundleId, refs);
+            }
+            return new ResolutionSnapshot(fingerprint, wires);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Persists the snapshot.
+     * @param file the snapshot file.
+     * @throws IOException if the snapshot cannot be written.
+    **/
+    void store(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            m_secureAction.getFileOutputStream(file)));
+        try
+        {
+            out.writeInt(SNAPSHOT_FILE_VERSION);
+            out.writeUTF(m_fingerprint);
+            out.writeInt(m_wires.size());
+            for (Entry<Long, List<WireRef>> entry : m_wires.entrySet())
+            {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (WireRef ref : entry.getValue())
+                {
+                    out.writeLong(ref.m_requirementBundleId);
+                    out.writeInt(ref.m_requirementIndex);
+                    out.writeLong(ref.m_providerBundleId);
+                    out.writeLong(ref.m_capabilityBundleId);
+                    out.writeInt(ref.m_capabilityIndex);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static final class WireRef
+    {
+        private final long m_requirementBundleId;
+        private final int m_requirementIndex;
+        private final long m_providerBundleId;
+        private final long m_capabilityBundleId;
+        private final int m_capabilityIndex;
+
+        private WireRef(long requirementBundleId, int requirementIndex,
+            long providerBundleId, long capabilityBundleId, int capabilityIndex)
+        {
+            m_requirementBundleId = requirementBundleId;
+            m_requirementIndex = requirementIndex;
+            m_providerBundleId = providerBundleId;
+            m_capabilityBundleId = capabilityBundleId;
+            m_capabilityIndex = capabilityIndex;
+        }
+
+        /**
+         * Returns a reference to the wire or <tt>null</tt> if it does not
+         * solely refer to current revisions.
+        **/
+        static WireRef create(BundleWire wire)
+        {
+            BundleRevision reqRevision = wire.getRequirement().getRevision();
+            BundleRevision provider = wire.getProvider();
+            BundleRevision capRevision = wire.getCapability().getRevision();
+            if (!isCurrent(reqRevision) || !isCurrent(provider) || !isCurrent(capRevision))
+            {
+                return null;
+            }
+            int reqIndex = indexOf(reqRevision.getDeclaredRequirements(null), wire.getRequirement());
+            int capIndex = indexOf(capRevision.getDeclaredCapabilities(null), wire.getCapability());
+            if ((reqIndex < 0) || (capIndex < 0))
+            {
+                return null;
+            }
+            return new WireRef(reqRevision.getBundle().getBundleId(), reqIndex,
+                provider.getBundle().getBundleId(),
+                capRevision.getBundle().getBundleId(), capIndex);
+        }
+
+        private static boolean isCurrent(BundleRevision revision)
+        {
+            return (revision != null) && (revision.getBundle() != null)
+                && (revision.getBundle().adapt(BundleRevision.class) == revision);
+        }
+
+        private static int indexOf(List<?> list, Object o)
+        {
+            for (int i = 0; i < list.size(); i++)
+            {
+                if (list.get(i) == o)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
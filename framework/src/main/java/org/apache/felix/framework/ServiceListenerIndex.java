@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * An index of service listeners keyed by the <tt>objectClass</tt> values
+ * that their filters require. A listener whose filter can only match
+ * services registered under a known set of interfaces is only visited
+ * for events of services registered under one of those interfaces. All
+ * other listeners (no filter, unfiltered listeners, filters that do not
+ * constrain <tt>objectClass</tt> by equality) are visited for every event.
+ * The candidate listeners of an event are kept in registration order.
+ * <p>
+ * Instances are immutable; the mutators return a modified copy so that
+ * the index can be snapshotted by the event dispatcher in the same way
+ * as its listener maps. The candidate listeners are computed once per
+ * combination of indexed object classes and instance.
+**/
+class ServiceListenerIndex
+{
+    static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(
+        Collections.<BundleContext, List<ListenerInfo>>emptyMap(),
+        Collections.<ListenerInfo, Set<String>>emptyMap(),
+        Collections.<String, Map<BundleContext, List<ListenerInfo>>>emptyMap(),
+        Collections.<BundleContext, List<ListenerInfo>>emptyMap());
+
+    // The maximum number of object class combinations whose candidate
+    // listeners are remembered.
+    private static final int MAX_CANDIDATES = 256;
+
+    // All listeners in registration order.
+    private final Map<BundleContext, List<ListenerInfo>> m_all;
+    // The object classes required by each indexed listener.
+    private final Map<ListenerInfo, Set<String>> m_classes;
+    private final Map<String, Map<BundleContext, List<ListenerInfo>>> m_indexed;
+    // The listeners that cannot be indexed, in registration order.
+    private final Map<BundleContext, List<ListenerInfo>> m_unindexed;
+    // The candidate listeners by indexed object class, or list of them.
+    private final ConcurrentMap<Object, Map<BundleContext, List<ListenerInfo>>> m_candidates =
+        new ConcurrentHashMap<>();
+
+    private ServiceListenerIndex(
+        Map<BundleContext, List<ListenerInfo>> all,
+        Map<ListenerInfo, Set<String>> classes,
+        Map<String, Map<BundleContext, List<ListenerInfo>>> indexed,
+        Map<BundleContext, List<ListenerInfo>> unindexed)
+    {
+        m_all = all;
+        m_classes = classes;
+        m_indexed = indexed;
+        m_unindexed = unindexed;
+    }
+
+    ServiceListenerIndex add(ListenerInfo info)
+    {
+        Map<BundleContext, List<ListenerInfo>> all = addInfo(m_all, info);
+        Set<String> classes = getObjectClasses(info);
+        if (classes == null)
+        {
+            return new ServiceListenerIndex(
+                all, m_classes, m_indexed, addInfo(m_unindexed, info));
+        }
+        return new ServiceListenerIndex(all, addClasses(m_classes, info, classes),
+            addIndexed(m_indexed, info, classes), m_unindexed);
+    }
+
+    ServiceListenerIndex remove(ListenerInfo info)
+    {
+        Map<BundleContext, List<ListenerInfo>> all = removeInfo(m_all, info);
+        Set<String> classes = m_classes.get(info);
+        if (classes == null)
+        {
+            return new ServiceListenerIndex(
+                all, m_classes, m_indexed, removeInfo(m_unindexed, info));
+        }
+        Map<ListenerInfo, Set<String>> copy = new IdentityHashMap<>(m_classes);
+        copy.remove(info);
+        return new ServiceListenerIndex(
+            all, copy, removeIndexed(m_indexed, info, classes), m_unindexed);
+    }
+
+    /**
+     * Replaces a listener whose filter was updated, keeping its position
+     * in the registration order.
+     * @param old the listener to replace.
+     * @param info the listener with the updated filter.
+     * @return the modified index.
+    **/
+    ServiceListenerIndex replace(ListenerInfo old, ListenerInfo info)
+    {
+        List<ListenerInfo> infos = m_all.get(old.getBundleContext());
+        if (infos == null)
+        {
+            return this;
+        }
+        List<ListenerInfo> newInfos = new ArrayList<>(infos.size());
+        for (ListenerInfo i : infos)
+        {
+            newInfos.add((i == old) ? info : i);
+        }
+        Map<BundleContext, List<ListenerInfo>> all = new HashMap<>(m_all);
+        all.put(old.getBundleContext(), newInfos);
+
+        Map<ListenerInfo, Set<String>> classes = m_classes;
+        Map<String, Map<BundleContext, List<ListenerInfo>>> indexed = m_indexed;
+        Set<String> oldClasses = m_classes.get(old);
+        if (oldClasses != null)
+        {
+            classes = new IdentityHashMap<>(m_classes);
+            classes.remove(old);
+            indexed = removeIndexed(indexed, old, oldClasses);
+        }
+        Set<String> newClasses = getObjectClasses(info);
+        if (newClasses != null)
+        {
+            classes = addClasses(classes, info, newClasses);
+            indexed = addIndexed(indexed, info, newClasses);
+        }
+
+        // Keep the unindexed listeners of the context in registration order.
+        List<ListenerInfo> unindexedInfos = new ArrayList<>();
+        for (ListenerInfo i : newInfos)
+        {
+            if (!classes.containsKey(i))
+            {
+                unindexedInfos.add(i);
+            }
+        }
+        Map<BundleContext, List<ListenerInfo>> unindexed = new HashMap<>(m_unindexed);
+        if (unindexedInfos.isEmpty())
+        {
+            unindexed.remove(old.getBundleContext());
+        }
+        else
+        {
+            unindexed.put(old.getBundleContext(), unindexedInfos);
+        }
+        return new ServiceListenerIndex(all, classes, indexed, unindexed);
+    }
+
+    ServiceListenerIndex removeAll(BundleContext bc)
+    {
+        List<ListenerInfo> infos = m_all.get(bc);
+        if (infos == null)
+        {
+            return this;
+        }
+        Map<BundleContext, List<ListenerInfo>> all = new HashMap<>(m_all);
+        all.remove(bc);
+
+        Map<ListenerInfo, Set<String>> classes = new IdentityHashMap<>(m_classes);
+        Map<String, Map<BundleContext, List<ListenerInfo>>> indexed = m_indexed;
+        for (ListenerInfo info : infos)
+        {
+            Set<String> infoClasses = classes.remove(info);
+            if (infoClasses != null)
+            {
+                indexed = removeIndexed(indexed, info, infoClasses);
+            }
+        }
+
+        Map<BundleContext, List<ListenerInfo>> unindexed = m_unindexed;
+        if (m_unindexed.containsKey(bc))
+        {
+            unindexed = new HashMap<>(m_unindexed);
+            unindexed.remove(bc);
+        }
+        return new ServiceListenerIndex(all, classes, indexed, unindexed);
+    }
+
+    /**
+     * Returns the listeners that could possibly match an event for the
+     * specified service reference. The returned map must not be modified.
+     * @param ref the service reference of the event.
+     * @return the candidate listeners grouped by bundle context, each in
+     *         registration order.
+    **/
+    Map<BundleContext, List<ListenerInfo>> getListeners(ServiceReference<?> ref)
+    {
+        Object value = (ref == null) ? null : ref.getProperty(Constants.OBJECTCLASS);
+        if (!(value instanceof String[]))
+        {
+            // Without a usable objectClass property we cannot rely
+            // on the index, so fall back to visiting every listener.
+            return m_all;
+        }
+
+        // Only allocate a key if the service has several indexed classes.
+        String single = null;
+        List<String> several = null;
+        for (String cls : (String[]) value)
+        {
+            if (!m_indexed.containsKey(cls))
+            {
+                continue;
+            }
+            if (single == null)
+            {
+                single = cls;
+            }
+            else
+            {
+                if (several == null)
+                {
+                    several = new ArrayList<>();
+                    several.add(single);
+                }
+                several.add(cls);
+            }
+        }
+        if (single == null)
+        {
+            return m_unindexed;
+        }
+
+        Object key = (several != null) ? several : single;
+        Map<BundleContext, List<ListenerInfo>> listeners = m_candidates.get(key);
+        if (listeners == null)
+        {
+            listeners = getCandidates(
+                (several != null) ? several : Collections.singletonList(single));
+            if (m_candidates.size() < MAX_CANDIDATES)
+            {
+                m_candidates.putIfAbsent(key, listeners);
+            }
+        }
+        return listeners;
+    }
+
+    private Map<BundleContext, List<ListenerInfo>> getCandidates(List<String> classes)
+    {
+        Set<BundleContext> contexts = new HashSet<>(m_unindexed.keySet());
+        for (String cls : classes)
+        {
+            contexts.addAll(m_indexed.get(cls).keySet());
+        }
+        Map<BundleContext, List<ListenerInfo>> candidates = new HashMap<>();
+        for (BundleContext bc : contexts)
+        {
+            List<ListenerInfo> infos = new ArrayList<>();
+            for (ListenerInfo info : m_all.get(bc))
+            {
+                Set<String> infoClasses = m_classes.get(info);
+                if ((infoClasses == null) || !Collections.disjoint(infoClasses, classes))
+                {
+                    infos.add(info);
+                }
+            }
+            candidates.put(bc, infos);
+        }
+        return candidates;
+    }
+
+    /**
+     * Determines the set of <tt>objectClass</tt> values of which at least
+     * one must be present on a service for the listener's filter to match.
+     * @param info the listener to inspect.
+     * @return the set of required object classes or <tt>null</tt> if the
+     *         listener cannot be indexed.
+    **/
+    static Set<String> getObjectClasses(ListenerInfo info)
+    {
+        Filter filter = info.getParsedFilter();
+        if ((filter == null)
+            || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+
+        SimpleFilter sf;
+        if (filter instanceof FilterImpl)
+        {
+            sf = ((FilterImpl) filter).getSimpleFilter();
+        }
+        else if (isFrameworkFilter(filter))
+        {
+            try
+            {
+                sf = SimpleFilter.parse(filter.toString());
+            }
+            catch (Exception ex)
+            {
+                return null;
+            }
+        }
+        else
+        {
+            return null;
+        }
+        return getObjectClasses(sf);
+    }
+
+    private static Set<String> getObjectClasses(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.EQ:
+                if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                    && (sf.getValue() instanceof String))
+                {
+                    return Collections.singleton((String) sf.getValue());
+                }
+                return null;
+            case SimpleFilter.AND:
+            {
+                // Any single conjunct that constrains the object class
+                // is sufficient, so pick the most selective one.
+                Set<String> result = null;
+                for (Object o : (List<?>) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses((SimpleFilter) o);
+                    if ((classes != null)
+                        && ((result == null) || (classes.size() < result.size())))
+                    {
+                        result = classes;
+                    }
+                }
+                return result;
+            }
+            case SimpleFilter.OR:
+            {
+                // Every disjunct must constrain the object class,
+                // otherwise the listener may match any service.
+                Set<String> result = new HashSet<>();
+                for (Object o : (List<?>) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses((SimpleFilter) o);
+                    if (classes == null)
+                    {
+                        return null;
+                    }
+                    result.addAll(classes);
+                }
+                return result.isEmpty() ? null : result;
+            }
+            default:
+                return null;
+        }
+    }
+
+    // Only filters created by the framework are guaranteed to have a
+    // string representation that reflects their matching semantics.
+    private static boolean isFrameworkFilter(Filter filter)
+    {
+        return filter.getClass().getName().startsWith("org.osgi.framework.FilterImpl");
+    }
+
+    private static Map<ListenerInfo, Set<String>> addClasses(
+        Map<ListenerInfo, Set<String>> classes, ListenerInfo info, Set<String> infoClasses)
+    {
+        Map<ListenerInfo, Set<String>> copy = new IdentityHashMap<>(classes);
+        copy.put(info, infoClasses);
+        return copy;
+    }
+
+    private static Map<String, Map<BundleContext, List<ListenerInfo>>> addIndexed(
+        Map<String, Map<BundleContext, List<ListenerInfo>>> indexed,
+        ListenerInfo info, Set<String> classes)
+    {
+        Map<String, Map<BundleContext, List<ListenerInfo>>> copy = new HashMap<>(indexed);
+        for (String cls : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> listeners = copy.get(cls);
+            copy.put(cls, addInfo((listeners == null)
+                ? Collections.<BundleContext, List<ListenerInfo>>emptyMap()
+                : listeners, info));
+        }
+        return copy;
+    }
+
+    private static Map<String, Map<BundleContext, List<ListenerInfo>>> removeIndexed(
+        Map<String, Map<BundleContext, List<ListenerInfo>>> indexed,
+        ListenerInfo info, Set<String> classes)
+    {
+        Map<String, Map<BundleContext, List<ListenerInfo>>> copy = new HashMap<>(indexed);
+        for (String cls : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> listeners = copy.remove(cls);
+            if (listeners != null)
+            {
+                listeners = removeInfo(listeners, info);
+                if (!listeners.isEmpty())
+                {
+                    copy.put(cls, listeners);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static Map<BundleContext, List<ListenerInfo>> addInfo(
+        Map<BundleContext, List<ListenerInfo>> listeners, ListenerInfo info)
+    {
+        Map<BundleContext, List<ListenerInfo>> copy = new HashMap<>(listeners);
+        List<ListenerInfo> infos = copy.get(info.getBundleContext());
+        infos = (infos == null) ? new ArrayList<ListenerInfo>() : new ArrayList<>(infos);
+        infos.add(info);
+        copy.put(info.getBundleContext(), infos);
+        return copy;
+    }
+
+    private static Map<BundleContext, List<ListenerInfo>> removeInfo(
+        Map<BundleContext, List<ListenerInfo>> listeners, ListenerInfo info)
+    {
+        List<ListenerInfo> infos = listeners.get(info.getBundleContext());
+        if (infos == null)
+        {
+            return listeners;
+        }
+        List<ListenerInfo> newInfos = new ArrayList<>(infos.size());
+        for (ListenerInfo i : infos)
+        {
+            if (i != info)
+            {
+                newInfos.add(i);
+            }
+        }
+        Map<BundleContext, List<ListenerInfo>> copy = new HashMap<>(listeners);
+        if (newInfos.isEmpty())
+        {
+            copy.remove(info.getBundleContext());
+        }
+        else
+        {
+            copy.put(info.getBundleContext(), newInfos);
+        }
+        return copy;
+    }
+}
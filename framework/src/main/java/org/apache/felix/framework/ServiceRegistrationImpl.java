@@ -29,6 +29,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.util.StringMap;
@@ -46,6 +47,7 @@ import org.osgi.framework.dto.ServiceReferenceDTO;
 import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
 
 class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
 {
@@ -72,6 +74,11 @@ class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
 
     private final Object syncObject = new Object();
 
+    // Maps the wirings of requesting bundles to whether the service is
+    // assignable to them; only valid for the wiring stamp of the registry.
+    private final Map<BundleWiring, Boolean> m_assignable = new WeakHashMap<>();
+    private long m_assignableStamp;
+
     public ServiceRegistrationImpl(
         ServiceRegistry registry, Bundle bundle,
         String[] classes, Long serviceId,
@@ -117,7 +124,20 @@ class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
     @Override
 	public void setProperties(Dictionary<String, ?> dict)
     {
-        Map<String, ?> oldProps;
+        // Let the registry set the properties, since it has to move the
+        // reference if its ranking changes.
+        Map<String, ?> oldProps = m_registry.updateServiceProperties(this, dict);
+        // Tell registry about it.
+        m_registry.servicePropertiesModified(this, new MapToDictionary<>(oldProps));
+    }
+
+    /**
+     * Replaces the properties of the registration.
+     * @param dict the new properties.
+     * @return the old properties.
+    **/
+    Map<String, ?> updateProperties(Dictionary<String, ?> dict)
+    {
         synchronized (this)
         {
             // Make sure registration is valid.
@@ -127,12 +147,11 @@ class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
                     "The service registration is no longer valid.");
             }
             // Remember old properties.
-            oldProps = m_propMap;
+            Map<String, ?> oldProps = m_propMap;
             // Set the properties.
             initializeProperties(dict);
+            return oldProps;
         }
-        // Tell registry about it.
-        m_registry.servicePropertiesModified(this, new MapToDictionary<>(oldProps));
     }
 
     @Override
@@ -154,6 +173,50 @@ class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
         }
     }
 
+    /**
+     * Determines whether the service is assignable to the given bundle.
+     * The outcome is remembered per wiring of the bundle, which is replaced
+     * when the bundle is refreshed, until a dynamic wire is added.
+     * @param requester the bundle requesting the service.
+     * @return <tt>true</tt> if the bundle sees the same classes as the service
+     *         for all of its class names, <tt>false</tt> otherwise.
+    **/
+    boolean isAssignable(Bundle requester)
+    {
+        BundleRevision revision = requester.adapt(BundleRevision.class);
+        BundleWiring wiring = (revision != null) ? revision.getWiring() : null;
+        if (wiring == null)
+        {
+            return Util.isServiceAssignable(requester, m_ref);
+        }
+
+        long stamp = m_registry.getWiringStamp();
+        synchronized (m_assignable)
+        {
+            if (m_assignableStamp != stamp)
+            {
+                m_assignable.clear();
+                m_assignableStamp = stamp;
+            }
+            Boolean assignable = m_assignable.get(wiring);
+            if (assignable != null)
+            {
+                return assignable;
+            }
+        }
+
+        // Check outside of the lock, since this may load classes.
+        boolean assignable = Util.isServiceAssignable(requester, m_ref);
+        synchronized (m_assignable)
+        {
+            if (m_assignableStamp == stamp)
+            {
+                m_assignable.put(wiring, assignable);
+            }
+        }
+        return assignable;
+    }
+
     //
     // Utility methods.
     //
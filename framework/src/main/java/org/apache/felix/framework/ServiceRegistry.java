@@ -19,20 +19,22 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -55,17 +57,34 @@ public class ServiceRegistry
     // Capability set for all service registrations.
     private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
 
+    // Maps object class to its service references sorted by ranking, best first.
+    private final ConcurrentMap<String, ServiceReference<?>[]> m_rankedRefs = new ConcurrentHashMap<>();
+
+    // Changes whenever a dynamic wire is added, since this may change
+    // whether a service is assignable to a bundle.
+    private final AtomicLong m_wiringStamp = new AtomicLong();
+
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<>();
 
     private final ServiceRegistryCallbacks m_callbacks;
 
+    // Runtime metrics or null if disabled.
+    private final FrameworkMetricsImpl m_metrics;
+
     private final HookRegistry hookRegistry = new HookRegistry();
 
     public ServiceRegistry(final Logger logger, final ServiceRegistryCallbacks callbacks)
+    {
+        this(logger, callbacks, null);
+    }
+
+    ServiceRegistry(final Logger logger, final ServiceRegistryCallbacks callbacks,
+        final FrameworkMetricsImpl metrics)
     {
         m_logger = logger;
         m_callbacks = callbacks;
+        m_metrics = metrics;
     }
 
     /**
@@ -136,6 +155,7 @@ public class ServiceRegistry
             regs.add(reg);
         }
         m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
+        addRankedReference(reg.getReference());
 
         return reg;
     }
@@ -163,6 +183,7 @@ public class ServiceRegistry
             }
         }
         m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+        removeRankedReference(reg.getReference());
 
         // Notify callback objects about unregistering service.
         if (m_callbacks != null)
@@ -249,29 +270,161 @@ public class ServiceRegistry
         }
     }
 
+    /**
+     * Get the service references matching the given class name and filter,
+     * sorted by ranking with the best reference first.
+     * @param className The service class name or {@code null} for all
+     * @param filter The filter or {@code null}
+     * @return The sorted service references
+     */
     public Collection<ServiceReference<?>> getServiceReferences(final String className, SimpleFilter filter)
     {
-        if ((className == null) && (filter == null))
+        if (m_metrics != null)
+        {
+            m_metrics.servicesLookedUp(className);
+        }
+
+        final List<ServiceReference<?>> refs = new ArrayList<>();
+        if (className != null)
+        {
+            // Services matching the class name are already sorted.
+            for (final ServiceReference<?> ref : getRankedServiceReferences(className))
+            {
+                if ((filter == null) || CapabilitySet.matches((Capability) ref, filter))
+                {
+                    refs.add(ref);
+                }
+            }
+            return refs;
+        }
+        else if (filter == null)
         {
             // Return all services.
             filter = new SimpleFilter(null, null, SimpleFilter.MATCH_ALL);
         }
-        else if ((className != null) && (filter == null))
+        // else just use the specified filter.
+
+        for (final Capability cap : m_regCapSet.match(filter, false))
         {
-            // Return services matching the class name.
-            filter = new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ);
+            if (cap instanceof ServiceReference)
+            {
+                refs.add((ServiceReference<?>) cap);
+            }
         }
-        else if ((className != null) && (filter != null))
+        Collections.sort(refs, Collections.reverseOrder());
+        return refs;
+    }
+
+    /**
+     * Get the service references registered under the given class name,
+     * sorted by ranking with the best reference first.
+     * @param className The service class name
+     * @return The sorted service references, which must not be modified.
+     */
+    public ServiceReference<?>[] getRankedServiceReferences(final String className)
+    {
+        final ServiceReference<?>[] refs = m_rankedRefs.get(className);
+        return (refs != null) ? refs : new ServiceReference<?>[0];
+    }
+
+    private void addRankedReference(final ServiceReference<?> ref)
+    {
+        synchronized (m_rankedRefs)
         {
-            // Return services matching the class name and filter.
-            final List<SimpleFilter> filters = new ArrayList<>(2);
-            filters.add(new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ));
-            filters.add(filter);
-            filter = new SimpleFilter(null, filters, SimpleFilter.AND);
+            for (final String className : (String[]) ref.getProperty(Constants.OBJECTCLASS))
+            {
+                final ServiceReference<?>[] refs = m_rankedRefs.get(className);
+                if (refs == null)
+                {
+                    m_rankedRefs.put(className, new ServiceReference<?>[] { ref });
+                    continue;
+                }
+                // Find the insertion point by binary search instead of sorting,
+                // since the ranking of other references may change concurrently.
+                int low = 0;
+                int high = refs.length;
+                while (low < high)
+                {
+                    final int mid = (low + high) >>> 1;
+                    if (refs[mid].compareTo(ref) > 0)
+                    {
+                        low = mid + 1;
+                    }
+                    else
+                    {
+                        high = mid;
+                    }
+                }
+                final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length + 1];
+                System.arraycopy(refs, 0, newRefs, 0, low);
+                newRefs[low] = ref;
+                System.arraycopy(refs, low, newRefs, low + 1, refs.length - low);
+                m_rankedRefs.put(className, newRefs);
+            }
         }
-        // else just use the specified filter.
+    }
 
-        return  m_regCapSet.match(filter, false).stream().filter(ServiceReference.class::isInstance).map(s->((ServiceReference<?>)s)).collect(Collectors.toSet());
+    private boolean removeRankedReference(final ServiceReference<?> ref)
+    {
+        boolean removed = false;
+        synchronized (m_rankedRefs)
+        {
+            for (final String className : (String[]) ref.getProperty(Constants.OBJECTCLASS))
+            {
+                final ServiceReference<?>[] refs = m_rankedRefs.get(className);
+                final int idx = (refs != null) ? Arrays.asList(refs).indexOf(ref) : -1;
+                if (idx < 0)
+                {
+                    continue;
+                }
+                removed = true;
+                if (refs.length == 1)
+                {
+                    m_rankedRefs.remove(className);
+                }
+                else
+                {
+                    final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length - 1];
+                    System.arraycopy(refs, 0, newRefs, 0, idx);
+                    System.arraycopy(refs, idx + 1, newRefs, idx, refs.length - idx - 1);
+                    m_rankedRefs.put(className, newRefs);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Check whether the service of the given reference is assignable to the
+     * given bundle, i.e. whether the bundle sees the same classes as the
+     * service for all of the service's class names. The outcome is cached per
+     * service and wiring of the bundle.
+     * @param requester The bundle requesting the service
+     * @param ref The service reference
+     * @return {@code true} if the service is assignable to the bundle.
+     */
+    public static boolean isServiceAssignable(final Bundle requester, final ServiceReference<?> ref)
+    {
+        if (ref instanceof ServiceRegistrationImpl.ServiceReferenceImpl)
+        {
+            return ((ServiceRegistrationImpl.ServiceReferenceImpl) ref)
+                .getRegistration().isAssignable(requester);
+        }
+        return Util.isServiceAssignable(requester, ref);
+    }
+
+    /**
+     * Notify the registry that a dynamic wire was added, which invalidates
+     * cached outcomes of {@link #isServiceAssignable(Bundle, ServiceReference)}.
+     */
+    void dynamicWireAdded()
+    {
+        m_wiringStamp.incrementAndGet();
+    }
+
+    long getWiringStamp()
+    {
+        return m_wiringStamp.get();
     }
 
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
@@ -303,6 +456,11 @@ public class ServiceRegistry
     @SuppressWarnings("unchecked")
     public <S> S getService(final Bundle bundle, final ServiceReference<S> ref, final boolean isServiceObjects)
     {
+        if (m_metrics != null)
+        {
+            m_metrics.serviceObtained(ref);
+        }
+
         // prototype scope is only possible if called from ServiceObjects
         final boolean isPrototype = isServiceObjects && ref.getProperty(Constants.SERVICE_SCOPE) == Constants.SCOPE_PROTOTYPE;
         UsageCount usage = null;
@@ -458,6 +616,11 @@ public class ServiceRegistry
 
     public boolean ungetService(final Bundle bundle, final ServiceReference<?> ref, final Object svcObj)
     {
+        if (m_metrics != null)
+        {
+            m_metrics.serviceReleased(ref);
+        }
+
         final ServiceRegistrationImpl reg =
             ((ServiceRegistrationImpl.ServiceReferenceImpl) ref).getRegistration();
 
@@ -610,6 +773,32 @@ public class ServiceRegistry
         return bundles;
     }
 
+    /**
+     * Sets the properties of a registration. The ranked references are
+     * locked while the properties change, so that no concurrent insertion
+     * searches an array in which the reference is not yet at the position
+     * of its new ranking.
+     * @param reg the registration.
+     * @param dict the new properties.
+     * @return the old properties.
+     */
+    Map<String, ?> updateServiceProperties(ServiceRegistrationImpl reg, Dictionary<String, ?> dict)
+    {
+        synchronized (m_rankedRefs)
+        {
+            final Map<String, ?> oldProps = reg.updateProperties(dict);
+            // Move the reference to its new position if the ranking changed.
+            final Object oldRanking = oldProps.get(Constants.SERVICE_RANKING);
+            final Object newRanking = reg.getReference().getProperty(Constants.SERVICE_RANKING);
+            if (((oldRanking == null) ? (newRanking != null) : !oldRanking.equals(newRanking))
+                && removeRankedReference(reg.getReference()))
+            {
+                addRankedReference(reg.getReference());
+            }
+            return oldProps;
+        }
+    }
+
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<String,?> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
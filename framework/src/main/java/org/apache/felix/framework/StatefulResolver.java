@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,12 +31,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
@@ -90,6 +94,16 @@ class StatefulResolver
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Identifies the resolver hooks which took part in any resolve.
+    private final Set<String> m_resolverHooks = new TreeSet<>();
+    // Maps exported package names to a stamp that changes whenever a new
+    // exporter of the package is added, so failed dynamic imports of the
+    // package can be remembered by wirings until then.
+    private final Map<String, Long> m_packageStamps = new ConcurrentHashMap<>();
+    private final AtomicLong m_packageStampCounter = new AtomicLong();
+    private final int m_dynamicImportCacheSize;
+    private final AtomicLong m_dynamicImportCacheHits = new AtomicLong();
+    private final AtomicLong m_dynamicImportCacheMisses = new AtomicLong();
     private volatile ServiceRegistration<?> m_serviceRegistration;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
@@ -98,7 +112,9 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        m_resolver = new ResolverImpl(m_logger, m_executor, getPermutationParallelism(),
+            "true".equalsIgnoreCase(m_felix.getProperty(FelixConstants.RESOLVER_INCREMENTAL)));
+        m_dynamicImportCacheSize = getDynamicImportCacheSize();
 
         m_revisions = new HashSet<>();
         m_fragments = new HashSet<>();
@@ -106,17 +122,67 @@ class StatefulResolver
         m_singletons = new HashMap<>();
         m_selectedSingletons = new HashSet<>();
 
+        // Requirements usually constrain the name and a version range, so
+        // also index the version per name to avoid scanning all versions.
         List<String> indices = new ArrayList<>();
         indices.add(BundleRevision.BUNDLE_NAMESPACE);
-        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices, true));
+        List<String[]> compoundIndices = new ArrayList<>();
+        compoundIndices.add(new String[] {
+            BundleRevision.BUNDLE_NAMESPACE, Constants.BUNDLE_VERSION_ATTRIBUTE });
+        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE,
+            new CapabilitySet(indices, compoundIndices, true));
 
         indices = new ArrayList<>();
         indices.add(BundleRevision.PACKAGE_NAMESPACE);
-        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices, true));
+        compoundIndices = new ArrayList<>();
+        compoundIndices.add(new String[] {
+            BundleRevision.PACKAGE_NAMESPACE, Constants.VERSION_ATTRIBUTE });
+        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE,
+            new CapabilitySet(indices, compoundIndices, true));
 
         indices = new ArrayList<>();
         indices.add(BundleRevision.HOST_NAMESPACE);
-        m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
+        compoundIndices = new ArrayList<>();
+        compoundIndices.add(new String[] {
+            BundleRevision.HOST_NAMESPACE, Constants.BUNDLE_VERSION_ATTRIBUTE });
+        m_capSets.put(BundleRevision.HOST_NAMESPACE,
+            new CapabilitySet(indices, compoundIndices, true));
+    }
+
+    private int getDynamicImportCacheSize()
+    {
+        String str = m_felix.getProperty(FelixConstants.DYNAMIC_IMPORT_CACHE_SIZE_PROP);
+        if (str != null)
+        {
+            try
+            {
+                return Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid dynamic import cache size: " + str);
+            }
+        }
+        return 256;
+    }
+
+    private int getPermutationParallelism()
+    {
+        String str = m_felix.getProperty(FelixConstants.RESOLVER_PERMUTATION_PARALLELISM);
+        if (str != null)
+        {
+            try
+            {
+                return Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid resolver permutation parallelism: " + str);
+            }
+        }
+        return 1;
     }
 
     private Executor getExecutor()
@@ -194,6 +260,10 @@ class StatefulResolver
 
         m_revisions.add(br);
 
+        // Invalidate remembered failed dynamic imports of the packages
+        // exported by the revision, since it may be able to provide them.
+        updatePackageStamps(br);
+
         // Add singletons to the singleton map.
         boolean isSingleton = Util.isSingleton(br);
         if (isSingleton)
@@ -216,12 +286,45 @@ class StatefulResolver
         }
     }
 
+    private void updatePackageStamps(BundleRevision br)
+    {
+        List<BundleCapability> caps = br.getDeclaredCapabilities(BundleRevision.PACKAGE_NAMESPACE);
+        if (caps != null)
+        {
+            for (BundleCapability cap : caps)
+            {
+                Object pkgName = cap.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE);
+                if (pkgName instanceof String)
+                {
+                    m_packageStamps.put((String) pkgName, m_packageStampCounter.incrementAndGet());
+                }
+            }
+        }
+    }
+
+    long getPackageStamp(String pkgName)
+    {
+        Long stamp = m_packageStamps.get(pkgName);
+        return (stamp != null) ? stamp : 0L;
+    }
+
+    long getDynamicImportCacheHits()
+    {
+        return m_dynamicImportCacheHits.get();
+    }
+
+    long getDynamicImportCacheMisses()
+    {
+        return m_dynamicImportCacheMisses.get();
+    }
+
     synchronized void removeRevision(BundleRevision br)
     {
         if (m_revisions.remove(br))
         {
             m_fragments.remove(br);
             deindexCapabilities(br);
+            m_resolver.unresolved(br);
 
             // If this module is a singleton, then remove it from the
             // singleton map.
@@ -483,6 +586,9 @@ class StatefulResolver
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
+            FrameworkMetricsImpl metrics = m_felix.getMetrics();
+            long start = (metrics != null) ? System.nanoTime() : 0;
+            long permutations = (metrics != null) ? m_resolver.getPermutationCount() : 0;
             try
             {
                 // Resolve the revision.
@@ -499,6 +605,11 @@ class StatefulResolver
             {
                 rethrow = ex;
             }
+            if (metrics != null)
+            {
+                metrics.resolved(System.nanoTime() - start,
+                    m_resolver.getPermutationCount() - permutations, rethrow == null);
+            }
 
             // Release resolver hooks, if any.
             releaseResolverHooks(record);
@@ -523,6 +634,123 @@ class StatefulResolver
         fireResolvedEvents(wireMap);
     }
 
+    /**
+     * Captures the wirings of all bundles, so that they can be restored on
+     * the next startup by {@link #restore(ResolutionSnapshot)}. Resolver
+     * hooks are registered by bundles which are only started after the
+     * snapshot is restored, so no snapshot is captured once a resolver hook
+     * took part in any resolve.
+     * @return the snapshot or <tt>null</tt> if the global lock could not be
+     *         acquired or resolver hooks took part in resolving.
+    **/
+    ResolutionSnapshot createSnapshot()
+    {
+        if (!m_felix.acquireGlobalLock())
+        {
+            return null;
+        }
+        try
+        {
+            if (!m_resolverHooks.isEmpty())
+            {
+                m_logger.log(Logger.LOG_INFO,
+                    "Resolution snapshots are disabled, since resolver hooks of bundles "
+                    + m_resolverHooks + " took part in resolving.");
+                return null;
+            }
+            return ResolutionSnapshot.capture(
+                Arrays.asList(m_felix.getBundles()), m_resolverHooks);
+        }
+        finally
+        {
+            m_felix.releaseGlobalLock();
+        }
+    }
+
+    /**
+     * Rebuilds the wirings recorded in a snapshot without running the
+     * resolver, as long as the fingerprint of the snapshot still matches
+     * the installed bundles and the registered resolver hooks.
+     * @param snapshot the snapshot to restore.
+     * @return whether the wirings were restored.
+    **/
+    boolean restore(ResolutionSnapshot snapshot)
+    {
+        // Acquire global lock.
+        if (!m_felix.acquireGlobalLock())
+        {
+            return false;
+        }
+
+        // Make sure we are not already resolving.
+        if (m_isResolving)
+        {
+            m_felix.releaseGlobalLock();
+            return false;
+        }
+        m_isResolving = true;
+
+        Map<Resource, List<Wire>> wireMap = null;
+        try
+        {
+            List<Bundle> bundles = Arrays.asList(m_felix.getBundles());
+            String fingerprint = ResolutionSnapshot.getFingerprint(bundles,
+                getResolverHookIds(m_felix.getHookRegistry().getHooks(ResolverHookFactory.class)));
+            if (fingerprint.equals(snapshot.getFingerprint()))
+            {
+                Map<Long, Bundle> bundleMap = new HashMap<>(bundles.size() * 4 / 3 + 1);
+                for (Bundle bundle : bundles)
+                {
+                    bundleMap.put(bundle.getBundleId(), bundle);
+                }
+                wireMap = snapshot.getWireMap(bundleMap);
+            }
+            if (wireMap == null)
+            {
+                m_logger.log(Logger.LOG_DEBUG,
+                    "Resolution snapshot does not match the installed bundles.");
+                return false;
+            }
+
+            // Mark all revisions as resolved.
+            markResolvedRevisions(wireMap);
+        }
+        catch (ResolveException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to restore resolution snapshot.", ex);
+            return false;
+        }
+        finally
+        {
+            // Clear resolving flag.
+            m_isResolving = false;
+            // Always release the global lock.
+            m_felix.releaseGlobalLock();
+        }
+
+        fireResolvedEvents(wireMap);
+        return true;
+    }
+
+    /**
+     * Identifies resolver hook factories by the bundle registering them,
+     * since service identifiers are not stable across restarts.
+    **/
+    private static Set<String> getResolverHookIds(
+        Collection<ServiceReference<ResolverHookFactory>> refs)
+    {
+        Set<String> ids = new TreeSet<>();
+        for (ServiceReference<ResolverHookFactory> ref : refs)
+        {
+            Bundle bundle = ref.getBundle();
+            if (bundle != null)
+            {
+                ids.add(bundle.getBundleId() + ":" + bundle.getSymbolicName());
+            }
+        }
+        return ids;
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolutionException, BundleException
     {
@@ -533,8 +761,27 @@ class StatefulResolver
         // dynamic import is allowed without holding any locks, but this is
         // okay since the resolver will double check later after we have
         // acquired the global lock below.
-        if ((revision.getWiring() != null) && isAllowedDynamicImport(revision, pkgName))
+        BundleWiringImpl wiring = (BundleWiringImpl) revision.getWiring();
+        if (wiring == null)
+        {
+            return null;
+        }
+
+        // If there was no exporter to dynamically import the package from
+        // the last time, then there still is none unless one was added since.
+        // Get the stamp before searching, so an exporter added concurrently
+        // invalidates a failure recorded below.
+        long stamp = getPackageStamp(pkgName);
+        if (wiring.isFailedDynamicImport(pkgName, stamp))
         {
+            m_dynamicImportCacheHits.incrementAndGet();
+            return null;
+        }
+
+        if (isAllowedDynamicImport(revision, pkgName))
+        {
+            m_dynamicImportCacheMisses.incrementAndGet();
+
             // Acquire global lock.
             boolean locked = m_felix.acquireGlobalLock();
             if (!locked)
@@ -574,6 +821,9 @@ class StatefulResolver
                     // Catch any resolve exception to rethrow later because
                     // we may need to call end() on resolver hooks.
                     ResolutionException rethrow = null;
+                    FrameworkMetricsImpl metrics = m_felix.getMetrics();
+                    long start = (metrics != null) ? System.nanoTime() : 0;
+                    long permutations = (metrics != null) ? m_resolver.getPermutationCount() : 0;
                     try
                     {
                         List<BundleRequirement> dynamics =
@@ -637,6 +887,11 @@ class StatefulResolver
                     {
                         rethrow = ex;
                     }
+                    if (metrics != null)
+                    {
+                        metrics.resolved(System.nanoTime() - start,
+                            m_resolver.getPermutationCount() - permutations, rethrow == null);
+                    }
 
                     // Release resolver hooks, if any.
                     releaseResolverHooks(record);
@@ -679,6 +934,7 @@ class StatefulResolver
                                 m_felix.getDependencies().addDependent(bw);
 
                                 ((BundleWiringImpl) revision.getWiring()).addDynamicWire(bw);
+                                m_registry.dynamicWireAdded();
 
                                 m_felix.getLogger().log(
                                     Logger.LOG_DEBUG,
@@ -701,10 +957,31 @@ class StatefulResolver
 
             fireResolvedEvents(wireMap);
         }
+        else if (isDynamicImportCacheable(wiring))
+        {
+            // Failures are only remembered if no exporter matches a dynamic
+            // import, since the outcome of resolving one that matches also
+            // depends on other bundles and resolver hooks.
+            m_dynamicImportCacheMisses.incrementAndGet();
+            wiring.addFailedDynamicImport(pkgName, stamp, m_dynamicImportCacheSize);
+        }
 
         return provider;
     }
 
+    private boolean isDynamicImportCacheable(BundleWiringImpl wiring)
+    {
+        // Permissions to import a package may change at any time, so do not
+        // remember anything if a security manager is installed.
+        if ((m_dynamicImportCacheSize <= 0) || (System.getSecurityManager() != null))
+        {
+            return false;
+        }
+        List<BundleRequirement> dynamics =
+            Util.getDynamicRequirements(wiring.getRequirements(null));
+        return (dynamics != null) && !dynamics.isEmpty();
+    }
+
     private BundleRequirementImpl findDynamicRequirement(List<BundleRequirement> dynamics, List<BundleCapability> candidates)
     {
         for (int dynIdx = 0; (candidates.size() > 0)  && (dynIdx < dynamics.size()); dynIdx++)
@@ -740,6 +1017,10 @@ class StatefulResolver
             m_felix.getHookRegistry().getHooks(ResolverHookFactory.class);
         Collection<BundleRevision> whitelist;
 
+        // Remember the hooks, since the wirings resulting from this resolve
+        // must not be restored from a snapshot without them.
+        m_resolverHooks.addAll(getResolverHookIds(hookRefs));
+
         if (!hookRefs.isEmpty())
         {
             // Create triggers list.
@@ -1288,7 +1569,8 @@ class StatefulResolver
     {
         if (wireMap != null)
         {
-            
+            ClassLoadingProfiler profiler = m_felix.getClassLoadingProfiler();
+
             // Iterate over the map to fire necessary RESOLVED events.
             for (Entry<Resource, List<Wire>> entry : wireMap.entrySet()) {
                 Resource resource = entry.getKey();
@@ -1297,6 +1579,13 @@ class StatefulResolver
 
                 BundleRevision revision = (BundleRevision) resource;
 
+                // Start loading the classes the revision loaded during the
+                // last startup, now that its wiring is available.
+                if ((profiler != null) && (revision instanceof BundleRevisionImpl))
+                {
+                    profiler.preload((BundleRevisionImpl) revision);
+                }
+
                 // Fire RESOLVED events for all fragments.
                 List<BundleRevision> fragments =
                     Util.getFragments(revision.getWiring());
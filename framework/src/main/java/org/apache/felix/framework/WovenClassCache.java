@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.felix.framework.util.SecureAction;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.hooks.weaving.WeavingHook;
+
+/**
+ * Keeps the bytes of woven classes and the dynamic imports added while
+ * weaving them in the revision directory, so the classes can be defined
+ * again without calling the weaving hooks.
+ * <p>
+ * An entry is only used if the original class bytes and the weaving hooks
+ * are the same as when it was stored. Weaving hooks are identified by the
+ * symbolic name, version and last modification of the bundle registering
+ * them as well as their service ranking and PID, which means that hooks are
+ * expected to weave a class the same way as long as these do not change.
+ * That is why the cache has to be enabled explicitly.
+**/
+class WovenClassCache
+{
+    static final String CACHE_DIR = "woven";
+    private static final String ENTRY_SUFFIX = ".woven";
+    private static final int ENTRY_FILE_VERSION = 1;
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final File m_dir;
+
+    WovenClassCache(File revisionRootDir)
+    {
+        m_dir = new File(revisionRootDir, CACHE_DIR);
+    }
+
+    /**
+     * Calculates the key of a woven class.
+     * @param bytes the original class bytes.
+     * @param felix the framework.
+     * @param hooks the weaving hooks in the order they are called.
+     * @return the key or <tt>null</tt> if a hook cannot be identified.
+    **/
+    String getKey(byte[] bytes, Felix felix, Set<ServiceReference<WeavingHook>> hooks)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (ServiceReference<WeavingHook> sr : hooks)
+        {
+            if (felix.getHookRegistry().isHookBlackListed(sr))
+            {
+                continue;
+            }
+            Bundle bundle = sr.getBundle();
+            if (bundle == null)
+            {
+                return null;
+            }
+            sb.append(bundle.getSymbolicName()).append(';')
+                .append(bundle.getVersion()).append(';')
+                .append(bundle.getLastModified()).append(';')
+                .append(sr.getProperty(Constants.SERVICE_RANKING)).append(';')
+                .append(sr.getProperty(Constants.SERVICE_PID)).append('\0');
+        }
+        digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(bytes);
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the stored woven class.
+     * @param className the name of the class.
+     * @param key the key of the class.
+     * @return the woven class or <tt>null</tt> if there is none for the key.
+    **/
+    Entry get(String className, String key)
+    {
+        File file = new File(m_dir, className + ENTRY_SUFFIX);
+        if (!m_secureAction.fileExists(file))
+        {
+            return null;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                m_secureAction.getFileInputStream(file)));
+            if ((in.readInt() != ENTRY_FILE_VERSION) || !in.readUTF().equals(key))
+            {
+                return null;
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            int count = in.readInt();
+            List<String> imports = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                imports.add(in.readUTF());
+            }
+            return new Entry(bytes, imports);
+        }
+        catch (Exception ex)
+        {
+            // A corrupt entry is simply woven again.
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a woven class.
+     * @param className the name of the class.
+     * @param key the key of the class.
+     * @param bytes the woven class bytes.
+     * @param imports the dynamic imports added by the weaving hooks.
+     * @throws Exception if the class cannot be stored.
+    **/
+    void put(String className, String key, byte[] bytes, List<String> imports)
+        throws Exception
+    {
+        if (!m_secureAction.fileExists(m_dir) && !m_secureAction.mkdirs(m_dir)
+            && !m_secureAction.fileExists(m_dir))
+        {
+            throw new IOException("Unable to create " + m_dir);
+        }
+
+        // Write to a temporary file first, since other threads may be reading
+        // or writing the same entry.
+        File file = new File(m_dir, className + ENTRY_SUFFIX);
+        File tmp = m_secureAction.createTempFile(className, ".tmp", m_dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            m_secureAction.getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(ENTRY_FILE_VERSION);
+            out.writeUTF(key);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt(imports.size());
+            for (String s : imports)
+            {
+                out.writeUTF(s);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        m_secureAction.deleteFile(file);
+        if (!m_secureAction.renameFile(tmp, file))
+        {
+            m_secureAction.deleteFile(tmp);
+        }
+    }
+
+    static final class Entry
+    {
+        private final byte[] m_bytes;
+        private final List<String> m_imports;
+
+        private Entry(byte[] bytes, List<String> imports)
+        {
+            m_bytes = bytes;
+            m_imports = imports;
+        }
+
+        byte[] getBytes()
+        {
+            return m_bytes;
+        }
+
+        List<String> getDynamicImports()
+        {
+            return m_imports;
+        }
+    }
+}
@@ -105,6 +105,16 @@ class WovenClassImpl implements WovenClass, List<String>
         }
     }
 
+    /**
+     * Sets the result of weaving this class earlier, instead of calling
+     * the weaving hooks.
+    **/
+    synchronized void restore(byte[] bytes, List<String> imports)
+    {
+        m_bytes = bytes;
+        m_imports.addAll(imports);
+    }
+
     synchronized List<String> getDynamicImportsInternal()
     {
         return m_imports;
@@ -72,7 +72,6 @@ public class BundleArchive
     public static final transient String REFERENCE_PROTOCOL = "reference:";
     public static final transient String INPUTSTREAM_PROTOCOL = "inputstream:";
 
-    private static final transient String BUNDLE_INFO_FILE = "bundle.info";
     private static final transient String REVISION_LOCATION_FILE = "revision.location";
     private static final transient String REVISION_DIRECTORY = "version";
     private static final transient String DATA_DIRECTORY = "data";
@@ -81,6 +80,7 @@ public class BundleArchive
     private final Map<?,?> m_configMap;
     private final WeakZipFileFactory m_zipFactory;
     private final File m_archiveRootDir;
+    private final BundleInfoStore m_infoStore;
 
     private long m_id = -1;
     private String m_originalLocation = null;
@@ -129,10 +129,20 @@ public class BundleArchive
         connectFactory,
         File archiveRootDir, long id, int startLevel, String location, InputStream is)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, connectFactory, BundleInfoStore.FILE,
+            archiveRootDir, id, startLevel, location, is);
+    }
+
+    BundleArchive(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory, ModuleConnector
+        connectFactory, BundleInfoStore infoStore,
+        File archiveRootDir, long id, int startLevel, String location, InputStream is)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
+        m_infoStore = infoStore;
         m_archiveRootDir = archiveRootDir;
         m_id = id;
         if (m_id <= 0)
@@ -170,10 +180,18 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory, ModuleConnector connectFactory,
         File archiveRootDir)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, connectFactory, BundleInfoStore.FILE, archiveRootDir);
+    }
+
+    BundleArchive(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory, ModuleConnector connectFactory,
+        BundleInfoStore infoStore, File archiveRootDir)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
+        m_infoStore = infoStore;
         m_archiveRootDir = archiveRootDir;
 
         readBundleInfo();
@@ -631,6 +649,7 @@ public class BundleArchive
                 Logger.LOG_ERROR,
                 "Unable to delete archive directory - " + m_archiveRootDir);
         }
+        m_infoStore.remove(m_archiveRootDir);
     }
 
     /**
@@ -875,72 +894,22 @@ public class BundleArchive
 
     private void readBundleInfo() throws Exception
     {
-        File infoFile = new File(m_archiveRootDir, BUNDLE_INFO_FILE);
-
-        // Read the bundle start level.
-        InputStream is = null;
-        BufferedReader br= null;
-        try
-        {
-            is = BundleCache.getSecureAction()
-                .getInputStream(infoFile);
-            br = new BufferedReader(new InputStreamReader(is));
-
-            // Read id.
-            m_id = Long.parseLong(br.readLine());
-            // Read location.
-            m_originalLocation = br.readLine();
-            // Read state.
-            m_persistentState = Integer.parseInt(br.readLine());
-            // Read start level.
-            m_startLevel = Integer.parseInt(br.readLine());
-            // Read last modified.
-            m_lastModified = Long.parseLong(br.readLine());
-            // Read refresh count.
-            m_refreshCount = Long.parseLong(br.readLine());
-        }
-        finally
-        {
-            if (br != null) br.close();
-            if (is != null) is.close();
-        }
+        BundleInfoStore.BundleInfo info = m_infoStore.read(m_archiveRootDir);
+        m_id = info.getId();
+        m_originalLocation = info.getLocation();
+        m_persistentState = info.getPersistentState();
+        m_startLevel = info.getStartLevel();
+        m_lastModified = info.getLastModified();
+        m_refreshCount = info.getRefreshCount();
     }
 
     private void writeBundleInfo() throws Exception
     {
-        // Write the bundle start level.
-        OutputStream os = null;
-        BufferedWriter bw = null;
         try
         {
-            os = BundleCache.getSecureAction()
-                .getOutputStream(new File(m_archiveRootDir, BUNDLE_INFO_FILE));
-            bw = new BufferedWriter(new OutputStreamWriter(os));
-
-            // Write id.
-            String s = Long.toString(m_id);
-            bw.write(s, 0, s.length());
-            bw.newLine();
-            // Write location.
-            s = (m_originalLocation == null) ? "" : m_originalLocation;
-            bw.write(s, 0, s.length());
-            bw.newLine();
-            // Write state.
-            s = Integer.toString(m_persistentState);
-            bw.write(s, 0, s.length());
-            bw.newLine();
-            // Write start level.
-            s = Integer.toString(m_startLevel);
-            bw.write(s, 0, s.length());
-            bw.newLine();
-            // Write last modified.
-            s = Long.toString(m_lastModified);
-            bw.write(s, 0, s.length());
-            bw.newLine();
-            // Write refresh count.
-            s = Long.toString(m_refreshCount);
-            bw.write(s, 0, s.length());
-            bw.newLine();
+            m_infoStore.write(m_archiveRootDir, new BundleInfoStore.BundleInfo(
+                m_id, m_originalLocation, m_persistentState,
+                m_startLevel, m_lastModified, m_refreshCount));
         }
         catch (IOException ex)
         {
@@ -949,10 +918,5 @@ public class BundleArchive
                 getClass().getName() + ": Unable to cache bundle info - " + ex);
             throw ex;
         }
-        finally
-        {
-            if (bw != null) bw.close();
-            if (os != null) os.close();
-        }
     }
 }
@@ -75,6 +75,61 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.metadata</tt> - Determines how the bundle info of the
+ *       installed bundles, such as their persistent state and start level, is
+ *       stored. The value can either be "<tt>file</tt>", which rewrites a file
+ *       in the directory of each bundle on every change, or "<tt>journal</tt>",
+ *       which appends all changes to a single journal in the cache directory.
+ *       A corrupted journal fails opening the cache instead of discarding
+ *       the installed bundles. The default value is "<tt>file</tt>".
+ *   </li>
+ *   <li><tt>felix.cache.journal.syncinterval</tt> - Sets the minimum number of
+ *       milliseconds between two syncs of the bundle info journal to the
+ *       storage device; the default value is 1000. Changes are always written
+ *       to the journal immediately, but a crash of the operating system may
+ *       lose the changes made since the last sync.
+ *   </li>
+ *   <li><tt>felix.cache.mmap</tt> - Determines whether bundle JAR files and
+ *       embedded JAR files are memory-mapped instead of being opened as ZIP
+ *       files. Mapped JAR files do not count against the file limit and their
+ *       uncompressed entries are not copied when classes are defined. Only
+ *       JAR files copied into the cache are mapped, bundles installed with a
+ *       <tt>reference:</tt> location and their embedded JAR files are always
+ *       opened as ZIP files. The
+ *       default value is <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.manifest</tt> - Determines whether the parsed
+ *       manifest of each bundle revision is kept in a binary file in the
+ *       revision directory, so the revision can be created on the next
+ *       startup without parsing the manifest again. The file is only used
+ *       as long as the manifest and the framework version are unchanged.
+ *       The default value is <tt>true</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.weaving</tt> - Determines whether classes woven
+ *       by weaving hooks are kept in the revision directory, so they are
+ *       defined on the next startup without calling the weaving hooks, as
+ *       long as the class and the bundles registering the hooks did not
+ *       change. Only enable it if the weaving hooks always weave a class
+ *       the same way. The default value is <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.classprofile</tt> - Sets the number of seconds after
+ *       the framework is initialized during which the classes defined by each
+ *       bundle revision are recorded in its revision directory. The profiles
+ *       are written when this period ends. On the next startup, the recorded
+ *       classes are loaded in parallel once the framework has reached its
+ *       beginning start level, so weaving hooks of bundles started by then
+ *       are applied. The default value is <tt>0</tt>, which disables
+ *       recording and preloading.
+ *   </li>
+ *   <li><tt>felix.cache.dirtree</tt> - Determines whether the entries of
+ *       exploded bundle directories are kept in memory, so entry lookups and
+ *       enumerations do not access the file system. If set to <tt>true</tt>,
+ *       the entries are read once per bundle revision, so changes made to the
+ *       directory outside of the framework are only seen after the bundle is
+ *       updated. If set to "<tt>watch</tt>", the directory is also watched
+ *       for changes and the entries are read again after a change. The
+ *       default value is <tt>false</tt>.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +142,15 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_METADATA_PROP = "felix.cache.metadata";
+    public static final String CACHE_METADATA_FILE = "file";
+    public static final String CACHE_METADATA_JOURNAL = "journal";
+    public static final String CACHE_JOURNAL_SYNCINTERVAL_PROP = "felix.cache.journal.syncinterval";
+    public static final String CACHE_MMAP_PROP = "felix.cache.mmap";
+    public static final String CACHE_MANIFEST_PROP = "felix.cache.manifest";
+    public static final String CACHE_WEAVING_PROP = "felix.cache.weaving";
+    public static final String CACHE_CLASSPROFILE_PROP = "felix.cache.classprofile";
+    public static final String CACHE_DIRTREE_PROP = "felix.cache.dirtree";
     private static final ThreadLocal<SoftReference<byte[]>> m_defaultBuffer = new ThreadLocal<>();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
@@ -100,6 +164,7 @@ public class BundleCache
     private final Logger m_logger;
     private final Map<String, ?> m_configMap;
     private final WeakZipFileFactory m_zipFactory;
+    private final BundleInfoStore m_infoStore;
     private final Object m_lock;
 
     public BundleCache(Logger logger, Map<String, ?> configMap)
@@ -173,6 +238,77 @@ public class BundleCache
         {
             m_lock = null;
         }
+
+        File journalFile = new File(cacheDir, JournalBundleInfoStore.JOURNAL_FILE);
+        Object metadata = m_configMap.get(CACHE_METADATA_PROP);
+        if ((metadata != null)
+            && metadata.toString().trim().equalsIgnoreCase(CACHE_METADATA_JOURNAL))
+        {
+            long syncInterval = 1000;
+            Object syncIntervalStr = m_configMap.get(CACHE_JOURNAL_SYNCINTERVAL_PROP);
+            if (syncIntervalStr != null)
+            {
+                try
+                {
+                    syncInterval = Long.parseLong(syncIntervalStr.toString().trim());
+                }
+                catch (NumberFormatException ex)
+                {
+                    m_logger.log(
+                        Logger.LOG_WARNING,
+                        "Invalid " + CACHE_JOURNAL_SYNCINTERVAL_PROP + " value: " + syncIntervalStr);
+                }
+            }
+            m_infoStore = new JournalBundleInfoStore(m_logger, journalFile, syncInterval);
+            // The bundle info of all archives is lost if the journal cannot
+            // be loaded, so fail instead of discarding the archives.
+            try
+            {
+                m_infoStore.open();
+            }
+            catch (Exception ex)
+            {
+                release();
+                throw new Exception("Unable to load bundle journal: " + ex);
+            }
+        }
+        else
+        {
+            // The bundle info was kept in the journal before, so move it
+            // back to the archive directories.
+            if (getSecureAction().fileExists(journalFile))
+            {
+                try
+                {
+                    JournalBundleInfoStore.restoreBundleInfoFiles(journalFile);
+                }
+                catch (Exception ex)
+                {
+                    release();
+                    throw new Exception("Unable to restore bundle info from journal: " + ex);
+                }
+            }
+            m_infoStore = BundleInfoStore.FILE;
+        }
+    }
+
+    static boolean isMappingEnabled(Map<?, ?> configMap)
+    {
+        Object mmap = configMap.get(CACHE_MMAP_PROP);
+        return (mmap != null) && Boolean.parseBoolean(mmap.toString().trim());
+    }
+
+    static boolean isDirectoryTreeEnabled(Map<?, ?> configMap)
+    {
+        Object dirtree = configMap.get(CACHE_DIRTREE_PROP);
+        return (dirtree != null) && (Boolean.parseBoolean(dirtree.toString().trim())
+            || isDirectoryWatchEnabled(configMap));
+    }
+
+    static boolean isDirectoryWatchEnabled(Map<?, ?> configMap)
+    {
+        Object dirtree = configMap.get(CACHE_DIRTREE_PROP);
+        return (dirtree != null) && dirtree.toString().trim().equalsIgnoreCase("watch");
     }
 
     // Parse the main attributes of the manifest of the given jarfile.
@@ -359,6 +495,10 @@ public class BundleCache
 
     public synchronized void release()
     {
+        if (m_infoStore != null)
+        {
+            m_infoStore.close();
+        }
         if (m_lock != null)
         {
             try
@@ -390,6 +530,7 @@ public class BundleCache
     {
         // Delete the cache directory.
         File cacheDir = determineCacheDir(m_configMap);
+        m_infoStore.clear();
         deleteDirectoryTree(cacheDir);
     }
 
@@ -410,6 +551,10 @@ public class BundleCache
             // Use the default value.
         }
 
+        // Fail if the bundle info of all archives is unavailable, rather
+        // than removing every archive below.
+        m_infoStore.open();
+
         // Create the existing bundle archives in the directory, if any exist.
         File cacheDir = determineCacheDir(m_configMap);
         List<BundleArchive> archiveList = new ArrayList<>();
@@ -426,7 +571,8 @@ public class BundleCache
                 {
                     archiveList.add(
                         new BundleArchive(
-                            m_logger, m_configMap, m_zipFactory, connectFactory, children[i]));
+                            m_logger, m_configMap, m_zipFactory, connectFactory,
+                            m_infoStore, children[i]));
                 }
                 catch (Exception ex)
                 {
@@ -434,6 +580,7 @@ public class BundleCache
                     m_logger.log(Logger.LOG_ERROR,
                         "Error reloading cached bundle, removing it: " + children[i], ex);
                     deleteDirectoryTree(children[i]);
+                    m_infoStore.remove(children[i]);
                 }
             }
         }
@@ -456,8 +603,8 @@ public class BundleCache
             // Create the archive and add it to the list of archives.
             BundleArchive ba =
                 new BundleArchive(
-                    m_logger, m_configMap, m_zipFactory, connectFactory, archiveRootDir,
-                    id, startLevel, location, is);
+                    m_logger, m_configMap, m_zipFactory, connectFactory, m_infoStore,
+                    archiveRootDir, id, startLevel, location, is);
             return ba;
         }
         catch (Exception ex)
@@ -471,6 +618,7 @@ public class BundleCache
                         "Unable to delete the archive directory: "
                             + archiveRootDir);
                 }
+                m_infoStore.remove(archiveRootDir);
             }
             throw ex;
         }
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * <p>
+ * Persists the bundle info of the bundle archives of a bundle cache, which is
+ * the bundle identifier, location, persistent state, start level, last
+ * modification time and refresh count of each archive. Archives are
+ * identified by their archive root directory.
+ * </p>
+ * <p>
+ * By default, the bundle info is kept in a <tt>bundle.info</tt> file in each
+ * archive root directory, which is rewritten on every change. Alternatively,
+ * the bundle info of all archives can be kept in a single journal in the
+ * bundle cache directory.
+ * </p>
+ * @see org.apache.felix.framework.cache.JournalBundleInfoStore
+**/
+abstract class BundleInfoStore
+{
+    static final String BUNDLE_INFO_FILE = "bundle.info";
+
+    /**
+     * The default store, which keeps the bundle info in a <tt>bundle.info</tt>
+     * file in each archive root directory and rewrites it on every change.
+    **/
+    static final BundleInfoStore FILE = new BundleInfoStore()
+    {
+        @Override
+        BundleInfo read(File archiveRootDir) throws Exception
+        {
+            return readBundleInfoFile(archiveRootDir);
+        }
+
+        @Override
+        void write(File archiveRootDir, BundleInfo info) throws Exception
+        {
+            writeBundleInfoFile(archiveRootDir, info);
+        }
+    };
+
+    /**
+     * Loads the bundle info kept by the store for all archives.
+     * @throws Exception if the store cannot be loaded, in which case the
+     *         bundle info of no archive can be read.
+    **/
+    void open() throws Exception
+    {
+    }
+
+    /**
+     * Reads the bundle info of an archive.
+     * @param archiveRootDir the archive root directory.
+     * @return the bundle info of the archive.
+     * @throws Exception if there is no bundle info for the archive or it
+     *         cannot be read.
+    **/
+    abstract BundleInfo read(File archiveRootDir) throws Exception;
+
+    /**
+     * Stores the bundle info of an archive.
+     * @param archiveRootDir the archive root directory.
+     * @param info the bundle info of the archive.
+     * @throws Exception if the bundle info cannot be stored.
+    **/
+    abstract void write(File archiveRootDir, BundleInfo info) throws Exception;
+
+    /**
+     * Forgets the bundle info of an archive whose root directory was deleted.
+    **/
+    void remove(File archiveRootDir)
+    {
+    }
+
+    /**
+     * Forgets the bundle info of all archives after the bundle cache
+     * was deleted.
+    **/
+    void clear()
+    {
+    }
+
+    /**
+     * Makes sure all stored bundle info is durable and releases any
+     * resources held by the store.
+    **/
+    void close()
+    {
+    }
+
+    static BundleInfo readBundleInfoFile(File archiveRootDir) throws Exception
+    {
+        File infoFile = new File(archiveRootDir, BUNDLE_INFO_FILE);
+
+        InputStream is = null;
+        BufferedReader br= null;
+        try
+        {
+            is = BundleCache.getSecureAction()
+                .getInputStream(infoFile);
+            br = new BufferedReader(new InputStreamReader(is));
+
+            // Read id.
+            long id = Long.parseLong(br.readLine());
+            // Read location.
+            String location = br.readLine();
+            // Read state.
+            int persistentState = Integer.parseInt(br.readLine());
+            // Read start level.
+            int startLevel = Integer.parseInt(br.readLine());
+            // Read last modified.
+            long lastModified = Long.parseLong(br.readLine());
+            // Read refresh count.
+            long refreshCount = Long.parseLong(br.readLine());
+
+            return new BundleInfo(id, location, persistentState,
+                startLevel, lastModified, refreshCount);
+        }
+        finally
+        {
+            if (br != null) br.close();
+            if (is != null) is.close();
+        }
+    }
+
+    static void writeBundleInfoFile(File archiveRootDir, BundleInfo info) throws Exception
+    {
+        OutputStream os = null;
+        BufferedWriter bw = null;
+        try
+        {
+            os = BundleCache.getSecureAction()
+                .getOutputStream(new File(archiveRootDir, BUNDLE_INFO_FILE));
+            bw = new BufferedWriter(new OutputStreamWriter(os));
+
+            // Write id.
+            String s = Long.toString(info.getId());
+            bw.write(s, 0, s.length());
+            bw.newLine();
+            // Write location.
+            s = (info.getLocation() == null) ? "" : info.getLocation();
+            bw.write(s, 0, s.length());
+            bw.newLine();
+            // Write state.
+            s = Integer.toString(info.getPersistentState());
+            bw.write(s, 0, s.length());
+            bw.newLine();
+            // Write start level.
+            s = Integer.toString(info.getStartLevel());
+            bw.write(s, 0, s.length());
+            bw.newLine();
+            // Write last modified.
+            s = Long.toString(info.getLastModified());
+            bw.write(s, 0, s.length());
+            bw.newLine();
+            // Write refresh count.
+            s = Long.toString(info.getRefreshCount());
+            bw.write(s, 0, s.length());
+            bw.newLine();
+        }
+        finally
+        {
+            if (bw != null) bw.close();
+            if (os != null) os.close();
+        }
+    }
+
+    /**
+     * The immutable bundle info of a bundle archive.
+    **/
+    static final class BundleInfo
+    {
+        private final long m_id;
+        private final String m_location;
+        private final int m_persistentState;
+        private final int m_startLevel;
+        private final long m_lastModified;
+        private final long m_refreshCount;
+
+        BundleInfo(long id, String location, int persistentState,
+            int startLevel, long lastModified, long refreshCount)
+        {
+            m_id = id;
+            m_location = location;
+            m_persistentState = persistentState;
+            m_startLevel = startLevel;
+            m_lastModified = lastModified;
+            m_refreshCount = refreshCount;
+        }
+
+        long getId()
+        {
+            return m_id;
+        }
+
+        String getLocation()
+        {
+            return m_location;
+        }
+
+        int getPersistentState()
+        {
+            return m_persistentState;
+        }
+
+        int getStartLevel()
+        {
+            return m_startLevel;
+        }
+
+        long getLastModified()
+        {
+            return m_lastModified;
+        }
+
+        long getRefreshCount()
+        {
+            return m_refreshCount;
+        }
+    }
+}
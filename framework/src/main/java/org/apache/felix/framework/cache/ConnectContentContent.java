@@ -187,9 +187,9 @@ public class ConnectContentContent implements Content
                         }
                     }
                 }
-                return new JarContent(
+                return JarContent.create(
                     m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                    extractJar.getParentFile(), extractJar, null);
+                    extractJar.getParentFile(), extractJar);
             }
             catch (Exception ex)
             {
@@ -41,12 +41,12 @@ public class DirectoryContent implements Content
     private static final transient String EMBEDDED_DIRECTORY = "-embedded";
     private static final transient String LIBRARY_DIRECTORY = "-lib";
 
-    private final Logger m_logger;
-    private final Map<?,?> m_configMap;
-    private final WeakZipFileFactory m_zipFactory;
-    private final Object m_revisionLock;
-    private final File m_rootDir;
-    private final File m_dir;
+    final Logger m_logger;
+    final Map<?,?> m_configMap;
+    final WeakZipFileFactory m_zipFactory;
+    final Object m_revisionLock;
+    final File m_rootDir;
+    final File m_dir;
     private Map<String,Integer> m_nativeLibMap;
     private final String m_canonicalRoot;
 
@@ -71,6 +71,23 @@ public class DirectoryContent implements Content
         m_canonicalRoot = canonicalPath;
     }
 
+    /**
+     * Creates the content of a directory, whose entries are kept in memory
+     * if the <tt>felix.cache.dirtree</tt> configuration property is set.
+    **/
+    static DirectoryContent create(Logger logger, Map<?,?> configMap,
+        WeakZipFileFactory zipFactory, Object revisionLock, File rootDir, File dir)
+    {
+        if (BundleCache.isDirectoryTreeEnabled(configMap))
+        {
+            DirectoryTree tree = new DirectoryTree(
+                logger, dir, BundleCache.isDirectoryWatchEnabled(configMap));
+            return new NioDirectoryContent(
+                logger, configMap, zipFactory, revisionLock, rootDir, tree, "", true);
+        }
+        return new DirectoryContent(logger, configMap, zipFactory, revisionLock, rootDir, dir);
+    }
+
     public File getFile()
     {
         return m_dir;
@@ -285,6 +302,8 @@ public class DirectoryContent implements Content
                             ? entryName.substring(0, entryName.lastIndexOf('/'))
                             : entryName);
 
+            // The embedded JAR file is not copied into the cache, so it is
+            // never memory-mapped.
             return new JarContent(
                     m_logger, m_configMap, m_zipFactory, m_revisionLock,
                     extractDir, file, null);
@@ -78,7 +78,7 @@ class DirectoryRevision extends BundleArchiveRevision
     @Override
 	public Content getContent() throws Exception
     {
-        return new DirectoryContent(getLogger(), getConfig(), m_zipFactory,
+        return DirectoryContent.create(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_refDir);
     }
 
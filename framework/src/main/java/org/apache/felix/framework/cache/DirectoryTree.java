@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.framework.Logger;
+
+/**
+ * <p>
+ * The entries of a directory and all of its sub-directories, which are read
+ * once with a single walk of the file tree. Entries are keyed by their path
+ * relative to the directory, using '/' as separator and without a trailing
+ * slash for directories.
+ * </p>
+ * <p>
+ * Like <tt>DirectoryContent</tt>, entries that are symbolic links to files
+ * outside of the directory are left out. If the tree is watched, every
+ * change reported by the {@link DirectoryWatcher} discards the entries, so
+ * they are read again on the next access.
+ * </p>
+**/
+class DirectoryTree
+{
+    private final Logger m_logger;
+    private final File m_dir;
+    private final boolean m_watch;
+    private final AtomicInteger m_generation = new AtomicInteger();
+    private volatile NavigableMap<String, Node> m_entries;
+    private volatile boolean m_closed;
+
+    DirectoryTree(Logger logger, File dir, boolean watch)
+    {
+        m_logger = logger;
+        m_dir = dir;
+        m_watch = watch;
+    }
+
+    File getDirectory()
+    {
+        return m_dir;
+    }
+
+    /**
+     * Returns the entries of the directory, reading them if they were not
+     * read yet or were discarded.
+     * @return the entries.
+    **/
+    NavigableMap<String, Node> getEntries()
+    {
+        NavigableMap<String, Node> entries = m_entries;
+        if (entries == null)
+        {
+            synchronized (this)
+            {
+                entries = m_entries;
+                if (entries == null)
+                {
+                    // Only keep the entries if the directory did not change
+                    // while they were read, otherwise read them again on
+                    // the next access.
+                    int generation = m_generation.get();
+                    entries = read();
+                    if (generation == m_generation.get())
+                    {
+                        m_entries = entries;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the entry with the given name.
+     * @param name the name of the entry, a trailing slash is ignored.
+     * @return the entry or <tt>null</tt> if there is none.
+    **/
+    Node getEntry(String name)
+    {
+        if (name.endsWith("/"))
+        {
+            name = name.substring(0, name.length() - 1);
+        }
+        return getEntries().get(name);
+    }
+
+    /**
+     * Discards the entries, so they are read again on the next access.
+    **/
+    void invalidate()
+    {
+        m_generation.incrementAndGet();
+        m_entries = null;
+        if (m_watch)
+        {
+            DirectoryWatcher.unregister(this);
+        }
+    }
+
+    /**
+     * Stops watching the directory. The entries stay available, but are no
+     * longer updated.
+    **/
+    void close()
+    {
+        m_closed = true;
+        if (m_watch)
+        {
+            DirectoryWatcher.unregister(this);
+        }
+    }
+
+    private NavigableMap<String, Node> read()
+    {
+        final NavigableMap<String, Node> entries = new ConcurrentSkipListMap<>();
+        final Path root = m_dir.toPath();
+        try
+        {
+            final Path realRoot = root.toRealPath();
+            BundleCache.getSecureAction().walkFileTree(m_dir, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    if (!dir.equals(root))
+                    {
+                        if (!isInside(dir))
+                        {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        entries.put(getName(dir), new Node(true, attrs.lastModifiedTime().toMillis()));
+                    }
+                    if (m_watch && !m_closed)
+                    {
+                        register(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    if (isInside(file))
+                    {
+                        entries.put(getName(file),
+                            new Node(attrs.isDirectory(), attrs.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex)
+                {
+                    // Skip entries that cannot be read, such as links
+                    // that form a cycle.
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private boolean isInside(Path path) throws IOException
+                {
+                    return !Files.isSymbolicLink(path) || path.toRealPath().startsWith(realRoot);
+                }
+
+                private String getName(Path path)
+                {
+                    return root.relativize(path).toString().replace(File.separatorChar, '/');
+                }
+            });
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "DirectoryTree: Unable to read the entries of " + m_dir, ex);
+        }
+        return entries;
+    }
+
+    private void register(Path dir)
+    {
+        try
+        {
+            DirectoryWatcher.register(this, dir);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_DEBUG,
+                "DirectoryTree: Unable to watch " + dir, ex);
+        }
+    }
+
+    /**
+     * An entry of the tree.
+    **/
+    static final class Node
+    {
+        private final boolean m_directory;
+        private final long m_lastModified;
+
+        Node(boolean directory, long lastModified)
+        {
+            m_directory = directory;
+            m_lastModified = lastModified;
+        }
+
+        boolean isDirectory()
+        {
+            return m_directory;
+        }
+
+        long getLastModified()
+        {
+            return m_lastModified;
+        }
+    }
+}
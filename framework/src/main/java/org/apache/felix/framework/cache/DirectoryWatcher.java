@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * <p>
+ * Watches the directories of all watched {@link DirectoryTree}s with a single
+ * <tt>WatchService</tt> and a single daemon thread, which are shared by all
+ * framework instances. The thread is started when the first directory is
+ * registered and stops when no directories are left.
+ * </p>
+ * <p>
+ * Any change in a directory invalidates the whole tree it belongs to, which
+ * also cancels the registrations of the tree. The directories are registered
+ * again when the tree is read the next time.
+ * </p>
+**/
+class DirectoryWatcher implements Runnable
+{
+    private static DirectoryWatcher m_instance;
+
+    private final WatchService m_service;
+    private final Map<WatchKey, DirectoryTree> m_keys = new HashMap<>();
+
+    private DirectoryWatcher(WatchService service)
+    {
+        m_service = service;
+    }
+
+    /**
+     * Watches a directory of a tree.
+     * @param tree the tree to invalidate if the directory changes.
+     * @param dir the directory.
+     * @throws IOException if the directory cannot be watched.
+    **/
+    static synchronized void register(DirectoryTree tree, Path dir) throws IOException
+    {
+        if (m_instance == null)
+        {
+            m_instance = new DirectoryWatcher(FileSystems.getDefault().newWatchService());
+            Thread thread = new Thread(m_instance, "FelixDirectoryWatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        WatchKey key = dir.register(m_instance.m_service,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        m_instance.m_keys.put(key, tree);
+    }
+
+    /**
+     * Stops watching the directories of a tree.
+     * @param tree the tree.
+    **/
+    static synchronized void unregister(DirectoryTree tree)
+    {
+        if (m_instance == null)
+        {
+            return;
+        }
+        for (Iterator<Entry<WatchKey, DirectoryTree>> it =
+            m_instance.m_keys.entrySet().iterator(); it.hasNext(); )
+        {
+            Entry<WatchKey, DirectoryTree> entry = it.next();
+            if (entry.getValue() == tree)
+            {
+                entry.getKey().cancel();
+                it.remove();
+            }
+        }
+        if (m_instance.m_keys.isEmpty())
+        {
+            try
+            {
+                m_instance.m_service.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+            m_instance = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = m_service.take();
+                key.pollEvents();
+                DirectoryTree tree;
+                synchronized (DirectoryWatcher.class)
+                {
+                    tree = m_keys.get(key);
+                }
+                if (tree != null)
+                {
+                    // Cancels the key, so there is no need to reset it.
+                    tree.invalidate();
+                }
+                else
+                {
+                    key.reset();
+                }
+            }
+        }
+        catch (ClosedWatchServiceException ex)
+        {
+            // No directories are watched any longer.
+        }
+        catch (InterruptedException ex)
+        {
+            // Stop watching, the next registration starts a new watcher.
+            synchronized (DirectoryWatcher.class)
+            {
+                if (m_instance == this)
+                {
+                    m_instance = null;
+                }
+            }
+            try
+            {
+                m_service.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore.
+            }
+        }
+    }
+}
@@ -41,12 +41,12 @@ public class JarContent implements Content
     private static final transient String EMBEDDED_DIRECTORY = "-embedded";
     private static final transient String LIBRARY_DIRECTORY = "-lib";
 
-    private final Logger m_logger;
-    private final Map<?,?> m_configMap;
-    private final WeakZipFileFactory m_zipFactory;
-    private final Object m_revisionLock;
-    private final File m_rootDir;
-    private final File m_file;
+    final Logger m_logger;
+    final Map<?,?> m_configMap;
+    final WeakZipFileFactory m_zipFactory;
+    final Object m_revisionLock;
+    final File m_rootDir;
+    final File m_file;
     private final WeakZipFile m_zipFile;
     private final boolean m_isZipFileOwner;
     private Map<String,Integer> m_nativeLibMap;
@@ -79,6 +79,58 @@ public class JarContent implements Content
         m_isZipFileOwner = (zipFile == null);
     }
 
+    /**
+     * Constructor for subclasses which do not access the JAR file through
+     * a <tt>WeakZipFile</tt>.
+    **/
+    JarContent(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_file = file;
+        m_zipFile = null;
+        m_isZipFileOwner = false;
+    }
+
+    /**
+     * Creates the content of a JAR file, which is memory-mapped if the
+     * <tt>felix.cache.mmap</tt> configuration property is set to <tt>true</tt>
+     * and the JAR file can be mapped.
+    **/
+    static JarContent create(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file)
+    {
+        if (BundleCache.isMappingEnabled(configMap))
+        {
+            try
+            {
+                return new MappedJarContent(logger, configMap, zipFactory,
+                    revisionLock, rootDir, MappedJarFile.open(file), true);
+            }
+            catch (IOException ex)
+            {
+                logger.log(
+                    Logger.LOG_DEBUG,
+                    "Unable to map JAR file, using a ZIP file instead - " + file, ex);
+            }
+        }
+        return new JarContent(logger, configMap, zipFactory, revisionLock, rootDir, file, null);
+    }
+
+    /**
+     * Creates another content for the same JAR file, which shares the
+     * underlying file with this content.
+    **/
+    JarContent createSharedContent()
+    {
+        return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
+            m_rootDir, m_file, m_zipFile);
+    }
+
     @Override
 	protected void finalize()
     {
@@ -234,8 +286,7 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            return createSharedContent();
         }
 
         // Remove any leading slash.
@@ -259,13 +310,11 @@ public class JarContent implements Content
         // Determine if the entry is an emdedded JAR file or
         // directory in the bundle JAR file. Ignore any entries
         // that do not exist per the spec.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
-
-        if ((ze != null) && ze.isDirectory())
+        if (isDirectory(entryName))
         {
             return new ContentDirectoryContent(this, entryName);
         }
-        else if ((ze != null) && ze.getName().endsWith(".jar"))
+        else if (entryName.endsWith(".jar") && hasEntry(entryName))
         {
             File extractJar = new File(embedDir, entryName);
 
@@ -290,13 +339,14 @@ public class JarContent implements Content
                             }
 
                             // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
+                            BundleCache.copyStreamToFile(
+                                getExtractableStream(entryName), extractJar);
                         }
                     }
                 }
-                return new JarContent(
+                return create(
                     m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                    extractJar.getParentFile(), extractJar, null);
+                    extractJar.getParentFile(), extractJar);
             }
             catch (Exception ex)
             {
@@ -335,8 +385,7 @@ public class JarContent implements Content
 
         // The entry name must refer to a file type, since it is
         // a native library, not a directory.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
-        if ((ze != null) && !ze.isDirectory())
+        if (hasEntry(entryName) && !isDirectory(entryName))
         {
             // Extracting the embedded native library file impacts all other
             // existing contents for this revision, so we have to grab the
@@ -372,7 +421,8 @@ public class JarContent implements Content
                         try
                         {
                             // Create the file.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), libFile);
+                            BundleCache.copyStreamToFile(
+                                getExtractableStream(entryName), libFile);
 
                             // Perform exec permission command on extracted library
                             // if one is configured.
@@ -422,6 +472,17 @@ public class JarContent implements Content
         return result;
     }
 
+    private InputStream getExtractableStream(String entryName) throws IOException
+    {
+        InputStream is = getEntryAsStream(entryName);
+        if (is == null)
+        {
+            throw new IOException("Unable to read entry " + entryName
+                + " in ZIP file " + m_file.getAbsolutePath());
+        }
+        return is;
+    }
+
     @Override
 	public String toString()
     {
@@ -51,6 +51,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedJarFile m_mappedFile;
 
     public JarRevision(
         Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory,
@@ -75,6 +76,31 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
+        // Map the JAR file if configured, otherwise or if it cannot be
+        // mapped open it as a ZIP file. Referenced JAR files are never
+        // mapped, since they may be truncated or rewritten outside of the
+        // cache, which makes accessing the mapping fail with a SIGBUS.
+        MappedJarFile mappedFile = null;
+        if (!byReference && BundleCache.isMappingEnabled(configMap))
+        {
+            try
+            {
+                mappedFile = MappedJarFile.open(m_bundleFile);
+            }
+            catch (IOException ex)
+            {
+                logger.log(
+                    Logger.LOG_DEBUG,
+                    "Unable to map JAR file, using a ZIP file instead - " + m_bundleFile, ex);
+            }
+        }
+        m_mappedFile = mappedFile;
+        if (m_mappedFile != null)
+        {
+            m_zipFile = null;
+            return;
+        }
+
         // Open shared copy of the JAR file.
         WeakZipFile zipFile = null;
         try
@@ -99,6 +125,14 @@ class JarRevision extends BundleArchiveRevision
 	public Map<String, String> getManifestHeader() throws Exception
     {
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
+        if (m_mappedFile != null)
+        {
+            int entry = m_mappedFile.find("META-INF/MANIFEST.MF");
+            return (entry >= 0)
+                ? BundleCache.getMainAttributes(new StringMap<>(),
+                    m_mappedFile.getInputStream(entry), m_mappedFile.getSize(entry))
+                : null;
+        }
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
         Map<String, String> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap<>(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
@@ -109,6 +143,11 @@ class JarRevision extends BundleArchiveRevision
     @Override
 	public Content getContent() throws Exception
     {
+        if (m_mappedFile != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_mappedFile, false);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
@@ -116,7 +155,14 @@ class JarRevision extends BundleArchiveRevision
     @Override
 	protected void close() throws Exception
     {
-        m_zipFile.close();
+        if (m_mappedFile != null)
+        {
+            m_mappedFile.close();
+        }
+        else
+        {
+            m_zipFile.close();
+        }
     }
 
     //
@@ -0,0 +1,534 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+import org.apache.felix.framework.Logger;
+
+/**
+ * <p>
+ * A bundle info store which keeps the bundle info of all archives in a single
+ * append-only journal in the bundle cache directory. The journal is read
+ * sequentially once, when the bundle info of the first archive is requested,
+ * and all reads are served from memory afterwards. Every change appends a
+ * checksummed record to the journal, which is written to the file system
+ * right away, but only forced to the storage device at most once per sync
+ * interval, by the next append or by a daemon timer which is scheduled
+ * while there are unsynced records, and when the store is closed. Thus, a
+ * crash of the JVM does not lose any change, while a crash of the operating
+ * system may lose the changes of the last sync interval.
+ * </p>
+ * <p>
+ * Once the journal contains considerably more records than archives, it is
+ * compacted by writing the current bundle info of all archives to a new
+ * journal, which then replaces the old one. A torn record at the end of the
+ * journal, as left behind by a crash during an append, is discarded. Any
+ * other invalid record fails loading the journal, since the records after
+ * it would be lost otherwise.
+ * </p>
+ * <p>
+ * The <tt>bundle.info</tt> file of archives written by the default store is
+ * imported into the journal when the archive is read and deleted once the
+ * journal was synced. If the journal exists, its records take precedence
+ * over any <tt>bundle.info</tt> file. When switching back to the default
+ * store, {@link #restoreBundleInfoFiles(File)} writes the <tt>bundle.info</tt>
+ * files from the journal again and deletes it.
+ * </p>
+**/
+class JournalBundleInfoStore extends BundleInfoStore
+{
+    // Must not start with the bundle directory prefix of the bundle cache.
+    static final String JOURNAL_FILE = "info.journal";
+    private static final int JOURNAL_VERSION = 1;
+    private static final int HEADER_LENGTH = 4;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    // The minimum number of records before the journal is compacted.
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    private final Logger m_logger;
+    private final File m_file;
+    private final long m_syncInterval;
+
+    // The bundle info by archive root directory name, null until loaded.
+    private Map<String, BundleInfo> m_infos;
+    // The number of records in the journal.
+    private int m_records;
+    // The length of the valid part of the journal or -1 if it must be rewritten.
+    private long m_validLength;
+    private FileChannel m_channel;
+    private boolean m_dirty;
+    private long m_lastSync;
+    // Syncs unsynced records once the sync interval has passed.
+    private Timer m_timer;
+    private TimerTask m_syncTask;
+    // Imported bundle.info files to delete once the journal was synced.
+    private final List<File> m_imported = new ArrayList<>();
+
+    /**
+     * @param logger the logger to be used by the store.
+     * @param file the journal file.
+     * @param syncInterval the minimum number of milliseconds between two
+     *        syncs of the journal to the storage device.
+    **/
+    JournalBundleInfoStore(Logger logger, File file, long syncInterval)
+    {
+        m_logger = logger;
+        m_file = file;
+        m_syncInterval = syncInterval;
+    }
+
+    @Override
+    synchronized void open() throws Exception
+    {
+        load();
+    }
+
+    @Override
+    synchronized BundleInfo read(File archiveRootDir) throws Exception
+    {
+        load();
+        BundleInfo info = m_infos.get(archiveRootDir.getName());
+        if (info == null)
+        {
+            // The archive was written by the default store, so import it.
+            info = readBundleInfoFile(archiveRootDir);
+            write(archiveRootDir, info);
+            m_imported.add(new File(archiveRootDir, BUNDLE_INFO_FILE));
+            if (!m_dirty)
+            {
+                // The journal was synced by the write already.
+                sync();
+            }
+        }
+        return info;
+    }
+
+    @Override
+    synchronized void write(File archiveRootDir, BundleInfo info) throws Exception
+    {
+        load();
+        m_infos.put(archiveRootDir.getName(), info);
+        append(encode(archiveRootDir.getName(), info));
+    }
+
+    @Override
+    synchronized void remove(File archiveRootDir)
+    {
+        try
+        {
+            load();
+            if (m_infos.remove(archiveRootDir.getName()) != null)
+            {
+                append(encode(archiveRootDir.getName(), null));
+            }
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to remove bundle info from journal - " + archiveRootDir, ex);
+        }
+    }
+
+    @Override
+    synchronized void clear()
+    {
+        cancelSync();
+        closeChannel();
+        m_infos = null;
+        m_dirty = false;
+        m_imported.clear();
+    }
+
+    @Override
+    synchronized void close()
+    {
+        if (m_dirty)
+        {
+            try
+            {
+                sync();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to sync bundle journal - " + m_file, ex);
+            }
+        }
+        cancelSync();
+        closeChannel();
+        // Load the journal again if the bundle cache is reused.
+        m_infos = null;
+    }
+
+    /**
+     * Writes the <tt>bundle.info</tt> file of every archive contained in the
+     * journal and deletes the journal afterwards, which is necessary before
+     * the default store can be used again.
+     * @param file the journal file.
+     * @throws Exception if the journal cannot be read or any
+     *         <tt>bundle.info</tt> file cannot be written.
+    **/
+    static void restoreBundleInfoFiles(File file) throws Exception
+    {
+        Map<String, BundleInfo> infos = new HashMap<>();
+        parse(readJournal(file), infos);
+        for (Map.Entry<String, BundleInfo> entry : infos.entrySet())
+        {
+            File archiveRootDir = new File(file.getParentFile(), entry.getKey());
+            if (BundleCache.getSecureAction().isFileDirectory(archiveRootDir))
+            {
+                writeBundleInfoFile(archiveRootDir, entry.getValue());
+            }
+        }
+        BundleCache.getSecureAction().deleteFile(file);
+    }
+
+    private void load() throws IOException
+    {
+        if (m_infos != null)
+        {
+            return;
+        }
+        Map<String, BundleInfo> infos = new HashMap<>();
+        byte[] bytes = readJournal(m_file);
+        long[] result = parse(bytes, infos);
+        m_records = (int) result[0];
+        m_validLength = result[1];
+        m_infos = infos;
+        m_lastSync = System.currentTimeMillis();
+        if (m_validLength < bytes.length)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Discarding " + (bytes.length - m_validLength)
+                    + " bytes of incomplete records from bundle journal - " + m_file);
+        }
+    }
+
+    private static byte[] readJournal(File file) throws IOException
+    {
+        if (!BundleCache.getSecureAction().fileExists(file))
+        {
+            return new byte[0];
+        }
+        try
+        {
+            return BundleCache.read(
+                BundleCache.getSecureAction().getInputStream(file), file.length());
+        }
+        catch (IOException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Applies the records of a journal to the specified map.
+     * @return the number of valid records and the length of the valid part
+     *         of the journal, which is -1 if the journal has no valid header.
+    **/
+    private static long[] parse(byte[] bytes, Map<String, BundleInfo> infos)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_LENGTH)
+        {
+            // The journal does not exist or its creation was interrupted.
+            return new long[] { 0, -1 };
+        }
+        int version = buffer.getInt();
+        if (version != JOURNAL_VERSION)
+        {
+            throw new IOException("Unsupported bundle journal version: " + version);
+        }
+        long records = 0;
+        long validLength = buffer.position();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 4)
+        {
+            int length = buffer.getInt();
+            if (length < 0)
+            {
+                throw new IOException("Corrupted bundle journal record at " + validLength);
+            }
+            if (buffer.remaining() < length + 8)
+            {
+                // The last record was torn by a crash during the append.
+                break;
+            }
+            int start = buffer.position();
+            crc.reset();
+            crc.update(bytes, start, length);
+            buffer.position(start + length);
+            if (buffer.getLong() != crc.getValue())
+            {
+                // Only the last record may not have been written completely.
+                if (buffer.hasRemaining())
+                {
+                    throw new IOException("Corrupted bundle journal record at " + validLength);
+                }
+                break;
+            }
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, start, length));
+            byte type = in.readByte();
+            String name = in.readUTF();
+            if (type == PUT)
+            {
+                infos.put(name, new BundleInfo(
+                    in.readLong(), readString(in), in.readInt(),
+                    in.readInt(), in.readLong(), in.readLong()));
+            }
+            else
+            {
+                infos.remove(name);
+            }
+            records++;
+            validLength = buffer.position();
+        }
+        return new long[] { records, validLength };
+    }
+
+    private static byte[] encode(String name, BundleInfo info) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Reserve space for the length of the record.
+        out.writeInt(0);
+        out.writeByte((info != null) ? PUT : REMOVE);
+        out.writeUTF(name);
+        if (info != null)
+        {
+            out.writeLong(info.getId());
+            writeString(out, (info.getLocation() == null) ? "" : info.getLocation());
+            out.writeInt(info.getPersistentState());
+            out.writeInt(info.getStartLevel());
+            out.writeLong(info.getLastModified());
+            out.writeLong(info.getRefreshCount());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 4, bytes.size() - 4);
+        out.writeLong(crc.getValue());
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - 12);
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        // Locations may exceed the length supported by writeUTF().
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private void append(byte[] record) throws IOException
+    {
+        if (m_channel == null)
+        {
+            if (m_validLength < 0)
+            {
+                compact();
+                return;
+            }
+            m_channel = BundleCache.getSecureAction().getFileChannel(m_file);
+            // Discard an incomplete record left behind by a crash.
+            if (m_channel.size() > m_validLength)
+            {
+                m_channel.truncate(m_validLength);
+            }
+            m_channel.position(m_validLength);
+        }
+        write(m_channel, record);
+        m_records++;
+        m_dirty = true;
+
+        if ((m_records > COMPACTION_THRESHOLD) && (m_records > 2 * m_infos.size()))
+        {
+            compact();
+        }
+        else if (System.currentTimeMillis() - m_lastSync >= m_syncInterval)
+        {
+            sync();
+        }
+        else if (m_syncTask == null)
+        {
+            scheduleSync();
+        }
+    }
+
+    private void scheduleSync()
+    {
+        if (m_timer == null)
+        {
+            m_timer = new Timer("FelixBundleJournalSync", true);
+        }
+        m_syncTask = new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (JournalBundleInfoStore.this)
+                {
+                    if (m_syncTask != this)
+                    {
+                        return;
+                    }
+                    m_syncTask = null;
+                    if (m_dirty)
+                    {
+                        try
+                        {
+                            sync();
+                        }
+                        catch (IOException ex)
+                        {
+                            m_logger.log(
+                                Logger.LOG_ERROR,
+                                "Unable to sync bundle journal - " + m_file, ex);
+                        }
+                    }
+                }
+            }
+        };
+        m_timer.schedule(m_syncTask,
+            Math.max(0, m_lastSync + m_syncInterval - System.currentTimeMillis()));
+    }
+
+    private void cancelSync()
+    {
+        if (m_timer != null)
+        {
+            m_timer.cancel();
+            m_timer = null;
+        }
+        m_syncTask = null;
+    }
+
+    private void sync() throws IOException
+    {
+        if (m_channel != null)
+        {
+            m_channel.force(false);
+        }
+        m_dirty = false;
+        m_lastSync = System.currentTimeMillis();
+        for (File file : m_imported)
+        {
+            BundleCache.getSecureAction().deleteFile(file);
+        }
+        m_imported.clear();
+    }
+
+    /**
+     * Replaces the journal with one containing a single record for each
+     * archive. The new journal is synced before it replaces the old one.
+    **/
+    private void compact() throws IOException
+    {
+        closeChannel();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            HEADER_LENGTH + m_infos.size() * 128);
+        new DataOutputStream(bytes).writeInt(JOURNAL_VERSION);
+        for (Map.Entry<String, BundleInfo> entry : m_infos.entrySet())
+        {
+            bytes.write(encode(entry.getKey(), entry.getValue()));
+        }
+
+        File tmp = new File(m_file.getParentFile(), m_file.getName() + ".tmp");
+        FileChannel channel = BundleCache.getSecureAction().getFileChannel(tmp);
+        try
+        {
+            channel.truncate(0);
+            write(channel, bytes.toByteArray());
+            channel.force(false);
+        }
+        finally
+        {
+            channel.close();
+        }
+        // Renaming replaces the old journal atomically on most platforms,
+        // others require it to be deleted first.
+        if (!BundleCache.getSecureAction().renameFile(tmp, m_file)
+            && (!BundleCache.getSecureAction().deleteFile(m_file)
+                || !BundleCache.getSecureAction().renameFile(tmp, m_file)))
+        {
+            throw new IOException("Unable to replace bundle journal - " + m_file);
+        }
+
+        m_records = m_infos.size();
+        m_validLength = bytes.size();
+        sync();
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeChannel()
+    {
+        if (m_channel != null)
+        {
+            try
+            {
+                m_channel.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+            m_channel = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+/**
+ * <p>
+ * A JAR content backed by a {@link MappedJarFile} instead of a
+ * <tt>WeakZipFile</tt>. It is used instead of <tt>JarContent</tt> if the
+ * <tt>felix.cache.mmap</tt> configuration property is set to <tt>true</tt>
+ * and the JAR file can be mapped.
+ * </p>
+ * <p>
+ * In addition to the <tt>Content</tt> methods, the content of an entry can
+ * be retrieved as a <tt>ByteBuffer</tt>, which is a slice of the mapped JAR
+ * file for stored entries and thus avoids copying them to the heap.
+ * </p>
+**/
+public class MappedJarContent extends JarContent
+{
+    private final MappedJarFile m_mappedFile;
+    private final boolean m_isMappedFileOwner;
+
+    MappedJarContent(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, MappedJarFile mappedFile, boolean isOwner)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir, mappedFile.getFile());
+        m_mappedFile = mappedFile;
+        m_isMappedFileOwner = isOwner;
+    }
+
+    @Override
+    public void close()
+    {
+        if (m_isMappedFileOwner)
+        {
+            m_mappedFile.close();
+        }
+    }
+
+    @Override
+    public boolean hasEntry(String name)
+    {
+        try
+        {
+            return m_mappedFile.find(name) >= 0;
+        }
+        catch (Exception ex)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isDirectory(String name)
+    {
+        try
+        {
+            int entry = m_mappedFile.find(name);
+            return (entry >= 0) && m_mappedFile.isDirectory(entry);
+        }
+        catch (Exception ex)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public Enumeration<String> getEntries()
+    {
+        // Spec says to return null if there are no entries.
+        return (m_mappedFile.size() > 0) ? m_mappedFile.names() : null;
+    }
+
+    @Override
+    public byte[] getEntryAsBytes(String name)
+    {
+        try
+        {
+            int entry = m_mappedFile.find(name);
+            return (entry >= 0) ? m_mappedFile.getBytes(entry) : null;
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name
+                    + " in ZIP file " + m_file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * This method returns the named entry as a byte buffer. For entries
+     * stored without compression, the buffer is a read-only view of the
+     * mapped JAR file, so the content is not copied.
+     * </p>
+     * @param name The name of the entry to retrieve as a byte buffer.
+     * @return A byte buffer positioned at the start of the entry content if
+     *         the corresponding entry was found, <tt>null</tt> otherwise.
+    **/
+    public ByteBuffer getEntryAsByteBuffer(String name)
+    {
+        try
+        {
+            int entry = m_mappedFile.find(name);
+            return (entry >= 0) ? m_mappedFile.getByteBuffer(entry) : null;
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name
+                    + " in ZIP file " + m_file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream getEntryAsStream(String name)
+    {
+        try
+        {
+            int entry = m_mappedFile.find(name);
+            return (entry >= 0) ? m_mappedFile.getInputStream(entry) : null;
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public long getContentTime(String urlPath)
+    {
+        try
+        {
+            int entry = m_mappedFile.find(urlPath);
+            return (entry >= 0) ? m_mappedFile.getTime(entry) : -1L;
+        }
+        catch (Exception ex)
+        {
+            return -1L;
+        }
+    }
+
+    @Override
+    JarContent createSharedContent()
+    {
+        return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+            m_revisionLock, m_rootDir, m_mappedFile, false);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Mapped JAR " + m_file.getPath();
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * A read-only view of a JAR file that is memory-mapped as a whole. The
+ * central directory is parsed once into an index, which only holds the
+ * offsets of the central directory headers sorted by entry name, while the
+ * names themselves are compared in place in the mapped file. Thus, the
+ * index costs four bytes of heap per entry and no file stays open, so the
+ * file limit of the <tt>WeakZipFileFactory</tt> does not apply.
+ * </p>
+ * <p>
+ * Stored entries are returned as slices of the mapping without copying,
+ * deflated entries are inflated straight from the mapping into an array of
+ * their uncompressed size. ZIP64 and encrypted JAR files are not supported.
+ * </p>
+ * <p>
+ * Since a mapping cannot be released explicitly before Java 9, closing
+ * the file only drops the reference to it, and the mapping is released
+ * once it was garbage collected.
+ * </p>
+**/
+final class MappedJarFile
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOC_HEADER = 30;
+    private static final int CEN_HEADER = 46;
+    private static final int END_HEADER = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int ZIP64_MAGIC = 0xFFFFFFFF;
+    private static final int EXTENDED_TIMESTAMP = 0x5455;
+
+    private static final ThreadLocal<SoftReference<byte[]>> m_inputBuffer =
+        new ThreadLocal<>();
+
+    private final File m_file;
+    // The mapped file in little endian order, null once closed.
+    private volatile ByteBuffer m_buffer;
+    // The offset of the start of the ZIP content in the file.
+    private final int m_base;
+    // The central directory header offsets in central directory order.
+    private final int[] m_entries;
+    // The central directory header offsets sorted by entry name.
+    private final int[] m_sorted;
+
+    private MappedJarFile(File file, ByteBuffer buffer, int base, int[] entries)
+    {
+        m_file = file;
+        m_buffer = buffer;
+        m_base = base;
+        m_entries = entries;
+
+        Integer[] sorted = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++)
+        {
+            sorted[i] = entries[i];
+        }
+        Arrays.sort(sorted, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return compareNames(m_buffer, o1, o2);
+            }
+        });
+        m_sorted = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+        {
+            m_sorted[i] = sorted[i];
+        }
+    }
+
+    /**
+     * Maps the specified JAR file and indexes its central directory.
+     * @param file the JAR file.
+     * @return the mapped JAR file.
+     * @throws IOException if the file cannot be mapped or is not a JAR file
+     *         supported by this implementation.
+    **/
+    static MappedJarFile open(File file) throws IOException
+    {
+        ByteBuffer buffer;
+        FileInputStream fis = BundleCache.getSecureAction().getFileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new ZipException("JAR file too large to be mapped: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            // The mapping remains valid after the channel is closed.
+            fis.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEnd(buffer);
+        if (end < 0)
+        {
+            throw new ZipException("No central directory found: " + file);
+        }
+        int cenSize = buffer.getInt(end + 12);
+        int cenOffset = buffer.getInt(end + 16);
+        if ((buffer.getShort(end + 10) == (short) 0xFFFF)
+            || (cenSize == ZIP64_MAGIC) || (cenOffset == ZIP64_MAGIC))
+        {
+            throw new ZipException("ZIP64 is not supported: " + file);
+        }
+        // Allow for data preceding the ZIP content, like a launcher script.
+        int cenStart = end - cenSize;
+        int base = cenStart - cenOffset;
+        if ((cenSize < 0) || (cenOffset < 0) || (cenStart < 0) || (base < 0))
+        {
+            throw new ZipException("Invalid central directory: " + file);
+        }
+
+        int[] entries = new int[Math.max(16, buffer.getShort(end + 10) & 0xFFFF)];
+        int count = 0;
+        for (int pos = cenStart; pos < end; )
+        {
+            if ((pos + CEN_HEADER > end) || (buffer.getInt(pos) != CEN_SIG))
+            {
+                throw new ZipException("Invalid central directory header: " + file);
+            }
+            if ((buffer.getShort(pos + 8) & 1) != 0)
+            {
+                throw new ZipException("Encrypted entries are not supported: " + file);
+            }
+            if ((buffer.getInt(pos + 20) == ZIP64_MAGIC)
+                || (buffer.getInt(pos + 24) == ZIP64_MAGIC)
+                || (buffer.getInt(pos + 42) == ZIP64_MAGIC))
+            {
+                throw new ZipException("ZIP64 is not supported: " + file);
+            }
+            if (count == entries.length)
+            {
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = pos;
+            pos += CEN_HEADER + (buffer.getShort(pos + 28) & 0xFFFF)
+                + (buffer.getShort(pos + 30) & 0xFFFF)
+                + (buffer.getShort(pos + 32) & 0xFFFF);
+        }
+        return new MappedJarFile(file, buffer, base, Arrays.copyOf(entries, count));
+    }
+
+    private static int findEnd(ByteBuffer buffer)
+    {
+        int min = Math.max(0, buffer.limit() - END_HEADER - MAX_COMMENT);
+        for (int pos = buffer.limit() - END_HEADER; pos >= min; pos--)
+        {
+            if ((buffer.get(pos) == 0x50) && (buffer.getInt(pos) == END_SIG))
+            {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Finds an entry like <tt>ZipFile.getEntry()</tt>, which also finds
+     * the directory entry of the specified name if there is no other.
+     * @param name the entry name.
+     * @return the entry or <tt>-1</tt> if there is none or the file is closed.
+    **/
+    int find(String name)
+    {
+        ByteBuffer buffer = m_buffer;
+        if (buffer == null)
+        {
+            return -1;
+        }
+        byte[] bytes = name.getBytes(UTF_8);
+        int entry = find(buffer, bytes, bytes.length);
+        if ((entry < 0) && ((bytes.length == 0) || (bytes[bytes.length - 1] != '/')))
+        {
+            bytes = Arrays.copyOf(bytes, bytes.length + 1);
+            bytes[bytes.length - 1] = '/';
+            entry = find(buffer, bytes, bytes.length);
+        }
+        return entry;
+    }
+
+    private int find(ByteBuffer buffer, byte[] name, int length)
+    {
+        int low = 0;
+        int high = m_sorted.length - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(buffer, m_sorted[mid], name, length);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return m_sorted[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static int compareName(ByteBuffer buffer, int entry, byte[] name, int length)
+    {
+        int entryLength = buffer.getShort(entry + 28) & 0xFFFF;
+        int min = Math.min(entryLength, length);
+        for (int i = 0; i < min; i++)
+        {
+            int cmp = (buffer.get(entry + CEN_HEADER + i) & 0xFF) - (name[i] & 0xFF);
+            if (cmp != 0)
+            {
+                return cmp;
+            }
+        }
+        return entryLength - length;
+    }
+
+    private static int compareNames(ByteBuffer buffer, int entry1, int entry2)
+    {
+        int length1 = buffer.getShort(entry1 + 28) & 0xFFFF;
+        int length2 = buffer.getShort(entry2 + 28) & 0xFFFF;
+        int min = Math.min(length1, length2);
+        for (int i = 0; i < min; i++)
+        {
+            int cmp = (buffer.get(entry1 + CEN_HEADER + i) & 0xFF)
+                - (buffer.get(entry2 + CEN_HEADER + i) & 0xFF);
+            if (cmp != 0)
+            {
+                return cmp;
+            }
+        }
+        return length1 - length2;
+    }
+
+    String getName(int entry)
+    {
+        ByteBuffer buffer = getBuffer();
+        byte[] bytes = new byte[buffer.getShort(entry + 28) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(entry + CEN_HEADER + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    boolean isDirectory(int entry)
+    {
+        ByteBuffer buffer = getBuffer();
+        int length = buffer.getShort(entry + 28) & 0xFFFF;
+        return (length > 0) && (buffer.get(entry + CEN_HEADER + length - 1) == '/');
+    }
+
+    long getSize(int entry)
+    {
+        return getBuffer().getInt(entry + 24) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the modification time of an entry like <tt>ZipEntry.getTime()</tt>,
+     * which prefers the extended timestamp over the MS-DOS time.
+    **/
+    long getTime(int entry)
+    {
+        ByteBuffer buffer = getBuffer();
+        int extra = entry + CEN_HEADER + (buffer.getShort(entry + 28) & 0xFFFF);
+        int extraEnd = extra + (buffer.getShort(entry + 30) & 0xFFFF);
+        while (extra + 4 <= extraEnd)
+        {
+            int id = buffer.getShort(extra) & 0xFFFF;
+            int size = buffer.getShort(extra + 2) & 0xFFFF;
+            if ((id == EXTENDED_TIMESTAMP) && (size >= 5) && ((buffer.get(extra + 4) & 1) != 0))
+            {
+                return (buffer.getInt(extra + 5) & 0xFFFFFFFFL) * 1000;
+            }
+            extra += 4 + size;
+        }
+        int time = buffer.getShort(entry + 12) & 0xFFFF;
+        int date = buffer.getShort(entry + 14) & 0xFFFF;
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((date >> 9) & 0x7F) + 1980, ((date >> 5) & 0x0F) - 1, date & 0x1F,
+            (time >> 11) & 0x1F, (time >> 5) & 0x3F, (time << 1) & 0x3E);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the content of an entry. Stored entries are returned as a
+     * read-only slice of the mapping, deflated entries are inflated into a
+     * new buffer.
+    **/
+    ByteBuffer getByteBuffer(int entry) throws IOException
+    {
+        ByteBuffer buffer = getBuffer();
+        int method = buffer.getShort(entry + 10) & 0xFFFF;
+        if (method == 0)
+        {
+            return getData(buffer, entry).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(inflate(buffer, entry, method));
+    }
+
+    /**
+     * Returns the content of an entry as a new array.
+    **/
+    byte[] getBytes(int entry) throws IOException
+    {
+        ByteBuffer buffer = getBuffer();
+        int method = buffer.getShort(entry + 10) & 0xFFFF;
+        if (method == 0)
+        {
+            ByteBuffer data = getData(buffer, entry);
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            return bytes;
+        }
+        return inflate(buffer, entry, method);
+    }
+
+    InputStream getInputStream(int entry) throws IOException
+    {
+        ByteBuffer buffer = getBuffer();
+        int method = buffer.getShort(entry + 10) & 0xFFFF;
+        final long size = getSize(entry);
+        ByteBuffer data = getData(buffer, entry);
+        if (method == 0)
+        {
+            return new ByteBufferInputStream(data);
+        }
+        else if (method != 8)
+        {
+            throw new ZipException("Unsupported compression method " + method
+                + ": " + getName(entry));
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(new ByteBufferInputStream(data), inflater,
+            Math.max(64, Math.min(data.remaining(), 8192)))
+        {
+            private boolean m_eof;
+            private boolean m_closed;
+
+            @Override
+            protected void fill() throws IOException
+            {
+                if (m_eof)
+                {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+                len = in.read(buf, 0, buf.length);
+                if (len == -1)
+                {
+                    // The inflater may need an extra dummy byte to finish.
+                    buf[0] = 0;
+                    len = 1;
+                    m_eof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public int available() throws IOException
+            {
+                return m_closed ? 0 : (int) Math.max(0, size - inf.getBytesWritten());
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                if (!m_closed)
+                {
+                    m_closed = true;
+                    super.close();
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns an enumeration of the entry names in central directory order.
+    **/
+    Enumeration<String> names()
+    {
+        return new Enumeration<String>()
+        {
+            private int m_index = 0;
+
+            @Override
+            public boolean hasMoreElements()
+            {
+                return m_index < m_entries.length;
+            }
+
+            @Override
+            public String nextElement()
+            {
+                if (m_index >= m_entries.length)
+                {
+                    throw new NoSuchElementException();
+                }
+                return getName(m_entries[m_index++]);
+            }
+        };
+    }
+
+    int size()
+    {
+        return m_entries.length;
+    }
+
+    void close()
+    {
+        m_buffer = null;
+    }
+
+    private ByteBuffer getBuffer()
+    {
+        ByteBuffer buffer = m_buffer;
+        if (buffer == null)
+        {
+            throw new IllegalStateException("JAR file is closed: " + m_file);
+        }
+        return buffer;
+    }
+
+    private ByteBuffer getData(ByteBuffer buffer, int entry) throws IOException
+    {
+        int loc = m_base + buffer.getInt(entry + 42);
+        if ((loc < 0) || (loc + LOC_HEADER > buffer.limit())
+            || (buffer.getInt(loc) != LOC_SIG))
+        {
+            throw new ZipException("Invalid local header: " + getName(entry));
+        }
+        int start = loc + LOC_HEADER + (buffer.getShort(loc + 26) & 0xFFFF)
+            + (buffer.getShort(loc + 28) & 0xFFFF);
+        long end = start + (buffer.getInt(entry + 20) & 0xFFFFFFFFL);
+        if (end > buffer.limit())
+        {
+            throw new ZipException("Invalid entry size: " + getName(entry));
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.limit((int) end);
+        data.position(start);
+        return data.slice();
+    }
+
+    private byte[] inflate(ByteBuffer buffer, int entry, int method) throws IOException
+    {
+        if (method != 8)
+        {
+            throw new ZipException("Unsupported compression method " + method
+                + ": " + getName(entry));
+        }
+        ByteBuffer data = getData(buffer, entry);
+        long size = getSize(entry);
+        if (size > Integer.MAX_VALUE - 8)
+        {
+            throw new ZipException("Entry too large: " + getName(entry));
+        }
+
+        // The inflater of Java 8 only accepts arrays, so the compressed data
+        // is copied into a buffer which is reused by the thread.
+        SoftReference<byte[]> ref = m_inputBuffer.get();
+        byte[] input = (ref != null) ? ref.get() : null;
+        if ((input == null) || (input.length < data.remaining() + 1))
+        {
+            input = new byte[Math.max(data.remaining() + 1, 8192)];
+            m_inputBuffer.set(new SoftReference<>(input));
+        }
+        int length = data.remaining();
+        data.get(input, 0, length);
+        // The inflater may need an extra dummy byte to finish.
+        input[length] = 0;
+
+        byte[] result = new byte[(int) size];
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(input, 0, length + 1);
+            int count = 0;
+            while ((count < result.length) && !inflater.finished())
+            {
+                int n = inflater.inflate(result, count, result.length - count);
+                if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                count += n;
+            }
+            if (count != result.length)
+            {
+                throw new ZipException("Invalid entry size: " + getName(entry));
+            }
+        }
+        catch (DataFormatException ex)
+        {
+            throw new ZipException("Invalid deflated data: " + getName(entry));
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return result;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_data;
+
+        ByteBufferInputStream(ByteBuffer data)
+        {
+            m_data = data;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_data.hasRemaining() ? (m_data.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_data.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, m_data.remaining());
+            m_data.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int skip = (int) Math.max(0, Math.min(n, m_data.remaining()));
+            m_data.position(m_data.position() + skip);
+            return skip;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_data.remaining();
+        }
+    }
+}
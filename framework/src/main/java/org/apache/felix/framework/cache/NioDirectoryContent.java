@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.DirectoryTree.Node;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+/**
+ * <p>
+ * A directory content backed by a {@link DirectoryTree} instead of querying
+ * the file system for every entry. It is used instead of
+ * <tt>DirectoryContent</tt> if the <tt>felix.cache.dirtree</tt>
+ * configuration property is set.
+ * </p>
+ * <p>
+ * The contents of sub-directories on the bundle class path share the tree
+ * of the bundle directory and only add a prefix to the entry names. Entry
+ * bytes are read with a single <tt>Files.readAllBytes()</tt> call.
+ * </p>
+**/
+public class NioDirectoryContent extends DirectoryContent
+{
+    private final DirectoryTree m_tree;
+    private final String m_prefix;
+    private final boolean m_isTreeOwner;
+
+    NioDirectoryContent(Logger logger, Map<?,?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, DirectoryTree tree, String prefix, boolean isOwner)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir,
+            (prefix.length() == 0) ? tree.getDirectory() : new File(tree.getDirectory(), prefix));
+        m_tree = tree;
+        m_prefix = prefix;
+        m_isTreeOwner = isOwner;
+    }
+
+    @Override
+    public void close()
+    {
+        if (m_isTreeOwner)
+        {
+            m_tree.close();
+        }
+    }
+
+    @Override
+    public boolean hasEntry(String name)
+    {
+        name = getName(name);
+        if (name.length() == 0)
+        {
+            return true;
+        }
+        Node node = m_tree.getEntry(m_prefix + name);
+        return (node != null) && (!name.endsWith("/") || node.isDirectory());
+    }
+
+    @Override
+    public boolean isDirectory(String name)
+    {
+        name = getName(name);
+        if (name.length() == 0)
+        {
+            return true;
+        }
+        Node node = m_tree.getEntry(m_prefix + name);
+        return (node != null) && node.isDirectory();
+    }
+
+    @Override
+    public Enumeration<String> getEntries()
+    {
+        NavigableMap<String, Node> entries = m_tree.getEntries();
+        if (m_prefix.length() > 0)
+        {
+            // All entries below the prefix directory, since '0' follows '/'.
+            entries = entries.subMap(m_prefix, false,
+                m_prefix.substring(0, m_prefix.length() - 1) + '0', false);
+        }
+
+        // Spec says to return null if there are no entries.
+        if (entries.isEmpty())
+        {
+            return null;
+        }
+
+        final Iterator<Map.Entry<String, Node>> it = entries.entrySet().iterator();
+        return new Enumeration<String>()
+        {
+            @Override
+            public boolean hasMoreElements()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public String nextElement()
+            {
+                Map.Entry<String, Node> entry = it.next();
+                String name = entry.getKey().substring(m_prefix.length());
+                return entry.getValue().isDirectory() ? name + "/" : name;
+            }
+        };
+    }
+
+    @Override
+    public byte[] getEntryAsBytes(String name)
+    {
+        name = getName(name);
+        Node node = m_tree.getEntry(m_prefix + name);
+        if ((node == null) || node.isDirectory())
+        {
+            return null;
+        }
+        File file = new File(m_dir, name);
+        try
+        {
+            return BundleCache.getSecureAction().readAllBytes(file);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "NioDirectoryContent: Unable to read bytes for file " + name
+                    + " from file " + file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    @Override
+    public long getContentTime(String name)
+    {
+        name = getName(name);
+        if (name.length() == 0)
+        {
+            return super.getContentTime(name);
+        }
+        Node node = m_tree.getEntry(m_prefix + name);
+        return (node != null) ? node.getLastModified() : 0L;
+    }
+
+    @Override
+    public Content getEntryAsContent(String entryName)
+    {
+        // The content itself and its sub-directories share the tree.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new NioDirectoryContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_tree, m_prefix, false);
+        }
+
+        String name = getName(entryName);
+        Node node = (name.length() > 0) ? m_tree.getEntry(m_prefix + name) : null;
+        if (node == null)
+        {
+            return null;
+        }
+        else if (node.isDirectory())
+        {
+            if (name.endsWith("/"))
+            {
+                name = name.substring(0, name.length() - 1);
+            }
+            return new NioDirectoryContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_tree, m_prefix + name + "/", false);
+        }
+
+        // Embedded JAR files are handled like in any other directory.
+        return super.getEntryAsContent(entryName);
+    }
+
+    private static String getName(String name)
+    {
+        if ((name.length() > 0) && (name.charAt(0) == '/'))
+        {
+            name = name.substring(1);
+        }
+        return name;
+    }
+}
@@ -25,6 +25,7 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -45,8 +46,12 @@ import org.osgi.resource.Capability;
 
 public class CapabilitySet
 {
-    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    // The set of indexed attributes is fixed at construction; only the
+    // postings inside the indices change and those are concurrent maps.
+    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices;
+    private final List<CompoundIndex> m_compoundIndices;
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+    private final boolean m_caseSensitive;
     private final static SecureAction m_secureAction = new SecureAction();
 
     public void dump()
@@ -79,6 +84,22 @@ public class CapabilitySet
     }
 
     public CapabilitySet(final List<String> indexProps, final boolean caseSensitive)
+    {
+        this(indexProps, null, caseSensitive);
+    }
+
+    /**
+     * Creates a capability set with single attribute and compound indices.
+     * A compound index is given as a pair of attribute names, where the
+     * first attribute is matched by equality and the second by range, such
+     * as a package name and its version. Filters that constrain both
+     * attributes in a conjunction are then answered from the index.
+     * @param indexProps the attributes to index by equality.
+     * @param compoundIndexProps the attribute pairs to index.
+     * @param caseSensitive whether attribute names are case sensitive.
+     */
+    public CapabilitySet(final List<String> indexProps,
+        final List<String[]> compoundIndexProps, final boolean caseSensitive)
     {
         m_indices = (caseSensitive)
             ? new ConcurrentSkipListMap<>()
@@ -89,6 +110,13 @@ public class CapabilitySet
             m_indices.put(
                 indexProps.get(i), new ConcurrentHashMap<>());
         }
+        m_compoundIndices = new ArrayList<>();
+        for (int i = 0; (compoundIndexProps != null) && (i < compoundIndexProps.size()); i++)
+        {
+            String[] props = compoundIndexProps.get(i);
+            m_compoundIndices.add(new CompoundIndex(props[0], props[1]));
+        }
+        m_caseSensitive = caseSensitive;
     }
 
     public void addCapability(final BundleCapability cap)
@@ -123,16 +151,47 @@ public class CapabilitySet
                 }
             }
         }
+
+        for (CompoundIndex index : m_compoundIndices)
+        {
+            for (Object value : getValues(cap, index.getPrimary()))
+            {
+                index.add(cap, value);
+            }
+        }
+    }
+
+    private static Collection<?> getValues(Capability cap, String attr)
+    {
+        Object value = cap.getAttributes().get(attr);
+        if (value == null)
+        {
+            return Collections.emptyList();
+        }
+        if (value.getClass().isArray())
+        {
+            value = convertArrayToList(value);
+        }
+        return (value instanceof Collection)
+            ? (Collection<?>) value
+            : Collections.singletonList(value);
     }
 
     private void indexCapability(
-        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+        ConcurrentMap<Object, Set<BundleCapability>> index, final BundleCapability cap, Object capValue)
     {
-        Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
-        if (prevval != null)
-            caps = prevval;
-        caps.add(cap);
+        // Update the posting atomically with respect to removals of the
+        // same value, otherwise a capability could be added to a posting
+        // that is concurrently dropped from the index.
+        index.compute(capValue, (key, caps) ->
+        {
+            if (caps == null)
+            {
+                caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+            }
+            caps.add(cap);
+            return caps;
+        });
     }
 
     public void removeCapability(final BundleCapability cap)
@@ -149,7 +208,8 @@ public class CapabilitySet
                         value = convertArrayToList(value);
                     }
 
-                    Map<Object, Set<BundleCapability>> index = entry.getValue();
+                    ConcurrentMap<Object, Set<BundleCapability>> index =
+                        (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
 
                     if (value instanceof Collection)
                     {
@@ -165,21 +225,25 @@ public class CapabilitySet
                     }
                 }
             }
+
+            for (CompoundIndex index : m_compoundIndices)
+            {
+                for (Object value : getValues(cap, index.getPrimary()))
+                {
+                    index.remove(cap, value);
+                }
+            }
         }
     }
 
     private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+        ConcurrentMap<Object, Set<BundleCapability>> index, final BundleCapability cap, Object value)
     {
-        Set<BundleCapability> caps = index.get(value);
-        if (caps != null)
+        index.computeIfPresent(value, (key, caps) ->
         {
             caps.remove(cap);
-            if (caps.isEmpty())
-            {
-                index.remove(value);
-            }
-        }
+            return caps.isEmpty() ? null : caps;
+        });
     }
 
     public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
@@ -205,10 +269,28 @@ public class CapabilitySet
             // We can short-circuit the AND operation if there are no
             // remaining capabilities.
             final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            Set<BundleCapability> candidates = getIndexedCandidates(sfs);
+            if (candidates != null)
+            {
+                // The indices gave us a superset of the matching
+                // capabilities, so only those need to be evaluated.
+                for (BundleCapability cap : candidates)
+                {
+                    if (((caps == m_capSet) || caps.contains(cap))
+                        && m_capSet.contains(cap)
+                        && matchesInternal(cap, sf))
+                    {
+                        matches.add(cap);
+                    }
+                }
+            }
+            else
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+                {
+                    matches = match(caps, sfs.get(i));
+                    caps = matches;
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -263,11 +345,144 @@ public class CapabilitySet
         return matches;
     }
 
+    /**
+     * Intersects the postings of all indices that are applicable to the
+     * operands of a conjunction, starting with the smallest one.
+     * @param sfs the operands of the conjunction.
+     * @return a superset of the capabilities matching the conjunction or
+     *         <tt>null</tt> if no index is applicable.
+     */
+    private Set<BundleCapability> getIndexedCandidates(List<SimpleFilter> sfs)
+    {
+        List<Set<BundleCapability>> postings = null;
+        for (SimpleFilter child : sfs)
+        {
+            if ((child.getOperation() == SimpleFilter.EQ) && (child.getName() != null))
+            {
+                Map<Object, Set<BundleCapability>> index = m_indices.get(child.getName());
+                if (index != null)
+                {
+                    postings = addPosting(postings, index.get(child.getValue()));
+                }
+                for (CompoundIndex compound : m_compoundIndices)
+                {
+                    if (nameEquals(compound.getPrimary(), child.getName()))
+                    {
+                        postings = addPosting(postings,
+                            getCompoundCandidates(compound, child.getValue(), sfs));
+                    }
+                }
+            }
+        }
+
+        if (postings == null)
+        {
+            return null;
+        }
+
+        Set<BundleCapability> smallest = null;
+        for (Set<BundleCapability> posting : postings)
+        {
+            if ((smallest == null) || (posting.size() < smallest.size()))
+            {
+                smallest = posting;
+            }
+        }
+        if (postings.size() == 1)
+        {
+            return smallest;
+        }
+        Set<BundleCapability> result = new HashSet<>();
+        for (BundleCapability cap : smallest)
+        {
+            boolean inAll = true;
+            for (int i = 0; inAll && (i < postings.size()); i++)
+            {
+                inAll = (postings.get(i) == smallest) || postings.get(i).contains(cap);
+            }
+            if (inAll)
+            {
+                result.add(cap);
+            }
+        }
+        return result;
+    }
+
+    private static List<Set<BundleCapability>> addPosting(
+        List<Set<BundleCapability>> postings, Set<BundleCapability> posting)
+    {
+        if (postings == null)
+        {
+            postings = new ArrayList<>();
+        }
+        postings.add((posting == null)
+            ? Collections.<BundleCapability>emptySet() : posting);
+        return postings;
+    }
+
+    private Set<BundleCapability> getCompoundCandidates(
+        CompoundIndex index, Object primaryValue, List<SimpleFilter> sfs)
+    {
+        // Derive the range of the secondary attribute from the operands,
+        // e.g. (version>=1.0.0)(!(version>=2.0.0)) gives [1.0.0, 2.0.0).
+        String lower = null;
+        boolean lowerInclusive = true;
+        String upper = null;
+        boolean upperInclusive = true;
+        for (SimpleFilter child : sfs)
+        {
+            SimpleFilter term = child;
+            boolean negated = false;
+            if ((child.getOperation() == SimpleFilter.NOT)
+                && (((List<?>) child.getValue()).size() == 1))
+            {
+                term = (SimpleFilter) ((List<?>) child.getValue()).get(0);
+                negated = true;
+            }
+            if ((term.getName() == null) || !nameEquals(index.getSecondary(), term.getName())
+                || !(term.getValue() instanceof String))
+            {
+                continue;
+            }
+            if ((term.getOperation() == SimpleFilter.GTE) && (lower == null) && !negated)
+            {
+                lower = (String) term.getValue();
+            }
+            else if ((term.getOperation() == SimpleFilter.LTE) && (upper == null) && !negated)
+            {
+                upper = (String) term.getValue();
+            }
+            else if ((term.getOperation() == SimpleFilter.GTE) && (upper == null) && negated)
+            {
+                upper = (String) term.getValue();
+                upperInclusive = false;
+            }
+            else if ((term.getOperation() == SimpleFilter.LTE) && (lower == null) && negated)
+            {
+                lower = (String) term.getValue();
+                lowerInclusive = false;
+            }
+        }
+        return index.getCandidates(primaryValue, lower, lowerInclusive, upper, upperInclusive);
+    }
+
+    private boolean nameEquals(String s1, String s2)
+    {
+        return m_caseSensitive
+            ? s1.equals(s2)
+            : (StringComparator.COMPARATOR.compare(s1, s2) == 0);
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
     }
 
+    public static boolean matches(Capability cap, CompiledFilter cf)
+    {
+        return cf.matches(cap) && matchMandatory(cap, cf.getSimpleFilter());
+    }
+
     private static boolean matchesInternal(Capability cap, SimpleFilter sf)
     {
         boolean matched = true;
@@ -374,6 +589,20 @@ public class CapabilitySet
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
     private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    {
+        return compare(lhs, rhsUnknown, op, null);
+    }
+
+    /**
+     * Compares an attribute value with a filter operand.
+     * @param lhs the attribute value.
+     * @param rhsUnknown the unparsed filter operand.
+     * @param op the filter operation.
+     * @param operand the compiled operand caching coerced values of
+     *        <tt>rhsUnknown</tt>, or <tt>null</tt> to coerce every time.
+     * @return whether the attribute value matches.
+     */
+    static boolean compare(Object lhs, Object rhsUnknown, int op, CompiledFilter.Operand operand)
     {
         if (lhs == null)
         {
@@ -394,7 +623,7 @@ public class CapabilitySet
             Object rhs = null;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, operand);
             }
             catch (Exception ex)
             {
@@ -426,7 +655,7 @@ public class CapabilitySet
             {
                 try
                 {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
+                    rhs = coerceType(lhs, (String) rhsUnknown, operand);
                 }
                 catch (Exception ex)
                 {
@@ -478,7 +707,7 @@ public class CapabilitySet
             Object rhs;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, operand);
             }
             catch (Exception ex)
             {
@@ -512,7 +741,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), rhsUnknown, op, operand))
                 {
                     return true;
                 }
@@ -531,7 +760,7 @@ public class CapabilitySet
         // equality comparison.
         try
         {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
+            return lhs.equals(coerceType(lhs, (String) rhsUnknown, operand));
         }
         catch (Exception ex)
         {
@@ -567,7 +796,15 @@ public class CapabilitySet
         return sb.toString();
     }
 
-    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    private static Object coerceType(
+        Object lhs, String rhsString, CompiledFilter.Operand operand) throws Exception
+    {
+        return (operand == null)
+            ? coerceType(lhs, rhsString)
+            : operand.coerce(lhs);
+    }
+
+    static Object coerceType(Object lhs, String rhsString) throws Exception
     {
         // If the LHS expects a string, then we can just return
         // the RHS since it is a string.
@@ -576,6 +813,35 @@ public class CapabilitySet
             return rhsString;
         }
 
+        // Avoid the reflective lookup below for the common property types.
+        try
+        {
+            if (lhs instanceof Integer)
+            {
+                return Integer.valueOf(rhsString.trim());
+            }
+            else if (lhs instanceof Long)
+            {
+                return Long.valueOf(rhsString.trim());
+            }
+            else if (lhs instanceof Boolean)
+            {
+                return Boolean.valueOf(rhsString.trim());
+            }
+            else if ((lhs instanceof Version) && (rhsString.indexOf(',') < 0))
+            {
+                return Version.valueOf(rhsString);
+            }
+        }
+        catch (Exception ex)
+        {
+            throw new Exception(
+                "Could not instantiate class "
+                    + lhs.getClass().getName()
+                    + " from string constructor with argument '"
+                    + rhsString + "' because " + ex);
+        }
+
         // Try to convert the RHS type to the LHS type by using
         // the string constructor of the LHS class, if it has one.
         Object rhs = null;
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+
+/**
+ * A {@link SimpleFilter} compiled into a tree of predicates. Compared to
+ * interpreting the simple filter, the operation of every node is resolved
+ * once and the operands of comparisons remember their value coerced to the
+ * type of each attribute value they were compared against, so repeated
+ * matches do not have to parse the operand again. The result of a match is
+ * the same as {@link CapabilitySet#matches(Capability, SimpleFilter)}
+ * without the mandatory attribute check.
+ */
+public abstract class CompiledFilter
+{
+    private final SimpleFilter m_filter;
+
+    CompiledFilter(SimpleFilter filter)
+    {
+        m_filter = filter;
+    }
+
+    public static CompiledFilter compile(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.MATCH_ALL:
+                return new MatchAll(sf);
+            case SimpleFilter.AND:
+                return new And(sf, compile((List<?>) sf.getValue()));
+            case SimpleFilter.OR:
+                return new Or(sf, compile((List<?>) sf.getValue()));
+            case SimpleFilter.NOT:
+                return new Not(sf, compile((List<?>) sf.getValue()));
+            case SimpleFilter.PRESENT:
+                return new Present(sf);
+            default:
+                return new Comparison(sf);
+        }
+    }
+
+    private static CompiledFilter[] compile(List<?> sfs)
+    {
+        CompiledFilter[] operands = new CompiledFilter[sfs.size()];
+        for (int i = 0; i < operands.length; i++)
+        {
+            operands[i] = compile((SimpleFilter) sfs.get(i));
+        }
+        return operands;
+    }
+
+    public SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
+    }
+
+    public abstract boolean matches(Capability cap);
+
+    @Override
+    public String toString()
+    {
+        return m_filter.toString();
+    }
+
+    private static final class MatchAll extends CompiledFilter
+    {
+        MatchAll(SimpleFilter sf)
+        {
+            super(sf);
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            return true;
+        }
+    }
+
+    private static final class And extends CompiledFilter
+    {
+        private final CompiledFilter[] m_operands;
+
+        And(SimpleFilter sf, CompiledFilter[] operands)
+        {
+            super(sf);
+            m_operands = operands;
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            for (CompiledFilter operand : m_operands)
+            {
+                if (!operand.matches(cap))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or extends CompiledFilter
+    {
+        private final CompiledFilter[] m_operands;
+
+        Or(SimpleFilter sf, CompiledFilter[] operands)
+        {
+            super(sf);
+            m_operands = operands;
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            for (CompiledFilter operand : m_operands)
+            {
+                if (operand.matches(cap))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not extends CompiledFilter
+    {
+        private final CompiledFilter[] m_operands;
+
+        Not(SimpleFilter sf, CompiledFilter[] operands)
+        {
+            super(sf);
+            m_operands = operands;
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            // Same as the interpreter, the last operand decides.
+            boolean matched = true;
+            for (CompiledFilter operand : m_operands)
+            {
+                matched = !operand.matches(cap);
+            }
+            return matched;
+        }
+    }
+
+    private static final class Present extends CompiledFilter
+    {
+        private final String m_name;
+
+        Present(SimpleFilter sf)
+        {
+            super(sf);
+            m_name = sf.getName();
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            return cap.getAttributes().get(m_name) != null;
+        }
+    }
+
+    private static final class Comparison extends CompiledFilter
+    {
+        private final String m_name;
+        private final int m_op;
+        private final Object m_value;
+        private final Operand m_operand;
+
+        Comparison(SimpleFilter sf)
+        {
+            super(sf);
+            m_name = sf.getName();
+            m_op = sf.getOperation();
+            m_value = sf.getValue();
+            m_operand = (m_value instanceof String) ? new Operand((String) m_value) : null;
+        }
+
+        @Override
+        public boolean matches(Capability cap)
+        {
+            Object lhs = cap.getAttributes().get(m_name);
+            return (lhs != null) && CapabilitySet.compare(lhs, m_value, m_op, m_operand);
+        }
+    }
+
+    /**
+     * A filter operand that remembers its value coerced to the type of the
+     * attribute values it is compared against. Coercion only depends on the
+     * type of the attribute value and the operand, so the result can be
+     * shared by all matches.
+     */
+    static final class Operand
+    {
+        private static final Object FAILED = new Object();
+
+        private final String m_value;
+        // Most operands are only ever compared against a single type, so
+        // the last coercion is kept in a single volatile entry. Only types
+        // of the java.* packages and Version are remembered, since other
+        // types could pin the class loader of an uninstalled bundle.
+        private volatile Object[] m_last;
+        private final ConcurrentHashMap<Class<?>, Object> m_coerced = new ConcurrentHashMap<>();
+
+        Operand(String value)
+        {
+            m_value = value;
+        }
+
+        Object coerce(Object lhs) throws Exception
+        {
+            Class<?> type = lhs.getClass();
+            Object[] last = m_last;
+            Object rhs;
+            if ((last != null) && (last[0] == type))
+            {
+                rhs = last[1];
+            }
+            else if (isShared(type))
+            {
+                rhs = m_coerced.get(type);
+                if (rhs == null)
+                {
+                    rhs = coerceType(lhs);
+                    m_coerced.putIfAbsent(type, rhs);
+                }
+                m_last = new Object[] { type, rhs };
+            }
+            else
+            {
+                rhs = coerceType(lhs);
+            }
+            if (rhs == FAILED)
+            {
+                throw new Exception("Could not coerce '" + m_value + "' to " + type.getName());
+            }
+            return rhs;
+        }
+
+        private Object coerceType(Object lhs)
+        {
+            Object rhs;
+            try
+            {
+                rhs = CapabilitySet.coerceType(lhs, m_value);
+            }
+            catch (Exception ex)
+            {
+                rhs = FAILED;
+            }
+            return (rhs != null) ? rhs : FAILED;
+        }
+
+        private static boolean isShared(Class<?> type)
+        {
+            return (type == Version.class) || type.getName().startsWith("java.");
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.wiring.BundleCapability;
+
+/**
+ * An index over two attributes of a capability, where the first attribute
+ * is looked up by equality and the second one by range, e.g. a package name
+ * and its version. For every value of the first attribute an immutable
+ * posting is kept that orders the capabilities by the value of the second
+ * attribute. Postings are replaced atomically on update, so lookups do not
+ * need to lock.
+ */
+class CompoundIndex
+{
+    private final String m_primary;
+    private final String m_secondary;
+    private final ConcurrentHashMap<Object, Posting> m_postings = new ConcurrentHashMap<>();
+
+    CompoundIndex(String primary, String secondary)
+    {
+        m_primary = primary;
+        m_secondary = secondary;
+    }
+
+    String getPrimary()
+    {
+        return m_primary;
+    }
+
+    String getSecondary()
+    {
+        return m_secondary;
+    }
+
+    void add(final BundleCapability cap, Object primaryValue)
+    {
+        final Object secondaryValue = cap.getAttributes().get(m_secondary);
+        m_postings.compute(primaryValue, (key, posting) ->
+            ((posting == null) ? Posting.EMPTY : posting).add(cap, secondaryValue));
+    }
+
+    void remove(final BundleCapability cap, Object primaryValue)
+    {
+        final Object secondaryValue = cap.getAttributes().get(m_secondary);
+        m_postings.computeIfPresent(primaryValue, (key, posting) ->
+            posting.remove(cap, secondaryValue));
+    }
+
+    /**
+     * Returns a superset of the capabilities with the specified primary
+     * value whose secondary value lies within the specified bounds. A
+     * <tt>null</tt> bound is unbounded; bounds are unparsed filter values.
+     */
+    Set<BundleCapability> getCandidates(Object primaryValue,
+        String lower, boolean lowerInclusive, String upper, boolean upperInclusive)
+    {
+        Posting posting = m_postings.get(primaryValue);
+        return (posting == null)
+            ? Collections.<BundleCapability>emptySet()
+            : posting.getCandidates(lower, lowerInclusive, upper, upperInclusive);
+    }
+
+    private static final class Posting
+    {
+        static final Posting EMPTY = new Posting(
+            new TreeMap<Object, Set<BundleCapability>>(), null,
+            Collections.<BundleCapability>emptySet());
+
+        // Capabilities keyed by a single comparable secondary value
+        // of the ordered class.
+        private final NavigableMap<Object, Set<BundleCapability>> m_ordered;
+        private final Class<?> m_orderedClass;
+        // Capabilities without a secondary value or with one that cannot
+        // be ordered; these are always candidates.
+        private final Set<BundleCapability> m_other;
+
+        private Posting(NavigableMap<Object, Set<BundleCapability>> ordered,
+            Class<?> orderedClass, Set<BundleCapability> other)
+        {
+            m_ordered = ordered;
+            m_orderedClass = orderedClass;
+            m_other = other;
+        }
+
+        Posting add(BundleCapability cap, Object value)
+        {
+            Class<?> orderedClass = m_orderedClass;
+            if (isOrderable(value) && ((orderedClass == null) || (orderedClass == value.getClass())))
+            {
+                TreeMap<Object, Set<BundleCapability>> ordered = new TreeMap<>(m_ordered);
+                Set<BundleCapability> caps = ordered.get(value);
+                caps = (caps == null) ? new HashSet<BundleCapability>() : new HashSet<>(caps);
+                caps.add(cap);
+                ordered.put(value, Collections.unmodifiableSet(caps));
+                return new Posting(ordered, value.getClass(), m_other);
+            }
+            Set<BundleCapability> other = new HashSet<>(m_other);
+            other.add(cap);
+            return new Posting(m_ordered, orderedClass, Collections.unmodifiableSet(other));
+        }
+
+        Posting remove(BundleCapability cap, Object value)
+        {
+            NavigableMap<Object, Set<BundleCapability>> ordered = m_ordered;
+            Set<BundleCapability> other = m_other;
+            if (isOrderable(value) && (value.getClass() == m_orderedClass)
+                && (m_ordered.containsKey(value)))
+            {
+                TreeMap<Object, Set<BundleCapability>> copy = new TreeMap<>(m_ordered);
+                Set<BundleCapability> caps = new HashSet<>(copy.get(value));
+                caps.remove(cap);
+                if (caps.isEmpty())
+                {
+                    copy.remove(value);
+                }
+                else
+                {
+                    copy.put(value, Collections.unmodifiableSet(caps));
+                }
+                ordered = copy;
+            }
+            else if (m_other.contains(cap))
+            {
+                Set<BundleCapability> copy = new HashSet<>(m_other);
+                copy.remove(cap);
+                other = Collections.unmodifiableSet(copy);
+            }
+            else
+            {
+                return this;
+            }
+            // Returning null removes the posting from the index.
+            return (ordered.isEmpty() && other.isEmpty())
+                ? null
+                : new Posting(ordered, ordered.isEmpty() ? null : m_orderedClass, other);
+        }
+
+        Set<BundleCapability> getCandidates(
+            String lower, boolean lowerInclusive, String upper, boolean upperInclusive)
+        {
+            Map<Object, Set<BundleCapability>> range = m_ordered;
+            if (!m_ordered.isEmpty())
+            {
+                try
+                {
+                    Object sample = m_ordered.firstKey();
+                    NavigableMap<Object, Set<BundleCapability>> sub = m_ordered;
+                    if (lower != null)
+                    {
+                        sub = sub.tailMap(
+                            CapabilitySet.coerceType(sample, lower), lowerInclusive);
+                    }
+                    if (upper != null)
+                    {
+                        sub = sub.headMap(
+                            CapabilitySet.coerceType(sample, upper), upperInclusive);
+                    }
+                    range = sub;
+                }
+                catch (Exception ex)
+                {
+                    // If the bounds cannot be coerced to the type of the
+                    // values, then all values are candidates.
+                    range = m_ordered;
+                }
+            }
+
+            Set<BundleCapability> result = new HashSet<>(m_other);
+            for (Set<BundleCapability> caps : range.values())
+            {
+                result.addAll(caps);
+            }
+            return result;
+        }
+
+        private static boolean isOrderable(Object value)
+        {
+            return (value instanceof Comparable)
+                && !(value instanceof Collection)
+                && !value.getClass().isArray();
+        }
+    }
+}
@@ -282,7 +282,9 @@ public class SimpleFilter
                 isEscaped = false;
             }
 
-            idx = skipWhitespace(filter, idx + 1);
+            // An escaped character is part of the value, even if it is
+            // whitespace, so only skip whitespace that is not escaped.
+            idx = (isEscaped) ? idx + 1 : skipWhitespace(filter, idx + 1);
         }
 
         if (sf == null)
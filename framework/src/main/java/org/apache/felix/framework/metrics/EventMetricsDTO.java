@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.metrics;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the delivery of framework, bundle and service
+ * events to listeners.
+**/
+public class EventMetricsDTO extends DTO
+{
+    /**
+     * The number of asynchronous listener notifications currently queued.
+    **/
+    public int asyncQueueDepth;
+
+    /**
+     * The number of asynchronous listener notifications delivered.
+    **/
+    public long asyncDeliveryCount;
+
+    /**
+     * The accumulated time asynchronous listener notifications spent queued,
+     * in nanoseconds.
+    **/
+    public long asyncDeliveryLatency;
+
+    /**
+     * The longest time an asynchronous listener notification spent queued,
+     * in nanoseconds.
+    **/
+    public long asyncMaxDeliveryLatency;
+
+    /**
+     * The time spent in listener callbacks, for each bundle that added
+     * listeners which were called.
+    **/
+    public BundleMetricsDTO[] listeners;
+}
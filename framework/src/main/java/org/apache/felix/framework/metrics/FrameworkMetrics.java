@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.metrics;
+
+/**
+ * Provides the runtime metrics of the framework. The framework registers
+ * this service if the <tt>felix.metrics</tt> configuration property is
+ * <tt>true</tt>, and, unless <tt>felix.metrics.jmx</tt> is <tt>false</tt>,
+ * the same metrics are available as attributes of the
+ * <tt>org.apache.felix.framework:type=FrameworkMetrics</tt> MBean.
+ * <p>
+ * All counters and histograms count from the start of the framework.
+**/
+public interface FrameworkMetrics
+{
+    /**
+     * Returns a snapshot of the metrics.
+     * @return the metrics.
+    **/
+    FrameworkMetricsDTO getMetrics();
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.metrics;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the runtime metrics of the framework.
+**/
+public class FrameworkMetricsDTO extends DTO
+{
+    /**
+     * The time the metrics were taken, in milliseconds since the epoch.
+    **/
+    public long timestamp;
+
+    /**
+     * The time spent finding and defining classes, for each bundle that
+     * defined classes.
+    **/
+    public BundleMetricsDTO[] classLoading;
+
+    /**
+     * The service usage, for each object class that was looked up or used.
+    **/
+    public ServiceMetricsDTO[] services;
+
+    /**
+     * The event delivery metrics.
+    **/
+    public EventMetricsDTO events;
+
+    /**
+     * The resolver metrics.
+    **/
+    public ResolverMetricsDTO resolver;
+}
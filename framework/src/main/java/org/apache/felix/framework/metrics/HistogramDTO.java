@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.metrics;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for a histogram of durations.
+**/
+public class HistogramDTO extends DTO
+{
+    /**
+     * The number of durations.
+    **/
+    public long count;
+
+    /**
+     * The sum of the durations.
+    **/
+    public long sum;
+
+    /**
+     * The longest duration.
+    **/
+    public long max;
+
+    /**
+     * The inclusive upper bounds of the buckets, in ascending order.
+    **/
+    public long[] bounds;
+
+    /**
+     * The number of durations in each bucket. It has one element more than
+     * {@link #bounds}, which counts the durations above the last bound.
+    **/
+    public long[] counts;
+}
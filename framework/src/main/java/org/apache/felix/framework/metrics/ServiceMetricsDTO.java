@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.metrics;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the usage of the services registered under an
+ * object class.
+**/
+public class ServiceMetricsDTO extends DTO
+{
+    /**
+     * The object class.
+    **/
+    public String objectClass;
+
+    /**
+     * The number of times a service was obtained.
+    **/
+    public long getCount;
+
+    /**
+     * The number of times a service was released.
+    **/
+    public long ungetCount;
+
+    /**
+     * The number of times services were looked up by the object class.
+    **/
+    public long lookupCount;
+}
@@ -55,7 +55,17 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_PERMUTATION_PARALLELISM = "felix.resolver.permutation.parallelism";
+    String RESOLVER_INCREMENTAL = "felix.resolver.incremental";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
+    String EVENT_DISPATCHER_THREADS_PROP = "felix.eventdispatcher.threads";
+    String EVENT_DISPATCHER_VIRTUAL_THREADS_PROP = "felix.eventdispatcher.virtualthreads";
+    String FILTER_CACHE_SIZE_PROP = "felix.filter.cache.size";
+    String STARTLEVEL_PARALLELISM_PROP = "felix.startlevel.parallelism";
+    String RESOLVER_SNAPSHOT_PROP = "felix.resolver.snapshot";
+    String DYNAMIC_IMPORT_CACHE_SIZE_PROP = "felix.dynamicimport.cache.size";
+    String METRICS_PROP = "felix.metrics";
+    String METRICS_JMX_PROP = "felix.metrics.jmx";
 
     // Missing OSGi constant for resolution directive.
     String RESOLUTION_DYNAMIC = "dynamic";
@@ -42,7 +42,10 @@ import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -51,6 +54,7 @@ import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
@@ -526,6 +530,57 @@ public class SecureAction
         }
     }
 
+    public byte[] readAllBytes(File file) throws IOException
+    {
+        if (System.getSecurityManager() != null)
+        {
+            try
+            {
+                Actions actions = (Actions) m_actions.get();
+                actions.set(Actions.READ_ALL_BYTES_ACTION, file);
+                return (byte[]) AccessController.doPrivileged(actions, m_acc);
+            }
+            catch (PrivilegedActionException ex)
+            {
+                if (ex.getException() instanceof IOException)
+                {
+                    throw (IOException) ex.getException();
+                }
+                throw (RuntimeException) ex.getException();
+            }
+        }
+        else
+        {
+            return Files.readAllBytes(file.toPath());
+        }
+    }
+
+    public void walkFileTree(File dir, FileVisitor<Path> visitor) throws IOException
+    {
+        if (System.getSecurityManager() != null)
+        {
+            try
+            {
+                Actions actions = (Actions) m_actions.get();
+                actions.set(Actions.WALK_FILE_TREE_ACTION, dir, visitor);
+                AccessController.doPrivileged(actions, m_acc);
+            }
+            catch (PrivilegedActionException ex)
+            {
+                if (ex.getException() instanceof IOException)
+                {
+                    throw (IOException) ex.getException();
+                }
+                throw (RuntimeException) ex.getException();
+            }
+        }
+        else
+        {
+            Files.walkFileTree(dir.toPath(),
+                EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+        }
+    }
+
     public OutputStream getOutputStream(File file) throws IOException
     {
         if (System.getSecurityManager() != null)
@@ -1831,6 +1886,8 @@ public class SecureAction
         public static final int GET_FILE_CHANNEL_ACTION = 61;
         private static final int GET_INPUT_ACTION = 62;
         private static final int GET_OUTPUT_ACTION = 63;
+        private static final int READ_ALL_BYTES_ACTION = 64;
+        private static final int WALK_FILE_TREE_ACTION = 65;
 
         private int m_action = -1;
         private Object m_arg1 = null;
@@ -2105,6 +2162,13 @@ public class SecureAction
                     return Files.newInputStream(((File) arg1).toPath());
                 case GET_OUTPUT_ACTION:
                     return Files.newOutputStream(((File) arg1).toPath());
+                case READ_ALL_BYTES_ACTION:
+                    return Files.readAllBytes(((File) arg1).toPath());
+                case WALK_FILE_TREE_ACTION:
+                    Files.walkFileTree(((File) arg1).toPath(),
+                        EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                        (FileVisitor<Path>) arg2);
+                    return null;
             }
 
             return null;
@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.BundleRevisionImpl;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.cache.ConnectContentContent;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.SecureAction;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Keeps the result of parsing the manifest of a bundle revision in a compact
+ * binary file in the revision directory, so the revision can be created
+ * again on the next startup without parsing its manifest headers.
+ * <p>
+ * The file is keyed by a digest over the manifest headers, the framework
+ * version and whether the revision has connect content, which is everything
+ * apart from the native library clause selection the parse result depends
+ * on. The native library clauses are kept as declared, so the clause which
+ * matches the current platform is still selected when the revision is
+ * created. A file that does not match or cannot be read is replaced.
+**/
+public class ManifestCache
+{
+    static final String CACHE_FILE = "manifest.cache";
+    private static final int CACHE_FILE_VERSION = 1;
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    // Types of attribute and filter values.
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte VERSION_VALUE = 2;
+    private static final byte VERSION_RANGE_VALUE = 3;
+    private static final byte LONG_VALUE = 4;
+    private static final byte DOUBLE_VALUE = 5;
+    private static final byte LIST_VALUE = 6;
+    private static final byte FILTER_VALUE = 7;
+
+    private ManifestCache()
+    {
+    }
+
+    /**
+     * Returns the parsed manifest of a revision, either from its cache file
+     * or by parsing the headers and caching the result, if caching is
+     * enabled.
+     * @param logger the framework logger.
+     * @param configMap the framework configuration.
+     * @param owner the revision the manifest belongs to.
+     * @param headerMap the manifest headers.
+     * @param revisionRootDir the revision directory or <tt>null</tt> if the
+     *        revision has none.
+     * @return the parsed manifest.
+     * @throws BundleException if the manifest is invalid.
+    **/
+    public static ManifestParser parse(Logger logger, Map<String, ?> configMap,
+        BundleRevision owner, Map<String, String> headerMap, File revisionRootDir)
+        throws BundleException
+    {
+        Object enabled = configMap.get(BundleCache.CACHE_MANIFEST_PROP);
+        if ((revisionRootDir == null)
+            || ((enabled != null) && enabled.toString().trim().equalsIgnoreCase("false")))
+        {
+            return new ManifestParser(logger, configMap, owner, headerMap);
+        }
+
+        byte[] key = getKey(configMap, owner, headerMap);
+        File file = new File(revisionRootDir, CACHE_FILE);
+        if (m_secureAction.isFile(file))
+        {
+            try
+            {
+                ManifestParser mp = load(logger, configMap, owner, headerMap, file, key);
+                if (mp != null)
+                {
+                    return mp;
+                }
+            }
+            catch (Exception ex)
+            {
+                logger.log(Logger.LOG_DEBUG,
+                    "Unable to read the cached manifest " + file, ex);
+            }
+        }
+
+        ManifestParser mp = new ManifestParser(logger, configMap, owner, headerMap);
+        try
+        {
+            store(mp, file, key);
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_DEBUG, "Unable to cache the manifest " + file, ex);
+        }
+        return mp;
+    }
+
+    private static byte[] getKey(
+        Map<String, ?> configMap, BundleRevision owner, Map<String, String> headerMap)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(CACHE_FILE_VERSION).append('\0')
+            .append(configMap.get(FelixConstants.FELIX_VERSION_PROPERTY)).append('\0')
+            .append((owner instanceof BundleRevisionImpl)
+                && (((BundleRevisionImpl) owner).getContent() instanceof ConnectContentContent))
+            .append('\0');
+        for (Entry<String, String> entry : new TreeMap<>(headerMap).entrySet())
+        {
+            sb.append(entry.getKey()).append('\0').append(entry.getValue()).append('\0');
+        }
+        return digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ManifestParser load(Logger logger, Map<String, ?> configMap,
+        BundleRevision owner, Map<String, String> headerMap, File file, byte[] key)
+        throws Exception
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            m_secureAction.getFileInputStream(file)));
+        try
+        {
+            if (in.readInt() != CACHE_FILE_VERSION)
+            {
+                return null;
+            }
+            byte[] storedKey = new byte[in.readInt()];
+            in.readFully(storedKey);
+            if (!MessageDigest.isEqual(key, storedKey))
+            {
+                return null;
+            }
+
+            String symbolicName = readString(in);
+            Version bundleVersion = Version.parseVersion(readString(in));
+            boolean isExtension = in.readBoolean();
+            int activationPolicy = in.readInt();
+            String activationIncludeDir = readString(in);
+            String activationExcludeDir = readString(in);
+
+            int count = in.readInt();
+            List<BundleCapabilityImpl> caps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                caps.add(new BundleCapabilityImpl(owner, readString(in),
+                    readDirectives(in), readAttributes(in)));
+            }
+
+            count = in.readInt();
+            List<BundleRequirementImpl> reqs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                reqs.add(new BundleRequirementImpl(owner, readString(in),
+                    readDirectives(in), readAttributes(in), (SimpleFilter) readValue(in)));
+            }
+
+            count = in.readInt();
+            List<NativeLibraryClause> clauses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                clauses.add(new NativeLibraryClause(readStrings(in), readStrings(in),
+                    readStrings(in), readStrings(in), readStrings(in), readString(in)));
+            }
+            boolean libraryHeadersOptional = in.readBoolean();
+
+            return new ManifestParser(logger, configMap, headerMap, symbolicName,
+                bundleVersion, isExtension, activationPolicy, activationIncludeDir,
+                activationExcludeDir, caps, reqs, clauses, libraryHeadersOptional);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void store(ManifestParser mp, File file, byte[] key) throws Exception
+    {
+        // Write to a temporary file first, so a cache file is always complete.
+        File tmp = new File(file.getParentFile(), CACHE_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            m_secureAction.getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(CACHE_FILE_VERSION);
+            out.writeInt(key.length);
+            out.write(key);
+
+            writeString(out, mp.getSymbolicName());
+            writeString(out, mp.getBundleVersion().toString());
+            out.writeBoolean(mp.isExtension());
+            out.writeInt(mp.getActivationPolicy());
+            writeString(out, mp.getActivationIncludeDirective());
+            writeString(out, mp.getActivationExcludeDirective());
+
+            out.writeInt(mp.getCapabilities().size());
+            for (BundleCapability cap : mp.getCapabilities())
+            {
+                writeString(out, cap.getNamespace());
+                writeMap(out, cap.getDirectives());
+                writeMap(out, cap.getAttributes());
+            }
+
+            out.writeInt(mp.getRequirements().size());
+            for (BundleRequirement req : mp.getRequirements())
+            {
+                writeString(out, req.getNamespace());
+                writeMap(out, req.getDirectives());
+                writeMap(out, req.getAttributes());
+                writeValue(out, ((BundleRequirementImpl) req).getFilter());
+            }
+
+            List<NativeLibraryClause> clauses = mp.getLibraryClauses();
+            out.writeInt(clauses.size());
+            for (NativeLibraryClause clause : clauses)
+            {
+                writeStrings(out, clause.getLibraryEntries());
+                writeStrings(out, clause.getOSNames());
+                writeStrings(out, clause.getProcessors());
+                writeStrings(out, clause.getOSVersions());
+                writeStrings(out, clause.getLanguages());
+                writeString(out, clause.getSelectionFilter());
+            }
+            out.writeBoolean(mp.isLibraryHeadersOptional());
+        }
+        catch (Exception ex)
+        {
+            out.close();
+            m_secureAction.deleteFile(tmp);
+            throw ex;
+        }
+        out.close();
+
+        m_secureAction.deleteFile(file);
+        if (!m_secureAction.renameFile(tmp, file))
+        {
+            m_secureAction.deleteFile(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    static Map<String, String> readDirectives(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, String> dirs = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++)
+        {
+            dirs.put(readString(in), (String) readValue(in));
+        }
+        return dirs;
+    }
+
+    static Map<String, Object> readAttributes(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, Object> attrs = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++)
+        {
+            attrs.put(readString(in), readValue(in));
+        }
+        return attrs;
+    }
+
+    static void writeMap(DataOutputStream out, Map<String, ?> map) throws IOException
+    {
+        out.writeInt(map.size());
+        for (Entry<String, ?> entry : map.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                return readString(in);
+            case VERSION_VALUE:
+                return Version.parseVersion(readString(in));
+            case VERSION_RANGE_VALUE:
+                return new VersionRange(readString(in));
+            case LONG_VALUE:
+                return in.readLong();
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case LIST_VALUE:
+                int count = in.readInt();
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    list.add(readValue(in));
+                }
+                return list;
+            case FILTER_VALUE:
+                String name = readString(in);
+                int op = in.readInt();
+                return new SimpleFilter(name, readValue(in), op);
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL_VALUE);
+        }
+        else if (value instanceof String)
+        {
+            out.writeByte(STRING_VALUE);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof Version)
+        {
+            out.writeByte(VERSION_VALUE);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof VersionRange)
+        {
+            out.writeByte(VERSION_RANGE_VALUE);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG_VALUE);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof List)
+        {
+            out.writeByte(LIST_VALUE);
+            out.writeInt(((List<?>) value).size());
+            for (Object element : (List<?>) value)
+            {
+                writeValue(out, element);
+            }
+        }
+        else if (value instanceof SimpleFilter)
+        {
+            SimpleFilter filter = (SimpleFilter) value;
+            out.writeByte(FILTER_VALUE);
+            writeString(out, filter.getName());
+            out.writeInt(filter.getOperation());
+            writeValue(out, filter.getValue());
+        }
+        else
+        {
+            // The parse result of this manifest cannot be cached.
+            throw new IOException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if (count < 0)
+        {
+            return null;
+        }
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException
+    {
+        if (strings == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(strings.length);
+        for (String s : strings)
+        {
+            writeString(out, s);
+        }
+    }
+
+    // Manifest values, like long uses directives, may exceed the length
+    // limit of modified UTF-8 strings.
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -330,6 +330,41 @@ public class ManifestParser
         parseActivationPolicy(headerMap);
     }
 
+    /**
+     * Creates a parser from the result of an earlier parse of the same
+     * headers, as read back by the <tt>ManifestCache</tt>. The capabilities
+     * and requirements are interned like freshly parsed ones, while the
+     * native library clause is still selected against the configuration.
+    **/
+    ManifestParser(Logger logger, Map<String, ?> configMap, Map<String, String> headerMap,
+        String symbolicName, Version bundleVersion, boolean isExtension,
+        int activationPolicy, String activationIncludeDir, String activationExcludeDir,
+        List<BundleCapabilityImpl> capabilities, List<BundleRequirementImpl> requirements,
+        List<NativeLibraryClause> libraryClauses, boolean libraryHeadersOptional)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_headerMap = headerMap;
+        m_bundleSymbolicName = (String) cache.apply(symbolicName);
+        m_bundleVersion = (Version) cache.apply(bundleVersion);
+        m_isExtension = isExtension;
+        m_activationPolicy = activationPolicy;
+        m_activationIncludeDir = activationIncludeDir;
+        m_activationExcludeDir = activationExcludeDir;
+        m_capabilities = new ArrayList<>(capabilities.size());
+        for (BundleCapabilityImpl cap : capabilities)
+        {
+            m_capabilities.add(BundleCapabilityImpl.createFrom(cap, cache));
+        }
+        m_requirements = new ArrayList<>(requirements.size());
+        for (BundleRequirementImpl req : requirements)
+        {
+            m_requirements.add(BundleRequirementImpl.createFrom(req, cache));
+        }
+        m_libraryClauses = libraryClauses;
+        m_libraryHeadersOptional = libraryHeadersOptional;
+    }
+
     private static List<ParsedHeaderClause> normalizeImportClauses(
         Logger logger, List<ParsedHeaderClause> clauses, String mv)
         throws BundleException
@@ -1073,6 +1108,16 @@ public class ManifestParser
         return m_requirements;
     }
 
+    List<NativeLibraryClause> getLibraryClauses()
+    {
+        return m_libraryClauses;
+    }
+
+    boolean isLibraryHeadersOptional()
+    {
+        return m_libraryHeadersOptional;
+    }
+
     /**
      * <p>
      * This method returns the selected native library metadata from
@@ -18,12 +18,16 @@
  */
 package org.apache.felix.framework;
 
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 
 import org.apache.felix.framework.cache.Content;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import org.junit.jupiter.api.Test;
 
 class BundleRevisionImplTest
@@ -41,4 +45,21 @@ class BundleRevisionImplTest
         Enumeration<?> en = bri.getResourcesLocal("foo");
         assertThat(en.hasMoreElements()).isFalse();
     }
+
+    @Test
+    void getResourceLocalCustomContentPath()
+    {
+        final Content content = mock(Content.class);
+        BundleRevisionImpl bri = new BundleRevisionImpl(null, null) {
+            @Override
+            List<Content> getContentPath()
+            {
+                return Collections.singletonList(content);
+            }
+        };
+        assertThat(bri.getContentPathIndex()).isNull();
+        assertThat(bri.getResourceLocal("foo")).isNull();
+        assertThat(bri.getResourcesLocal("foo").hasMoreElements()).isFalse();
+        verify(content, times(2)).hasEntry("foo");
+    }
 }
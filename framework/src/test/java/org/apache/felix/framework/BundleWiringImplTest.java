@@ -27,6 +27,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -58,7 +59,9 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
 import org.osgi.framework.hooks.weaving.WeavingException;
 import org.osgi.framework.hooks.weaving.WeavingHook;
 import org.osgi.framework.hooks.weaving.WovenClass;
@@ -227,6 +230,99 @@ public class BundleWiringImplTest
         assertThat(dummyWovenClassListener.stateList.get(1)).as("The second state change should define the class").isEqualTo((Object) WovenClass.DEFINED);
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Test
+    void findClassWeaveCached() throws Exception
+    {
+        File revisionDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(revisionDir.delete()).as("precondition").isTrue();
+        assertThat(revisionDir.mkdirs()).as("precondition").isTrue();
+        WovenClassCache cache = new WovenClassCache(revisionDir);
+
+        Felix mockFramework = mock(Felix.class);
+        Content mockContent = mock(Content.class);
+        Bundle mockHookBundle = mock(Bundle.class);
+        ServiceReference<WeavingHook> mockServiceReferenceWeavingHook = mock(ServiceReference.class);
+        ServiceReference<WovenClassListener> mockServiceReferenceWovenClassListener = mock(ServiceReference.class);
+        when(mockServiceReferenceWeavingHook.getBundle()).thenReturn(mockHookBundle);
+        when(mockHookBundle.getSymbolicName()).thenReturn("weaver");
+        when(mockHookBundle.getVersion()).thenReturn(new Version(1, 0, 0));
+
+        Set<ServiceReference<WeavingHook>> hooks = new HashSet<>();
+        hooks.add(mockServiceReferenceWeavingHook);
+
+        DummyWovenClassListener dummyWovenClassListener = new DummyWovenClassListener();
+
+        Set<ServiceReference<WovenClassListener>> listeners = new HashSet<>();
+        listeners.add(mockServiceReferenceWovenClassListener);
+
+        Class testClass = TestClass.class;
+        String testClassName = testClass.getName();
+        String testClassAsPath = testClassName.replace('.', '/') + ".class";
+        byte[] testClassBytes = createTestClassBytes(testClass, testClassAsPath);
+
+        List<Content> contentPath = new ArrayList<>();
+        contentPath.add(mockContent);
+        when(mockFramework.getBootPackages()).thenReturn(new String[0]);
+        when(mockContent.getEntryAsBytes(testClassAsPath)).thenReturn(
+                testClassBytes);
+
+        HookRegistry hReg = mock(HookRegistry.class);
+        when(hReg.getHooks(WeavingHook.class)).thenReturn(hooks);
+        when(mockFramework.getHookRegistry()).thenReturn(hReg);
+        AtomicInteger weaveCount = new AtomicInteger();
+        when(
+                mockFramework.getService(mockFramework,
+                        mockServiceReferenceWeavingHook, false)).thenReturn(
+                                new GoodDummyWovenHook()
+                                {
+                                    @Override
+                                    public void weave(WovenClass wovenClass)
+                                    {
+                                        weaveCount.incrementAndGet();
+                                        super.weave(wovenClass);
+                                    }
+                                });
+
+        when(hReg.getHooks(WovenClassListener.class)).thenReturn(
+                listeners);
+        when(
+                mockFramework.getService(mockFramework,
+                        mockServiceReferenceWovenClassListener, false))
+        .thenReturn(dummyWovenClassListener);
+
+        try
+        {
+            // Define the class in two class loaders, as after a restart.
+            for (int i = 0; i < 2; i++)
+            {
+                initializeSimpleBundleWiring();
+                when(mockBundle.getFramework()).thenReturn(mockFramework);
+                when(mockRevisionImpl.getContentPath()).thenReturn(contentPath);
+                when(mockRevisionImpl.getWovenClassCache()).thenReturn(cache);
+
+                BundleClassLoader bundleClassLoader = createBundleClassLoader(
+                        BundleClassLoader.class, bundleWiring);
+                Class foundClass = bundleClassLoader.findClass(TestClass.class.getName());
+                assertThat(foundClass.getFields().length).as("Weaving should have added a field").isEqualTo(1);
+            }
+
+            assertThat(weaveCount.get()).as("The hook should only weave the class once").isEqualTo(1);
+            assertThat(dummyWovenClassListener.stateList).as("The listener should see both classes being woven").containsExactly(
+                    WovenClass.TRANSFORMED, WovenClass.DEFINED,
+                    WovenClass.TRANSFORMED, WovenClass.DEFINED);
+        }
+        finally
+        {
+            for (File file : new File(revisionDir, WovenClassCache.CACHE_DIR).listFiles())
+            {
+                file.delete();
+            }
+            new File(revisionDir, WovenClassCache.CACHE_DIR).delete();
+            revisionDir.delete();
+        }
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Test
     void findClassBadWeave() throws Exception
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.apache.felix.framework.TestJars.createCacheDir;
+import static org.apache.felix.framework.TestJars.createJar;
+import static org.apache.felix.framework.TestJars.delete;
+import static org.apache.felix.framework.TestJars.getBytes;
+import static org.apache.felix.framework.TestJars.getPath;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.framework.cache.BundleCache;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+class ClassLoadingProfilerTest
+{
+    @Test
+    void recordAndPreload() throws Exception
+    {
+        File cacheDir = createCacheDir();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+        params.put(BundleCache.CACHE_CLASSPROFILE_PROP, "60");
+
+        String mf = "Bundle-SymbolicName: profiled\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Manifest-Version: 1.0\n\n";
+        Map<String, byte[]> entries = new HashMap<>();
+        entries.put(getPath(Profiled.class), getBytes(Profiled.class));
+        entries.put(getPath(NotLoaded.class), getBytes(NotLoaded.class));
+        File bundleFile = new File(cacheDir, "profiled.jar");
+        FileOutputStream fos = new FileOutputStream(bundleFile);
+        fos.write(createJar(mf, entries));
+        fos.close();
+
+        // The first run records the class, which is stored on stop.
+        Felix felix = new Felix(params);
+        felix.init();
+        felix.start();
+        File revisionDir;
+        try
+        {
+            Bundle bundle = felix.getBundleContext().installBundle(bundleFile.toURI().toString());
+            bundle.start();
+            bundle.loadClass(Profiled.class.getName());
+            revisionDir = ((BundleImpl) bundle).getArchive()
+                .getCurrentRevision().getRevisionRootDir();
+            assertThat(felix.getClassLoadingProfiler().getRecordedClasses()).isEqualTo(1);
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+        assertThat(new File(revisionDir, ClassLoadingProfiler.PROFILE_FILE)).isFile();
+
+        // The second run loads the recorded class without being asked to,
+        // but only once the framework has been started.
+        felix = new Felix(params);
+        felix.init();
+        try
+        {
+            ClassLoadingProfiler profiler = felix.getClassLoadingProfiler();
+            Thread.sleep(200);
+            assertThat(profiler.getPreloadedClasses()).isZero();
+            felix.start();
+            for (int i = 0; (i < 100) && (profiler.getPreloadedClasses() == 0); i++)
+            {
+                Thread.sleep(100);
+            }
+            assertThat(profiler.getPreloadedClasses()).isEqualTo(1);
+            assertThat(profiler.getFailedClasses()).isZero();
+            assertThat(profiler.getRecordedClasses()).isZero();
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+        delete(cacheDir);
+    }
+
+    public static final class Profiled
+    {
+    }
+
+    public static final class NotLoaded
+    {
+    }
+}
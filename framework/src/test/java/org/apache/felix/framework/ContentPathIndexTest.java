@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.apache.felix.framework.TestJars.createCacheDir;
+import static org.apache.felix.framework.TestJars.createJar;
+import static org.apache.felix.framework.TestJars.delete;
+import static org.apache.felix.framework.TestJars.getBytes;
+import static org.apache.felix.framework.TestJars.getPath;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.cache.Content;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleWiring;
+
+class ContentPathIndexTest
+{
+    @Test
+    void candidates()
+    {
+        Content a = mock(Content.class);
+        when(a.getEntries()).thenReturn(Collections.enumeration(Arrays.asList(
+            "org/", "org/a/", "org/a/A.class", "/org/b/B.class", "empty/")));
+        Content b = mock(Content.class);
+        when(b.getEntries()).thenReturn(Collections.enumeration(Arrays.asList(
+            "org/b/C.class", "b.properties")));
+        Content unindexed = mock(Content.class);
+
+        ContentPathIndex.Builder builder = new ContentPathIndex.Builder(
+            Collections.<String, Set<String>>emptyMap());
+        builder.add(a, true, ".");
+        builder.add(unindexed, false, null);
+        builder.add(b, true, null);
+        ContentPathIndex index = builder.build();
+
+        assertThat(index.getContentPath()).containsExactly(a, unindexed, b);
+        assertThat(index.getCandidates("org/a/A.class")).containsExactly(0, 1);
+        assertThat(index.getCandidates("org/b/B.class")).containsExactly(0, 1, 2);
+        assertThat(index.getCandidates("org/c/C.class")).containsExactly(1);
+        assertThat(index.getCandidates("org/a")).containsExactly(0, 1, 2);
+        assertThat(index.getCandidates("empty/")).containsExactly(0, 1);
+        assertThat(index.getCandidates("b.properties")).containsExactly(0, 1, 2);
+        assertThat(builder.getPersistable()).containsOnlyKeys(".");
+        assertThat(builder.isModified()).isTrue();
+    }
+
+    @Test
+    void loadFromEmbeddedJarsAndPersist() throws Exception
+    {
+        File cacheDir = createCacheDir();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+
+        String mf = "Bundle-SymbolicName: embedded\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Bundle-ClassPath: ., lib/a.jar, lib/b.jar\n"
+            + "Manifest-Version: 1.0\n\n";
+        Map<String, byte[]> bJar = new HashMap<>();
+        bJar.put(getPath(Embedded.class), getBytes(Embedded.class));
+        bJar.put("org/example/b.properties", new byte[] { 'b' });
+        Map<String, byte[]> entries = new HashMap<>();
+        entries.put("lib/a.jar", createJar(null, Collections.singletonMap(
+            "org/example/a.properties", new byte[] { 'a' })));
+        entries.put("lib/b.jar", createJar(null, bJar));
+        File bundleFile = new File(cacheDir, "embedded.jar");
+        FileOutputStream fos = new FileOutputStream(bundleFile);
+        fos.write(createJar(mf, entries));
+        fos.close();
+
+        for (int run = 0; run < 2; run++)
+        {
+            Felix felix = new Felix(params);
+            felix.init();
+            felix.start();
+            try
+            {
+                Bundle bundle = (run == 0)
+                    ? felix.getBundleContext().installBundle(bundleFile.toURI().toString())
+                    : felix.getBundleContext().getBundle(bundleFile.toURI().toString());
+
+                assertThat(bundle.loadClass(Embedded.class.getName()))
+                    .isNotSameAs(Embedded.class);
+                URL url = bundle.getResource("org/example/b.properties");
+                assertThat(url).isNotNull();
+                assertThat(url.openStream().read()).isEqualTo('b');
+                assertThat(bundle.getResource("org/example/c.properties")).isNull();
+                assertThat(Collections.list(bundle.getResources("org/example/a.properties")))
+                    .hasSize(1);
+                assertThat(bundle.adapt(BundleWiring.class).listResources(
+                    "org/example", "*.properties", BundleWiring.LISTRESOURCES_LOCAL))
+                    .containsExactlyInAnyOrder(
+                        "org/example/a.properties", "org/example/b.properties");
+
+                File revisionDir = ((BundleImpl) bundle).getArchive()
+                    .getCurrentRevision().getRevisionRootDir();
+                assertThat(new File(revisionDir, ContentPathIndex.INDEX_FILE)).isFile();
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+        }
+        delete(cacheDir);
+    }
+
+    public static final class Embedded
+    {
+    }
+}
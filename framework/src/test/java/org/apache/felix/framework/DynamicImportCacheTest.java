@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+class DynamicImportCacheTest
+{
+    @Test
+    void failedDynamicImportsAreRemembered() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+
+        Felix felix = new Felix(params);
+        try
+        {
+            felix.init();
+            felix.start();
+            StatefulResolver resolver = felix.getResolver();
+
+            Bundle consumer = install(felix, cacheDir, "consumer",
+                "DynamicImport-Package: org.example.*\n", null);
+            consumer.start();
+
+            assertThat(consumer.getResource("org/example/api/test.txt")).isNull();
+            assertThat(resolver.getDynamicImportCacheMisses()).isEqualTo(1L);
+            assertThat(resolver.getDynamicImportCacheHits()).isEqualTo(0L);
+
+            assertThat(consumer.getResource("org/example/api/test.txt")).isNull();
+            assertThat(resolver.getDynamicImportCacheMisses()).isEqualTo(1L);
+            assertThat(resolver.getDynamicImportCacheHits()).isEqualTo(1L);
+
+            assertThat(consumer.getResource("org/example/other/test.txt")).isNull();
+            assertThat(resolver.getDynamicImportCacheMisses()).isEqualTo(2L);
+
+            // A new exporter only invalidates the failures of its packages.
+            install(felix, cacheDir, "provider",
+                "Export-Package: org.example.api\n", "org/example/api/test.txt");
+
+            assertThat(consumer.getResource("org/example/other/test.txt")).isNull();
+            assertThat(resolver.getDynamicImportCacheHits()).isEqualTo(2L);
+
+            assertThat(consumer.getResource("org/example/api/test.txt")).isNotNull();
+            assertThat(resolver.getDynamicImportCacheMisses()).isEqualTo(3L);
+            assertThat(resolver.getDynamicImportCacheHits()).isEqualTo(2L);
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            delete(cacheDir);
+        }
+    }
+
+    private static Bundle install(Felix felix, File dir, String bsn, String headers,
+        String entry) throws Exception
+    {
+        String mf = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + headers
+            + "Manifest-Version: 1.0\n\n";
+        File f = new File(dir, bsn + ".jar");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f),
+            new Manifest(new ByteArrayInputStream(mf.getBytes("utf-8"))));
+        if (entry != null)
+        {
+            os.putNextEntry(new ZipEntry(entry));
+            os.write(entry.getBytes("utf-8"));
+            os.closeEntry();
+        }
+        os.close();
+        return felix.getBundleContext().installBundle(f.toURI().toString());
+    }
+
+    private static void delete(File file) throws IOException
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.util.ListenerInfo;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleListener;
+
+class EventDeliveryPoolTest
+{
+    @Test
+    void createFromConfiguration()
+    {
+        Logger logger = new Logger();
+        assertThat(EventDeliveryPool.create(logger, null, null)).isNull();
+        assertThat(EventDeliveryPool.create(logger, "0", "false")).isNull();
+        assertThat(EventDeliveryPool.create(logger, "foo", null)).isNull();
+        assertThat(EventDeliveryPool.create(logger, "2", null)).isNotNull();
+        assertThat(EventDeliveryPool.create(logger, null, "true")).isNotNull();
+    }
+
+    @Test
+    void deliversInOrderPerListener() throws Exception
+    {
+        EventDeliveryPool pool = EventDeliveryPool.create(new Logger(), "4", null);
+        pool.start();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<Integer> slow = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> fast = Collections.synchronizedList(new ArrayList<Integer>());
+        ListenerInfo slowInfo = info();
+        ListenerInfo fastInfo = info();
+
+        for (int i = 0; i < 100; i++)
+        {
+            final int n = i;
+            pool.enqueue(slowInfo, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        blocked.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    slow.add(n);
+                }
+            });
+            pool.enqueue(fastInfo, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    fast.add(n);
+                }
+            });
+        }
+
+        // The fast listener must not wait for the blocked one.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((fast.size() < 100) && (System.nanoTime() < deadline))
+        {
+            Thread.sleep(10);
+        }
+        assertThat(fast).hasSize(100);
+        assertThat(slow).isEmpty();
+
+        blocked.countDown();
+        pool.stop();
+
+        assertThat(slow).hasSize(100).isSorted();
+        assertThat(fast).isSorted();
+        assertThat(pool.enqueue(fastInfo, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        })).isFalse();
+    }
+
+    private static ListenerInfo info()
+    {
+        BundleContext bc = Mockito.mock(BundleContext.class);
+        Bundle b = Mockito.mock(Bundle.class);
+        Mockito.when(bc.getBundle()).thenReturn(b);
+        return new ListenerInfo(b, bc, BundleListener.class,
+            Mockito.mock(BundleListener.class), null, null, false);
+    }
+}
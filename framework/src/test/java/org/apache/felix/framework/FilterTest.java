@@ -96,6 +96,57 @@ class FilterTest
         assertThat(filter.match(createTestDict(linkedList))).isTrue();
     }
 
+    @Test
+    void filterCache() throws Exception
+    {
+        FilterCache cache = new FilterCache(2);
+        FilterImpl filter = cache.getFilter("(a=1)");
+        assertThat(cache.getFilter("(a=1)")).isSameAs(filter);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+
+        cache.getFilter("(b=1)");
+        cache.getFilter("(c=1)");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getFilter("(a=1)")).isNotSameAs(filter).isEqualTo(filter);
+
+        try
+        {
+            cache.getFilter("(a=1");
+            assertThat(false).as("Filter should not parse").isTrue();
+        }
+        catch (InvalidSyntaxException ex)
+        {
+            // Expected
+        }
+        assertThat(cache.size()).isEqualTo(2);
+
+        Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("a", 1);
+        assertThat(filter.match(dict)).isTrue();
+        dict.put("a", 2L);
+        assertThat(filter.match(dict)).isFalse();
+    }
+
+    @Test
+    void normalForm() throws Exception
+    {
+        // Listener hooks see the string of the cached filter, so it must be
+        // the same as for the filter of the specification.
+        String[] filters = new String[] {
+            "( a = b )", "(a=b\\ )", "(a=x\\y)", "(a=x\\*y*)", "(a=\\\\)",
+            "( & (objectClass=x) ( | (a<=1)(b>=2)) (!(c~=3)))", "(a=*)" };
+        for (String filter : filters)
+        {
+            assertThat(new FilterImpl(filter).toString())
+                .isEqualTo(FrameworkUtil.createFilter(filter).toString());
+        }
+
+        Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("a", "b ");
+        assertThat(new FilterImpl("(a=b\\ )").match(dict)).isTrue();
+    }
+
     private static Dictionary<String, Object> createTestDict(Object o)
     {
         Hashtable<String, Object> dictionary = new Hashtable<>();
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.apache.felix.framework.TestJars.createCacheDir;
+import static org.apache.felix.framework.TestJars.createJar;
+import static org.apache.felix.framework.TestJars.delete;
+import static org.apache.felix.framework.TestJars.getBytes;
+import static org.apache.felix.framework.TestJars.getPath;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.felix.framework.metrics.BundleMetricsDTO;
+import org.apache.felix.framework.metrics.FrameworkMetrics;
+import org.apache.felix.framework.metrics.FrameworkMetricsDTO;
+import org.apache.felix.framework.metrics.ServiceMetricsDTO;
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+class FrameworkMetricsTest
+{
+    @Test
+    void disabledByDefault() throws Exception
+    {
+        File cacheDir = createCacheDir();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+
+        Felix felix = new Felix(params);
+        felix.init();
+        felix.start();
+        try
+        {
+            assertThat(felix.getMetrics()).isNull();
+            assertThat(felix.getBundleContext().getServiceReference(FrameworkMetrics.class)).isNull();
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            delete(cacheDir);
+        }
+    }
+
+    @Test
+    void collectMetrics() throws Exception
+    {
+        File cacheDir = createCacheDir();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.METRICS_PROP, "true");
+
+        String mf = "Bundle-SymbolicName: measured\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Manifest-Version: 1.0\n\n";
+        Map<String, byte[]> entries = new HashMap<>();
+        entries.put(getPath(Measured.class), getBytes(Measured.class));
+
+        Felix felix = new Felix(params);
+        felix.init();
+        felix.start();
+        try
+        {
+            BundleContext context = felix.getBundleContext();
+            Bundle bundle = context.installBundle("measured",
+                new ByteArrayInputStream(createJar(mf, entries)));
+            bundle.start();
+            bundle.loadClass(Measured.class.getName());
+
+            ServiceReference<FrameworkMetrics> ref =
+                context.getServiceReference(FrameworkMetrics.class);
+            FrameworkMetrics metrics = context.getService(ref);
+            context.ungetService(ref);
+
+            FrameworkMetricsDTO dto = metrics.getMetrics();
+            BundleMetricsDTO classLoading = null;
+            for (BundleMetricsDTO m : dto.classLoading)
+            {
+                classLoading = (m.bundle == bundle.getBundleId()) ? m : classLoading;
+            }
+            assertThat(classLoading).isNotNull();
+            assertThat(classLoading.time.count).isEqualTo(1);
+
+            ServiceMetricsDTO services = null;
+            for (ServiceMetricsDTO m : dto.services)
+            {
+                services = FrameworkMetrics.class.getName().equals(m.objectClass) ? m : services;
+            }
+            assertThat(services).isNotNull();
+            assertThat(services.lookupCount).isEqualTo(1);
+            assertThat(services.getCount).isEqualTo(1);
+            assertThat(services.ungetCount).isEqualTo(1);
+            assertThat(dto.resolver.time.count).isGreaterThan(0);
+            assertThat(dto.resolver.failures).isZero();
+            assertThat(dto.resolver.permutations).isGreaterThan(0);
+            assertThat(dto.resolver.time.counts.length).isEqualTo(dto.resolver.time.bounds.length + 1);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(FrameworkMetricsMBean.OBJECT_NAME + ",uuid="
+                + ObjectName.quote(context.getProperty(Constants.FRAMEWORK_UUID)));
+            CompositeData resolver = (CompositeData) server.getAttribute(name, "Resolver");
+            assertThat((Long) resolver.get("failures")).isZero();
+            assertThat((CompositeData[]) server.getAttribute(name, "Services")).isNotEmpty();
+
+            felix.stop();
+            felix.waitForStop(10000);
+            assertThat(server.isRegistered(name)).isFalse();
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            delete(cacheDir);
+        }
+    }
+
+    public static final class Measured
+    {
+    }
+}
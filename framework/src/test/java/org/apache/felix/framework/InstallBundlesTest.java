@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.hooks.bundle.FindHook;
+
+class InstallBundlesTest
+{
+    @Test
+    void installBundles() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+
+        Felix felix = new Felix(params);
+        felix.init();
+        try
+        {
+            final List<Bundle> installed = Collections.synchronizedList(new ArrayList<Bundle>());
+            felix.getBundleContext().addBundleListener(new SynchronousBundleListener()
+            {
+                @Override
+                public void bundleChanged(BundleEvent event)
+                {
+                    if (event.getType() == BundleEvent.INSTALLED)
+                    {
+                        installed.add(event.getBundle());
+                    }
+                }
+            });
+
+            Bundle existing = felix.getBundleContext().installBundle(
+                createBundle("existing", cacheDir).toURI().toString());
+            installed.clear();
+
+            Map<String, InputStream> bundles = new LinkedHashMap<>();
+            for (int i = 0; i < 10; i++)
+            {
+                bundles.put(createBundle("b" + i, cacheDir).toURI().toString(), null);
+            }
+            bundles.put(existing.getLocation(), null);
+
+            List<Bundle> result = felix.installBundles(bundles);
+            assertThat(result).hasSize(11);
+            assertThat(result.get(10)).isSameAs(existing);
+            assertThat(installed).containsExactlyElementsOf(result.subList(0, 10));
+            for (int i = 0; i < 10; i++)
+            {
+                assertThat(result.get(i).getSymbolicName()).isEqualTo("b" + i);
+                assertThat(result.get(i).getBundleId()).isEqualTo(existing.getBundleId() + i + 1);
+                assertThat(felix.getBundleContext().getBundle(result.get(i).getLocation()))
+                    .isSameAs(result.get(i));
+            }
+            assertThat(felix.getBundleContext().getBundles()).hasSize(12);
+
+            // A single bad bundle fails the whole install.
+            bundles.clear();
+            bundles.put(createBundle("c0", cacheDir).toURI().toString(), null);
+            bundles.put(createBundle("b0", cacheDir).toURI().toString(), null);
+            try
+            {
+                felix.installBundles(bundles);
+                fail("Duplicate bundle should not install");
+            }
+            catch (BundleException ex)
+            {
+                // Expected
+            }
+            assertThat(felix.getBundleContext().getBundles()).hasSize(12);
+            for (String location : bundles.keySet())
+            {
+                assertThat(felix.getBundleContext().getBundle(location)).isNull();
+            }
+
+            // Bundles of the same install are checked against each other.
+            bundles.clear();
+            bundles.put(createBundle("d0", cacheDir).toURI().toString(), null);
+            bundles.put(createBundle("d0", cacheDir).toURI().toString(), null);
+            try
+            {
+                felix.installBundles(bundles);
+                fail("Duplicate bundle should not install");
+            }
+            catch (BundleException ex)
+            {
+                // Expected
+            }
+            assertThat(felix.getBundleContext().getBundles()).hasSize(12);
+
+            // A find hook rejecting an installed bundle fails the whole
+            // install, although it only runs once the new bundle is created.
+            existing.start();
+            ServiceRegistration<FindHook> hook = felix.getBundleContext().registerService(
+                FindHook.class, new FindHook()
+                {
+                    @Override
+                    public void find(BundleContext context, Collection<Bundle> bundles)
+                    {
+                        bundles.remove(existing);
+                    }
+                }, null);
+            installed.clear();
+            bundles.clear();
+            bundles.put(createBundle("e0", cacheDir).toURI().toString(), null);
+            bundles.put(existing.getLocation(), null);
+            try
+            {
+                felix.installBundles(existing, bundles);
+                fail("Rejected bundle should not install");
+            }
+            catch (BundleException ex)
+            {
+                assertThat(ex.getType()).isEqualTo(BundleException.REJECTED_BY_HOOK);
+            }
+            hook.unregister();
+            assertThat(installed).isEmpty();
+            assertThat(felix.getBundleContext().getBundles()).hasSize(12);
+            for (String location : bundles.keySet())
+            {
+                if (!location.equals(existing.getLocation()))
+                {
+                    assertThat(felix.getBundleContext().getBundle(location)).isNull();
+                }
+            }
+
+            result.get(0).uninstall();
+            assertThat(felix.getBundleContext().getBundles()).hasSize(11);
+            assertThat(felix.getBundleContext().getBundle(result.get(0).getLocation())).isNull();
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(String bsn, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(("Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-ManifestVersion: 2\n").getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
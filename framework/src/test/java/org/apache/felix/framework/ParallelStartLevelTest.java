@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+class ParallelStartLevelTest
+{
+    private static final long ACTIVATION_MILLIS = 1000;
+
+    @Test
+    void startBundlesOfStartLevelInParallel() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM_PROP, "4");
+
+        Felix felix = new Felix(params);
+        felix.init();
+        felix.start();
+        try
+        {
+            List<Bundle> bundles = new ArrayList<>();
+            for (int i = 0; i < 5; i++)
+            {
+                String mf = "Bundle-SymbolicName: slow" + i + "\n"
+                    + "Bundle-ManifestVersion: 2\n"
+                    + "Import-Package: org.osgi.framework\n"
+                    + "Manifest-Version: 1.0\n"
+                    + "Bundle-Activator: " + SlowActivator.class.getName() + "\n\n";
+                Bundle bundle = felix.getBundleContext().installBundle(
+                    createBundle(mf, cacheDir, SlowActivator.class).toURI().toString());
+                bundle.adapt(BundleStartLevel.class).setStartLevel((i < 4) ? 2 : 3);
+                bundle.start();
+                bundles.add(bundle);
+            }
+
+            final List<Bundle> started = Collections.synchronizedList(new ArrayList<Bundle>());
+            // Counts the bundles between their STARTING and STARTED events,
+            // which are fired before and after calling their activator.
+            final AtomicInteger starting = new AtomicInteger();
+            final AtomicInteger maxStarting = new AtomicInteger();
+            felix.getBundleContext().addBundleListener(new SynchronousBundleListener()
+            {
+                @Override
+                public void bundleChanged(BundleEvent event)
+                {
+                    if (event.getType() == BundleEvent.STARTING)
+                    {
+                        maxStarting.accumulateAndGet(starting.incrementAndGet(), Math::max);
+                    }
+                    else if (event.getType() == BundleEvent.STARTED)
+                    {
+                        starting.decrementAndGet();
+                        started.add(event.getBundle());
+                    }
+                }
+            });
+            final CountDownLatch changed = new CountDownLatch(1);
+            final List<Bundle> startedWhenChanged = new ArrayList<>();
+
+            felix.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                @Override
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.STARTLEVEL_CHANGED)
+                    {
+                        startedWhenChanged.addAll(started);
+                        changed.countDown();
+                    }
+                }
+            });
+            assertThat(changed.await(30, TimeUnit.SECONDS)).isTrue();
+
+            // The bundles of level 2 are started in parallel, the one of
+            // level 3 only after all of them.
+            assertThat(maxStarting.get()).isGreaterThan(1);
+            assertThat(startedWhenChanged).hasSize(5);
+            assertThat(startedWhenChanged.subList(0, 4))
+                .containsExactlyInAnyOrderElementsOf(bundles.subList(0, 4));
+            assertThat(startedWhenChanged.get(4)).isSameAs(bundles.get(4));
+            for (Bundle bundle : bundles)
+            {
+                assertThat(bundle.getState()).isEqualTo(Bundle.ACTIVE);
+            }
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            delete(cacheDir);
+        }
+    }
+
+    public static final class SlowActivator implements BundleActivator
+    {
+        @Override
+        public void start(BundleContext context) throws Exception
+        {
+            Thread.sleep(ACTIVATION_MILLIS);
+        }
+
+        @Override
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+
+    private static File createBundle(String manifest, File tempDir, Class<?>... classes) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        for (Class<?> clazz : classes)
+        {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry(path));
+
+            InputStream is = clazz.getClassLoader().getResourceAsStream(path);
+            byte[] buffer = new byte[8 * 1024];
+            for (int i = is.read(buffer); i != -1; i = is.read(buffer))
+            {
+                os.write(buffer, 0, i);
+            }
+            is.close();
+            os.closeEntry();
+        }
+        os.close();
+        return f;
+    }
+
+    private static void delete(File file) throws IOException
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+class ResolutionSnapshotTest
+{
+    @Test
+    void restoreWiringsOnRestart() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+        params.put(FelixConstants.RESOLVER_SNAPSHOT_PROP, "true");
+
+        try
+        {
+            List<String> expectedWires;
+            Felix felix = new Felix(params);
+            felix.init();
+            felix.start();
+            try
+            {
+                install(felix, cacheDir, "provider",
+                    "Export-Package: org.example.api\n");
+                install(felix, cacheDir, "fragment",
+                    "Fragment-Host: provider\n"
+                    + "Export-Package: org.example.impl\n");
+                install(felix, cacheDir, "consumer",
+                    "Import-Package: org.example.api, org.example.impl, org.osgi.framework\n"
+                    + "Require-Bundle: provider\n");
+                install(felix, cacheDir, "unresolved",
+                    "Import-Package: org.example.missing\n");
+                felix.adapt(FrameworkWiring.class).resolveBundles(null);
+                expectedWires = getWires(felix);
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+
+            // The wirings are restored before any bundle is started.
+            felix = new Felix(params);
+            felix.init();
+            try
+            {
+                assertThat(getStates(felix)).containsExactly(
+                    Bundle.STARTING, Bundle.RESOLVED, Bundle.RESOLVED,
+                    Bundle.RESOLVED, Bundle.INSTALLED);
+                assertThat(getWires(felix)).isEqualTo(expectedWires);
+                assertThat(felix.getBundleContext().getBundle(3).loadClass(
+                    Bundle.class.getName())).isSameAs(Bundle.class);
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+
+            // A change of the system packages falls back to resolving.
+            params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.5.0");
+            felix = new Felix(params);
+            felix.init();
+            try
+            {
+                assertThat(getStates(felix)).containsExactly(
+                    Bundle.STARTING, Bundle.INSTALLED, Bundle.INSTALLED,
+                    Bundle.INSTALLED, Bundle.INSTALLED);
+                felix.adapt(FrameworkWiring.class).resolveBundles(null);
+                assertThat(getWires(felix)).isEqualTo(expectedWires);
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+        }
+        finally
+        {
+            delete(cacheDir);
+        }
+    }
+
+    @Test
+    void noSnapshotWithResolverHooks() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.4.0");
+        params.put(FelixConstants.RESOLVER_SNAPSHOT_PROP, "true");
+
+        try
+        {
+            Felix felix = new Felix(params);
+            felix.init();
+            felix.start();
+            try
+            {
+                felix.getBundleContext().registerService(ResolverHookFactory.class,
+                    new ResolverHookFactory()
+                    {
+                        @Override
+                        public ResolverHook begin(Collection<BundleRevision> triggers)
+                        {
+                            return new ResolverHook()
+                            {
+                                @Override
+                                public void filterResolvable(Collection<BundleRevision> candidates)
+                                {
+                                }
+
+                                @Override
+                                public void filterSingletonCollisions(
+                                    BundleCapability singleton, Collection<BundleCapability> candidates)
+                                {
+                                }
+
+                                @Override
+                                public void filterMatches(
+                                    BundleRequirement requirement, Collection<BundleCapability> candidates)
+                                {
+                                }
+
+                                @Override
+                                public void end()
+                                {
+                                }
+                            };
+                        }
+                    }, null);
+                install(felix, cacheDir, "provider",
+                    "Export-Package: org.example.api\n");
+                felix.adapt(FrameworkWiring.class).resolveBundles(null);
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+            assertThat(new File(new File(cacheDir, "bundle0"),
+                ResolutionSnapshot.SNAPSHOT_FILE)).doesNotExist();
+
+            // The hook is not registered yet when the framework is
+            // initialized, so the wirings are resolved anew.
+            felix = new Felix(params);
+            felix.init();
+            try
+            {
+                assertThat(getStates(felix)).containsExactly(
+                    Bundle.STARTING, Bundle.INSTALLED);
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+        }
+        finally
+        {
+            delete(cacheDir);
+        }
+    }
+
+    private static List<Integer> getStates(Felix felix)
+    {
+        List<Integer> states = new ArrayList<>();
+        for (Bundle bundle : felix.getBundleContext().getBundles())
+        {
+            states.add(bundle.getState());
+        }
+        return states;
+    }
+
+    private static List<String> getWires(Felix felix)
+    {
+        List<String> wires = new ArrayList<>();
+        for (Bundle bundle : felix.getBundleContext().getBundles())
+        {
+            BundleWiring wiring = bundle.adapt(BundleRevision.class).getWiring();
+            if ((bundle.getBundleId() == 0) || (wiring == null))
+            {
+                continue;
+            }
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                wires.add(bundle.getSymbolicName() + " -> "
+                    + wire.getProvider().getSymbolicName() + " "
+                    + wire.getCapability().getNamespace() + " "
+                    + wire.getCapability().getAttributes().get(wire.getCapability().getNamespace()));
+            }
+        }
+        String[] sorted = wires.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static Bundle install(Felix felix, File dir, String bsn, String headers) throws Exception
+    {
+        String mf = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + headers
+            + "Manifest-Version: 1.0\n\n";
+        File f = new File(dir, bsn + ".jar");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f),
+            new Manifest(new ByteArrayInputStream(mf.getBytes("utf-8"))));
+        os.close();
+        return felix.getBundleContext().installBundle(f.toURI().toString());
+    }
+
+    private static void delete(File file) throws IOException
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.util.ListenerInfo;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+class ServiceListenerIndexTest
+{
+    @Test
+    void extractObjectClasses() throws Exception
+    {
+        assertThat(ServiceListenerIndex.getObjectClasses(info("(objectClass=a.A)")))
+            .containsExactly("a.A");
+        assertThat(ServiceListenerIndex.getObjectClasses(info("(OBJECTCLASS=a.A)")))
+            .containsExactly("a.A");
+        assertThat(ServiceListenerIndex.getObjectClasses(
+            info("(&(foo=bar)(objectClass=a.A))"))).containsExactly("a.A");
+        assertThat(ServiceListenerIndex.getObjectClasses(
+            info("(|(objectClass=a.A)(objectClass=b.B))")))
+            .containsExactlyInAnyOrder("a.A", "b.B");
+
+        assertThat(ServiceListenerIndex.getObjectClasses(info(null))).isNull();
+        assertThat(ServiceListenerIndex.getObjectClasses(info("(foo=bar)"))).isNull();
+        assertThat(ServiceListenerIndex.getObjectClasses(info("(objectClass=a.*)"))).isNull();
+        assertThat(ServiceListenerIndex.getObjectClasses(
+            info("(!(objectClass=a.A))"))).isNull();
+        assertThat(ServiceListenerIndex.getObjectClasses(
+            info("(|(objectClass=a.A)(foo=bar))"))).isNull();
+    }
+
+    @Test
+    void unfilteredListenerIsNotIndexed() throws Exception
+    {
+        BundleContext bc = getMockContext();
+        ListenerInfo info = new ListenerInfo(bc.getBundle(), bc, ServiceListener.class,
+            Mockito.mock(UnfilteredServiceListener.class),
+            FrameworkUtil.createFilter("(objectClass=a.A)"), null, false);
+        assertThat(ServiceListenerIndex.getObjectClasses(info)).isNull();
+    }
+
+    @Test
+    void getListeners() throws Exception
+    {
+        ListenerInfo a = info("(objectClass=a.A)");
+        ListenerInfo ab = info("(|(objectClass=a.A)(objectClass=b.B))");
+        ListenerInfo all = info(null);
+        ServiceListenerIndex index = ServiceListenerIndex.EMPTY.add(a).add(ab).add(all);
+
+        assertThat(flatten(index.getListeners(ref("a.A", "b.B")))).containsExactlyInAnyOrder(a, ab, all);
+        assertThat(flatten(index.getListeners(ref("b.B")))).containsExactlyInAnyOrder(ab, all);
+        assertThat(flatten(index.getListeners(ref("c.C")))).containsExactly(all);
+        assertThat(flatten(index.getListeners(ref()))).containsExactlyInAnyOrder(a, ab, all);
+
+        index = index.remove(ab);
+        assertThat(flatten(index.getListeners(ref("b.B")))).containsExactly(all);
+
+        index = index.removeAll(a.getBundleContext()).removeAll(all.getBundleContext());
+        assertThat(index.getListeners(ref("a.A", "b.B"))).isEmpty();
+    }
+
+    @Test
+    void getListenersInRegistrationOrder() throws Exception
+    {
+        BundleContext bc = getMockContext();
+        ListenerInfo all1 = info(bc, null);
+        ListenerInfo a = info(bc, "(objectClass=a.A)");
+        ListenerInfo all2 = info(bc, "(foo=bar)");
+        ListenerInfo b = info(bc, "(objectClass=b.B)");
+        ServiceListenerIndex index = ServiceListenerIndex.EMPTY.add(all1).add(a).add(all2).add(b);
+
+        assertThat(index.getListeners(ref("a.A")).get(bc)).containsExactly(all1, a, all2);
+        assertThat(index.getListeners(ref("b.B", "a.A")).get(bc)).containsExactly(all1, a, all2, b);
+        assertThat(index.getListeners(ref("c.C")).get(bc)).containsExactly(all1, all2);
+        // The candidates are only computed once per object class.
+        assertThat(index.getListeners(ref("a.A"))).isSameAs(index.getListeners(ref("a.A")));
+
+        // Updating the filter keeps the position of the listener.
+        ListenerInfo c = info(bc, "(objectClass=c.C)");
+        ListenerInfo all3 = info(bc, null);
+        index = index.replace(a, c).replace(b, all3);
+        assertThat(index.getListeners(ref("a.A")).get(bc)).containsExactly(all1, all2, all3);
+        assertThat(index.getListeners(ref("c.C")).get(bc)).containsExactly(all1, c, all2, all3);
+        assertThat(index.getListeners(ref()).get(bc)).containsExactly(all1, c, all2, all3);
+    }
+
+    private static ListenerInfo info(String filter) throws Exception
+    {
+        return info(getMockContext(), filter);
+    }
+
+    private static ListenerInfo info(BundleContext bc, String filter) throws Exception
+    {
+        return new ListenerInfo(bc.getBundle(), bc, ServiceListener.class,
+            Mockito.mock(ServiceListener.class),
+            (filter == null) ? null : new FilterImpl(filter), null, false);
+    }
+
+    private static ServiceReference<?> ref(String... classes)
+    {
+        ServiceReference<?> sr = Mockito.mock(ServiceReference.class);
+        Mockito.when(sr.getProperty(Constants.OBJECTCLASS))
+            .thenReturn((classes.length == 0) ? null : classes);
+        return sr;
+    }
+
+    private static List<ListenerInfo> flatten(Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        return listeners.values().stream()
+            .flatMap(List::stream)
+            .collect(java.util.stream.Collectors.toList());
+    }
+
+    private static BundleContext getMockContext()
+    {
+        BundleContext bc = Mockito.mock(BundleContext.class);
+        Bundle b = Mockito.mock(Bundle.class);
+        Mockito.when(b.getBundleContext()).thenReturn(bc);
+        Mockito.when(bc.getBundle()).thenReturn(b);
+        return bc;
+    }
+}
@@ -42,6 +42,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.junit.jupiter.api.Test;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -50,6 +51,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.PrototypeServiceFactory;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
@@ -332,6 +334,45 @@ class ServiceRegistryTest
         assertThat(sr.getHookRegistry().getHooks(ListenerHook.class).size()).as("Unregistration should have no effect").isEqualTo(0);
     }
 
+    @Test
+    void rankedServiceReferences()
+    {
+        Bundle b = mock(Bundle.class);
+
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        ServiceRegistration<?> reg1 = sr.registerService(b,
+            new String [] {String.class.getName()}, "one", new Hashtable<String, Object>());
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(Constants.SERVICE_RANKING, 10);
+        ServiceRegistration<?> reg2 = sr.registerService(b,
+            new String [] {String.class.getName(), CharSequence.class.getName()}, "two", props);
+        ServiceRegistration<?> reg3 = sr.registerService(b,
+            new String [] {String.class.getName()}, "three", new Hashtable<String, Object>());
+
+        assertThat(sr.getRankedServiceReferences(String.class.getName())).containsExactly(
+            reg2.getReference(), reg1.getReference(), reg3.getReference());
+        assertThat(sr.getRankedServiceReferences(CharSequence.class.getName())).containsExactly(
+            reg2.getReference());
+        assertThat(sr.getServiceReferences(null, null)).containsExactly(
+            reg2.getReference(), reg1.getReference(), reg3.getReference());
+
+        props = new Hashtable<>();
+        props.put(Constants.SERVICE_RANKING, 20);
+        reg3.setProperties(props);
+        assertThat(sr.getRankedServiceReferences(String.class.getName())).containsExactly(
+            reg3.getReference(), reg2.getReference(), reg1.getReference());
+        assertThat(sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(" + Constants.SERVICE_RANKING + ">=10)"))).containsExactly(
+            reg3.getReference(), reg2.getReference());
+
+        ServiceReference<?> ref2 = reg2.getReference();
+        sr.unregisterService(b, reg2);
+        assertThat(sr.getRankedServiceReferences(String.class.getName())).containsExactly(
+            reg3.getReference(), reg1.getReference());
+        assertThat(sr.getRankedServiceReferences(CharSequence.class.getName())).isEmpty();
+        assertThat(sr.getServiceReferences(null, null)).doesNotContain(ref2);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void getService()
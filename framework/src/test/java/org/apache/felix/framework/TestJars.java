@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates the cache directories and bundle jars used by framework tests.
+**/
+final class TestJars
+{
+    private TestJars()
+    {
+    }
+
+    static File createCacheDir() throws IOException
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        return cacheDir;
+    }
+
+    static String getPath(Class<?> clazz)
+    {
+        return clazz.getName().replace('.', '/') + ".class";
+    }
+
+    static byte[] getBytes(Class<?> clazz) throws IOException
+    {
+        InputStream is = clazz.getClassLoader().getResourceAsStream(getPath(clazz));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        for (int i = is.read(buffer); i != -1; i = is.read(buffer))
+        {
+            out.write(buffer, 0, i);
+        }
+        is.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a jar with the given entries.
+     * @param manifest the manifest or <tt>null</tt> for a jar without one.
+     * @param entries the contents by entry name.
+     * @return the bytes of the jar.
+    **/
+    static byte[] createJar(String manifest, Map<String, byte[]> entries) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JarOutputStream os = (manifest != null)
+            ? new JarOutputStream(out, new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8"))))
+            : new JarOutputStream(out);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+        {
+            os.putNextEntry(new ZipEntry(entry.getKey()));
+            os.write(entry.getValue());
+            os.closeEntry();
+        }
+        os.close();
+        return out.toByteArray();
+    }
+
+    static void delete(File file) throws IOException
+    {
+        if (file.isDirectory())
+        {
+            for (File child : file.listFiles())
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.framework.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+class JournalBundleInfoStoreTest
+{
+    private File tempDir;
+    private File cacheDir;
+    private File journalFile;
+    private String location;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(tempDir.delete()).as("precondition").isTrue();
+        assertThat(tempDir.mkdirs()).as("precondition").isTrue();
+        cacheDir = new File(tempDir, "felix-cache");
+        journalFile = new File(cacheDir, JournalBundleInfoStore.JOURNAL_FILE);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "journal");
+        File jar = new File(tempDir, "journal.jar");
+        new JarOutputStream(new FileOutputStream(jar), manifest).close();
+        location = jar.toURI().toURL().toString();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        assertThat(BundleCache.deleteDirectoryTree(tempDir)).isTrue();
+    }
+
+    @Test
+    void journalReplacesBundleInfoFiles() throws Exception
+    {
+        BundleCache cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        BundleArchive archive = cache.create(1, 1, location, null, null);
+        archive.setStartLevel(5);
+        archive.setPersistentState(Bundle.ACTIVE);
+        cache.create(2, 1, location, null, null).closeAndDelete();
+        cache.release();
+
+        assertThat(journalFile).isFile();
+        assertThat(new File(cacheDir, "bundle1/" + BundleInfoStore.BUNDLE_INFO_FILE)).doesNotExist();
+
+        cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        BundleArchive[] archives = cache.getArchives(null);
+        assertThat(archives).hasSize(1);
+        assertBundleInfo(archives[0], 1, 5, Bundle.ACTIVE);
+        cache.release();
+    }
+
+    @Test
+    void switchBetweenFilesAndJournal() throws Exception
+    {
+        BundleCache cache = createCache(null);
+        cache.create(1, 3, location, null, null);
+        cache.release();
+
+        // The bundle.info file is imported into the journal.
+        cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        BundleArchive[] archives = cache.getArchives(null);
+        assertBundleInfo(archives[0], 1, 3, Bundle.INSTALLED);
+        archives[0].setStartLevel(4);
+        cache.release();
+        assertThat(new File(cacheDir, "bundle1/" + BundleInfoStore.BUNDLE_INFO_FILE)).doesNotExist();
+
+        // The bundle.info file is written from the journal again.
+        cache = createCache(BundleCache.CACHE_METADATA_FILE);
+        assertThat(journalFile).doesNotExist();
+        archives = cache.getArchives(null);
+        assertBundleInfo(archives[0], 1, 4, Bundle.INSTALLED);
+        cache.release();
+    }
+
+    @Test
+    void compactAndDiscardIncompleteRecords() throws Exception
+    {
+        BundleCache cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        BundleArchive archive = cache.create(1, 1, location, null, null);
+        long length = 0;
+        for (int i = 2; i < 5000; i++)
+        {
+            archive.setStartLevel(i);
+            length = Math.max(length, journalFile.length());
+        }
+        cache.release();
+        // The journal never holds more than a few thousand records.
+        assertThat(length).isLessThan(4096 * 64);
+
+        FileOutputStream out = new FileOutputStream(journalFile, true);
+        out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3 });
+        out.close();
+
+        cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        BundleArchive[] archives = cache.getArchives(null);
+        assertBundleInfo(archives[0], 1, 4999, Bundle.INSTALLED);
+        archives[0].setStartLevel(6000);
+        cache.release();
+
+        cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        archives = cache.getArchives(null);
+        assertBundleInfo(archives[0], 1, 6000, Bundle.INSTALLED);
+        cache.release();
+    }
+
+    @Test
+    void corruptedJournalKeepsArchives() throws Exception
+    {
+        BundleCache cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        cache.create(1, 1, location, null, null);
+        cache.create(2, 1, location, null, null);
+        cache.release();
+        byte[] journal = Files.readAllBytes(journalFile.toPath());
+
+        // A record in the middle of the journal is corrupted.
+        byte[] corrupted = journal.clone();
+        corrupted[12] ^= 1;
+        Files.write(journalFile.toPath(), corrupted);
+        assertCacheFails();
+
+        // The journal has an unsupported header.
+        corrupted = journal.clone();
+        corrupted[0] = 1;
+        Files.write(journalFile.toPath(), corrupted);
+        assertCacheFails();
+
+        // The archives are available again once the journal is repaired.
+        Files.write(journalFile.toPath(), journal);
+        cache = createCache(BundleCache.CACHE_METADATA_JOURNAL);
+        assertThat(cache.getArchives(null)).hasSize(2);
+        cache.release();
+    }
+
+    private void assertCacheFails() throws Exception
+    {
+        try
+        {
+            createCache(BundleCache.CACHE_METADATA_JOURNAL).release();
+            fail("Loading a corrupted journal should fail");
+        }
+        catch (Exception ex)
+        {
+            assertThat(ex.getMessage()).contains("Unable to load bundle journal");
+        }
+        assertThat(new File(cacheDir, "bundle1")).isDirectory();
+        assertThat(new File(cacheDir, "bundle2")).isDirectory();
+    }
+
+    @Test
+    void syncWithoutFurtherChanges() throws Exception
+    {
+        BundleCache cache = createCache(null);
+        cache.create(1, 3, location, null, null);
+        cache.create(2, 4, location, null, null);
+        cache.release();
+
+        // The imported bundle.info files are deleted once the journal was
+        // synced, which happens without any further change.
+        File infoFile1 = new File(cacheDir, "bundle1/" + BundleInfoStore.BUNDLE_INFO_FILE);
+        File infoFile2 = new File(cacheDir, "bundle2/" + BundleInfoStore.BUNDLE_INFO_FILE);
+        JournalBundleInfoStore store = new JournalBundleInfoStore(new Logger(), journalFile, 100);
+        try
+        {
+            assertThat(store.read(new File(cacheDir, "bundle1")).getStartLevel()).isEqualTo(3);
+            assertThat(store.read(new File(cacheDir, "bundle2")).getStartLevel()).isEqualTo(4);
+            for (int i = 0; (i < 100) && infoFile2.exists(); i++)
+            {
+                Thread.sleep(50);
+            }
+            assertThat(infoFile1).doesNotExist();
+            assertThat(infoFile2).doesNotExist();
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    private void assertBundleInfo(BundleArchive archive, long id, int startLevel, int state)
+        throws Exception
+    {
+        assertThat(archive.getId()).isEqualTo(id);
+        assertThat(archive.getLocation()).isEqualTo(location);
+        assertThat(archive.getStartLevel()).isEqualTo(startLevel);
+        assertThat(archive.getPersistentState()).isEqualTo(state);
+        assertThat(archive.getCurrentRevision().getManifestHeader())
+            .containsEntry(Constants.BUNDLE_SYMBOLICNAME, "journal");
+    }
+
+    private BundleCache createCache(String metadata) throws Exception
+    {
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        if (metadata != null)
+        {
+            params.put(BundleCache.CACHE_METADATA_PROP, metadata);
+        }
+        params.put(BundleCache.CACHE_JOURNAL_SYNCINTERVAL_PROP, "0");
+        return new BundleCache(new Logger()
+        {
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable)
+            {
+            }
+        }, params);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MappedJarContentTest
+{
+    private static final String[] NAMES = {
+        "META-INF/", "META-INF/MANIFEST.MF", "org/", "org/example/",
+        "org/example/Stored.class", "org/example/deflated.txt",
+        "org/example/empty.txt", "lib/inner.jar", "dir/", "ä/ö.txt" };
+
+    private final Logger m_logger = new Logger()
+    {
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+        }
+    };
+    private File tempDir;
+    private File jarFile;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(tempDir.delete()).as("precondition").isTrue();
+        assertThat(tempDir.mkdirs()).as("precondition").isTrue();
+
+        Map<String, byte[]> inner = new HashMap<>();
+        inner.put("inner.txt", "inner".getBytes("UTF-8"));
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++)
+        {
+            deflated.write(("line " + i + "\n").getBytes("UTF-8"));
+        }
+
+        jarFile = new File(tempDir, "content.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jarFile));
+        for (String name : NAMES)
+        {
+            byte[] data;
+            boolean stored = false;
+            if (name.endsWith("/"))
+            {
+                data = new byte[0];
+            }
+            else if (name.equals("org/example/deflated.txt"))
+            {
+                data = deflated.toByteArray();
+            }
+            else if (name.equals("lib/inner.jar"))
+            {
+                data = createJar(inner);
+                stored = true;
+            }
+            else
+            {
+                data = name.getBytes("UTF-8");
+                stored = name.endsWith(".class") || name.endsWith("empty.txt");
+                if (name.endsWith("empty.txt"))
+                {
+                    data = new byte[0];
+                }
+            }
+            out.putNextEntry(createEntry(name, data, stored));
+            out.write(data);
+            out.closeEntry();
+        }
+        out.setComment("trailing comment");
+        out.close();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        assertThat(BundleCache.deleteDirectoryTree(tempDir)).isTrue();
+    }
+
+    @Test
+    void sameContentAsJarContent() throws Exception
+    {
+        WeakZipFileFactory zipFactory = new WeakZipFileFactory(0);
+        Map<String, String> configMap = Collections.singletonMap(
+            BundleCache.CACHE_MMAP_PROP, "true");
+        File zipRoot = new File(tempDir, "zip");
+        File mappedRoot = new File(tempDir, "mapped");
+        JarContent expected = new JarContent(m_logger, configMap, zipFactory,
+            this, zipRoot, jarFile, null);
+        JarContent actual = JarContent.create(m_logger, configMap, zipFactory,
+            this, mappedRoot, jarFile);
+        assertThat(actual).isInstanceOf(MappedJarContent.class);
+
+        assertThat(Collections.list(actual.getEntries()))
+            .containsExactlyElementsOf(Collections.list(expected.getEntries()));
+        for (String name : new String[] { "org", "org/example", "dir", "missing",
+            "org/example/Stored", "ä/ö.txt", "" })
+        {
+            assertThat(actual.hasEntry(name)).as(name).isEqualTo(expected.hasEntry(name));
+            assertThat(actual.isDirectory(name)).as(name).isEqualTo(expected.isDirectory(name));
+        }
+        for (String name : NAMES)
+        {
+            assertThat(actual.hasEntry(name)).as(name).isTrue();
+            assertThat(actual.isDirectory(name)).as(name).isEqualTo(expected.isDirectory(name));
+            assertThat(actual.getEntryAsBytes(name)).as(name)
+                .isEqualTo(expected.getEntryAsBytes(name));
+            assertThat(read(actual.getEntryAsStream(name))).as(name)
+                .isEqualTo(read(expected.getEntryAsStream(name)));
+            assertThat(actual.getContentTime(name)).as(name)
+                .isEqualTo(expected.getContentTime(name));
+        }
+        assertThat(actual.getEntryAsBytes("missing")).isNull();
+        assertThat(actual.getEntryAsStream("missing")).isNull();
+
+        // Stored entries are served from the mapping.
+        ByteBuffer stored = ((MappedJarContent) actual).getEntryAsByteBuffer(
+            "org/example/Stored.class");
+        assertThat(stored.isDirect()).isTrue();
+        assertThat(stored.isReadOnly()).isTrue();
+        assertThat(stored.remaining()).isEqualTo("org/example/Stored.class".length());
+        ByteBuffer deflated = ((MappedJarContent) actual).getEntryAsByteBuffer(
+            "org/example/deflated.txt");
+        assertThat(deflated.isDirect()).isFalse();
+
+        // Embedded JAR files are mapped as well.
+        Content inner = actual.getEntryAsContent("lib/inner.jar");
+        assertThat(inner).isInstanceOf(MappedJarContent.class);
+        assertThat(inner.getEntryAsBytes("inner.txt")).isEqualTo("inner".getBytes("UTF-8"));
+        inner.close();
+
+        Content self = actual.getEntryAsContent(".");
+        assertThat(self).isInstanceOf(MappedJarContent.class);
+        self.close();
+        assertThat(actual.hasEntry("org/example/Stored.class")).isTrue();
+
+        actual.close();
+        expected.close();
+        assertThat(actual.hasEntry("org/example/Stored.class")).isFalse();
+    }
+
+    @Test
+    void fallBackToZipFile() throws Exception
+    {
+        File invalid = new File(tempDir, "invalid.jar");
+        FileOutputStream out = new FileOutputStream(invalid);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        try
+        {
+            MappedJarFile.open(invalid);
+            throw new AssertionError("Expected exception");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+        Map<String, String> configMap = Collections.singletonMap(
+            BundleCache.CACHE_MMAP_PROP, "false");
+        JarContent content = JarContent.create(m_logger, configMap,
+            new WeakZipFileFactory(0), this, tempDir, jarFile);
+        assertThat(content instanceof MappedJarContent).isFalse();
+        content.close();
+    }
+
+    private static ZipEntry createEntry(String name, byte[] data, boolean stored)
+    {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(1500000000000L);
+        if (stored || name.endsWith("/"))
+        {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        return entry;
+    }
+
+    private static byte[] createJar(Map<String, byte[]> entries) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+        {
+            out.putNextEntry(new ZipEntry(entry.getKey()));
+            out.write(entry.getValue());
+            out.closeEntry();
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        for (int i = in.read(buffer); i != -1; i = in.read(buffer))
+        {
+            out.write(buffer, 0, i);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
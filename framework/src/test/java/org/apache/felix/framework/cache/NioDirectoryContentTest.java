@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NioDirectoryContentTest
+{
+    private static final String[] NAMES = {
+        "META-INF/", "META-INF/MANIFEST.MF", "org/", "org/example/",
+        "org/example/Test.class", "org/example/empty.txt", "classes/",
+        "classes/org/", "classes/org/Inner.class", "dir/" };
+
+    private final Logger m_logger = new Logger()
+    {
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+        }
+    };
+    private File tempDir;
+    private File bundleDir;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(tempDir.delete()).as("precondition").isTrue();
+        assertThat(tempDir.mkdirs()).as("precondition").isTrue();
+
+        bundleDir = new File(tempDir, "bundle");
+        for (String name : NAMES)
+        {
+            File file = new File(bundleDir, name);
+            if (name.endsWith("/"))
+            {
+                assertThat(file.mkdirs()).as("precondition").isTrue();
+            }
+            else
+            {
+                write(file, name.endsWith("empty.txt") ? "" : name);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        assertThat(BundleCache.deleteDirectoryTree(tempDir)).isTrue();
+    }
+
+    @Test
+    void sameContentAsDirectoryContent() throws Exception
+    {
+        WeakZipFileFactory zipFactory = new WeakZipFileFactory(0);
+        Map<String, String> configMap = Collections.singletonMap(
+            BundleCache.CACHE_DIRTREE_PROP, "true");
+        DirectoryContent expected = new DirectoryContent(m_logger, configMap, zipFactory,
+            this, tempDir, bundleDir);
+        DirectoryContent actual = DirectoryContent.create(m_logger, configMap, zipFactory,
+            this, tempDir, bundleDir);
+        assertThat(actual).isInstanceOf(NioDirectoryContent.class);
+
+        assertSameContent(expected, actual, NAMES);
+
+        Content expectedSub = expected.getEntryAsContent("classes/");
+        Content actualSub = actual.getEntryAsContent("classes/");
+        assertThat(actualSub).isInstanceOf(NioDirectoryContent.class);
+        assertSameContent(expectedSub, actualSub, new String[] {
+            "org/", "org/Inner.class", "Inner.class", "classes/" });
+        assertThat(actual.getEntryAsContent("missing/")).isNull();
+        assertThat(actual.getEntryAsContent(".")).isInstanceOf(NioDirectoryContent.class);
+
+        actual.close();
+        expected.close();
+    }
+
+    @Test
+    void updatedWhenWatched() throws Exception
+    {
+        Map<String, String> configMap = Collections.singletonMap(
+            BundleCache.CACHE_DIRTREE_PROP, "watch");
+        DirectoryContent content = DirectoryContent.create(m_logger, configMap,
+            new WeakZipFileFactory(0), this, tempDir, bundleDir);
+        try
+        {
+            assertThat(content.hasEntry("org/example/Added.class")).isFalse();
+
+            write(new File(bundleDir, "org/example/Added.class"), "added");
+            for (int i = 0; (i < 100) && !content.hasEntry("org/example/Added.class"); i++)
+            {
+                Thread.sleep(100);
+            }
+            assertThat(content.hasEntry("org/example/Added.class")).isTrue();
+            assertThat(new String(content.getEntryAsBytes("org/example/Added.class"), "UTF-8"))
+                .isEqualTo("added");
+        }
+        finally
+        {
+            content.close();
+        }
+    }
+
+    @Test
+    void notUpdatedWhenNotWatched() throws Exception
+    {
+        Map<String, String> configMap = Collections.singletonMap(
+            BundleCache.CACHE_DIRTREE_PROP, "true");
+        DirectoryContent content = DirectoryContent.create(m_logger, configMap,
+            new WeakZipFileFactory(0), this, tempDir, bundleDir);
+        assertThat(content.hasEntry("org/example/Test.class")).isTrue();
+
+        // Only a new revision sees the change.
+        write(new File(bundleDir, "org/example/Added.class"), "added");
+        assertThat(content.hasEntry("org/example/Added.class")).isFalse();
+        content.close();
+
+        content = DirectoryContent.create(m_logger, configMap,
+            new WeakZipFileFactory(0), this, tempDir, bundleDir);
+        assertThat(content.hasEntry("org/example/Added.class")).isTrue();
+        content.close();
+    }
+
+    private static void assertSameContent(Content expected, Content actual, String[] names)
+        throws Exception
+    {
+        assertThat(sorted(Collections.list(actual.getEntries())))
+            .isEqualTo(sorted(Collections.list(expected.getEntries())));
+        for (String name : names)
+        {
+            assertThat(actual.hasEntry(name)).as(name).isEqualTo(expected.hasEntry(name));
+            assertThat(actual.isDirectory(name)).as(name).isEqualTo(expected.isDirectory(name));
+            assertThat(actual.getContentTime(name)).as(name)
+                .isEqualTo(expected.getContentTime(name));
+            if (!name.endsWith("/"))
+            {
+                assertThat(actual.getEntryAsBytes(name)).as(name)
+                    .isEqualTo(expected.getEntryAsBytes(name));
+                assertThat(actual.hasEntry(name + "/")).as(name)
+                    .isEqualTo(expected.hasEntry(name + "/"));
+            }
+        }
+        assertThat(actual.hasEntry("missing")).isFalse();
+        assertThat(actual.getEntryAsBytes("missing")).isNull();
+    }
+
+    private static List<String> sorted(List<String> list)
+    {
+        List<String> result = new ArrayList<>(list);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void write(File file, String content) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+
+class CapabilitySetTest
+{
+    private static final String[] FILTERS = {
+        "(osgi.wiring.package=p1)",
+        "(&(osgi.wiring.package=p1)(version>=1.5.0))",
+        "(&(osgi.wiring.package=p1)(version>=1.0.0)(!(version>=2.0.0)))",
+        "(&(osgi.wiring.package=p1)(!(version<=1.0.0))(version<=2.0.0))",
+        "(&(osgi.wiring.package=p2)(version>=1.0.0)(!(version>=2.0.0)))",
+        "(&(osgi.wiring.package=p1)(version=[1.0.0,2.0.0\\)))",
+        "(&(osgi.wiring.package=p1)(version>=foo))",
+        "(&(osgi.wiring.package=p1)(x=y))",
+        "(&(osgi.wiring.package=p3)(version>=1.0.0))",
+        "(&(x=y)(osgi.wiring.package=p1))",
+        "(|(osgi.wiring.package=p1)(osgi.wiring.package=p2))"
+    };
+
+    @Test
+    void indexedMatchesEqualUnindexedMatches()
+    {
+        List<String[]> compound = new ArrayList<>();
+        compound.add(new String[] { BundleRevision.PACKAGE_NAMESPACE, "version" });
+        CapabilitySet indexed = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE), compound, true);
+        CapabilitySet unindexed = new CapabilitySet(null, true);
+
+        List<BundleCapability> caps = new ArrayList<>();
+        caps.add(cap("p1", new Version(1, 0, 0), null));
+        caps.add(cap("p1", new Version(1, 5, 0), "y"));
+        caps.add(cap("p1", new Version(2, 0, 0), null));
+        caps.add(cap("p1", null, "y"));
+        caps.add(cap("p2", new Version(1, 2, 0), null));
+        caps.add(cap("p2", "1.2.0", null));
+        for (BundleCapability cap : caps)
+        {
+            indexed.addCapability(cap);
+            unindexed.addCapability(cap);
+        }
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertThat(indexed.match(sf, false)).as(filter)
+                .containsExactlyInAnyOrderElementsOf(unindexed.match(sf, false));
+        }
+
+        indexed.removeCapability(caps.get(1));
+        unindexed.removeCapability(caps.get(1));
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertThat(indexed.match(sf, false)).as(filter)
+                .containsExactlyInAnyOrderElementsOf(unindexed.match(sf, false));
+        }
+    }
+
+    private static BundleCapability cap(String pkg, Object version, String x)
+    {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put(BundleRevision.PACKAGE_NAMESPACE, pkg);
+        if (version != null)
+        {
+            attrs.put("version", version);
+        }
+        if (x != null)
+        {
+            attrs.put("x", x);
+        }
+        return new BundleCapabilityImpl(null, BundleRevision.PACKAGE_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+
+class CompiledFilterTest
+{
+    private static final String[] FILTERS = {
+        "(a=1)",
+        "(a>=2)",
+        "(a<= 3 )",
+        "(a~=FOO)",
+        "(a=f*o)",
+        "(a=*)",
+        "(!(a=1))",
+        "(&(a=1)(b=true))",
+        "(|(a=1)(b=false))",
+        "(version>=1.2.0)",
+        "(version=[1.0.0,2.0.0\\))",
+        "(version<=1.2.0)",
+        "(b=true)",
+        "(b= true )",
+        "(a=foo)"
+    };
+
+    @Test
+    void compiledMatchesEqualInterpretedMatches()
+    {
+        List<BundleCapability> caps = new ArrayList<>();
+        caps.add(cap("a", 1, "b", Boolean.TRUE));
+        caps.add(cap("a", 2L, "b", Boolean.FALSE));
+        caps.add(cap("a", 3.0d, "version", new Version(1, 2, 0)));
+        caps.add(cap("a", "1", "version", "1.5.0"));
+        caps.add(cap("a", "foo", "b", "true"));
+        caps.add(cap("a", new String[] { "x", "1" }, "version", new Version(2, 0, 0)));
+        caps.add(cap("a", Arrays.asList(3, 4), "version", Version.emptyVersion));
+        caps.add(cap("a", 'f', "b", null));
+        caps.add(cap("c", "d", "b", null));
+        caps.add(cap("a", new Custom("2"), "b", null));
+        caps.add(cap("a", new Custom("foo"), "b", null));
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            CompiledFilter cf = CompiledFilter.compile(sf);
+            // Match twice to also cover the coerced operands.
+            for (int i = 0; i < 2; i++)
+            {
+                for (BundleCapability cap : caps)
+                {
+                    assertThat(CapabilitySet.matches(cap, cf)).as(filter + " " + cap.getAttributes())
+                        .isEqualTo(CapabilitySet.matches(cap, sf));
+                }
+            }
+        }
+    }
+
+    public static final class Custom implements Comparable<Custom>
+    {
+        private final String m_value;
+
+        public Custom(String value)
+        {
+            m_value = value.trim();
+        }
+
+        @Override
+        public int compareTo(Custom other)
+        {
+            return m_value.compareTo(other.m_value);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return (other instanceof Custom) && m_value.equals(((Custom) other).m_value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_value.hashCode();
+        }
+    }
+
+    private static BundleCapability cap(String k1, Object v1, String k2, Object v2)
+    {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put(k1, v1);
+        if (v2 != null)
+        {
+            attrs.put(k2, v2);
+        }
+        return new BundleCapabilityImpl(null, "test",
+            Collections.<String, String>emptyMap(), attrs);
+    }
+}
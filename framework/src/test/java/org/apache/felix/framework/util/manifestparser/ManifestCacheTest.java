@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+class ManifestCacheTest
+{
+    private File revisionDir;
+    private File cacheFile;
+    private Map<String, Object> config;
+    private Map<String, String> headers;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        revisionDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(revisionDir.delete()).as("precondition").isTrue();
+        assertThat(revisionDir.mkdirs()).as("precondition").isTrue();
+        cacheFile = new File(revisionDir, ManifestCache.CACHE_FILE);
+
+        config = new HashMap<>();
+        config.put(FelixConstants.FELIX_VERSION_PROPERTY, "7.1.0");
+        config.put(FelixConstants.FRAMEWORK_OS_NAME, "linux");
+        config.put(FelixConstants.FRAMEWORK_PROCESSOR, "x86-64");
+        config.put(FelixConstants.FRAMEWORK_OS_VERSION, "5.0.0");
+        config.put(FelixConstants.FRAMEWORK_LANGUAGE, "en");
+
+        headers = new HashMap<>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "cached;singleton:=true");
+        headers.put(Constants.BUNDLE_VERSION, "1.2.3.qualifier");
+        headers.put(Constants.BUNDLE_ACTIVATIONPOLICY, "lazy;include:=\"org.example.a\"");
+        headers.put(Constants.IMPORT_PACKAGE,
+            "org.example.b;version=\"[1.0,2.0)\",org.example.c;resolution:=optional");
+        headers.put(Constants.EXPORT_PACKAGE,
+            "org.example.a;uses:=\"org.example.b,org.example.c\";version=1.1;vendor=acme");
+        headers.put(Constants.DYNAMICIMPORT_PACKAGE, "org.example.dyn.*");
+        headers.put(Constants.PROVIDE_CAPABILITY,
+            "org.example.cap;size:Long=5;weights:List<Double>=\"1.5,2.5\";v:Version=1.2");
+        headers.put(Constants.REQUIRE_CAPABILITY,
+            "org.example.cap;filter:=\"(&(size>=3)(!(v>=2.0)))\"");
+        headers.put(Constants.BUNDLE_NATIVECODE,
+            "lib/linux/libfoo.so;osname=Linux;processor=x86-64,"
+            + "lib/win/foo.dll;osname=Win32;processor=x86-64,*");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        for (File file : revisionDir.listFiles())
+        {
+            assertThat(file.delete()).isTrue();
+        }
+        assertThat(revisionDir.delete()).isTrue();
+    }
+
+    @Test
+    void cachedManifestEqualsParsedManifest() throws Exception
+    {
+        ManifestParser parsed = new ManifestParser(new Logger(), config, null, headers);
+        ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(cacheFile).isFile();
+
+        // The cache file is not written again when it is used.
+        assertThat(cacheFile.setLastModified(0)).isTrue();
+        ManifestParser cached = ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(cacheFile.lastModified()).isZero();
+
+        assertThat(cached.getSymbolicName()).isEqualTo(parsed.getSymbolicName());
+        assertThat(cached.getBundleVersion()).isEqualTo(parsed.getBundleVersion());
+        assertThat(cached.getManifestVersion()).isEqualTo(parsed.getManifestVersion());
+        assertThat(cached.isExtension()).isEqualTo(parsed.isExtension());
+        assertThat(cached.getActivationPolicy()).isEqualTo(parsed.getActivationPolicy());
+        assertThat(cached.getActivationIncludeDirective())
+            .isEqualTo(parsed.getActivationIncludeDirective());
+        assertThat(cached.getActivationExcludeDirective())
+            .isEqualTo(parsed.getActivationExcludeDirective());
+
+        List<BundleCapability> caps = cached.getCapabilities();
+        assertThat(caps).hasSameSizeAs(parsed.getCapabilities());
+        for (int i = 0; i < caps.size(); i++)
+        {
+            BundleCapability expected = parsed.getCapabilities().get(i);
+            assertThat(caps.get(i).getNamespace()).isEqualTo(expected.getNamespace());
+            assertThat(caps.get(i).getDirectives()).isEqualTo(expected.getDirectives());
+            assertThat(caps.get(i).getAttributes()).isEqualTo(expected.getAttributes());
+        }
+
+        List<BundleRequirement> reqs = cached.getRequirements();
+        assertThat(reqs).hasSameSizeAs(parsed.getRequirements());
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            BundleRequirement expected = parsed.getRequirements().get(i);
+            assertThat(reqs.get(i).getNamespace()).isEqualTo(expected.getNamespace());
+            assertThat(reqs.get(i).getDirectives()).isEqualTo(expected.getDirectives());
+            assertThat(reqs.get(i).getAttributes()).isEqualTo(expected.getAttributes());
+            assertThat(((BundleRequirementImpl) reqs.get(i)).getFilter())
+                .isEqualTo(((BundleRequirementImpl) expected).getFilter());
+        }
+
+        assertThat(cached.getLibraries()).hasSize(1);
+        assertThat(cached.getLibraries().get(0).getEntryName()).isEqualTo("lib/linux/libfoo.so");
+    }
+
+    @Test
+    void attributeOrderIsKept() throws Exception
+    {
+        // Keys in an order that differs from the order of a hash map.
+        Map<String, Object> attrs = new LinkedHashMap<>();
+        Map<String, String> dirs = new LinkedHashMap<>();
+        for (int i = 20; i > 0; i--)
+        {
+            attrs.put("attr" + i, Integer.toString(i));
+            dirs.put("dir" + i, Integer.toString(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ManifestCache.writeMap(out, dirs);
+        ManifestCache.writeMap(out, attrs);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThat(ManifestCache.readDirectives(in).keySet()).containsExactlyElementsOf(dirs.keySet());
+        assertThat(ManifestCache.readAttributes(in).keySet()).containsExactlyElementsOf(attrs.keySet());
+    }
+
+    @Test
+    void nativeLibraryIsSelectedForCurrentPlatform() throws Exception
+    {
+        ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+
+        config.put(FelixConstants.FRAMEWORK_OS_NAME, "win32");
+        ManifestParser cached = ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+
+        assertThat(cached.getLibraries()).hasSize(1);
+        assertThat(cached.getLibraries().get(0).getEntryName()).isEqualTo("lib/win/foo.dll");
+    }
+
+    @Test
+    void changedManifestIsParsedAgain() throws Exception
+    {
+        ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+
+        headers.put(Constants.BUNDLE_VERSION, "2.0.0");
+        ManifestParser mp = ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(mp.getBundleVersion().toString()).isEqualTo("2.0.0");
+
+        assertThat(cacheFile.setLastModified(0)).isTrue();
+        config.put(FelixConstants.FELIX_VERSION_PROPERTY, "7.2.0");
+        ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(cacheFile.lastModified()).isNotZero();
+    }
+
+    @Test
+    void corruptCacheFileIsReplaced() throws Exception
+    {
+        ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        long length = cacheFile.length();
+        FileOutputStream out = new FileOutputStream(cacheFile);
+        out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 32, 1, 2, 3 });
+        out.close();
+
+        ManifestParser mp = ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(mp.getSymbolicName()).isEqualTo("cached");
+        assertThat(cacheFile.length()).isEqualTo(length);
+    }
+
+    @Test
+    void cacheCanBeDisabled() throws Exception
+    {
+        config.put(BundleCache.CACHE_MANIFEST_PROP, "false");
+        ManifestParser mp = ManifestCache.parse(new Logger(), config, null, headers, revisionDir);
+        assertThat(mp.getSymbolicName()).isEqualTo("cached");
+        assertThat(cacheFile).doesNotExist();
+    }
+}
@@ -22,6 +22,8 @@ import java.security.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.resolver.reason.ReasonException;
@@ -45,6 +47,15 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final int m_permutationParallelism;
+
+    // Package spaces of resolved resources computed by earlier resolve
+    // operations, or null if package spaces are always recomputed.
+    private final ConcurrentMap<Resource, ResolvedPackages> m_resolvedPackages;
+
+    // Number of candidate permutations checked by all resolve operations.
+    private final AtomicLong m_permutationCount = new AtomicLong();
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -91,6 +102,9 @@ public class ResolverImpl implements Resolver
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
+        // Holds the speculative permutation check running on the current thread,
+        // which records the permutations it creates instead of queuing them.
+        private final ThreadLocal<PermutationCheck> m_currentCheck = new ThreadLocal<PermutationCheck>();
 
         static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
         {
@@ -143,6 +157,12 @@ public class ResolverImpl implements Resolver
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
             {
+                PermutationCheck check = m_currentCheck.get();
+                if (check != null)
+                {
+                    check.permutateIfNeeded(type, req, permutation);
+                    return;
+                }
                 if ((type == PermutationType.SUBSTITUTE)) {
                     if (!m_sub_mutated.add(req)) {
                         return;
@@ -168,7 +188,12 @@ public class ResolverImpl implements Resolver
         }
 
         void addPermutation(PermutationType type, Candidates permutation) {
-            if (permutation != null)
+            PermutationCheck check = m_currentCheck.get();
+            if (check != null)
+            {
+                check.addPermutation(type, null, permutation);
+            }
+            else if (permutation != null)
             {
                 List<Candidates> typeToAddTo = null;
                 try {
@@ -225,6 +250,44 @@ public class ResolverImpl implements Resolver
             return next;
         }
 
+        // Returns up to max of the permutations getNextPermutation will
+        // return next, in that order, as far as their deltas are not processed yet.
+        List<Candidates> getQueuedPermutations(int max) {
+            List<Candidates> queued = new ArrayList<Candidates>(max);
+            for (List<Candidates> permutations : Arrays.asList(m_usesPermutations, m_importPermutations, m_substPermutations))
+            {
+                for (Candidates permutation : permutations)
+                {
+                    if (queued.size() >= max)
+                    {
+                        return queued;
+                    }
+                    if (!m_processedDeltas.contains(permutation.getDelta()))
+                    {
+                        queued.add(permutation);
+                    }
+                }
+            }
+            return queued;
+        }
+
+        // Applies the outcome of a speculative permutation check as if the
+        // permutation had been checked on this thread right now.
+        ResolutionError replay(PermutationCheck check, Map<Resource, ResolutionError> currentFaultyResources) {
+            for (int i = 0; i < check.m_added.size(); i++)
+            {
+                Requirement req = check.m_addedReqs.get(i);
+                if ((req == null) || (check.m_addedTypes.get(i) != PermutationType.SUBSTITUTE)
+                    || m_sub_mutated.add(req))
+                {
+                    addPermutation(check.m_addedTypes.get(i), check.m_added.get(i));
+                }
+            }
+            m_multipleCardCandidates = check.m_multipleCardCandidates;
+            currentFaultyResources.putAll(check.m_faultyResources);
+            return check.m_error;
+        }
+
         void clearPermutations() {
             m_usesPermutations.clear();
             m_importPermutations.clear();
@@ -245,15 +308,26 @@ public class ResolverImpl implements Resolver
             Requirement req = usedBlame.m_reqs.get(0);
             if (Util.isMultiple(req))
             {
+                PermutationCheck check = m_currentCheck.get();
+                Candidates multipleCardCandidates =
+                    (check != null) ? check.m_multipleCardCandidates : m_multipleCardCandidates;
                 // Create a copy of the current permutation so we can remove the
                 // candidates causing the blame.
-                if (m_multipleCardCandidates == null)
+                if (multipleCardCandidates == null)
                 {
-                    m_multipleCardCandidates = permutation.copy();
+                    multipleCardCandidates = permutation.copy();
+                    if (check != null)
+                    {
+                        check.m_multipleCardCandidates = multipleCardCandidates;
+                    }
+                    else
+                    {
+                        m_multipleCardCandidates = multipleCardCandidates;
+                    }
                 }
                 // Get the current candidate list and remove all the offending root
                 // cause candidates from a copy of the current permutation.
-                candidates = m_multipleCardCandidates.clearMultipleCardinalityCandidates(req, usedBlames.getRootCauses(req));
+                candidates = multipleCardCandidates.clearMultipleCardinalityCandidates(req, usedBlames.getRootCauses(req));
             }
             // We only are successful if there is at least one candidate left
             // for the requirement
@@ -261,11 +335,19 @@ public class ResolverImpl implements Resolver
         }
 
         long getPermutationCount() {
+            PermutationCheck check = m_currentCheck.get();
+            if (check != null)
+            {
+                return check.m_count;
+            }
             return m_usesPermutations.size() + m_importPermutations.size() + m_substPermutations.size(); 
         }
 
         Executor getExecutor() {
-            return m_executor;
+            // A speculative check already runs in parallel to other checks, so
+            // it calculates package spaces on its own thread; waiting for tasks
+            // queued behind other checks could starve the executor.
+            return (m_currentCheck.get() != null) ? new DumbExecutor() : m_executor;
         }
 
         ResolutionError getCurrentError() {
@@ -338,7 +420,12 @@ public class ResolverImpl implements Resolver
         }
 
         boolean isCancelled() {
-            return m_isCancelled != null;
+            if (m_isCancelled != null)
+            {
+                return true;
+            }
+            PermutationCheck check = m_currentCheck.get();
+            return (check != null) && check.m_cancelled;
         }
 
         void checkForCancel() throws ResolutionException {
@@ -354,17 +441,70 @@ public class ResolverImpl implements Resolver
     }
 
     public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, 1);
+    }
+
+    /**
+     * Creates a resolver which checks up to <tt>permutationParallelism</tt>
+     * candidate permutations at the same time. Permutations are checked
+     * speculatively ahead of the sequential order, but their outcomes are
+     * applied in that order, so the resolution result is the same as with a
+     * single permutation at a time.
+    **/
+    public ResolverImpl(Logger logger, int parallelism, int permutationParallelism)
     {
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_permutationParallelism = permutationParallelism;
+        this.m_resolvedPackages = null;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, 1);
+    }
+
+    /**
+     * Creates a resolver using the given executor, which checks up to
+     * <tt>permutationParallelism</tt> candidate permutations at the same time.
+     * @see #ResolverImpl(Logger, int, int)
+    **/
+    public ResolverImpl(Logger logger, Executor executor, int permutationParallelism)
+    {
+        this(logger, executor, permutationParallelism, false);
+    }
+
+    /**
+     * Creates a resolver using the given executor, which checks up to
+     * <tt>permutationParallelism</tt> candidate permutations at the same time.
+     * If <tt>incremental</tt> is <tt>true</tt>, the package spaces of resolved
+     * resources are kept across resolve operations and only recomputed if
+     * the wiring of the resource changes, so resolving a few resources
+     * against many resolved ones does not recompute the package spaces of
+     * the resolved ones every time.
+     * @see #ResolverImpl(Logger, int, int)
+    **/
+    public ResolverImpl(Logger logger, Executor executor, int permutationParallelism, boolean incremental)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_permutationParallelism = permutationParallelism;
+        this.m_resolvedPackages = incremental
+            ? new ConcurrentHashMap<Resource, ResolvedPackages>()
+            : null;
+    }
+
+    /**
+     * Returns the number of candidate permutations checked for consistency
+     * by all resolve operations of this resolver so far, including the
+     * initial candidates of each resolve operation.
+    **/
+    public long getPermutationCount()
+    {
+        return m_permutationCount.get();
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -421,6 +561,7 @@ public class ResolverImpl implements Resolver
     }
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
+        pruneResolvedPackages(session);
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
         boolean retry;
         do
@@ -556,6 +697,36 @@ public class ResolverImpl implements Resolver
     }
 
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        // Speculative checks only pay off if the executor runs them in parallel.
+        Map<Candidates, PermutationCheck> checks =
+            ((m_permutationParallelism > 1) && !(session.getExecutor() instanceof DumbExecutor))
+                ? new IdentityHashMap<Candidates, PermutationCheck>()
+                : null;
+        try
+        {
+            return findValidCandidates(session, faultyResources, checks);
+        }
+        finally
+        {
+            if (checks != null)
+            {
+                // Stop all checks still going on, so none outlives this resolve attempt.
+                for (PermutationCheck check : checks.values())
+                {
+                    check.cancel();
+                }
+                for (PermutationCheck check : checks.values())
+                {
+                    check.await();
+                }
+            }
+        }
+    }
+
+    private Candidates findValidCandidates(
+        ResolveSession session, Map<Resource, ResolutionError> faultyResources,
+        Map<Candidates, PermutationCheck> checks)
+    {
         Candidates allCandidates = null;
         boolean foundFaultyResources = false;
         do
@@ -565,18 +736,33 @@ public class ResolverImpl implements Resolver
             {
                 break;
             }
+            m_permutationCount.incrementAndGet();
 
 //allCandidates.dump();
 
             Map<Resource, ResolutionError> currentFaultyResources = new HashMap<Resource, ResolutionError>();
 
-            session.setCurrentError(
-                    checkConsistency(
-                            session,
-                            allCandidates,
-                            currentFaultyResources
-                    )
-            );
+            if (checks != null)
+            {
+                session.setCurrentError(
+                        checkConsistency(
+                                session,
+                                allCandidates,
+                                currentFaultyResources,
+                                checks
+                        )
+                );
+            }
+            else
+            {
+                session.setCurrentError(
+                        checkConsistency(
+                                session,
+                                allCandidates,
+                                currentFaultyResources
+                        )
+                );
+            }
 
             if (!currentFaultyResources.isEmpty())
             {
@@ -598,6 +784,39 @@ public class ResolverImpl implements Resolver
         return allCandidates;
     }
 
+    private ResolutionError checkConsistency(
+        ResolveSession session,
+        Candidates allCandidates,
+        Map<Resource, ResolutionError> currentFaultyResources,
+        Map<Candidates, PermutationCheck> checks)
+    {
+        // Start checking the permutations queued behind this one, so their
+        // outcome is known by the time this one turns out to be inconsistent.
+        for (Candidates queued : session.getQueuedPermutations(m_permutationParallelism - 1))
+        {
+            if (!checks.containsKey(queued))
+            {
+                PermutationCheck check = new PermutationCheck(session, queued);
+                checks.put(queued, check);
+                try
+                {
+                    session.getExecutor().execute(check);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // Checked on this thread once it is the next permutation.
+                }
+            }
+        }
+        PermutationCheck check = checks.remove(allCandidates);
+        if ((check == null) || check.claim())
+        {
+            return checkConsistency(session, allCandidates, currentFaultyResources);
+        }
+        check.await();
+        return session.replay(check, currentFaultyResources);
+    }
+
     private ResolutionError checkConsistency(
         ResolveSession session,
         Candidates allCandidates,
@@ -1129,6 +1348,9 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
+        // Package spaces of resolved resources reused from earlier resolve operations
+        final Map<Resource, Packages> resolvedPackages = new ConcurrentHashMap<Resource, Packages>();
+
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
         {
@@ -1142,7 +1364,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    ResolvedPackages resolved = getResolvedPackages(session, resource);
+                    if (resolved != null)
+                    {
+                        resolvedPackages.put(resource, resolved.m_packages);
+                        wireCandidates = resolved.m_wireCandidates;
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1169,6 +1401,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages resolved = resolvedPackages.get(resource);
+            if (resolved != null)
+            {
+                allPackages.put(resource, resolved);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1185,6 +1423,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (resolvedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1203,7 +1445,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !resolvedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1214,7 +1456,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !resolvedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1469,10 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // The package spaces of resolved resources are complete at this
+        // point, since uses constraints are only computed for resolving ones.
+        addResolvedPackages(session, allWireCandidates, allPackages, resolvedPackages);
+
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
@@ -1243,6 +1489,80 @@ public class ResolverImpl implements Resolver
         return allPackages;
     }
 
+    /**
+     * Discards the package space kept for the given resource in incremental
+     * mode. Callers should invoke this once the resource is no longer
+     * resolved, so its old wiring is not kept reachable until the next
+     * resolve operation.
+     * @param resource the resource which is no longer resolved.
+    **/
+    public void unresolved(Resource resource)
+    {
+        if (m_resolvedPackages != null)
+        {
+            m_resolvedPackages.remove(resource);
+        }
+    }
+
+    private ResolvedPackages getResolvedPackages(ResolveSession session, Resource resource)
+    {
+        // The package space of a dynamically importing resource changes.
+        if ((m_resolvedPackages == null) || resource.equals(session.getDynamicHost()))
+        {
+            return null;
+        }
+        ResolvedPackages resolved = m_resolvedPackages.get(resource);
+        if ((resolved != null)
+            && resolved.isValid(session.getContext().getWirings().get(resource)))
+        {
+            return resolved;
+        }
+        return null;
+    }
+
+    private void addResolvedPackages(
+        ResolveSession session,
+        Map<Resource, List<WireCandidate>> allWireCandidates,
+        OpenHashMap<Resource, Packages> allPackages,
+        Map<Resource, Packages> reused)
+    {
+        if (m_resolvedPackages == null)
+        {
+            return;
+        }
+        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        {
+            Resource resource = entry.getKey();
+            Wiring wiring = session.getContext().getWirings().get(resource);
+            if ((wiring != null) && !reused.containsKey(resource)
+                && !resource.equals(session.getDynamicHost()))
+            {
+                m_resolvedPackages.put(resource, new ResolvedPackages(
+                    wiring, allWireCandidates.get(resource), entry.getValue()));
+            }
+        }
+    }
+
+    private void pruneResolvedPackages(ResolveSession session)
+    {
+        // Drop the package spaces of resources which are no longer resolved
+        // or were resolved again, since they keep their old wirings alive.
+        if (m_resolvedPackages == null)
+        {
+            return;
+        }
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        for (Iterator<Map.Entry<Resource, ResolvedPackages>> it =
+            m_resolvedPackages.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Resource, ResolvedPackages> entry = it.next();
+            if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+            {
+                it.remove();
+            }
+        }
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2113,6 +2433,34 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * The package space of a resolved resource. It only depends on the wiring
+     * of the resource, so it stays valid as long as the resource has the same
+     * wiring and neither dynamic wires nor capabilities were added to it.
+    **/
+    private static final class ResolvedPackages
+    {
+        final Wiring m_wiring;
+        final int m_capabilityCount;
+        final List<WireCandidate> m_wireCandidates;
+        final Packages m_packages;
+
+        ResolvedPackages(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            m_capabilityCount = wiring.getResourceCapabilities(null).size();
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+
+        boolean isValid(Wiring wiring)
+        {
+            return (wiring == m_wiring)
+                && (wiring.getRequiredResourceWires(null).size() == m_wireCandidates.size())
+                && (wiring.getResourceCapabilities(null).size() == m_capabilityCount);
+        }
+    }
+
     public static class Packages
     {
         public final OpenHashMap<String, Blame> m_exportedPkgs;
@@ -2468,6 +2816,121 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * Checks the consistency of a candidate permutation ahead of its turn. The
+     * permutations and errors the check creates are recorded and only applied
+     * to the session once the permutation would have been checked sequentially.
+    **/
+    private class PermutationCheck implements Runnable
+    {
+        private final ResolveSession m_session;
+        private final Candidates m_permutation;
+        private final AtomicBoolean m_claimed = new AtomicBoolean();
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private final List<PermutationType> m_addedTypes = new ArrayList<PermutationType>();
+        private final List<Requirement> m_addedReqs = new ArrayList<Requirement>();
+        private final List<Candidates> m_added = new ArrayList<Candidates>();
+        private final Set<Requirement> m_mutated = new HashSet<Requirement>();
+        private final Set<Requirement> m_subMutated = new HashSet<Requirement>();
+        private final Map<Resource, ResolutionError> m_faultyResources = new HashMap<Resource, ResolutionError>();
+        private int m_count;
+        private Candidates m_multipleCardCandidates;
+        private ResolutionError m_error;
+        private Throwable m_throwable;
+        private volatile boolean m_cancelled;
+
+        PermutationCheck(ResolveSession session, Candidates permutation)
+        {
+            m_session = session;
+            m_permutation = permutation;
+        }
+
+        public void run()
+        {
+            if (!claim())
+            {
+                return;
+            }
+            m_session.m_currentCheck.set(this);
+            try
+            {
+                m_error = checkConsistency(m_session, m_permutation, m_faultyResources);
+            }
+            catch (Throwable t)
+            {
+                m_throwable = t;
+            }
+            finally
+            {
+                m_session.m_currentCheck.remove();
+                m_done.countDown();
+            }
+        }
+
+        boolean claim()
+        {
+            return m_claimed.compareAndSet(false, true);
+        }
+
+        void cancel()
+        {
+            m_cancelled = true;
+            if (claim())
+            {
+                m_done.countDown();
+            }
+        }
+
+        void await()
+        {
+            try
+            {
+                m_done.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            if (m_throwable instanceof RuntimeException)
+            {
+                throw (RuntimeException) m_throwable;
+            }
+            else if (m_throwable instanceof Error)
+            {
+                throw (Error) m_throwable;
+            }
+            else if (m_throwable != null)
+            {
+                throw new RuntimeException(m_throwable);
+            }
+        }
+
+        void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation)
+        {
+            // Whether a substitution was permutated before is only known
+            // when the outcome is applied, so it is recorded per requirement.
+            if ((type == PermutationType.SUBSTITUTE) ? m_subMutated.add(req) : m_mutated.add(req))
+            {
+                addPermutation(type, (type == PermutationType.SUBSTITUTE) ? req : null,
+                    permutation.permutate(req));
+            }
+        }
+
+        void addPermutation(PermutationType type, Requirement req, Candidates permutation)
+        {
+            if ((permutation != null) || (req != null))
+            {
+                m_addedTypes.add(type);
+                m_addedReqs.add(req);
+                m_added.add(permutation);
+                if (permutation != null)
+                {
+                    m_count++;
+                }
+            }
+        }
+    }
+
     private static class EnhancedExecutor
     {
         private final Executor executor;
@@ -32,6 +32,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolverImpl;
@@ -923,6 +926,167 @@ public class ResolverTest
         assertEquals("Wrong number of resolved bundles", 9, result.size());
     }
 
+    @Test
+    public void testParallelPermutations() throws Exception
+    {
+        List<ResolveContext> contexts = new ArrayList<ResolveContext>();
+        for (int i = 4; i <= 7; i++)
+        {
+            Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+            Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+            Method populate = getClass().getDeclaredMethod("populateScenario" + i, Map.class, Map.class);
+            @SuppressWarnings("unchecked")
+            List<Resource> mandatory = (List<Resource>) populate.invoke(null, wirings, candMap);
+            contexts.add(new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList()));
+        }
+        contexts.add(populateScenario17(true, true, true));
+        contexts.add(populateScenario18());
+        contexts.add(populateScenario19());
+        contexts.add(populateConflictingUses(6));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            ResolverImpl sequential = new ResolverImpl(new Logger(Logger.LOG_ERROR), executor);
+            ResolverImpl parallel = new ResolverImpl(new Logger(Logger.LOG_ERROR), executor, 4);
+            for (ResolveContext rc : contexts)
+            {
+                Object expected = resolveOrFail(sequential, rc);
+                for (int i = 0; i < 10; i++)
+                {
+                    assertEquals(expected, resolveOrFail(parallel, rc));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIncrementalResolution() throws Exception
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> resources = new ArrayList<Resource>();
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_q = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_q = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        resources.add(q1);
+        resources.add(q2);
+        List<List<Capability>> providers = new ArrayList<List<Capability>>();
+        for (int i = 0; i < 4; i++)
+        {
+            List<Capability> caps = new ArrayList<Capability>();
+            for (List<Capability> qs : Arrays.asList(Arrays.asList(q1_q, q2_q), Arrays.asList(q2_q)))
+            {
+                ResourceImpl p = new ResourceImpl("P" + i + "_" + caps.size());
+                caps.add(addCap(p, PackageNamespace.PACKAGE_NAMESPACE, "p" + i, "q"));
+                candMap.put(addReq(p, PackageNamespace.PACKAGE_NAMESPACE, "q"), qs);
+                resources.add(p);
+            }
+            providers.add(caps);
+        }
+        for (int k = 0; k < 3; k++)
+        {
+            ResourceImpl a = new ResourceImpl("A" + k);
+            candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "q"), Arrays.asList(q2_q));
+            for (int i = 0; i < providers.size(); i++)
+            {
+                candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "p" + i), providers.get(i));
+            }
+            resources.add(a);
+        }
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), 1);
+        ResolverImpl incremental = new ResolverImpl(new Logger(Logger.LOG_ERROR),
+            new Executor()
+            {
+                public void execute(Runnable command)
+                {
+                    command.run();
+                }
+            }, 1, true);
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        for (Resource resource : resources)
+        {
+            invertedWires.put(resource, new ArrayList<Wire>());
+        }
+        // Resolve one resource after the other, as if each was installed
+        // into a runtime in which the previous ones are resolved already.
+        for (Resource resource : resources)
+        {
+            ResolveContext rc = new ResolveContextImpl(wirings, candMap,
+                Collections.singletonList(resource), Collections.<Resource> emptyList());
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rc);
+            assertEquals(wireMap, incremental.resolve(rc));
+            // A second resolve reuses the package spaces of the first one.
+            assertEquals(wireMap, incremental.resolve(rc));
+
+            for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+            {
+                wires.put(entry.getKey(), entry.getValue());
+                for (Wire wire : entry.getValue())
+                {
+                    invertedWires.get(wire.getProvider()).add(wire);
+                }
+                wirings.put(entry.getKey(), new SimpleWiring(entry.getKey(),
+                    entry.getKey().getCapabilities(null), wires, invertedWires));
+            }
+        }
+        for (int k = 0; k < 3; k++)
+        {
+            for (Wire wire : wires.get(resources.get(resources.size() - 1 - k)))
+            {
+                assertTrue(getResourceName(wire.getProvider()).matches("Q2|P\\d_1"));
+            }
+        }
+    }
+
+    private static Object resolveOrFail(Resolver resolver, ResolveContext rc)
+    {
+        try
+        {
+            return resolver.resolve(rc);
+        }
+        catch (ResolutionException e)
+        {
+            return e.getMessage();
+        }
+    }
+
+    // A requires each package once from providers which use package q;
+    // the first provider of each package picks a q conflicting with the
+    // one of A, so the resolver has to backtrack over many permutations.
+    private static ResolveContext populateConflictingUses(int count)
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_q = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_q = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "q");
+
+        ResourceImpl a = new ResourceImpl("A");
+        candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "q"), Arrays.asList(q2_q));
+        for (int i = 0; i < count; i++)
+        {
+            List<Capability> providers = new ArrayList<Capability>();
+            for (List<Capability> qs : Arrays.asList(Arrays.asList(q1_q, q2_q), Arrays.asList(q2_q)))
+            {
+                ResourceImpl p = new ResourceImpl("P" + i + "_" + providers.size());
+                Capability cap = addCap(p, PackageNamespace.PACKAGE_NAMESPACE, "p" + i, "q");
+                candMap.put(addReq(p, PackageNamespace.PACKAGE_NAMESPACE, "q"), qs);
+                providers.add(cap);
+            }
+            candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "p" + i), providers);
+        }
+        return new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(), candMap,
+            Collections.<Resource> singletonList(a), Collections.<Resource> emptyList());
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
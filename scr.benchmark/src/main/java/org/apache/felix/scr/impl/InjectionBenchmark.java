@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.inject.internal.FieldAccessor;
+import org.apache.felix.scr.impl.inject.internal.MethodInvoker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares calling a bind method and setting a reference field of a
+ * component through method handles, which SCR uses by default, with the
+ * reflective fallback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionBenchmark
+{
+    private Component m_component;
+    private Object[] m_args;
+    private List<Object> m_services;
+    private MethodInvoker m_handleInvoker;
+    private MethodInvoker m_reflectionInvoker;
+    private FieldAccessor m_handleAccessor;
+    private FieldAccessor m_reflectionAccessor;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        m_component = new Component();
+        m_args = new Object[] { new Object(), Collections.singletonMap("service.id", 1L) };
+        m_services = Collections.singletonList(new Object());
+
+        Method bind = Component.class.getDeclaredMethod("bind", Object.class, Map.class);
+        bind.setAccessible(true);
+        m_handleInvoker = MethodInvoker.forMethod(bind);
+        m_reflectionInvoker = MethodInvoker.forReflection(bind);
+
+        Field services = Component.class.getDeclaredField("m_services");
+        services.setAccessible(true);
+        m_handleAccessor = FieldAccessor.forField(services);
+        m_reflectionAccessor = FieldAccessor.forReflection(services);
+    }
+
+    @Benchmark
+    public Object bindMethodHandle() throws Exception
+    {
+        return m_handleInvoker.invoke(m_component, m_args);
+    }
+
+    @Benchmark
+    public Object bindReflection() throws Exception
+    {
+        return m_reflectionInvoker.invoke(m_component, m_args);
+    }
+
+    @Benchmark
+    public void setFieldMethodHandle() throws Exception
+    {
+        m_handleAccessor.set(m_component, m_services);
+    }
+
+    @Benchmark
+    public void setFieldReflection() throws Exception
+    {
+        m_reflectionAccessor.set(m_component, m_services);
+    }
+
+    @Benchmark
+    public Object getFieldMethodHandle() throws Exception
+    {
+        return m_handleAccessor.get(m_component);
+    }
+
+    @Benchmark
+    public Object getFieldReflection() throws Exception
+    {
+        return m_reflectionAccessor.get(m_component);
+    }
+
+    /**
+     * A component with a dynamic multiple reference, which is bound by a
+     * private method and injected into a volatile field.
+     */
+    static class Component
+    {
+        private volatile List<Object> m_services;
+        private volatile Object m_last;
+
+        @SuppressWarnings("unused")
+        private void bind(Object service, Map<String, Object> properties)
+        {
+            m_last = service;
+        }
+    }
+}
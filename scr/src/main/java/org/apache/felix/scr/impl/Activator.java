@@ -36,12 +36,19 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 import org.apache.felix.scr.impl.config.ScrConfigurationImpl;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.PropertyTypes;
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.logger.ScrLoggerFactory;
 import org.apache.felix.scr.impl.logger.ScrLogger;
@@ -51,6 +58,7 @@ import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
 import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
 import org.apache.felix.scr.impl.runtime.ServiceComponentRuntimeImpl;
+import org.apache.felix.scr.info.ComponentActorMetrics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -97,13 +105,21 @@ public class Activator extends AbstractExtender
     private ComponentRegistry m_componentRegistry;
 
     //  thread acting upon configurations
-    private ComponentActorThread m_componentActor;
+    private ComponentActor m_componentActor;
+
+    private ServiceRegistration<ComponentActorMetrics> m_componentActor_reg;
 
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
     private ComponentCommands m_componentCommands;
 
-    private ConcurrentMap<Long, List<ComponentMetadata>> m_componentMetadataStore;
+    // the service listeners shared by all bundles, null if not enabled
+    private ServiceListenerMultiplexer m_listenerMultiplexer;
+
+    private ConcurrentMap<Long, CachedComponents> m_componentMetadataStore;
+
+    // component descriptors parsed in parallel at startup, consumed by loadComponents
+    private final ConcurrentMap<Long, CachedComponents> m_parsedComponents = new ConcurrentHashMap<>();
 
     public Activator()
     {
@@ -223,12 +239,40 @@ public class Activator extends AbstractExtender
             null, m_bundle.getVersion().toString() );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread( this.logger );
-        Thread t = new Thread( m_componentActor, "SCR Component Actor" );
-        t.setDaemon( true );
-        t.start();
+        final int actorThreads = m_configuration.actorThreads();
+        if ( actorThreads > 0 || m_configuration.actorVirtualThreads() )
+        {
+            m_componentActor = new PooledComponentActor( this.logger,
+                actorThreads > 0 ? actorThreads : Runtime.getRuntime().availableProcessors(),
+                m_configuration.actorVirtualThreads() );
+        }
+        else
+        {
+            final ComponentActorThread componentActor = new ComponentActorThread( this.logger );
+            Thread t = new Thread( componentActor, "SCR Component Actor" );
+            t.setDaemon( true );
+            t.start();
+            m_componentActor = componentActor;
+        }
+        m_componentActor_reg = m_context.registerService( ComponentActorMetrics.class,
+            m_componentActor, null );
 
-        super.doStart();
+        if ( m_configuration.sharedServiceListeners() )
+        {
+            m_listenerMultiplexer = new ServiceListenerMultiplexer( m_globalContext );
+        }
+
+        // parse the descriptors of the already started bundles before the
+        // bundle tracker loads their components one by one
+        preloadComponents();
+        try
+        {
+            super.doStart();
+        }
+        finally
+        {
+            m_parsedComponents.clear();
+        }
 
         m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration);
         m_componentCommands.register();
@@ -260,6 +304,8 @@ public class Activator extends AbstractExtender
             || eType == BundleEvent.UNRESOLVED)
         {
             m_componentMetadataStore.remove(event.getBundle().getBundleId());
+            m_parsedComponents.remove(event.getBundle().getBundleId());
+            PropertyTypes.bundleUnresolved(event.getBundle());
         }
         if (eType == BundleEvent.RESOLVED)
         {
@@ -280,13 +326,13 @@ public class Activator extends AbstractExtender
         }
     }
 
-    private static ConcurrentMap<Long, List<ComponentMetadata>> load(
+    private static ConcurrentMap<Long, CachedComponents> load(
         BundleContext context,
         ScrLogger logger, boolean loadFromCache)
     {
         try
         {
-            ConcurrentMap<Long, List<ComponentMetadata>> result = new ConcurrentHashMap<>();
+            ConcurrentMap<Long, CachedComponents> result = new ConcurrentHashMap<>();
             if (!loadFromCache)
             {
                 return result;
@@ -318,6 +364,7 @@ public class Activator extends AbstractExtender
                         long bundleId = in.readLong();
                         int numComponents = in.readInt();
                         long lastModified = in.readLong();
+                        long descriptorHash = in.readLong();
                         List<ComponentMetadata> components = new ArrayList<>(
                             numComponents);
                         for (int j = 0; j < numComponents; j++)
@@ -330,7 +377,8 @@ public class Activator extends AbstractExtender
                         {
                             if (lastModified == b.getLastModified())
                             {
-                                result.put(bundleId, components);
+                                result.put(bundleId,
+                                    new CachedComponents(components, descriptorHash, false));
                             }
                         }
                     }
@@ -353,7 +401,7 @@ public class Activator extends AbstractExtender
 
     }
 
-    private static void store(Map<Long, List<ComponentMetadata>> componentsMap,
+    private static void store(Map<Long, CachedComponents> componentsMap,
         BundleContext context, ScrLogger logger, boolean storeCache)
     {
         if (!storeCache)
@@ -370,9 +418,9 @@ public class Activator extends AbstractExtender
             metaDataWriter.writeVersion(out);
 
             Set<String> allStrings = new HashSet<>();
-            for (List<ComponentMetadata> components : componentsMap.values())
+            for (CachedComponents components : componentsMap.values())
             {
-                for (ComponentMetadata component : components)
+                for (ComponentMetadata component : components.getComponents())
                 {
                     component.collectStrings(allStrings);
                 }
@@ -385,13 +433,15 @@ public class Activator extends AbstractExtender
                 metaDataWriter.writeIndexedString(s, out);
             }
             out.writeInt(componentsMap.size());
-            for (Entry<Long, List<ComponentMetadata>> entry : componentsMap.entrySet())
+            for (Entry<Long, CachedComponents> entry : componentsMap.entrySet())
             {
+                List<ComponentMetadata> components = entry.getValue().getComponents();
                 out.writeLong(entry.getKey());
-                out.writeInt(entry.getValue().size());
+                out.writeInt(components.size());
                 Bundle b = systemContext.getBundle(entry.getKey());
                 out.writeLong(b == null ? -1 : b.getLastModified());
-                for (ComponentMetadata component : entry.getValue())
+                out.writeLong(entry.getValue().getDescriptorHash());
+                for (ComponentMetadata component : components)
                 {
                     component.store(out, metaDataWriter);
                 }
@@ -432,11 +482,21 @@ public class Activator extends AbstractExtender
         }
 
         // terminate the actor thread
+        if ( m_componentActor_reg != null )
+        {
+            m_componentActor_reg.unregister();
+            m_componentActor_reg = null;
+        }
         if ( m_componentActor != null )
         {
             m_componentActor.terminate();
             m_componentActor = null;
         }
+        if ( m_listenerMultiplexer != null )
+        {
+            m_listenerMultiplexer.close();
+            m_listenerMultiplexer = null;
+        }
         ClassUtils.setFrameworkWiring(null);
     }
 
@@ -519,6 +579,141 @@ public class Activator extends AbstractExtender
         }
     }
 
+    /**
+     * Parses the component descriptors of the started bundles in parallel.
+     * Bundles with a current cache entry are not parsed again; their cache
+     * entry is only validated against the hash of their descriptors.
+     */
+    private void preloadComponents()
+    {
+        final List<Bundle> bundles = new ArrayList<>();
+        for (Bundle bundle : m_globalContext.getBundles())
+        {
+            if ((bundle.getState() & (Bundle.ACTIVE | Bundle.STARTING)) != 0
+                && bundle.getHeaders("").get(ComponentConstants.SERVICE_COMPONENT) != null)
+            {
+                bundles.add(bundle);
+            }
+        }
+        if (bundles.isEmpty())
+        {
+            return;
+        }
+
+        final AtomicInteger parsedCount = new AtomicInteger();
+        final AtomicLong parseTime = new AtomicLong();
+        final AtomicInteger cachedCount = new AtomicInteger();
+        final AtomicLong cacheTime = new AtomicLong();
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(bundles.size(), Runtime.getRuntime().availableProcessors()),
+            new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "SCR Descriptor Parser-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            for (final Bundle bundle : bundles)
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        final Long bundleId = bundle.getBundleId();
+                        final long taskStart = System.nanoTime();
+                        try
+                        {
+                            CachedComponents cached = m_componentMetadataStore.get(bundleId);
+                            if (cached != null && isCurrent(bundle, cached))
+                            {
+                                cachedCount.incrementAndGet();
+                                cacheTime.addAndGet(System.nanoTime() - taskStart);
+                                return;
+                            }
+                            if (cached != null)
+                            {
+                                m_componentMetadataStore.remove(bundleId, cached);
+                            }
+                            final CRC32 checksum = new CRC32();
+                            final List<ComponentMetadata> components = BundleComponentActivator.parseDescriptors(
+                                bundle, logger.bundle(bundle), m_configuration, getTrueCondition(), checksum);
+                            m_parsedComponents.put(bundleId,
+                                new CachedComponents(components, checksum.getValue(), true));
+                            parsedCount.incrementAndGet();
+                            parseTime.addAndGet(System.nanoTime() - taskStart);
+                        }
+                        catch (Exception e)
+                        {
+                            // the components are loaded by the bundle tracker anyway
+                            logger.log(Level.DEBUG, "Cannot parse component descriptors of {0}", e,
+                                bundle);
+                        }
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        logger.log(Level.INFO,
+            "Component descriptors of {0} bundles loaded in {1} ms: {2} parsed ({3} ms), {4} from cache ({5} ms)",
+            null, bundles.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            parsedCount.get(), TimeUnit.NANOSECONDS.toMillis(parseTime.get()),
+            cachedCount.get(), TimeUnit.NANOSECONDS.toMillis(cacheTime.get()));
+    }
+
+    /**
+     * Returns whether the cached components still match the descriptors of
+     * the bundle. Cache entries loaded from the store are only checked for
+     * the last modification time of the bundle, which does not change when a
+     * fragment providing descriptors is attached. Therefore the hash of the
+     * descriptors is checked once for each entry.
+     */
+    private boolean isCurrent(Bundle bundle, CachedComponents cached)
+    {
+        if (cached.isValidated())
+        {
+            return true;
+        }
+        final long start = System.nanoTime();
+        long descriptorHash;
+        try
+        {
+            descriptorHash = BundleComponentActivator.getDescriptorHash(bundle);
+        }
+        catch (Exception e)
+        {
+            descriptorHash = BundleComponentActivator.NO_DESCRIPTORS;
+        }
+        final boolean current = descriptorHash == cached.getDescriptorHash();
+        logger.log(Level.DEBUG, "Validated cached components of {0} in {1} ms: {2}", null,
+            bundle, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            current ? "current" : "stale");
+        if (current)
+        {
+            cached.setValidated();
+        }
+        return current;
+    }
+
     /**
      * Loads the components of the given bundle. If the bundle has no
      * <i>Service-Component</i> header, this method has no effect. The
@@ -531,8 +726,13 @@ public class Activator extends AbstractExtender
     private void loadComponents(Bundle bundle)
     {
         final Long bundleId = bundle.getBundleId();
-        List<ComponentMetadata> cached = m_componentMetadataStore.get(bundleId);
-        if (cached != null && cached.isEmpty())
+        CachedComponents cached = m_componentMetadataStore.get(bundleId);
+        if (cached != null && !isCurrent(bundle, cached))
+        {
+            m_componentMetadataStore.remove(bundleId, cached);
+            cached = null;
+        }
+        if (cached != null && cached.getComponents().isEmpty())
         {
             // Cached that there are no components for this bundle.
             return;
@@ -542,8 +742,9 @@ public class Activator extends AbstractExtender
             && bundle.getHeaders("").get(ComponentConstants.SERVICE_COMPONENT) == null)
         {
             // Cache that there are no components
-            m_componentMetadataStore.put(bundleId,
-                Collections.<ComponentMetadata> emptyList());
+            m_componentMetadataStore.put(bundleId, new CachedComponents(
+                Collections.<ComponentMetadata> emptyList(),
+                BundleComponentActivator.NO_DESCRIPTORS, true));
             // no components in the bundle, abandon
             return;
         }
@@ -606,10 +807,25 @@ public class Activator extends AbstractExtender
             return;
         }
 
+        // use the descriptors parsed at startup unless there is a cache entry
+        final CachedComponents parsed = cached == null ? m_parsedComponents.remove(bundleId) : null;
         try
         {
+            final List<ComponentMetadata> metadataList;
+            if (cached != null)
+            {
+                metadataList = cached.getComponents();
+            }
+            else if (parsed != null)
+            {
+                metadataList = parsed.getComponents();
+            }
+            else
+            {
+                metadataList = null;
+            }
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
-                context, m_configuration, cached, getTrueCondition());
+                context, m_configuration, metadataList, getTrueCondition(), m_listenerMultiplexer);
             ga.initialEnable();
             if (cached == null)
             {
@@ -619,7 +835,8 @@ public class Activator extends AbstractExtender
                 {
                     metadatas.add(holder.getComponentMetadata());
                 }
-                m_componentMetadataStore.put(bundleId, metadatas);
+                m_componentMetadataStore.put(bundleId, new CachedComponents(metadatas,
+                    parsed != null ? parsed.getDescriptorHash() : ga.getDescriptorHash(), true));
             }
             // replace bundle activator in the map
             synchronized ( m_componentBundles )
@@ -723,4 +940,45 @@ public class Activator extends AbstractExtender
         }
 
     }
+
+    /**
+     * The component metadata of a bundle together with the hash of the
+     * descriptors it was parsed from.
+     */
+    static final class CachedComponents
+    {
+        private final List<ComponentMetadata> m_components;
+
+        private final long m_descriptorHash;
+
+        // whether the descriptor hash has been checked against the bundle
+        private volatile boolean m_validated;
+
+        CachedComponents(List<ComponentMetadata> components, long descriptorHash, boolean validated)
+        {
+            m_components = components;
+            m_descriptorHash = descriptorHash;
+            m_validated = validated;
+        }
+
+        List<ComponentMetadata> getComponents()
+        {
+            return m_components;
+        }
+
+        long getDescriptorHash()
+        {
+            return m_descriptorHash;
+        }
+
+        boolean isValidated()
+        {
+            return m_validated;
+        }
+
+        void setValidated()
+        {
+            m_validated = true;
+        }
+    }
 }
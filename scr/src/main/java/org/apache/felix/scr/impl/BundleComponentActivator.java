@@ -18,9 +18,12 @@
  */
 package org.apache.felix.scr.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -32,6 +35,8 @@ import java.util.StringTokenizer;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -58,6 +63,7 @@ import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.component.ComponentConstants;
 import org.osgi.service.component.ComponentException;
 
 /**
@@ -68,6 +74,9 @@ import org.osgi.service.component.ComponentException;
 public class BundleComponentActivator implements ComponentActivator
 {
 
+    // the descriptor hash of bundles without descriptors
+    static final long NO_DESCRIPTORS = -1;
+
     // global component registration
     private final ComponentRegistry m_componentRegistry;
 
@@ -81,7 +90,7 @@ public class BundleComponentActivator implements ComponentActivator
     private final List<ComponentHolder<?>> m_holders = new ArrayList<>();
 
     // thread acting upon configurations
-    private final ComponentActorThread m_componentActor;
+    private final ComponentActor m_componentActor;
 
     // true as long as the dispose method is not called
     private final AtomicBoolean m_active = new AtomicBoolean( true );
@@ -94,10 +103,16 @@ public class BundleComponentActivator implements ComponentActivator
 
     private final Map<String, ListenerInfo> listenerMap = new HashMap<>();
 
+    // the listeners shared by all bundles, null if each bundle has its own
+    private final ServiceListenerMultiplexer m_listenerMultiplexer;
+
     private final BundleLogger logger;
 
     private final ServiceReference<?> m_trueCondition;
 
+    // the hash of the parsed descriptors
+    private long m_descriptorHash = NO_DESCRIPTORS;
+
     private static class ListenerInfo implements ServiceListener
     {
         List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = new ArrayList<>();
@@ -141,6 +156,13 @@ public class BundleComponentActivator implements ComponentActivator
     public void addServiceListener(String serviceFilterString,
         ExtendedServiceListener<ExtendedServiceEvent> listener)
     {
+        if ( m_listenerMultiplexer != null )
+        {
+            logger.log(Level.DEBUG, "serviceFilterString: " + serviceFilterString,
+                null);
+            m_listenerMultiplexer.addServiceListener( m_bundle, serviceFilterString, listener );
+            return;
+        }
         ListenerInfo listenerInfo;
         synchronized ( listenerMap )
         {
@@ -169,6 +191,11 @@ public class BundleComponentActivator implements ComponentActivator
     public void removeServiceListener(String serviceFilterString,
         ExtendedServiceListener<ExtendedServiceEvent> listener)
     {
+        if ( m_listenerMultiplexer != null )
+        {
+            m_listenerMultiplexer.removeServiceListener( m_bundle, serviceFilterString, listener );
+            return;
+        }
         synchronized ( listenerMap )
         {
             ListenerInfo listenerInfo = listenerMap.get( serviceFilterString );
@@ -191,16 +218,19 @@ public class BundleComponentActivator implements ComponentActivator
      *      and to ensure configuration updates.
      * @param   context  The bundle context owning the components
      * @param serviceReference
+     * @param listenerMultiplexer The service listeners shared by all bundles
+     *      or <code>null</code> to register the listeners with the bundle context
      *
      * @throws ComponentException if any error occurrs initializing this class
      */
     public BundleComponentActivator(final ScrLogger scrLogger,
             final ComponentRegistry componentRegistry,
-            final ComponentActorThread componentActor,
+            final ComponentActor componentActor,
             final BundleContext context,
             final ScrConfiguration configuration,
             final List<ComponentMetadata> cachedComponentMetadata,
-            final ServiceReference<?> trueConditiion)
+            final ServiceReference<?> trueConditiion,
+            final ServiceListenerMultiplexer listenerMultiplexer)
     throws ComponentException
     {
         // create a logger on behalf of the bundle
@@ -213,6 +243,7 @@ public class BundleComponentActivator implements ComponentActivator
 
         m_configuration = configuration;
         m_trueCondition = trueConditiion;
+        m_listenerMultiplexer = listenerMultiplexer;
 
         logger.log(Level.DEBUG, "BundleComponentActivator : Bundle active", null);
 
@@ -238,85 +269,36 @@ public class BundleComponentActivator implements ComponentActivator
      */
     protected void initialize(List<ComponentMetadata> cachedComponentMetadata)
     {
+        final List<ComponentMetadata> metadataList;
         if (cachedComponentMetadata != null)
         {
-            for (ComponentMetadata metadata : cachedComponentMetadata)
-            {
-                validateAndRegister(metadata);
-            }
+            metadataList = cachedComponentMetadata;
         }
         else
         {
-            // Get the Metadata-Location value from the manifest
-            String descriptorLocations = m_bundle.getHeaders("").get("Service-Component");
-            if (descriptorLocations == null)
-            {
-                throw new ComponentException(
-                    "Service-Component entry not found in the manifest");
-            }
-
+            final CRC32 checksum = new CRC32();
+            final long start = System.nanoTime();
+            metadataList = parseDescriptors(m_bundle, logger, m_configuration, m_trueCondition, checksum);
+            m_descriptorHash = checksum.getValue();
             logger.log(Level.DEBUG,
-                "BundleComponentActivator : Descriptor locations {0}", null,
-                descriptorLocations);
-
-            // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
-            StringTokenizer st = new StringTokenizer(descriptorLocations, ", ");
-            // Tolerate wildcard overlap with explicit entries in list by remembering the URLs that have been loaded so
-            // that duplicates can be skipped before attempting to re-parse the descriptors they resolve to.
-            HashSet<String> haveBeenLoaded = new HashSet<>();
-            while (st.hasMoreTokens())
-            {
-                String descriptorLocation = st.nextToken();
-                URL[] descriptorURLs = findDescriptors(m_bundle, descriptorLocation);
-                if (descriptorURLs.length == 0)
-                {
-                    if (descriptorLocation.contains("*")) {
-                        // 112.4.1 The last component of each path in the Service-Component header may
-                        // use wildcards so that Bundle.findEntries can be used to locate the XML
-                        // document within the bundle and its fragments. For example:
-                        //
-                        // Service-Component: OSGI-INF/*.xml
-                        //
-                        // A Service-Component manifest header specified in a fragment is ignored by
-                        // SCR. However, XML documents referenced by a bundle's Service-Component
-                        // manifest header may be contained in attached fragments.
-
-                        // in case of such wildcard, finding nothing does not mean an error (because it
-                        // *might* be found in a fragment that is attached later.
-                        logger.log(Level.TRACE,
-                                "Component descriptor entry ''{0}'' with wildcard has no matches", null,
-                                descriptorLocation);
-                    } else {
-                        // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
-                        // fragments, SCR must log an error message with the Log Service, if present, and continue.
-                        logger.log(Level.ERROR,
-                            "Component descriptor entry ''{0}'' not found", null,
-                            descriptorLocation);
-                    }
-                    continue;
-                }
-
-
-                // load from the descriptors
-                for (URL descriptorURL : descriptorURLs)
-                {
-                    String externalForm = descriptorURL.toExternalForm();
-                    if (!haveBeenLoaded.contains(externalForm))
-                    {
-                        loadDescriptor(descriptorURL);
-                        haveBeenLoaded.add(externalForm);
-                    }
-                    else
-                    {
-                        logger.log(Level.DEBUG,
-                                "Component descriptor entry ''{0}'' (matched by ''{1}'') has already been loaded",
-                                null, descriptorURL.getPath(), descriptorLocation);
-                    }
-                }
-            }
+                "BundleComponentActivator : Parsed {0} component descriptions in {1} ms", null,
+                metadataList.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        for (ComponentMetadata metadata : metadataList)
+        {
+            validateAndRegister(metadata);
         }
     }
 
+    /**
+     * Returns the hash of the component descriptors parsed by this activator
+     * or {@link #NO_DESCRIPTORS} if the components were taken from the cache.
+     */
+    long getDescriptorHash()
+    {
+        return m_descriptorHash;
+    }
+
     /**
      * Called outside the constructor so that the m_managers field is completely initialized.
      * A component might possibly start a thread to enable other components, which could access m_managers
@@ -413,57 +395,205 @@ public class BundleComponentActivator implements ComponentActivator
         return urls.toArray( new URL[urls.size()] );
     }
 
-    private void loadDescriptor(final URL descriptorURL)
+    /**
+     * Parses the component descriptors listed in the <i>Service-Component</i>
+     * header of the bundle. The returned metadata is not validated yet. This
+     * method may be called for several bundles concurrently.
+     *
+     * @param bundle The bundle providing the descriptors
+     * @param logger The logger of the bundle
+     * @param configuration The SCR configuration
+     * @param trueCondition The true condition service
+     * @param checksum Updated with the path and contents of each descriptor
+     *      read, may be <code>null</code>
+     * @return The metadata of the components in the order of the descriptors
+     *
+     * @throws ComponentException If the bundle has no <i>Service-Component</i>
+     *      header
+     */
+    static List<ComponentMetadata> parseDescriptors(final Bundle bundle,
+            final BundleLogger logger,
+            final ScrConfiguration configuration,
+            final ServiceReference<?> trueCondition,
+            final Checksum checksum)
     {
-        // simple path for log messages
-        final String descriptorLocation = descriptorURL.getPath();
-
-        InputStream stream = null;
-        try
+        final List<ComponentMetadata> result = new ArrayList<>();
+        SAXParser parser = null;
+        for (URL descriptorURL : getDescriptorURLs(bundle, logger))
         {
-            stream = descriptorURL.openStream();
+            // simple path for log messages
+            final String descriptorLocation = descriptorURL.getPath();
+            try
+            {
+                final byte[] descriptor = readDescriptor(descriptorURL);
+                if (checksum != null)
+                {
+                    update(checksum, descriptorLocation, descriptor);
+                }
 
-            XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
-                getConfiguration().keepInstances(), m_trueCondition);
-            final SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            final SAXParser parser = factory.newSAXParser();
+                // the parser is reused for all descriptors of the bundle
+                if (parser == null)
+                {
+                    final SAXParserFactory factory = SAXParserFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    parser = factory.newSAXParser();
+                }
+                else
+                {
+                    parser.reset();
+                }
+                XmlHandler handler = new XmlHandler( bundle, logger, configuration.isFactoryEnabled(),
+                    configuration.keepInstances(), trueCondition);
+                parser.parse( new ByteArrayInputStream( descriptor ), handler );
 
-            parser.parse( stream, handler );
+                // 112.4.2 Component descriptors may contain a single, root component element
+                // or one or more component elements embedded in a larger document
+                result.addAll(handler.getComponentMetadataList());
+            }
+            catch ( IOException ex )
+            {
+                // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
+                // fragments, SCR must log an error message with the Log Service, if present, and continue.
 
-            // 112.4.2 Component descriptors may contain a single, root component element
-            // or one or more component elements embedded in a larger document
-            for ( ComponentMetadata metadata : handler.getComponentMetadataList() )
+                logger.log(Level.ERROR, "Problem reading descriptor entry ''{0}''", ex,
+                    descriptorLocation);
+            }
+            catch ( Exception ex )
             {
-                validateAndRegister(metadata);
+                logger.log(Level.ERROR, "General problem with descriptor entry ''{0}''",
+                    ex, descriptorLocation);
             }
         }
-        catch ( IOException ex )
+        return result;
+    }
+
+    /**
+     * Returns the hash of the path and contents of the component descriptors
+     * of the bundle, which is used to check whether the cached metadata of
+     * the bundle is still valid.
+     *
+     * @param bundle The bundle providing the descriptors
+     * @return The hash or {@link #NO_DESCRIPTORS} if the bundle has no
+     *      <i>Service-Component</i> header
+     * @throws IOException If a descriptor cannot be read
+     */
+    static long getDescriptorHash(final Bundle bundle) throws IOException
+    {
+        if (bundle.getHeaders("").get(ComponentConstants.SERVICE_COMPONENT) == null)
+        {
+            return NO_DESCRIPTORS;
+        }
+        final CRC32 checksum = new CRC32();
+        for (URL descriptorURL : getDescriptorURLs(bundle, null))
         {
-            // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
-            // fragments, SCR must log an error message with the Log Service, if present, and continue.
+            update(checksum, descriptorURL.getPath(), readDescriptor(descriptorURL));
+        }
+        return checksum.getValue();
+    }
 
-            logger.log(Level.ERROR, "Problem reading descriptor entry ''{0}''", ex,
-                descriptorLocation);
+    /**
+     * Returns the URLs of the component descriptors listed in the
+     * <i>Service-Component</i> header of the bundle.
+     *
+     * @param logger The logger for missing descriptors, may be <code>null</code>
+     */
+    private static List<URL> getDescriptorURLs(final Bundle bundle, final BundleLogger logger)
+    {
+        // Get the Metadata-Location value from the manifest
+        String descriptorLocations = bundle.getHeaders("").get(ComponentConstants.SERVICE_COMPONENT);
+        if (descriptorLocations == null)
+        {
+            throw new ComponentException(
+                "Service-Component entry not found in the manifest");
         }
-        catch ( Exception ex )
+
+        if (logger != null)
         {
-            logger.log(Level.ERROR, "General problem with descriptor entry ''{0}''",
-                ex, descriptorLocation);
+            logger.log(Level.DEBUG,
+                "BundleComponentActivator : Descriptor locations {0}", null,
+                descriptorLocations);
         }
-        finally
+
+        final List<URL> result = new ArrayList<>();
+        // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
+        StringTokenizer st = new StringTokenizer(descriptorLocations, ", ");
+        // Tolerate wildcard overlap with explicit entries in list by remembering the URLs that have been loaded so
+        // that duplicates can be skipped before attempting to re-parse the descriptors they resolve to.
+        HashSet<String> haveBeenLoaded = new HashSet<>();
+        while (st.hasMoreTokens())
         {
-            if ( stream != null )
+            String descriptorLocation = st.nextToken();
+            URL[] descriptorURLs = findDescriptors(bundle, descriptorLocation);
+            if (descriptorURLs.length == 0)
             {
-                try
+                if (logger == null)
+                {
+                    continue;
+                }
+                if (descriptorLocation.contains("*")) {
+                    // 112.4.1 The last component of each path in the Service-Component header may
+                    // use wildcards so that Bundle.findEntries can be used to locate the XML
+                    // document within the bundle and its fragments. For example:
+                    //
+                    // Service-Component: OSGI-INF/*.xml
+                    //
+                    // A Service-Component manifest header specified in a fragment is ignored by
+                    // SCR. However, XML documents referenced by a bundle's Service-Component
+                    // manifest header may be contained in attached fragments.
+
+                    // in case of such wildcard, finding nothing does not mean an error (because it
+                    // *might* be found in a fragment that is attached later.
+                    logger.log(Level.TRACE,
+                            "Component descriptor entry ''{0}'' with wildcard has no matches", null,
+                            descriptorLocation);
+                } else {
+                    // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
+                    // fragments, SCR must log an error message with the Log Service, if present, and continue.
+                    logger.log(Level.ERROR,
+                        "Component descriptor entry ''{0}'' not found", null,
+                        descriptorLocation);
+                }
+                continue;
+            }
+
+            for (URL descriptorURL : descriptorURLs)
+            {
+                String externalForm = descriptorURL.toExternalForm();
+                if (haveBeenLoaded.add(externalForm))
                 {
-                    stream.close();
+                    result.add(descriptorURL);
                 }
-                catch ( IOException ignore )
+                else if (logger != null)
                 {
+                    logger.log(Level.DEBUG,
+                            "Component descriptor entry ''{0}'' (matched by ''{1}'') has already been loaded",
+                            null, descriptorURL.getPath(), descriptorLocation);
                 }
             }
         }
+        return result;
+    }
+
+    private static byte[] readDescriptor(final URL descriptorURL) throws IOException
+    {
+        try (InputStream stream = descriptorURL.openStream())
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void update(final Checksum checksum, final String descriptorLocation, final byte[] descriptor)
+    {
+        final byte[] location = descriptorLocation.getBytes(StandardCharsets.UTF_8);
+        checksum.update(location, 0, location.length);
+        checksum.update(descriptor, 0, descriptor.length);
     }
 
     void validateAndRegister(ComponentMetadata metadata)
@@ -705,17 +835,19 @@ public class BundleComponentActivator implements ComponentActivator
      * synchronously runs the task if the thread is not running. If this instance
      * is {@link #isActive() not active}, the task is not executed.
      *
+     * @param key The key ordering the task, tasks with the same key are run
+     *      in the order they are scheduled
      * @param task The component task to execute
      */
     @Override
-    public void schedule(Runnable task)
+    public void schedule(Object key, Runnable task)
     {
         if ( isActive() )
         {
-            ComponentActorThread cat = m_componentActor;
+            ComponentActor cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.scr.impl.logger.InternalLogger.Level;
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.apache.felix.scr.info.ComponentActorMetrics;
+
+
+/**
+ * The <code>ComponentActor</code> runs the asynchronous tasks of the service
+ * component runtime and keeps statistics about them. Tasks scheduled with the
+ * same key are run in the order they are scheduled.
+ */
+abstract class ComponentActor implements ComponentActorMetrics
+{
+
+    protected final ScrLogger logger;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong taskCount = new AtomicLong();
+
+    private final AtomicLong taskWaitTime = new AtomicLong();
+
+    private final AtomicLong maxTaskWaitTime = new AtomicLong();
+
+    private final AtomicLong taskRunTime = new AtomicLong();
+
+
+    ComponentActor( final ScrLogger log )
+    {
+        logger = log;
+    }
+
+
+    /**
+     * Queues the given task to be run as soon as possible, after all tasks
+     * scheduled before with the same key.
+     *
+     * @param key the key ordering the task, may be <code>null</code>
+     * @param task the task
+     */
+    abstract void schedule( Object key, Runnable task );
+
+
+    /**
+     * Runs the tasks scheduled so far and stops running tasks.
+     */
+    abstract void terminate();
+
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+
+    @Override
+    public long getTaskCount()
+    {
+        return taskCount.get();
+    }
+
+
+    @Override
+    public long getTaskWaitTime()
+    {
+        return taskWaitTime.get();
+    }
+
+
+    @Override
+    public long getMaxTaskWaitTime()
+    {
+        return maxTaskWaitTime.get();
+    }
+
+
+    @Override
+    public long getTaskRunTime()
+    {
+        return taskRunTime.get();
+    }
+
+
+    // wraps the task to record when it was scheduled
+    ScheduledTask enqueued( Runnable task )
+    {
+        queueDepth.incrementAndGet();
+        return new ScheduledTask( task );
+    }
+
+
+    // accounts for tasks that are never run
+    void discarded( int count )
+    {
+        queueDepth.addAndGet( -count );
+    }
+
+
+    // runs the task and logs any issues
+    void run( ScheduledTask scheduled )
+    {
+        queueDepth.decrementAndGet();
+        final long start = System.nanoTime();
+        final long waited = start - scheduled.time;
+        taskWaitTime.addAndGet( waited );
+        long max = maxTaskWaitTime.get();
+        while ( waited > max && !maxTaskWaitTime.compareAndSet( max, waited ) )
+        {
+            max = maxTaskWaitTime.get();
+        }
+
+        try
+        {
+            logger.log(Level.DEBUG, "Running task: " + scheduled.task, null);
+            scheduled.task.run();
+        }
+        catch ( Throwable t )
+        {
+            logger.log(Level.ERROR, "Unexpected problem executing task " + scheduled.task,
+                t);
+        }
+        finally
+        {
+            taskRunTime.addAndGet( System.nanoTime() - start );
+            taskCount.incrementAndGet();
+        }
+    }
+
+
+    static final class ScheduledTask
+    {
+        final Runnable task;
+
+        final long time = System.nanoTime();
+
+
+        ScheduledTask( final Runnable task )
+        {
+            this.task = task;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf( task );
+        }
+    }
+}
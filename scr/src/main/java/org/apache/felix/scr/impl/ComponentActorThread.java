@@ -27,9 +27,10 @@ import org.apache.felix.scr.impl.logger.ScrLogger;
 
 /**
  * The <code>ComponentActorThread</code> is the thread used to act upon registered
- * components of the service component runtime.
+ * components of the service component runtime. It runs all tasks in the order
+ * they are scheduled, regardless of their key.
  */
-class ComponentActorThread implements Runnable
+class ComponentActorThread extends ComponentActor implements Runnable
 {
 
     // sentinel task to terminate this thread
@@ -49,14 +50,12 @@ class ComponentActorThread implements Runnable
     };
 
     // the queue of Runnable instances  to be run
-    private final LinkedList<Runnable> tasks = new LinkedList<>();
-
-    private final ScrLogger logger;
+    private final LinkedList<ScheduledTask> tasks = new LinkedList<>();
 
 
     ComponentActorThread( final ScrLogger log )
     {
-        logger = log;
+        super( log );
     }
 
 
@@ -72,7 +71,7 @@ class ComponentActorThread implements Runnable
 
         for ( ;; )
         {
-            final Runnable task;
+            final ScheduledTask task;
             synchronized ( tasks )
             {
                 while ( tasks.isEmpty() )
@@ -102,7 +101,7 @@ class ComponentActorThread implements Runnable
             try
             {
                 // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
+                if ( task.task == TERMINATION_TASK )
                 {
                     logger.log(Level.DEBUG, "Shutting down ComponentActorThread",
                         null);
@@ -110,13 +109,7 @@ class ComponentActorThread implements Runnable
                 }
 
                 // otherwise execute the task, log any issues
-                logger.log(Level.DEBUG, "Running task: " + task, null);
-                task.run();
-            }
-            catch ( Throwable t )
-            {
-                logger.log(Level.ERROR, "Unexpected problem executing task " + task,
-                    t);
+                run( task );
             }
             finally
             {
@@ -131,11 +124,14 @@ class ComponentActorThread implements Runnable
 
     // cause this thread to terminate by adding this thread to the end
     // of the queue
+    @Override
     void terminate()
     {
-        schedule( TERMINATION_TASK );
         synchronized ( tasks )
         {
+            tasks.add( new ScheduledTask( TERMINATION_TASK ) );
+            tasks.notifyAll();
+
             while ( !tasks.isEmpty() )
             {
                 boolean interrupted = Thread.interrupted();
@@ -161,13 +157,15 @@ class ComponentActorThread implements Runnable
     }
 
 
-    // queue the given runnable to be run as soon as possible
-    void schedule( Runnable task )
+    // queue the given runnable to be run as soon as possible, the key
+    // does not matter since all tasks are run in order
+    @Override
+    void schedule( Object key, Runnable task )
     {
         synchronized ( tasks )
         {
             // append to the task queue
-            tasks.add( task );
+            tasks.add( enqueued( task ) );
 
             logger.log(Level.DEBUG, "Adding task [{0}] as #{1} in the queue", null,
                     task, tasks.size());
@@ -233,6 +233,10 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         out.put("Lock timeout ms", Long.toString(scrConfig.lockTimeout()));
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
+        out.put("Actor threads", scrConfig.actorThreads() > 0 || scrConfig.actorVirtualThreads()
+            ? (scrConfig.actorVirtualThreads() ? "Virtual" : Integer.toString(scrConfig.actorThreads()))
+            : "Single");
+        out.put("Shared service listeners", Boolean.toString(scrConfig.sharedServiceListeners()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
 
         StringBuilder builder = new StringBuilder();
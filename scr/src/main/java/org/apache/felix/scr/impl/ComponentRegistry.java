@@ -25,6 +25,7 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +42,7 @@ import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.AbstractComponentManager;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
+import org.apache.felix.scr.impl.manager.ComponentContainer;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ConfigurableComponentHolder;
 import org.apache.felix.scr.impl.manager.DependencyManager;
@@ -560,12 +562,32 @@ public class ComponentRegistry
      * @param serviceReference
      * @param actor
      */
-    public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorThread actor )
+    public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActor actor )
     {
-        final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
-        if ( dependencyManagers != null )
+        final List<Entry<?, ?>> allDependencyManagers = m_missingDependencies.remove( serviceReference );
+        if ( allDependencyManagers == null )
         {
+            return;
+        }
+
+        // schedule one task per component container, so that the late binding
+        // runs in order with the other tasks of the component
+        final Map<ComponentContainer<?>, List<Entry<?, ?>>> byContainer = new LinkedHashMap<>();
+        for ( Entry<?, ?> entry : allDependencyManagers )
+        {
+            final ComponentContainer<?> container = entry.getDm().getComponentContainer();
+            List<Entry<?, ?>> entries = byContainer.get( container );
+            if ( entries == null )
+            {
+                entries = new ArrayList<>();
+                byContainer.put( container, entries );
+            }
+            entries.add( entry );
+        }
 
+        for ( Map.Entry<ComponentContainer<?>, List<Entry<?, ?>>> containerEntries : byContainer.entrySet() )
+        {
+            final List<Entry<?, ?>> dependencyManagers = containerEntries.getValue();
             Runnable runnable = new Runnable()
             {
 
@@ -590,7 +612,7 @@ public class ComponentRegistry
             } ;
             m_logger.log(Level.DEBUG,
                 "Scheduling runnable {0} asynchronously", null, runnable);
-            actor.schedule( runnable );
+            actor.schedule( containerEntries.getKey(), runnable );
         }
     }
 
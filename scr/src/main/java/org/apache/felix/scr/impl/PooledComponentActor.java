@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.logger.InternalLogger.Level;
+import org.apache.felix.scr.impl.logger.ScrLogger;
+
+
+/**
+ * The <code>PooledComponentActor</code> runs the tasks of the service component
+ * runtime on a pool of threads. Tasks with the same key are queued in a lane,
+ * which runs them one after the other in the order they are scheduled, while
+ * the lanes of different keys run in parallel. Lanes are removed once they
+ * run empty, so only keys with pending tasks take up memory.
+ */
+class PooledComponentActor extends ComponentActor
+{
+
+    // key of the lane for tasks scheduled without a key
+    private static final Object NO_KEY = new Object();
+
+    private final ConcurrentMap<Object, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+
+    PooledComponentActor( final ScrLogger log, final int threads, final boolean virtual )
+    {
+        super( log );
+
+        ThreadFactory factory = null;
+        if ( virtual )
+        {
+            factory = getVirtualThreadFactory();
+            if ( factory == null )
+            {
+                logger.log(Level.WARN,
+                    "Virtual threads are not available, using platform threads for component tasks",
+                    null);
+            }
+        }
+        if ( factory == null )
+        {
+            factory = new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new Thread( r, "SCR Component Actor-" + counter.incrementAndGet() );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            };
+        }
+        executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), factory );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    @Override
+    void schedule( Object key, Runnable task )
+    {
+        final Object laneKey = key == null ? NO_KEY : key;
+        final ScheduledTask scheduled = enqueued( task );
+        while ( true )
+        {
+            Lane lane = lanes.get( laneKey );
+            if ( lane == null )
+            {
+                lane = new Lane( laneKey );
+                final Lane existing = lanes.putIfAbsent( laneKey, lane );
+                if ( existing != null )
+                {
+                    lane = existing;
+                }
+            }
+            // a lane is retired once it runs empty, in which case we
+            // just try again with a fresh one
+            if ( lane.offer( scheduled ) )
+            {
+                logger.log(Level.DEBUG, "Adding task [{0}] to the queue of {1}", null,
+                    task, key);
+                return;
+            }
+        }
+    }
+
+
+    // waits for all scheduled tasks to be run
+    @Override
+    void terminate()
+    {
+        executor.shutdown();
+        boolean interrupted = false;
+        while ( !executor.isTerminated() )
+        {
+            try
+            {
+                executor.awaitTermination( 1, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        { // restore interrupt status
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static ThreadFactory getVirtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+            builder = builderClass.getMethod( "name", String.class, long.class )
+                .invoke( builder, "SCR Component Actor-", 1L );
+            return ( ThreadFactory ) builderClass.getMethod( "factory" ).invoke( builder );
+        }
+        catch ( Throwable t )
+        {
+            return null;
+        }
+    }
+
+
+    private class Lane implements Runnable
+    {
+        private final Object key;
+
+        private final Deque<ScheduledTask> tasks = new ArrayDeque<>();
+
+        private boolean scheduled;
+
+        private boolean retired;
+
+
+        Lane( final Object key )
+        {
+            this.key = key;
+        }
+
+
+        // returns false if the lane is retired
+        synchronized boolean offer( ScheduledTask task )
+        {
+            if ( retired )
+            {
+                return false;
+            }
+            tasks.add( task );
+            if ( !scheduled )
+            {
+                scheduled = true;
+                try
+                {
+                    executor.execute( this );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    // the actor is terminated, so the task is never run,
+                    // just like with the actor thread
+                    logger.log(Level.WARN, "Component actor terminated, not running task {0}",
+                        null, task);
+                    discarded( tasks.size() );
+                    tasks.clear();
+                    retire();
+                }
+            }
+            return true;
+        }
+
+
+        @Override
+        public void run()
+        {
+            for ( ;; )
+            {
+                final ScheduledTask task;
+                synchronized ( this )
+                {
+                    task = tasks.poll();
+                    if ( task == null )
+                    {
+                        retire();
+                        return;
+                    }
+                }
+                PooledComponentActor.this.run( task );
+            }
+        }
+
+
+        private void retire()
+        {
+            retired = true;
+            lanes.remove( key, this );
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.manager.ExtendedServiceEvent;
+import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServicePermission;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The <code>ServiceListenerMultiplexer</code> registers a single framework
+ * service listener for each distinct service filter used by the references
+ * of all components, instead of one listener per filter and bundle. Events
+ * are forwarded to the listeners of all bundles which may see the service.
+ * <p>
+ * As the framework listener is registered with the context of SCR, the
+ * checks the framework does for the listeners of each bundle are done here:
+ * a bundle only gets the events of services it has the permission to get
+ * and which are of classes of its class space. Event listener hooks see the
+ * single listener of SCR only, which is why the multiplexer is only used if
+ * enabled by the {@link org.apache.felix.scr.impl.manager.ScrConfiguration#PROP_SHARED_SERVICE_LISTENERS}
+ * property.
+ */
+public class ServiceListenerMultiplexer
+{
+
+    // the context the framework listeners are registered with
+    private final BundleContext m_context;
+
+    // the framework listeners by filter
+    private final Map<String, SharedListener> m_listeners = new HashMap<>();
+
+    public ServiceListenerMultiplexer( final BundleContext context )
+    {
+        m_context = context;
+    }
+
+    /**
+     * Adds a listener of the given bundle for the services matching the filter.
+     *
+     * @throws IllegalArgumentException If the filter is invalid
+     */
+    public void addServiceListener( final Bundle bundle, final String serviceFilterString,
+        final ExtendedServiceListener<ExtendedServiceEvent> listener )
+    {
+        synchronized ( m_listeners )
+        {
+            SharedListener sharedListener = m_listeners.get( serviceFilterString );
+            if ( sharedListener == null )
+            {
+                sharedListener = new SharedListener();
+                try
+                {
+                    m_context.addServiceListener( sharedListener, serviceFilterString );
+                }
+                catch ( InvalidSyntaxException e )
+                {
+                    throw (IllegalArgumentException) new IllegalArgumentException(
+                        "invalid class name filter" ).initCause( e );
+                }
+                m_listeners.put( serviceFilterString, sharedListener );
+            }
+            sharedListener.add( bundle, listener );
+        }
+    }
+
+    /**
+     * Removes a listener of the given bundle. The framework listener is
+     * removed with the last listener for the filter.
+     */
+    public void removeServiceListener( final Bundle bundle, final String serviceFilterString,
+        final ExtendedServiceListener<ExtendedServiceEvent> listener )
+    {
+        synchronized ( m_listeners )
+        {
+            SharedListener sharedListener = m_listeners.get( serviceFilterString );
+            if ( sharedListener != null && sharedListener.remove( bundle, listener ) )
+            {
+                m_listeners.remove( serviceFilterString );
+                try
+                {
+                    m_context.removeServiceListener( sharedListener );
+                }
+                catch ( IllegalStateException ise )
+                {
+                    // SCR is being stopped, the listener is gone anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of framework listeners registered.
+     */
+    public int getListenerCount()
+    {
+        synchronized ( m_listeners )
+        {
+            return m_listeners.size();
+        }
+    }
+
+    /**
+     * Removes all framework listeners.
+     */
+    public void close()
+    {
+        synchronized ( m_listeners )
+        {
+            for ( SharedListener sharedListener : m_listeners.values() )
+            {
+                try
+                {
+                    m_context.removeServiceListener( sharedListener );
+                }
+                catch ( IllegalStateException ise )
+                {
+                    // SCR is being stopped, the listener is gone anyway
+                }
+            }
+            m_listeners.clear();
+        }
+    }
+
+    /**
+     * Returns whether the bundle would get the event of the service from a
+     * {@link ServiceListener} registered with its own context.
+     */
+    static boolean isVisible( final Bundle bundle, final ServiceReference<?> ref )
+    {
+        if ( System.getSecurityManager() != null
+            && !bundle.hasPermission( new ServicePermission( ref, ServicePermission.GET ) ) )
+        {
+            return false;
+        }
+        final Object objectClass = ref.getProperty( Constants.OBJECTCLASS );
+        if ( objectClass instanceof String[] )
+        {
+            for ( String className : ( String[] ) objectClass )
+            {
+                if ( !ref.isAssignableTo( bundle, className ) )
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The framework listener for a filter, which forwards the events to the
+     * listeners of the bundles. Like the per bundle listeners of the
+     * {@link BundleComponentActivator}, a single {@link ExtendedServiceEvent}
+     * is used for all listeners, so the managers are activated once all
+     * listeners have been called.
+     */
+    private static class SharedListener implements AllServiceListener
+    {
+        // copied on write, the listeners by bundle in the order of registration
+        private volatile Map<Bundle, List<ExtendedServiceListener<ExtendedServiceEvent>>> m_bundleListeners = new LinkedHashMap<>();
+
+        @Override
+        public void serviceChanged( final ServiceEvent event )
+        {
+            final ServiceReference<?> ref = event.getServiceReference();
+            ExtendedServiceEvent extEvent = new ExtendedServiceEvent( event );
+            for ( Map.Entry<Bundle, List<ExtendedServiceListener<ExtendedServiceEvent>>> entry : m_bundleListeners.entrySet() )
+            {
+                if ( isVisible( entry.getKey(), ref ) )
+                {
+                    for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : entry.getValue() )
+                    {
+                        forwardTo.serviceChanged( extEvent );
+                    }
+                }
+            }
+            extEvent.activateManagers();
+        }
+
+        // called with the lock of the multiplexer
+        void add( final Bundle bundle, final ExtendedServiceListener<ExtendedServiceEvent> listener )
+        {
+            final Map<Bundle, List<ExtendedServiceListener<ExtendedServiceEvent>>> bundleListeners = new LinkedHashMap<>( m_bundleListeners );
+            final List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = bundleListeners.get( bundle );
+            final List<ExtendedServiceListener<ExtendedServiceEvent>> newListeners = listeners == null
+                ? new ArrayList<ExtendedServiceListener<ExtendedServiceEvent>>()
+                : new ArrayList<>( listeners );
+            newListeners.add( listener );
+            bundleListeners.put( bundle, newListeners );
+            m_bundleListeners = bundleListeners;
+        }
+
+        // called with the lock of the multiplexer, returns whether no listeners are left
+        boolean remove( final Bundle bundle, final ExtendedServiceListener<ExtendedServiceEvent> listener )
+        {
+            final Map<Bundle, List<ExtendedServiceListener<ExtendedServiceEvent>>> bundleListeners = new LinkedHashMap<>( m_bundleListeners );
+            final List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = bundleListeners.get( bundle );
+            if ( listeners != null )
+            {
+                final List<ExtendedServiceListener<ExtendedServiceEvent>> newListeners = new ArrayList<>( listeners );
+                newListeners.remove( listener );
+                if ( newListeners.isEmpty() )
+                {
+                    bundleListeners.remove( bundle );
+                }
+                else
+                {
+                    bundleListeners.put( bundle, newListeners );
+                }
+                m_bundleListeners = bundleListeners;
+            }
+            return bundleListeners.isEmpty();
+        }
+    }
+}
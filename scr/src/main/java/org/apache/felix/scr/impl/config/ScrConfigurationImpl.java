@@ -83,6 +83,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private boolean cacheMetadata;
 
+    private int actorThreads;
+
+    private boolean actorVirtualThreads;
+
+    private boolean sharedServiceListeners;
+
     private boolean isLogEnabled;
 
     private boolean isLogExtensionEnabled;
@@ -182,6 +188,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
                         cacheMetadata = false;
+                        actorThreads = 0;
+                        actorVirtualThreads = false;
+                        sharedServiceListeners = false;
                         isLogEnabled = true;
                         isLogExtensionEnabled = false;
                     }
@@ -196,6 +205,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
                         cacheMetadata = getDefaultCacheMetadata();
+                        actorThreads = getDefaultActorThreads();
+                        actorVirtualThreads = getDefaultActorVirtualThreads();
+                        sharedServiceListeners = getDefaultSharedServiceListeners();
                         isLogEnabled = getDefaultLogEnabled();
                         isLogExtensionEnabled = getDefaultLogExtension();
                     }
@@ -218,6 +230,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
                 cacheMetadata = VALUE_TRUE.equalsIgnoreCase(
                     String.valueOf(config.get(PROP_CACHE_METADATA)));
+                Object threads = config.get( PROP_ACTOR_THREADS );
+                actorThreads = threads == null? 0: Integer.parseInt( String.valueOf( threads ) );
+                actorVirtualThreads = VALUE_TRUE.equalsIgnoreCase(
+                    String.valueOf(config.get(PROP_ACTOR_VIRTUAL_THREADS)));
+                sharedServiceListeners = VALUE_TRUE.equalsIgnoreCase(
+                    String.valueOf(config.get(PROP_SHARED_SERVICE_LISTENERS)));
                 isLogEnabled = checkIfLogEnabled(config);
                 isLogExtensionEnabled = VALUE_TRUE.equalsIgnoreCase(String.valueOf(config.get(PROP_LOG_EXTENSION)));
             }
@@ -290,6 +308,24 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return cacheMetadata;
     }
 
+    @Override
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
+    @Override
+    public boolean actorVirtualThreads()
+    {
+        return actorVirtualThreads;
+    }
+
+    @Override
+    public boolean sharedServiceListeners()
+    {
+        return sharedServiceListeners;
+    }
+
     @Override
     public long serviceChangecountTimeout()
     {
@@ -359,6 +395,28 @@ public class ScrConfigurationImpl implements ScrConfiguration
             bundleContext.getProperty(PROP_CACHE_METADATA));
     }
 
+    private int getDefaultActorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_ACTOR_THREADS );
+        if ( val == null)
+        {
+            return 0;
+        }
+        return Integer.parseInt( val );
+    }
+
+    private boolean getDefaultActorVirtualThreads()
+    {
+        return VALUE_TRUE.equalsIgnoreCase(
+            bundleContext.getProperty(PROP_ACTOR_VIRTUAL_THREADS));
+    }
+
+    private boolean getDefaultSharedServiceListeners()
+    {
+        return VALUE_TRUE.equalsIgnoreCase(
+            bundleContext.getProperty(PROP_SHARED_SERVICE_LISTENERS));
+    }
+
     private Level getLogLevel(final Object levelObject)
     {
         if ( levelObject != null )
@@ -117,6 +117,31 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 new String[] { String.valueOf(this.configuration.stopTimeout())},
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_THREADS,
+                "Actor threads",
+                "How many threads run the asynchronous component tasks. The tasks of each component are run "
+                    + "in order, but the tasks of different components may run in parallel. The default of 0 "
+                    + "runs all tasks on a single thread. Only takes effect when SCR is started.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.actorThreads())},
+                0, null, null) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_VIRTUAL_THREADS,
+                "Actor virtual threads",
+                "Whether the asynchronous component tasks are run by virtual threads, if available. "
+                    + "Only takes effect when SCR is started.",
+                this.configuration.actorVirtualThreads() ) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_SHARED_SERVICE_LISTENERS,
+                "Shared service listeners",
+                "Whether the references of all bundles share one service listener per service filter. "
+                    + "Event listener hooks only see the listener of SCR then. "
+                    + "Only takes effect when SCR is started.",
+                this.configuration.sharedServiceListeners() ) );
+
         adList.add( new AttributeDefinitionImpl(
                 ScrConfiguration.PROP_GLOBAL_EXTENDER,
                 "Global Extender",
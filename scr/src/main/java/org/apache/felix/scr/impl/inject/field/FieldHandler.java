@@ -40,6 +40,7 @@ import org.apache.felix.scr.impl.inject.ValueUtils;
 import org.apache.felix.scr.impl.inject.ValueUtils.ValueType;
 import org.apache.felix.scr.impl.inject.field.FieldUtils.FieldSearchResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.FieldAccessor;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
@@ -59,6 +60,9 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** The accessor for the field. */
+    private volatile FieldAccessor accessor;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -323,7 +327,7 @@ public class FieldHandler
     {
         try
         {
-            field.set(componentInstance, value);
+            accessor.set(componentInstance, value);
         }
         catch ( final IllegalArgumentException iae )
         {
@@ -340,7 +344,7 @@ public class FieldHandler
     {
         try
         {
-            return field.get(componentInstance);
+            return accessor.get(componentInstance);
         }
         catch ( final IllegalArgumentException iae )
         {
@@ -468,6 +472,7 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            accessor = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -477,6 +482,7 @@ public class FieldHandler
         else
         {
             field = result.field;
+            accessor = FieldAccessor.forField(result.field);
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
@@ -234,6 +234,25 @@ public class Annotations
             }
         }
 
+        // invalid values throw on access, which only the proxy handles
+        boolean valid = true;
+        for (final Object value : m.values())
+        {
+            if (value instanceof Invalid)
+            {
+                valid = false;
+                break;
+            }
+        }
+        if (valid)
+        {
+            final T generated = PropertyTypes.newInstance(clazz, b, m);
+            if (generated != null)
+            {
+                return generated;
+            }
+        }
+
         final InvocationHandler h = new Handler(m, clazz);
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, h);
     }
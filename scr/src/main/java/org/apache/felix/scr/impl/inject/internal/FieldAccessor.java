@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Gets and sets a resolved reference field. Like the {@link MethodInvoker},
+ * an accessor is created once when the field is resolved and uses method
+ * handles, falling back to reflection if no method handles can be created
+ * for the field, for example because it is final.
+ */
+public abstract class FieldAccessor
+{
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class,
+        Object.class );
+
+    private final Field m_field;
+
+    FieldAccessor( final Field field )
+    {
+        m_field = field;
+    }
+
+    /**
+     * Returns an accessor for the field, which must have been made accessible
+     * already.
+     * @param field The field
+     * @return The accessor using method handles or reflection
+     */
+    public static FieldAccessor forField( final Field field )
+    {
+        try
+        {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return new HandleAccessor( field,
+                lookup.unreflectGetter( field ).asType( GETTER_TYPE ),
+                lookup.unreflectSetter( field ).asType( SETTER_TYPE ) );
+        }
+        catch ( IllegalAccessException iae )
+        {
+            return forReflection( field );
+        }
+        catch ( RuntimeException re )
+        {
+            return forReflection( field );
+        }
+    }
+
+    /**
+     * Returns an accessor using reflection.
+     * @param field The field
+     * @return The accessor
+     */
+    public static FieldAccessor forReflection( final Field field )
+    {
+        return new ReflectionAccessor( field );
+    }
+
+    public Field getField()
+    {
+        return m_field;
+    }
+
+    /**
+     * Returns the value of the field like <code>Field.get</code>.
+     * @param target The component instance
+     * @return The value
+     * @throws IllegalAccessException If the field cannot be accessed
+     */
+    public abstract Object get( Object target ) throws IllegalAccessException;
+
+    /**
+     * Sets the value of the field like <code>Field.set</code>.
+     * @param target The component instance
+     * @param value The value
+     * @throws IllegalAccessException If the field cannot be accessed
+     * @throws IllegalArgumentException If the value does not match the type
+     *      of the field
+     */
+    public abstract void set( Object target, Object value ) throws IllegalAccessException;
+
+    private static final class HandleAccessor extends FieldAccessor
+    {
+        private final MethodHandle m_getter;
+        private final MethodHandle m_setter;
+
+        HandleAccessor( final Field field, final MethodHandle getter, final MethodHandle setter )
+        {
+            super( field );
+            m_getter = getter;
+            m_setter = setter;
+        }
+
+        @Override
+        public Object get( final Object target )
+        {
+            try
+            {
+                return m_getter.invokeExact( target );
+            }
+            catch ( ClassCastException cce )
+            {
+                throw new IllegalArgumentException( cce );
+            }
+            catch ( RuntimeException re )
+            {
+                throw re;
+            }
+            catch ( Error e )
+            {
+                throw e;
+            }
+            catch ( Throwable t )
+            {
+                throw new IllegalArgumentException( t );
+            }
+        }
+
+        @Override
+        public void set( final Object target, final Object value )
+        {
+            try
+            {
+                m_setter.invokeExact( target, value );
+            }
+            catch ( ClassCastException cce )
+            {
+                throw new IllegalArgumentException( cce );
+            }
+            catch ( RuntimeException re )
+            {
+                throw re;
+            }
+            catch ( Error e )
+            {
+                throw e;
+            }
+            catch ( Throwable t )
+            {
+                throw new IllegalArgumentException( t );
+            }
+        }
+    }
+
+    private static final class ReflectionAccessor extends FieldAccessor
+    {
+        ReflectionAccessor( final Field field )
+        {
+            super( field );
+        }
+
+        @Override
+        public Object get( final Object target ) throws IllegalAccessException
+        {
+            return getField().get( target );
+        }
+
+        @Override
+        public void set( final Object target, final Object value ) throws IllegalAccessException
+        {
+            getField().set( target, value );
+        }
+    }
+}
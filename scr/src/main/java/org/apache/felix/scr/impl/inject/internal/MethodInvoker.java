@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes a resolved component method. An invoker is created once when the
+ * method is resolved. It calls the method through a method handle, which is
+ * cheaper than reflection for methods called often, such as the bind and
+ * unbind methods of dynamic multiple references.
+ * <p>
+ * If no method handle can be created for the method, the invoker falls back
+ * to calling the method by reflection.
+ */
+public abstract class MethodInvoker
+{
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class,
+        Object[].class );
+
+    private final Method m_method;
+
+    MethodInvoker( final Method method )
+    {
+        m_method = method;
+    }
+
+    /**
+     * Returns an invoker for the method, which must have been made accessible
+     * already.
+     * @param method The method
+     * @return The invoker using a method handle or reflection
+     */
+    public static MethodInvoker forMethod( final Method method )
+    {
+        try
+        {
+            return new HandleInvoker( method, MethodHandles.lookup().unreflect( method )
+                .asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( INVOKER_TYPE ) );
+        }
+        catch ( IllegalAccessException iae )
+        {
+            return forReflection( method );
+        }
+        catch ( RuntimeException re )
+        {
+            return forReflection( method );
+        }
+    }
+
+    /**
+     * Returns an invoker calling the method by reflection.
+     * @param method The method
+     * @return The invoker
+     */
+    public static MethodInvoker forReflection( final Method method )
+    {
+        return new ReflectionInvoker( method );
+    }
+
+    public Method getMethod()
+    {
+        return m_method;
+    }
+
+    /**
+     * Calls the method like <code>Method.invoke</code>.
+     * @param target The component instance
+     * @param args The parameters of the method, may be <code>null</code> if
+     *      the method has no parameters
+     * @return The return value of the method or <code>null</code> for void
+     *      methods
+     * @throws IllegalAccessException If the method cannot be accessed
+     * @throws InvocationTargetException If the method throws an exception or
+     *      the parameters do not match
+     */
+    public abstract Object invoke( Object target, Object[] args )
+        throws IllegalAccessException, InvocationTargetException;
+
+    private static final class HandleInvoker extends MethodInvoker
+    {
+        private final MethodHandle m_handle;
+
+        HandleInvoker( final Method method, final MethodHandle handle )
+        {
+            super( method );
+            m_handle = handle;
+        }
+
+        @Override
+        public Object invoke( final Object target, final Object[] args ) throws InvocationTargetException
+        {
+            final Object[] params = args == null ? NO_ARGS : args;
+            try
+            {
+                return m_handle.invokeExact( target, params );
+            }
+            catch ( Throwable t )
+            {
+                throw new InvocationTargetException( t );
+            }
+        }
+    }
+
+    private static final class ReflectionInvoker extends MethodInvoker
+    {
+        ReflectionInvoker( final Method method )
+        {
+            super( method );
+        }
+
+        @Override
+        public Object invoke( final Object target, final Object[] args )
+            throws IllegalAccessException, InvocationTargetException
+        {
+            return getMethod().invoke( target, args );
+        }
+    }
+}
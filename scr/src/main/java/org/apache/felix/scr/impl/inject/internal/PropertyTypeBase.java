@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.util.Map;
+
+/**
+ * Base class of the implementations generated by {@link PropertyTypes} for
+ * component property types. It provides the methods of
+ * <code>Annotation</code> and <code>Object</code> the same way as the
+ * dynamic proxies created by {@link Annotations#toObject}, while the
+ * generated subclass only returns the coerced values.
+ * <p>
+ * This class must be public, as the generated classes are defined by
+ * another class loader.
+ */
+public abstract class PropertyTypeBase
+{
+    private final Class<?> m_type;
+
+    private final Map<String, Object> m_values;
+
+    protected PropertyTypeBase( final Class<?> type, final Map<String, Object> values )
+    {
+        m_type = type;
+        m_values = values;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Class annotationType()
+    {
+        return m_type;
+    }
+
+    @Override
+    public boolean equals( final Object other )
+    {
+        if ( this == other )
+        {
+            return true;
+        }
+        if ( other instanceof PropertyTypeBase && m_type.isInstance( other ) )
+        {
+            return ( ( PropertyTypeBase ) other ).m_values.equals( m_values );
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hashCode = 0;
+        for ( final Map.Entry<String, Object> entry : m_values.entrySet() )
+        {
+            final Object value = entry.getValue();
+            hashCode += ( 127 * entry.getKey().hashCode() ) ^ ( value == null ? 0 : value.hashCode() );
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_type.getName() + " : " + m_values;
+    }
+}
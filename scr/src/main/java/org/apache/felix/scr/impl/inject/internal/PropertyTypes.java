@@ -0,0 +1,556 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Generates implementation classes for component property types, which are
+ * used instead of dynamic proxies. A generated class extends
+ * {@link PropertyTypeBase}, keeps the coerced value of each member in a
+ * typed field and returns it without any lookup.
+ * <p>
+ * One class is generated per property type and class loader of the type.
+ * The classes are cached per bundle using the property type and dropped
+ * when the bundle is unresolved. If no class can be generated for a type,
+ * for example because it is not public, <code>null</code> is returned and
+ * the caller falls back to a dynamic proxy.
+ */
+public class PropertyTypes
+{
+    private static final Generated NONE = new Generated( null, null );
+
+    private static final String BASE_NAME = PropertyTypeBase.class.getName().replace( '.', '/' );
+
+    private static final String CONSTRUCTOR_DESC = "(Ljava/lang/Class;Ljava/util/Map;[Ljava/lang/Object;)V";
+
+    private static final Map<Class<?>, Class<?>> BOXES = new HashMap<>();
+    static
+    {
+        BOXES.put( boolean.class, Boolean.class );
+        BOXES.put( byte.class, Byte.class );
+        BOXES.put( char.class, Character.class );
+        BOXES.put( short.class, Short.class );
+        BOXES.put( int.class, Integer.class );
+        BOXES.put( long.class, Long.class );
+        BOXES.put( float.class, Float.class );
+        BOXES.put( double.class, Double.class );
+    }
+
+    /** Generated classes by bundle id and property type. */
+    private static final ConcurrentMap<Long, BundleTypes> TYPES = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an instance of the generated implementation of the property
+     * type.
+     * @param type The property type
+     * @param bundle The bundle of the component
+     * @param values The coerced values by member name
+     * @return The instance or <code>null</code> if there is no generated
+     *      implementation for the type or the values do not match it.
+     */
+    static <T> T newInstance( final Class<T> type, final Bundle bundle, final Map<String, Object> values )
+    {
+        if ( bundle == null )
+        {
+            return null;
+        }
+        BundleTypes types = TYPES.get( bundle.getBundleId() );
+        if ( types == null )
+        {
+            types = new BundleTypes();
+            final BundleTypes existing = TYPES.putIfAbsent( bundle.getBundleId(), types );
+            types = existing != null ? existing : types;
+        }
+        return types.get( type ).newInstance( type, values );
+    }
+
+    /**
+     * Drops the classes generated for the components of the bundle.
+     * @param bundle The bundle which was unresolved or uninstalled
+     */
+    public static void bundleUnresolved( final Bundle bundle )
+    {
+        TYPES.remove( bundle.getBundleId() );
+    }
+
+    private static final class BundleTypes
+    {
+        private final ConcurrentMap<Class<?>, Generated> m_types = new ConcurrentHashMap<>();
+
+        private final Map<ClassLoader, GeneratorLoader> m_loaders = new HashMap<>();
+
+        Generated get( final Class<?> type )
+        {
+            Generated generated = m_types.get( type );
+            if ( generated == null )
+            {
+                synchronized ( this )
+                {
+                    generated = m_types.get( type );
+                    if ( generated == null )
+                    {
+                        generated = generate( type );
+                        m_types.put( type, generated );
+                    }
+                }
+            }
+            return generated;
+        }
+
+        private Generated generate( final Class<?> type )
+        {
+            final ClassLoader parent = type.getClassLoader();
+            if ( parent == null || !type.isInterface() || !Modifier.isPublic( type.getModifiers() ) )
+            {
+                return NONE;
+            }
+            final Map<String, Method> members = getMembers( type );
+            if ( members == null )
+            {
+                return NONE;
+            }
+            try
+            {
+                GeneratorLoader loader = m_loaders.get( parent );
+                if ( loader == null )
+                {
+                    loader = new GeneratorLoader( parent );
+                    m_loaders.put( parent, loader );
+                }
+                final String name = type.getName() + "$$ScrPropertyType";
+                final Class<?> impl = loader.define( name, new ClassGenerator( name, type, members ).toByteArray() );
+                return new Generated( impl.getConstructor( Class.class, Map.class, Object[].class ),
+                    members.keySet().toArray( new String[members.size()] ) );
+            }
+            catch ( Throwable t )
+            {
+                // use the proxy
+                return NONE;
+            }
+        }
+    }
+
+    /**
+     * Returns the members to implement by name, or <code>null</code> if the
+     * type has members which cannot be implemented.
+     */
+    private static Map<String, Method> getMembers( final Class<?> type )
+    {
+        final Map<String, Method> members = new LinkedHashMap<>();
+        for ( final Method method : type.getMethods() )
+        {
+            if ( Modifier.isStatic( method.getModifiers() ) )
+            {
+                continue;
+            }
+            final String name = method.getName();
+            if ( method.getParameterTypes().length > 0 )
+            {
+                if ( name.equals( "equals" ) && method.getParameterTypes().length == 1 )
+                {
+                    continue;
+                }
+                return null;
+            }
+            if ( name.equals( "hashCode" ) || name.equals( "toString" ) || name.equals( "annotationType" ) )
+            {
+                continue;
+            }
+            Class<?> returnType = method.getReturnType();
+            while ( returnType.isArray() )
+            {
+                returnType = returnType.getComponentType();
+            }
+            if ( returnType == void.class
+                || ( !returnType.isPrimitive() && !Modifier.isPublic( returnType.getModifiers() ) )
+                || members.put( name, method ) != null )
+            {
+                return null;
+            }
+        }
+        return members;
+    }
+
+    private static final class Generated
+    {
+        private final Constructor<?> m_constructor;
+
+        private final String[] m_names;
+
+        Generated( final Constructor<?> constructor, final String[] names )
+        {
+            m_constructor = constructor;
+            m_names = names;
+        }
+
+        <T> T newInstance( final Class<T> type, final Map<String, Object> values )
+        {
+            if ( m_constructor == null )
+            {
+                return null;
+            }
+            final Object[] args = new Object[m_names.length];
+            for ( int i = 0; i < args.length; i++ )
+            {
+                args[i] = values.get( m_names[i] );
+            }
+            try
+            {
+                return type.cast( m_constructor.newInstance( type, values, args ) );
+            }
+            catch ( Exception e )
+            {
+                // a value does not match the member type, use the proxy
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Defines the generated classes of the property types of one class
+     * loader. It only adds the base class to the classes visible to that
+     * class loader.
+     */
+    private static final class GeneratorLoader extends ClassLoader
+    {
+        GeneratorLoader( final ClassLoader parent )
+        {
+            super( parent );
+        }
+
+        @Override
+        protected Class<?> loadClass( final String name, final boolean resolve ) throws ClassNotFoundException
+        {
+            if ( name.equals( PropertyTypeBase.class.getName() ) )
+            {
+                return PropertyTypeBase.class;
+            }
+            return super.loadClass( name, resolve );
+        }
+
+        Class<?> define( final String name, final byte[] b )
+        {
+            return defineClass( name, b, 0, b.length );
+        }
+    }
+
+    /**
+     * Writes a class file with a typed field and a getter per member. The
+     * constructor unboxes the values into the fields. No method has
+     * branches, so no stack map frames are needed.
+     */
+    private static final class ClassGenerator
+    {
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_PRIVATE = 0x0002;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private final Map<String, Integer> m_constants = new HashMap<>();
+        private final ByteArrayOutputStream m_pool = new ByteArrayOutputStream();
+        private final DataOutputStream m_poolOut = new DataOutputStream( m_pool );
+        private int m_poolSize = 1;
+
+        private final String m_name;
+        private final Class<?> m_type;
+        private final Map<String, Method> m_members;
+
+        ClassGenerator( final String name, final Class<?> type, final Map<String, Method> members )
+        {
+            m_name = name.replace( '.', '/' );
+            m_type = type;
+            m_members = members;
+        }
+
+        byte[] toByteArray() throws IOException
+        {
+            final List<byte[]> fields = new ArrayList<>();
+            final List<byte[]> methods = new ArrayList<>();
+            methods.add( constructor() );
+            int index = 0;
+            for ( final Method method : m_members.values() )
+            {
+                final String desc = descriptor( method.getReturnType() );
+                fields.add( member( ACC_PRIVATE | ACC_FINAL, "f" + index, desc, null ) );
+                methods.add( getter( method, "f" + index, desc ) );
+                index++;
+            }
+            final int thisClass = classRef( m_name );
+            final int superClass = classRef( BASE_NAME );
+            final int iface = classRef( internalName( m_type ) );
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( bytes );
+            out.writeInt( 0xCAFEBABE );
+            out.writeShort( 0 );
+            out.writeShort( 52 );
+            out.writeShort( m_poolSize );
+            m_poolOut.flush();
+            m_pool.writeTo( out );
+            out.writeShort( ACC_PUBLIC | ACC_FINAL | ACC_SUPER );
+            out.writeShort( thisClass );
+            out.writeShort( superClass );
+            out.writeShort( 1 );
+            out.writeShort( iface );
+            out.writeShort( fields.size() );
+            for ( final byte[] field : fields )
+            {
+                out.write( field );
+            }
+            out.writeShort( methods.size() );
+            for ( final byte[] method : methods )
+            {
+                out.write( method );
+            }
+            out.writeShort( 0 );
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] constructor() throws IOException
+        {
+            final ByteArrayOutputStream code = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( code );
+            out.writeByte( 0x2a ); // aload_0
+            out.writeByte( 0x2b ); // aload_1
+            out.writeByte( 0x2c ); // aload_2
+            out.writeByte( 0xb7 ); // invokespecial
+            out.writeShort( methodRef( BASE_NAME, "<init>", "(Ljava/lang/Class;Ljava/util/Map;)V" ) );
+            int index = 0;
+            for ( final Method method : m_members.values() )
+            {
+                final Class<?> returnType = method.getReturnType();
+                out.writeByte( 0x2a ); // aload_0
+                out.writeByte( 0x2d ); // aload_3
+                if ( index <= 5 )
+                {
+                    out.writeByte( 0x03 + index ); // iconst_<n>
+                }
+                else if ( index <= Byte.MAX_VALUE )
+                {
+                    out.writeByte( 0x10 ); // bipush
+                    out.writeByte( index );
+                }
+                else
+                {
+                    out.writeByte( 0x11 ); // sipush
+                    out.writeShort( index );
+                }
+                out.writeByte( 0x32 ); // aaload
+                final Class<?> box = BOXES.get( returnType );
+                out.writeByte( 0xc0 ); // checkcast
+                out.writeShort( classRef( internalName( box != null ? box : returnType ) ) );
+                if ( box != null )
+                {
+                    out.writeByte( 0xb6 ); // invokevirtual
+                    out.writeShort( methodRef( internalName( box ), returnType.getName() + "Value",
+                        "()" + descriptor( returnType ) ) );
+                }
+                out.writeByte( 0xb5 ); // putfield
+                out.writeShort( fieldRef( m_name, "f" + index, descriptor( returnType ) ) );
+                index++;
+            }
+            out.writeByte( 0xb1 ); // return
+            out.flush();
+            return member( ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, code( 4, 4, code.toByteArray() ) );
+        }
+
+        private byte[] getter( final Method method, final String field, final String desc ) throws IOException
+        {
+            final Class<?> returnType = method.getReturnType();
+            final int ret;
+            if ( returnType == long.class )
+            {
+                ret = 0xad; // lreturn
+            }
+            else if ( returnType == float.class )
+            {
+                ret = 0xae; // freturn
+            }
+            else if ( returnType == double.class )
+            {
+                ret = 0xaf; // dreturn
+            }
+            else if ( returnType.isPrimitive() )
+            {
+                ret = 0xac; // ireturn
+            }
+            else
+            {
+                ret = 0xb0; // areturn
+            }
+            final ByteArrayOutputStream code = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( code );
+            out.writeByte( 0x2a ); // aload_0
+            out.writeByte( 0xb4 ); // getfield
+            out.writeShort( fieldRef( m_name, field, desc ) );
+            out.writeByte( ret );
+            out.flush();
+            return member( ACC_PUBLIC | ACC_FINAL, method.getName(), "()" + desc, code( 2, 1, code.toByteArray() ) );
+        }
+
+        private byte[] code( final int maxStack, final int maxLocals, final byte[] code ) throws IOException
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( bytes );
+            out.writeShort( utf8( "Code" ) );
+            out.writeInt( 12 + code.length );
+            out.writeShort( maxStack );
+            out.writeShort( maxLocals );
+            out.writeInt( code.length );
+            out.write( code );
+            out.writeShort( 0 ); // exception table
+            out.writeShort( 0 ); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] member( final int access, final String name, final String desc, final byte[] code )
+            throws IOException
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream( bytes );
+            out.writeShort( access );
+            out.writeShort( utf8( name ) );
+            out.writeShort( utf8( desc ) );
+            if ( code == null )
+            {
+                out.writeShort( 0 );
+            }
+            else
+            {
+                out.writeShort( 1 );
+                out.write( code );
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private int utf8( final String value ) throws IOException
+        {
+            final String key = "U" + value;
+            Integer index = m_constants.get( key );
+            if ( index == null )
+            {
+                m_poolOut.writeByte( 1 );
+                m_poolOut.writeUTF( value );
+                index = add( key );
+            }
+            return index;
+        }
+
+        private int classRef( final String name ) throws IOException
+        {
+            final String key = "C" + name;
+            Integer index = m_constants.get( key );
+            if ( index == null )
+            {
+                final int nameIndex = utf8( name );
+                m_poolOut.writeByte( 7 );
+                m_poolOut.writeShort( nameIndex );
+                index = add( key );
+            }
+            return index;
+        }
+
+        private int fieldRef( final String owner, final String name, final String desc ) throws IOException
+        {
+            return ref( 9, owner, name, desc );
+        }
+
+        private int methodRef( final String owner, final String name, final String desc ) throws IOException
+        {
+            return ref( 10, owner, name, desc );
+        }
+
+        private int ref( final int tag, final String owner, final String name, final String desc ) throws IOException
+        {
+            final String key = tag + owner + "." + name + ":" + desc;
+            Integer index = m_constants.get( key );
+            if ( index == null )
+            {
+                final int ownerIndex = classRef( owner );
+                final int nameAndType = nameAndType( name, desc );
+                m_poolOut.writeByte( tag );
+                m_poolOut.writeShort( ownerIndex );
+                m_poolOut.writeShort( nameAndType );
+                index = add( key );
+            }
+            return index;
+        }
+
+        private int nameAndType( final String name, final String desc ) throws IOException
+        {
+            final String key = "N" + name + ":" + desc;
+            Integer index = m_constants.get( key );
+            if ( index == null )
+            {
+                final int nameIndex = utf8( name );
+                final int descIndex = utf8( desc );
+                m_poolOut.writeByte( 12 );
+                m_poolOut.writeShort( nameIndex );
+                m_poolOut.writeShort( descIndex );
+                index = add( key );
+            }
+            return index;
+        }
+
+        private Integer add( final String key )
+        {
+            final Integer index = m_poolSize++;
+            m_constants.put( key, index );
+            return index;
+        }
+
+        private static String internalName( final Class<?> type )
+        {
+            // array classes are referenced by their descriptor
+            return type.isArray() ? descriptor( type ) : type.getName().replace( '.', '/' );
+        }
+
+        private static String descriptor( final Class<?> type )
+        {
+            if ( type == boolean.class ) return "Z";
+            if ( type == byte.class ) return "B";
+            if ( type == char.class ) return "C";
+            if ( type == short.class ) return "S";
+            if ( type == int.class ) return "I";
+            if ( type == long.class ) return "J";
+            if ( type == float.class ) return "F";
+            if ( type == double.class ) return "D";
+            if ( type.isArray() ) return "[" + descriptor( type.getComponentType() );
+            return "L" + type.getName().replace( '.', '/' ) + ";";
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Map;
 import org.apache.felix.scr.impl.inject.BaseParameter;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.MethodInvoker;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.metadata.DSVersion;
@@ -49,6 +50,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    private volatile MethodInvoker m_invoker;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -109,6 +112,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
         if (m_method != null)
         {
+            // create the invoker once instead of reflecting on every call
+            m_invoker = MethodInvoker.forMethod( m_method );
             setTypes(methodInfo.getTypes());
             m_state = Resolved.INSTANCE;
             logger.log(Level.DEBUG, "Found {0} method: {1}", null,
@@ -254,7 +259,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                             getMethodName(), Arrays.asList(getParametersForLogging(params)));
                 }
                 @SuppressWarnings("unchecked")
-                final Map<String, Object> result = (Map<String, Object>) m_method.invoke(
+                final Map<String, Object> result = (Map<String, Object>) m_invoker.invoke(
                     componentInstance, params);
                 logger.log(Level.DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
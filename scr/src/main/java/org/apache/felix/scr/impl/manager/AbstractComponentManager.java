@@ -448,7 +448,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -540,7 +540,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -1112,6 +1112,15 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         return m_container.getActivator();
     }
 
+    /**
+     * Returns the container of the component, which is the key the tasks of
+     * the component are scheduled with.
+     */
+    public ComponentContainer<S> getComponentContainer()
+    {
+        return m_container;
+    }
+
     synchronized void clear()
     {
         m_container.getActivator().unregisterComponentId(this);
@@ -34,7 +34,11 @@ public interface ComponentActivator extends ExtendedServiceListenerContext<Exten
 
     ScrConfiguration getConfiguration();
 
-    void schedule(Runnable runnable);
+    /**
+     * Schedules a task for asynchronous execution. Tasks with the same key
+     * are run in the order they are scheduled.
+     */
+    void schedule(Object key, Runnable runnable);
 
     long registerComponentId(AbstractComponentManager<?> sAbstractComponentManager);
 
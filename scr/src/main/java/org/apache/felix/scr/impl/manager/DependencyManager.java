@@ -111,6 +111,15 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         return dependency.isOptional() ? 0 : 1;
     }
 
+    /**
+     * Returns the container of the component, which is the key the tasks of
+     * the component are scheduled with.
+     */
+    public ComponentContainer<S> getComponentContainer()
+    {
+        return m_componentManager.getComponentContainer();
+    }
+
     int getIndex()
     {
         return m_index;
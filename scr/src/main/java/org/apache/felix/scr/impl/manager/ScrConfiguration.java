@@ -68,6 +68,12 @@ public interface ScrConfiguration extends LogConfiguration
     String PROP_SERVICE_CHANGECOUNT_TIMEOUT = "ds.service.changecount.timeout";
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
+
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
+    String PROP_ACTOR_VIRTUAL_THREADS = "ds.actor.virtual.threads";
+
+    String PROP_SHARED_SERVICE_LISTENERS = "ds.service.listener.shared";
     
 
     boolean isFactoryEnabled();
@@ -94,4 +100,25 @@ public interface ScrConfiguration extends LogConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads running the asynchronous component tasks.
+     * If zero, the tasks are run by a single actor thread in the order they
+     * are scheduled. Otherwise, the tasks of each component are still run in
+     * order, but the tasks of different components may run in parallel.
+     * Only read when SCR is started.
+     */
+    int actorThreads();
+
+    /**
+     * Returns whether the asynchronous component tasks are run by virtual
+     * threads, if they are available. Only read when SCR is started.
+     */
+    boolean actorVirtualThreads();
+
+    /**
+     * Returns whether the references of all bundles share one framework
+     * service listener per service filter. Only read when SCR is started.
+     */
+    boolean sharedServiceListeners();
+
 }
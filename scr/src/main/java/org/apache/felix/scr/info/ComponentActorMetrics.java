@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.info;
+
+/**
+ * Statistics of the asynchronous tasks run by the service component runtime,
+ * such as enabling and disabling components. Registered as a service while
+ * the runtime is active.
+ *
+ * @since 1.1
+ */
+public interface ComponentActorMetrics
+{
+
+    /**
+     * Returns the number of tasks scheduled but not started yet.
+     * @return the number of waiting tasks
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the number of tasks run so far.
+     * @return the number of tasks
+     */
+    long getTaskCount();
+
+    /**
+     * Returns the total time tasks waited between being scheduled and being
+     * started, in nanoseconds.
+     * @return the total waiting time
+     */
+    long getTaskWaitTime();
+
+    /**
+     * Returns the longest time a task waited between being scheduled and
+     * being started, in nanoseconds.
+     * @return the maximum waiting time
+     */
+    long getMaxTaskWaitTime();
+
+    /**
+     * Returns the total time spent running tasks, in nanoseconds.
+     * @return the total running time
+     */
+    long getTaskRunTime();
+
+}
@@ -21,11 +21,14 @@ package org.apache.felix.scr.impl;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import org.mockito.Mockito;
 import org.osgi.framework.Bundle;
+import org.osgi.service.component.ComponentConstants;
 
 import junit.framework.TestCase;
 
@@ -180,4 +183,48 @@ public class BundleComponentActivatorTest extends TestCase
         assertEquals( "Descriptor length", 0, actualUrls.length );
     }
 
+
+    private Bundle createDescriptorBundle( final String header, final String... descriptors )
+    {
+        final Dictionary<String, String> headers = new Hashtable<>();
+        if ( header != null )
+        {
+            headers.put( ComponentConstants.SERVICE_COMPONENT, header );
+        }
+        final Vector<URL> urls = new Vector<>();
+        for ( String descriptor : descriptors )
+        {
+            urls.add( getClass().getResource( descriptor ) );
+        }
+        final Bundle bundle = Mockito.mock( Bundle.class );
+        Mockito.when( bundle.getHeaders( "" ) ).thenReturn( headers );
+        Mockito.when( bundle.findEntries( "/", "*.xml", false ) ).thenReturn( urls.elements() );
+        return bundle;
+    }
+
+    /**
+     * Test that the descriptor hash of a bundle without Service-Component header is NO_DESCRIPTORS.
+     */
+    public void test_getDescriptorHash_withoutHeader() throws Exception
+    {
+        final Bundle bundle = createDescriptorBundle( null );
+        assertEquals( BundleComponentActivator.NO_DESCRIPTORS, BundleComponentActivator.getDescriptorHash( bundle ) );
+    }
+
+    /**
+     * Test that the descriptor hash only changes with the descriptors, for example when a fragment
+     * providing another descriptor is attached.
+     */
+    public void test_getDescriptorHash() throws Exception
+    {
+        final long hash = BundleComponentActivator.getDescriptorHash(
+            createDescriptorBundle( "*.xml", "/components_10.xml" ) );
+        assertEquals( hash, BundleComponentActivator.getDescriptorHash(
+            createDescriptorBundle( "*.xml", "/components_10.xml" ) ) );
+        assertFalse( hash == BundleComponentActivator.getDescriptorHash(
+            createDescriptorBundle( "*.xml", "/components_11.xml" ) ) );
+        assertFalse( hash == BundleComponentActivator.getDescriptorHash(
+            createDescriptorBundle( "*.xml", "/components_10.xml", "/components_11.xml" ) ) );
+    }
+
 }
\ No newline at end of file
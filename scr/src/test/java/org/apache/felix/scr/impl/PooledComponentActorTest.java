@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+
+import junit.framework.TestCase;
+
+public class PooledComponentActorTest extends TestCase
+{
+
+    /**
+     * Test that the tasks of each key are run in the order they are scheduled.
+     */
+    public void test_schedule_orderedPerKey() throws Exception
+    {
+        final PooledComponentActor actor = new PooledComponentActor( new MockScrLogger(), 4, false );
+        final Object[] keys = { "a", "b", "c", null };
+        final List<List<Integer>> results = new ArrayList<>();
+        for ( int k = 0; k < keys.length; k++ )
+        {
+            results.add( Collections.synchronizedList( new ArrayList<Integer>() ) );
+        }
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            for ( int k = 0; k < keys.length; k++ )
+            {
+                final List<Integer> result = results.get( k );
+                final int value = i;
+                actor.schedule( keys[k], new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        result.add( value );
+                    }
+                } );
+            }
+        }
+        actor.terminate();
+
+        for ( List<Integer> result : results )
+        {
+            assertEquals( "Number of tasks run", 1000, result.size() );
+            for ( int i = 0; i < result.size(); i++ )
+            {
+                assertEquals( "Task order", i, result.get( i ).intValue() );
+            }
+        }
+        assertEquals( "Task count", 4000, actor.getTaskCount() );
+        assertEquals( "Queue depth", 0, actor.getQueueDepth() );
+        assertTrue( "Wait time", actor.getTaskWaitTime() >= actor.getMaxTaskWaitTime() );
+    }
+
+    /**
+     * Test that a blocked task does not hold up the tasks of other keys.
+     */
+    public void test_schedule_otherKeysProceed() throws Exception
+    {
+        final PooledComponentActor actor = new PooledComponentActor( new MockScrLogger(), 2, false );
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        actor.schedule( "blocked", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if ( latch.await( 10, TimeUnit.SECONDS ) )
+                    {
+                        done.countDown();
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        actor.schedule( "other", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        } );
+
+        assertTrue( "Blocked task completed", done.await( 10, TimeUnit.SECONDS ) );
+        actor.terminate();
+        assertEquals( "Task count", 2, actor.getTaskCount() );
+    }
+
+    /**
+     * Test that failing tasks do not stop the following tasks.
+     */
+    public void test_schedule_failingTask() throws Exception
+    {
+        final PooledComponentActor actor = new PooledComponentActor( new MockScrLogger(), 1, false );
+        final List<String> result = Collections.synchronizedList( new ArrayList<String>() );
+        actor.schedule( "key", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException( "failure" );
+            }
+        } );
+        actor.schedule( "key", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                result.add( "run" );
+            }
+        } );
+        actor.terminate();
+
+        assertEquals( "Tasks run", Collections.singletonList( "run" ), result );
+        assertEquals( "Task count", 2, actor.getTaskCount() );
+    }
+}
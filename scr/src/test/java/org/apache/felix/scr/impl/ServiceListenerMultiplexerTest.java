@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.manager.ExtendedServiceEvent;
+import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import junit.framework.TestCase;
+
+public class ServiceListenerMultiplexerTest extends TestCase
+{
+
+    private static final String FILTER = "(objectClass=org.osgi.service.log.LogService)";
+
+    private final Map<String, ServiceListener> registered = new HashMap<>();
+
+    private final ServiceListenerMultiplexer multiplexer = new ServiceListenerMultiplexer(
+        new MockBundleContext( new MockBundle() )
+        {
+            @Override
+            public void addServiceListener( ServiceListener listener, String filter )
+            {
+                registered.put( filter, listener );
+            }
+
+            @Override
+            public void removeServiceListener( ServiceListener listener )
+            {
+                registered.values().remove( listener );
+            }
+        } );
+
+    private static class RecordingListener implements ExtendedServiceListener<ExtendedServiceEvent>
+    {
+        final List<ExtendedServiceEvent> events = new ArrayList<>();
+
+        @Override
+        public void serviceChanged( ExtendedServiceEvent event )
+        {
+            events.add( event );
+        }
+    }
+
+    private ServiceReference<?> mockReference( Bundle visible )
+    {
+        ServiceReference<?> ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getProperty( Constants.OBJECTCLASS ) ).thenReturn(
+            new String[] { "org.osgi.service.log.LogService" } );
+        Mockito.when( ref.isAssignableTo( visible, "org.osgi.service.log.LogService" ) ).thenReturn( true );
+        return ref;
+    }
+
+    public void test_one_framework_listener_per_filter()
+    {
+        Bundle b1 = new MockBundle();
+        Bundle b2 = new MockBundle();
+        RecordingListener l1 = new RecordingListener();
+        RecordingListener l2 = new RecordingListener();
+        RecordingListener l3 = new RecordingListener();
+
+        multiplexer.addServiceListener( b1, FILTER, l1 );
+        multiplexer.addServiceListener( b2, FILTER, l2 );
+        multiplexer.addServiceListener( b2, "(objectClass=foo)", l3 );
+        assertEquals( 2, multiplexer.getListenerCount() );
+        assertEquals( 2, registered.size() );
+
+        multiplexer.removeServiceListener( b1, FILTER, l1 );
+        assertEquals( 2, multiplexer.getListenerCount() );
+        multiplexer.removeServiceListener( b2, FILTER, l2 );
+        assertEquals( 1, multiplexer.getListenerCount() );
+        assertFalse( registered.containsKey( FILTER ) );
+
+        multiplexer.close();
+        assertEquals( 0, multiplexer.getListenerCount() );
+        assertTrue( registered.isEmpty() );
+    }
+
+    public void test_events_only_forwarded_to_bundles_in_class_space()
+    {
+        Bundle b1 = new MockBundle();
+        Bundle b2 = new MockBundle();
+        RecordingListener l1 = new RecordingListener();
+        RecordingListener l2 = new RecordingListener();
+        multiplexer.addServiceListener( b1, FILTER, l1 );
+        multiplexer.addServiceListener( b2, FILTER, l2 );
+
+        ServiceReference<?> ref = mockReference( b1 );
+        registered.get( FILTER ).serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+
+        assertEquals( 1, l1.events.size() );
+        assertSame( ref, l1.events.get( 0 ).getServiceReference() );
+        assertEquals( 0, l2.events.size() );
+    }
+
+    public void test_listeners_of_one_bundle_share_the_event()
+    {
+        Bundle b1 = new MockBundle();
+        RecordingListener l1 = new RecordingListener();
+        RecordingListener l2 = new RecordingListener();
+        multiplexer.addServiceListener( b1, FILTER, l1 );
+        multiplexer.addServiceListener( b1, FILTER, l2 );
+
+        registered.get( FILTER ).serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, mockReference( b1 ) ) );
+
+        assertEquals( 1, l1.events.size() );
+        assertEquals( 1, l2.events.size() );
+        assertSame( l1.events.get( 0 ), l2.events.get( 0 ) );
+    }
+}
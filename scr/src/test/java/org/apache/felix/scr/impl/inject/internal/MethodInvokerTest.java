@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MethodInvokerTest extends TestCase
+{
+
+    public void test_invoke_privateMethod() throws Exception
+    {
+        final Method m = Component.class.getDeclaredMethod( "bind", String.class, Map.class );
+        m.setAccessible( true );
+
+        final Component c = new Component();
+        final Object result = MethodInvoker.forMethod( m ).invoke( c,
+            new Object[] { "a", Collections.emptyMap() } );
+        assertNull( result );
+        assertEquals( "a", c.bound );
+
+        MethodInvoker.forReflection( m ).invoke( c, new Object[] { "b", Collections.emptyMap() } );
+        assertEquals( "b", c.bound );
+    }
+
+    public void test_invoke_returnValueAndNoParameters() throws Exception
+    {
+        final Method m = Component.class.getDeclaredMethod( "activate" );
+        m.setAccessible( true );
+
+        final Component c = new Component();
+        assertEquals( Collections.singletonMap( "activated", Boolean.TRUE ),
+            MethodInvoker.forMethod( m ).invoke( c, null ) );
+        assertEquals( Collections.singletonMap( "activated", Boolean.TRUE ),
+            MethodInvoker.forReflection( m ).invoke( c, null ) );
+    }
+
+    public void test_invoke_exceptionIsWrapped() throws Exception
+    {
+        final Method m = Component.class.getDeclaredMethod( "fail" );
+        m.setAccessible( true );
+
+        try
+        {
+            MethodInvoker.forMethod( m ).invoke( new Component(), new Object[0] );
+            fail( "expected InvocationTargetException" );
+        }
+        catch ( InvocationTargetException ite )
+        {
+            assertTrue( ite.getCause() instanceof IllegalStateException );
+        }
+    }
+
+    public void test_field_getAndSet() throws Exception
+    {
+        final Field f = Component.class.getDeclaredField( "services" );
+        f.setAccessible( true );
+
+        final Component c = new Component();
+        final FieldAccessor accessor = FieldAccessor.forField( f );
+        final List<String> services = Collections.singletonList( "s" );
+        accessor.set( c, services );
+        assertSame( services, c.services );
+        assertSame( services, accessor.get( c ) );
+
+        try
+        {
+            accessor.set( c, "not a list" );
+            fail( "expected IllegalArgumentException" );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            // expected, as for Field.set
+        }
+    }
+
+    public void test_field_finalFallsBackToReflection() throws Exception
+    {
+        final Field f = Component.class.getDeclaredField( "fixed" );
+        f.setAccessible( true );
+
+        final Component c = new Component();
+        final FieldAccessor accessor = FieldAccessor.forField( f );
+        assertEquals( "fixed", accessor.get( c ) );
+        accessor.set( c, "changed" );
+        assertEquals( "changed", f.get( c ) );
+    }
+
+    private static class Component
+    {
+        private final String fixed = String.valueOf( "fixed" );
+
+        private volatile List<String> services;
+
+        private String bound;
+
+        @SuppressWarnings("unused")
+        private void bind( final String service, final Map<String, Object> props )
+        {
+            bound = service;
+        }
+
+        @SuppressWarnings("unused")
+        private Map<String, Object> activate()
+        {
+            return Collections.<String, Object> singletonMap( "activated", Boolean.TRUE );
+        }
+
+        @SuppressWarnings("unused")
+        private void fail()
+        {
+            throw new IllegalStateException();
+        }
+    }
+}
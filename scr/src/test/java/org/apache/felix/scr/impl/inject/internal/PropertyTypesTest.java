@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.service.component.ComponentException;
+
+import junit.framework.TestCase;
+
+public class PropertyTypesTest extends TestCase
+{
+
+    public enum E {a, b}
+
+    public @interface Config {
+        boolean bool();
+        int count();
+        long timeout();
+        double ratio();
+        char cha();
+        String name();
+        E e();
+        String[] names();
+        int[] ports();
+    }
+
+    @interface Hidden {
+        int count();
+    }
+
+    private Bundle mockBundle( long id )
+    {
+        Bundle b = Mockito.mock( Bundle.class );
+        Mockito.when( b.getBundleId() ).thenReturn( id );
+        return b;
+    }
+
+    private Map<String, Object> values()
+    {
+        Map<String, Object> values = new HashMap<>();
+        values.put( "bool", "true" );
+        values.put( "count", "42" );
+        values.put( "timeout", 1000 );
+        values.put( "ratio", "0.5" );
+        values.put( "cha", "c" );
+        values.put( "name", "foo" );
+        values.put( "e", "b" );
+        values.put( "names", new String[] {"x", "y"} );
+        values.put( "ports", Arrays.asList( 80, "443" ) );
+        return values;
+    }
+
+    public void testGeneratedImplementation() throws Exception
+    {
+        Config c = Annotations.toObject( Config.class, values(), mockBundle( 1 ), false );
+        assertFalse( Proxy.isProxyClass( c.getClass() ) );
+        assertTrue( c.bool() );
+        assertEquals( 42, c.count() );
+        assertEquals( 1000L, c.timeout() );
+        assertEquals( 0.5d, c.ratio(), 0.0d );
+        assertEquals( 'c', c.cha() );
+        assertEquals( "foo", c.name() );
+        assertEquals( E.b, c.e() );
+        assertTrue( Arrays.equals( new String[] {"x", "y"}, c.names() ) );
+        assertTrue( Arrays.equals( new int[] {80, 443}, c.ports() ) );
+        assertEquals( Config.class, ( ( PropertyTypeBase ) c ).annotationType() );
+        assertTrue( c.toString().startsWith( Config.class.getName() ) );
+    }
+
+    public void testDefaultsAndEquality() throws Exception
+    {
+        Map<String, Object> values = new HashMap<>();
+        values.put( "name", "foo" );
+        Config c1 = Annotations.toObject( Config.class, values, mockBundle( 2 ), false );
+        Config c2 = Annotations.toObject( Config.class, values, mockBundle( 2 ), false );
+        assertFalse( Proxy.isProxyClass( c1.getClass() ) );
+        assertSame( c1.getClass(), c2.getClass() );
+        assertEquals( 0, c1.count() );
+        assertFalse( c1.bool() );
+        assertEquals( 0, c1.names().length );
+        assertEquals( c1, c1 );
+        assertFalse( c1.equals( Annotations.toObject( Config.class, values(), mockBundle( 2 ), false ) ) );
+    }
+
+    public void testClassDroppedWhenUnresolved() throws Exception
+    {
+        Bundle b = mockBundle( 3 );
+        Config c1 = Annotations.toObject( Config.class, values(), b, false );
+        PropertyTypes.bundleUnresolved( b );
+        Config c2 = Annotations.toObject( Config.class, values(), b, false );
+        assertNotSame( c1.getClass(), c2.getClass() );
+        assertEquals( c1.name(), c2.name() );
+    }
+
+    public void testInvalidValueUsesProxy() throws Exception
+    {
+        Map<String, Object> values = new HashMap<>();
+        values.put( "count", "not a number" );
+        Config c = Annotations.toObject( Config.class, values, mockBundle( 4 ), false );
+        assertTrue( Proxy.isProxyClass( c.getClass() ) );
+        try
+        {
+            c.count();
+            fail( "expected ComponentException" );
+        }
+        catch ( ComponentException e )
+        {
+            // expected
+        }
+    }
+
+    public void testNonPublicTypeUsesProxy() throws Exception
+    {
+        Map<String, Object> values = new HashMap<>();
+        values.put( "count", "3" );
+        Hidden h = Annotations.toObject( Hidden.class, values, mockBundle( 5 ), false );
+        assertTrue( Proxy.isProxyClass( h.getClass() ) );
+        assertEquals( 3, h.count() );
+    }
+}